@@ -0,0 +1,72 @@
+package com.martinispec.benchmarks;
+
+import com.martinispec.model.ProcessMessage;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Payload sintetici condivisi dai benchmark.
+ *
+ * Dimensioni (parametro payloadSize):
+ * - small:  poche variabili scalari, come avviaFiglio/figlioCompletato
+ * - medium: qualche decina di variabili con una lista di righe
+ * - large:  centinaia di variabili e testi lunghi (supera la soglia di compressione)
+ */
+public final class BenchmarkPayloads {
+
+    private BenchmarkPayloads() {
+    }
+
+    public static ProcessMessage message(String payloadSize, String correlationKey) {
+        return new ProcessMessage("avviaFiglio", correlationKey, variables(payloadSize));
+    }
+
+    public static Map<String, Object> variables(String payloadSize) {
+        switch (payloadSize) {
+            case "small":
+                return variables(4, 0, 16);
+            case "medium":
+                return variables(32, 10, 64);
+            case "large":
+                return variables(256, 100, 512);
+            default:
+                throw new IllegalArgumentException("payloadSize non valido: " + payloadSize);
+        }
+    }
+
+    private static Map<String, Object> variables(int count, int rows, int textLength) {
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("ordineId", "ORD-000123");
+        variables.put("quantita", 42);
+        variables.put("importo", new BigDecimal("1234.56"));
+        variables.put("dataOrdine", new Date(1700000000000L));
+        for (int i = variables.size(); i < count; i++) {
+            variables.put("campo" + i, i % 3 == 0 ? (Object) (long) i : text(textLength, i));
+        }
+        if (rows > 0) {
+            List<Object> righe = new ArrayList<>(rows);
+            for (int i = 0; i < rows; i++) {
+                Map<String, Object> riga = new HashMap<>();
+                riga.put("articolo", "ART-" + i);
+                riga.put("quantita", i + 1);
+                riga.put("prezzo", 9.99 * (i + 1));
+                righe.add(riga);
+            }
+            variables.put("righe", righe);
+        }
+        return variables;
+    }
+
+    private static String text(int length, int seed) {
+        StringBuilder sb = new StringBuilder(length);
+        while (sb.length() < length) {
+            sb.append("lotto-").append(seed).append(' ');
+        }
+        return sb.substring(0, length);
+    }
+}
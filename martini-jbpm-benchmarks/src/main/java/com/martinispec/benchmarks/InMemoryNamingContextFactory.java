@@ -0,0 +1,75 @@
+package com.martinispec.benchmarks;
+
+import javax.naming.CompositeName;
+import javax.naming.Context;
+import javax.naming.NameAlreadyBoundException;
+import javax.naming.NameNotFoundException;
+import javax.naming.NameParser;
+import javax.naming.OperationNotSupportedException;
+import javax.naming.spi.InitialContextFactory;
+import java.lang.reflect.Proxy;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * JNDI minimale in memoria, per eseguire fuori da WildFly il codice che fa lookup con new InitialContext().
+ *
+ * Attivazione: -Djava.naming.factory.initial=com.martinispec.benchmarks.InMemoryNamingContextFactory
+ * Supporta lookup, bind, rebind, unbind e getNameParser (nomi piatti, senza sottocontesti): quanto basta alla
+ * configurazione di datasource e transaction manager di jbpm-test e al lookup JNDI di Hibernate;
+ * gli altri metodi di Context non sono disponibili.
+ */
+public class InMemoryNamingContextFactory implements InitialContextFactory {
+
+    private static final Map<String, Object> BINDINGS = new ConcurrentHashMap<>();
+
+    public static void bind(String name, Object value) {
+        BINDINGS.put(name, value);
+    }
+
+    public static void clear() {
+        BINDINGS.clear();
+    }
+
+    @Override
+    public Context getInitialContext(Hashtable<?, ?> environment) {
+        return (Context) Proxy.newProxyInstance(Context.class.getClassLoader(), new Class<?>[] { Context.class },
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "lookup":
+                            String name = String.valueOf(args[0]);
+                            Object value = BINDINGS.get(name);
+                            if (value == null) {
+                                throw new NameNotFoundException(name);
+                            }
+                            return value;
+                        case "bind":
+                            if (BINDINGS.putIfAbsent(String.valueOf(args[0]), args[1]) != null) {
+                                throw new NameAlreadyBoundException(String.valueOf(args[0]));
+                            }
+                            return null;
+                        case "rebind":
+                            BINDINGS.put(String.valueOf(args[0]), args[1]);
+                            return null;
+                        case "unbind":
+                            BINDINGS.remove(String.valueOf(args[0]));
+                            return null;
+                        case "getNameParser":
+                            return (NameParser) CompositeName::new;
+                        case "close":
+                            return null;
+                        case "getEnvironment":
+                            return new Hashtable<>(environment != null ? environment : new Hashtable<>());
+                        case "toString":
+                            return "InMemoryNamingContext" + BINDINGS.keySet();
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            throw new OperationNotSupportedException(method.getName());
+                    }
+                });
+    }
+}
@@ -0,0 +1,132 @@
+package com.martinispec.benchmarks;
+
+import com.martinispec.handlers.JmsSendMessageHandler;
+import org.apache.activemq.artemis.api.core.QueueConfiguration;
+import org.apache.activemq.artemis.api.core.RoutingType;
+import org.apache.activemq.artemis.api.jms.ActiveMQJMSClient;
+import org.apache.activemq.artemis.core.config.impl.ConfigurationImpl;
+import org.apache.activemq.artemis.core.server.embedded.EmbeddedActiveMQ;
+import org.apache.activemq.artemis.jms.client.ActiveMQConnectionFactory;
+import org.kie.api.runtime.process.WorkItem;
+import org.kie.api.runtime.process.WorkItemManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.jms.JMSContext;
+import javax.jms.Queue;
+import javax.naming.Context;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Invio di un messaggio con JmsSendMessageHandler verso un broker Artemis in-VM.
+ *
+ * Le risorse JNDI usate dall'handler (java:/JmsXA e la coda) sono fornite da InMemoryNamingContextFactory.
+ * La ConnectionFactory è quella del client Artemis senza il pool del resource adapter di WildFly:
+ * ogni invio apre una connessione in-VM, quindi i tempi sono un limite superiore rispetto al server.
+ * I messaggi inviati vengono consumati e scartati da un listener per mantenere la coda vuota.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn")
+public class JmsSendMessageHandlerBenchmark {
+
+    private static final String QUEUE_NAME = "PROCESS.MESSAGES";
+
+    @Param({ "small", "medium", "large" })
+    public String payloadSize;
+
+    @Param({ "binary", "java" })
+    public String format;
+
+    private EmbeddedActiveMQ broker;
+    private ActiveMQConnectionFactory connectionFactory;
+    private JMSContext drain;
+
+    private JmsSendMessageHandler handler;
+    private WorkItem workItem;
+    private WorkItemManager manager;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        broker = new EmbeddedActiveMQ();
+        broker.setConfiguration(new ConfigurationImpl()
+                .setPersistenceEnabled(false)
+                .setSecurityEnabled(false)
+                .addAcceptorConfiguration("in-vm", "vm://0")
+                .addQueueConfiguration(new QueueConfiguration(QUEUE_NAME).setRoutingType(RoutingType.ANYCAST)));
+        broker.start();
+
+        connectionFactory = new ActiveMQConnectionFactory("vm://0");
+        Queue queue = ActiveMQJMSClient.createQueue(QUEUE_NAME);
+        System.setProperty(Context.INITIAL_CONTEXT_FACTORY, InMemoryNamingContextFactory.class.getName());
+        InMemoryNamingContextFactory.bind("java:/JmsXA", connectionFactory);
+        InMemoryNamingContextFactory.bind("jms/queue/PROCESS.MESSAGES", queue);
+        System.setProperty("martini.message.format", format);
+
+        drain = connectionFactory.createContext();
+        drain.createConsumer(queue).setMessageListener(message -> { });
+
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("messageName", "avviaFiglio");
+        parameters.put("variables", BenchmarkPayloads.variables(payloadSize));
+        workItem = proxy(WorkItem.class, parameters);
+        manager = proxy(WorkItemManager.class, parameters);
+        handler = new JmsSendMessageHandler();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        drain.close();
+        connectionFactory.close();
+        broker.stop();
+        InMemoryNamingContextFactory.clear();
+    }
+
+    @Benchmark
+    public void send() {
+        handler.executeWorkItem(workItem, manager);
+    }
+
+    /**
+     * WorkItem/WorkItemManager minimali: parametri dalla mappa, complete/abort senza effetti.
+     */
+    private static <T> T proxy(Class<T> type, Map<String, Object> parameters) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getParameter":
+                    return parameters.get((String) args[0]);
+                case "getParameters":
+                    return parameters;
+                case "getId":
+                    return 1L;
+                case "getName":
+                    return "JMS Send Message";
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return type.getSimpleName();
+                default:
+                    return null;
+            }
+        }));
+    }
+}
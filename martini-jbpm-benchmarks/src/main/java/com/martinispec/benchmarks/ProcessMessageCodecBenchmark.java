@@ -0,0 +1,96 @@
+package com.martinispec.benchmarks;
+
+import com.martinispec.model.ProcessMessage;
+import com.martinispec.model.codec.BinaryProcessMessageCodec;
+import com.martinispec.model.codec.ProcessMessageCodec;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializzazione/deserializzazione di ProcessMessage: formato binario compatto
+ * contro la serializzazione Java dell'ObjectMessage legacy.
+ *
+ * La dimensione del payload per formato è riportata da JMH come contatore secondario di encode
+ * (riga "encode:payloadBytes" del risultato).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProcessMessageCodecBenchmark {
+
+    @Param({ "small", "medium", "large" })
+    public String payloadSize;
+
+    @Param({ "binary", "java" })
+    public String format;
+
+    private final ProcessMessageCodec binary = new BinaryProcessMessageCodec();
+
+    private ProcessMessage message;
+    private byte[] encoded;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        message = BenchmarkPayloads.message(payloadSize, null);
+        encoded = serialize();
+    }
+
+    @Benchmark
+    public byte[] encode(PayloadSize size) throws IOException {
+        byte[] bytes = serialize();
+        size.payloadBytes = bytes.length;
+        return bytes;
+    }
+
+    @Benchmark
+    public ProcessMessage decode() throws IOException, ClassNotFoundException {
+        if ("binary".equals(format)) {
+            return binary.decode(encoded);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(encoded))) {
+            return (ProcessMessage) in.readObject();
+        }
+    }
+
+    private byte[] serialize() throws IOException {
+        if ("binary".equals(format)) {
+            return binary.encode(message);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(message);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Dimensione in byte del payload codificato (uguale a ogni invocazione).
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class PayloadSize {
+
+        public long payloadBytes;
+    }
+}
@@ -0,0 +1,81 @@
+package com.martinispec.kie;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Correlazione correlationKey → istanze su insiemi sintetici di istanze attive.
+ *
+ * Nel package com.martinispec.kie per usare CorrelationResolver.matches (package-private).
+ * - scan: scansione delle variabili di tutte le istanze (fallback del CorrelationResolver);
+ *   la chiave è in una variabile qualsiasi dell'ultima istanza, il caso peggiore
+ * - indexed: lookup su una mappa chiave → istanze, equivalente in memoria di MARTINI_CORRELATION_INDEX
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CorrelationMatchingBenchmark {
+
+    @Param({ "10", "100", "1000", "10000" })
+    public int instanceCount;
+
+    @Param({ "5", "20" })
+    public int variablesPerInstance;
+
+    private List<Map<String, Object>> instances;
+    private Map<String, List<Long>> index;
+    private String correlationKey;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        instances = new ArrayList<>(instanceCount);
+        index = new HashMap<>();
+        for (int i = 0; i < instanceCount; i++) {
+            Map<String, Object> variables = new HashMap<>();
+            variables.put("ordineId", "ORD-" + i);
+            variables.put("quantita", i);
+            for (int v = variables.size(); v < variablesPerInstance; v++) {
+                variables.put("campo" + v, "valore-" + i + "-" + v);
+            }
+            instances.add(variables);
+            index.computeIfAbsent("ORD-" + i, k -> new ArrayList<>()).add((long) i);
+        }
+        correlationKey = "ORD-" + (instanceCount - 1);
+    }
+
+    @Benchmark
+    public List<Long> scan() {
+        List<Long> matches = new ArrayList<>();
+        for (int i = 0; i < instances.size(); i++) {
+            if (CorrelationResolver.matches(instances.get(i), correlationKey)) {
+                matches.add((long) i);
+            }
+        }
+        return matches;
+    }
+
+    @Benchmark
+    public List<Long> indexed() {
+        return index.getOrDefault(correlationKey, Collections.emptyList());
+    }
+}
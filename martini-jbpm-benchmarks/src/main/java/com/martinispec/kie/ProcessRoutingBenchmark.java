@@ -0,0 +1,84 @@
+package com.martinispec.kie;
+
+import org.kie.server.api.model.definition.ProcessDefinition;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Routing messageName → processId della ProcessRoutingTable su container sintetici.
+ *
+ * Nel package com.martinispec.kie per accedere allo snapshot Routes (package-private).
+ * - resolveCached: percorso del listener a regime (risultato già in cache)
+ * - lookupBpmn: prima risoluzione di un messaggio dichiarato come start event
+ * - fuzzyMatch / fuzzyMiss: matching euristico legacy, il caso peggiore scorre tutti i processi
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProcessRoutingBenchmark {
+
+    @Param({ "10", "100", "1000" })
+    public int processCount;
+
+    private ProcessRoutingTable.Routes routes;
+    private String bpmnMessage;
+    private String fuzzyMessage;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Map<String, ProcessDefinition> processes = new LinkedHashMap<>();
+        Map<String, String> byBpmn = new HashMap<>();
+        for (int i = 0; i < processCount; i++) {
+            String processId = "com.martinispec.processo" + i;
+            processes.put(processId, ProcessDefinition.builder().id(processId).name("ProcessoAvicolo" + i).build());
+            byBpmn.put("avvia" + i, processId);
+        }
+        bpmnMessage = "avvia" + (processCount - 1);
+        // Corrisponde solo all'ultimo processo tramite keyword
+        fuzzyMessage = "richiestaAvicolo" + (processCount - 1);
+
+        routes = new ProcessRoutingTable.Routes("com.martinispec:bench:1.0.0", Collections.emptyMap(),
+                                                Collections.emptyMap(), byBpmn, processes, true);
+        routes.resolve(bpmnMessage);
+    }
+
+    @Benchmark
+    public String resolveCached() {
+        return routes.resolve(bpmnMessage);
+    }
+
+    @Benchmark
+    public Optional<String> lookupBpmn() {
+        return routes.lookup(bpmnMessage);
+    }
+
+    @Benchmark
+    public String fuzzyMatch() {
+        return routes.fuzzyMatch(fuzzyMessage);
+    }
+
+    @Benchmark
+    public String fuzzyMiss() {
+        return routes.fuzzyMatch("messaggioSconosciuto");
+    }
+}
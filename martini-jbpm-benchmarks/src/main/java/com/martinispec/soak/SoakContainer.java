@@ -0,0 +1,604 @@
+package com.martinispec.soak;
+
+import net.bytebuddy.ByteBuddy;
+import net.bytebuddy.dynamic.loading.ClassLoadingStrategy;
+import net.bytebuddy.implementation.InvocationHandlerAdapter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.ActivationConfigProperty;
+import javax.ejb.EJB;
+import javax.ejb.EJBContext;
+import javax.ejb.EJBException;
+import javax.ejb.MessageDriven;
+import javax.ejb.MessageDrivenContext;
+import javax.ejb.SessionContext;
+import javax.ejb.Timeout;
+import javax.ejb.Timer;
+import javax.ejb.TimerConfig;
+import javax.ejb.TimerService;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.enterprise.concurrent.ManagedThreadFactory;
+import javax.jms.ConnectionFactory;
+import javax.jms.Destination;
+import javax.jms.JMSConsumer;
+import javax.jms.JMSContext;
+import javax.jms.JMSRuntimeException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import javax.naming.InitialContext;
+import javax.transaction.Status;
+import javax.transaction.SystemException;
+import javax.transaction.Transaction;
+import javax.transaction.TransactionManager;
+import javax.transaction.TransactionSynchronizationRegistry;
+import java.io.Serializable;
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandles;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static net.bytebuddy.matcher.ElementMatchers.isDeclaredBy;
+import static net.bytebuddy.matcher.ElementMatchers.isPublic;
+import static net.bytebuddy.matcher.ElementMatchers.not;
+
+/**
+ * Container EJB minimale per eseguire nel soak test le classi reali di martini-jbpm-service.
+ *
+ * Copre solo quanto usano i bean del servizio:
+ * - singleton con vista no-interface (@LocalBean): sottoclasse generata che applica @TransactionAttribute
+ *   (REQUIRED di default) sul transaction manager di jbpm-test; un'eccezione di sistema annulla la transazione
+ *   avviata dalla chiamata o marca per il rollback quella del chiamante, come in WildFly. Le chiamate interne
+ *   al bean non passano dalla vista; getBusinessObject la restituisce
+ * - iniezione di @EJB (viste dei singleton, creati al primo riferimento) e di @Resource per tipo: TimerService
+ *   (timer non persistenti che invocano il metodo @Timeout con il suo attributo transazionale), SessionContext
+ *   e MessageDrivenContext, ManagedThreadFactory, ManagedExecutorService, TransactionSynchronizationRegistry
+ * - @PostConstruct in una transazione propria (o fuori transazione con NOT_SUPPORTED), @PreDestroy alla chiusura
+ * - MDB: una sessione SESSION_TRANSACTED per istanza sulla destinazione di destinationLookup; ogni messaggio
+ *   in una transazione JTA, con commit della sessione solo dopo il commit della transazione (rollback e
+ *   redelivery del broker altrimenti). La consegna parte disattivata (d:active false in jboss-ejb3.xml) e si
+ *   avvia con l'operazione startDelivery dell'MBean jboss.as:deployment=...,subsystem=ejb3,message-driven-bean=...
+ *   che ListenerWarmUp invoca a warm-up completato
+ *
+ * Concorrenza sempre BEAN (come tutti i singleton del servizio), nessun timer persistente, nessuna sicurezza.
+ * Un container embedded completo (OpenEJB) porterebbe un proprio transaction manager e un proprio broker,
+ * in conflitto con Narayana di jbpm-test e con il resource adapter Artemis; qui restano solo i pezzi di API
+ * che il servizio chiama, il resto dei contesti EJB e di TimerService risponde UnsupportedOperationException.
+ */
+final class SoakContainer implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(SoakContainer.class);
+
+    private static final String DEPLOYMENT = "martini-jbpm-service.jar";
+    private static final long POLL_TIMEOUT = 1000L;
+
+    private final TransactionManager transactionManager;
+    private final TransactionSynchronizationRegistry synchronizationRegistry;
+    private final ConnectionFactory connectionFactory;
+
+    private final ScheduledExecutorService timers = Executors.newScheduledThreadPool(4, threads("soak-timer"));
+    private final ExecutorService executor = Executors.newCachedThreadPool(threads("soak-executor"));
+    // Le interfacce managed non aggiungono metodi a ThreadFactory ed ExecutorService: delega completa
+    private final ManagedThreadFactory threadFactory = delegate(ManagedThreadFactory.class, threads("soak-managed"));
+    private final ManagedExecutorService managedExecutor = delegate(ManagedExecutorService.class, executor);
+
+    private final Map<Class<?>, SingletonBean> singletons = new LinkedHashMap<>();
+    private final List<SingletonBean> constructed = new ArrayList<>();
+    private final List<MessageDrivenBean> messageDrivenBeans = new ArrayList<>();
+
+    /**
+     * @param connectionFactory Connection factory del resource adapter, usata per le sessioni degli MDB
+     */
+    SoakContainer(TransactionManager transactionManager, TransactionSynchronizationRegistry synchronizationRegistry,
+                  ConnectionFactory connectionFactory) {
+        this.transactionManager = transactionManager;
+        this.synchronizationRegistry = synchronizationRegistry;
+        this.connectionFactory = connectionFactory;
+    }
+
+    /**
+     * Crea i singleton nell'ordine indicato (come @Startup, rispettando a mano i @DependsOn).
+     */
+    void start(Class<?>... beans) {
+        for (Class<?> bean : beans) {
+            singleton(bean);
+        }
+    }
+
+    /**
+     * Deploya un MDB con la consegna disattivata.
+     *
+     * @param sessions Sessioni concorrenti (maxSession)
+     */
+    void deploy(Class<? extends MessageListener> type, int sessions) throws Exception {
+        MessageDriven annotation = type.getAnnotation(MessageDriven.class);
+        String name = annotation != null && !annotation.name().isEmpty() ? annotation.name() : type.getSimpleName();
+        String destinationLookup = null;
+        if (annotation != null) {
+            for (ActivationConfigProperty property : annotation.activationConfig()) {
+                if ("destinationLookup".equals(property.propertyName())) {
+                    destinationLookup = property.propertyValue();
+                }
+            }
+        }
+        if (destinationLookup == null) {
+            throw new IllegalArgumentException("MDB " + name + " senza destinationLookup");
+        }
+        MessageDrivenBean bean = new MessageDrivenBean(name, type, (Destination) new InitialContext().lookup(destinationLookup), sessions);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(bean, Delivery.class), bean.objectName);
+        messageDrivenBeans.add(bean);
+        logger.info("SoakContainer: MDB {} deployato su {} ({} sessioni, consegna disattivata)", name, destinationLookup, sessions);
+    }
+
+    /**
+     * @return Vista no-interface del singleton (creato al primo utilizzo)
+     */
+    <T> T lookup(Class<T> type) {
+        return type.cast(singleton(type).view);
+    }
+
+    @Override
+    public void close() {
+        for (MessageDrivenBean bean : messageDrivenBeans) {
+            bean.stopDelivery();
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(bean.objectName);
+            } catch (Exception e) {
+                logger.debug("SoakContainer: Deregistrazione MBean di {} fallita: {}", bean.name, e.getMessage());
+            }
+        }
+        timers.shutdownNow();
+        List<SingletonBean> reverse = new ArrayList<>(constructed);
+        Collections.reverse(reverse);
+        for (SingletonBean bean : reverse) {
+            Method preDestroy = annotated(bean.target.getClass(), PreDestroy.class);
+            if (preDestroy != null) {
+                try {
+                    call(lifecycleAttribute(preDestroy), bean.target, preDestroy);
+                } catch (Throwable e) {
+                    logger.warn("SoakContainer: @PreDestroy di {} fallito: {}", bean.target.getClass().getSimpleName(), e.getMessage());
+                }
+            }
+        }
+        executor.shutdownNow();
+    }
+
+    private synchronized SingletonBean singleton(Class<?> type) {
+        SingletonBean bean = singletons.get(type);
+        if (bean == null) {
+            try {
+                bean = new SingletonBean(type);
+                // Registrato prima dell'iniezione: un riferimento circolare riceve la vista
+                singletons.put(type, bean);
+                inject(bean.target, bean.context);
+                Method postConstruct = annotated(type, PostConstruct.class);
+                if (postConstruct != null) {
+                    call(lifecycleAttribute(postConstruct), bean.target, postConstruct);
+                }
+                constructed.add(bean);
+            } catch (Throwable e) {
+                singletons.remove(type);
+                throw new IllegalStateException("Creazione del singleton " + type.getSimpleName() + " fallita: " + e.getMessage(), e);
+            }
+        }
+        return bean;
+    }
+
+    private void inject(Object target, EJBContext context) throws IllegalAccessException {
+        for (Class<?> c = target.getClass(); c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                Object value;
+                if (field.isAnnotationPresent(EJB.class)) {
+                    value = singleton(field.getType()).view;
+                } else if (field.isAnnotationPresent(Resource.class)) {
+                    value = resource(field.getType(), context);
+                } else {
+                    continue;
+                }
+                field.setAccessible(true);
+                field.set(target, value);
+            }
+        }
+    }
+
+    private Object resource(Class<?> type, EJBContext context) {
+        if (type.isInstance(context)) {
+            return context;
+        }
+        if (type == TimerService.class) {
+            return context.getTimerService();
+        }
+        if (type == ManagedThreadFactory.class) {
+            return threadFactory;
+        }
+        if (type == ManagedExecutorService.class) {
+            return managedExecutor;
+        }
+        if (type == TransactionSynchronizationRegistry.class) {
+            return synchronizationRegistry;
+        }
+        throw new IllegalStateException("@Resource di tipo " + type.getName() + " non supportata");
+    }
+
+    /**
+     * Invoca un metodo del bean con la semantica dell'attributo transazionale.
+     */
+    private Object call(TransactionAttributeType attribute, Object target, Method method, Object... args) throws Throwable {
+        Transaction caller = transactionManager.getTransaction();
+        Transaction suspended = null;
+        boolean owner = false;
+        switch (attribute) {
+            case SUPPORTS:
+                break;
+            case NOT_SUPPORTED:
+                suspended = caller != null ? transactionManager.suspend() : null;
+                break;
+            case REQUIRES_NEW:
+                suspended = caller != null ? transactionManager.suspend() : null;
+                transactionManager.begin();
+                owner = true;
+                break;
+            case REQUIRED:
+                if (caller == null) {
+                    transactionManager.begin();
+                    owner = true;
+                }
+                break;
+            default:
+                // MANDATORY e NEVER non sono usati dal servizio
+                throw new IllegalStateException("Attributo " + attribute + " non supportato (" + method.getName() + ")");
+        }
+        try {
+            Object result;
+            try {
+                method.setAccessible(true);
+                result = method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                // Eccezione di sistema: annulla la propria transazione o marca quella del chiamante
+                if (cause instanceof RuntimeException || cause instanceof Error) {
+                    if (owner) {
+                        owner = false;
+                        transactionManager.rollback();
+                    } else if (transactionManager.getTransaction() != null) {
+                        transactionManager.setRollbackOnly();
+                    }
+                    throw cause instanceof EJBException || cause instanceof Error ? cause : new EJBException((Exception) cause);
+                }
+                throw cause;
+            }
+            if (owner) {
+                owner = false;
+                complete();
+            }
+            return result;
+        } finally {
+            if (owner) {
+                transactionManager.rollback();
+            }
+            if (suspended != null) {
+                transactionManager.resume(suspended);
+            }
+        }
+    }
+
+    /**
+     * Commit della transazione corrente, rollback se marcata.
+     */
+    private void complete() throws Exception {
+        if (transactionManager.getStatus() == Status.STATUS_MARKED_ROLLBACK) {
+            transactionManager.rollback();
+        } else {
+            transactionManager.commit();
+        }
+    }
+
+    private static TransactionAttributeType attribute(Method method) {
+        TransactionAttribute attribute = method.getAnnotation(TransactionAttribute.class);
+        if (attribute == null) {
+            attribute = method.getDeclaringClass().getAnnotation(TransactionAttribute.class);
+        }
+        return attribute != null ? attribute.value() : TransactionAttributeType.REQUIRED;
+    }
+
+    /**
+     * Callback di ciclo di vita dei singleton: REQUIRED equivale a REQUIRES_NEW (nessun chiamante).
+     */
+    private static TransactionAttributeType lifecycleAttribute(Method method) {
+        return attribute(method) == TransactionAttributeType.NOT_SUPPORTED
+               ? TransactionAttributeType.NOT_SUPPORTED
+               : TransactionAttributeType.REQUIRES_NEW;
+    }
+
+    private static Method annotated(Class<?> type, Class<? extends Annotation> annotation) {
+        for (Class<?> c = type; c != Object.class; c = c.getSuperclass()) {
+            for (Method method : c.getDeclaredMethods()) {
+                if (method.isAnnotationPresent(annotation)) {
+                    return method;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static <T> T delegate(Class<T> type, Object target) {
+        return proxy(type, (proxy, method, args) -> {
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        });
+    }
+
+    private static Object unsupported(Method method) {
+        throw new UnsupportedOperationException(method.getName() + " non supportato da SoakContainer");
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "toString":
+                    return type.getSimpleName() + "@soak";
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    return handler.invoke(proxy, method, args);
+            }
+        }));
+    }
+
+    private static ThreadFactory threads(String prefix) {
+        AtomicInteger sequence = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, prefix + "-" + sequence.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Contesto EJB (SessionContext o MessageDrivenContext) di un bean: rollback-only e timer sulla transazione
+     * e sul bean correnti, getBusinessObject per i singleton.
+     */
+    private <T extends EJBContext> T context(Class<T> type, Object target, SingletonBean bean) {
+        TimerService timerService = timerService(target);
+        return proxy(type, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "setRollbackOnly":
+                    transactionManager.setRollbackOnly();
+                    return null;
+                case "getRollbackOnly":
+                    return transactionManager.getStatus() == Status.STATUS_MARKED_ROLLBACK;
+                case "getTimerService":
+                    return timerService;
+                case "getBusinessObject":
+                    if (bean == null) {
+                        throw new IllegalStateException("getBusinessObject non disponibile per un MDB");
+                    }
+                    return bean.view;
+                default:
+                    return unsupported(method);
+            }
+        });
+    }
+
+    /**
+     * Timer non persistenti del bean: ogni scadenza invoca il metodo @Timeout con il suo attributo transazionale.
+     */
+    private TimerService timerService(Object target) {
+        Method timeout = annotated(target.getClass(), Timeout.class);
+        return proxy(TimerService.class, (proxy, method, args) -> {
+            if (timeout == null) {
+                throw new IllegalStateException(target.getClass().getSimpleName() + " senza metodo @Timeout");
+            }
+            switch (method.getName()) {
+                case "createSingleActionTimer":
+                    if (args[0] instanceof Long) {
+                        return schedule(target, timeout, (Long) args[0], 0L, (TimerConfig) args[1]);
+                    }
+                    return unsupported(method);
+                case "createIntervalTimer":
+                    if (args[0] instanceof Long) {
+                        return schedule(target, timeout, (Long) args[0], (Long) args[1], (TimerConfig) args[2]);
+                    }
+                    return unsupported(method);
+                default:
+                    return unsupported(method);
+            }
+        });
+    }
+
+    private Timer schedule(Object target, Method timeout, long delay, long interval, TimerConfig config) {
+        Serializable info = config != null ? config.getInfo() : null;
+        Future<?>[] future = new Future<?>[1];
+        Timer timer = proxy(Timer.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getInfo":
+                    return info;
+                case "cancel":
+                    if (future[0] != null) {
+                        future[0].cancel(false);
+                    }
+                    return null;
+                default:
+                    return unsupported(method);
+            }
+        });
+        Runnable expire = () -> {
+            try {
+                call(attribute(timeout), target, timeout, timeout.getParameterCount() == 1 ? new Object[] { timer } : new Object[0]);
+            } catch (Throwable e) {
+                logger.warn("SoakContainer: Timeout di {} fallito: {}", target.getClass().getSimpleName(), e.getMessage(), e);
+            }
+        };
+        future[0] = interval > 0
+                    ? timers.scheduleWithFixedDelay(expire, delay, interval, TimeUnit.MILLISECONDS)
+                    : timers.schedule(expire, delay, TimeUnit.MILLISECONDS);
+        return timer;
+    }
+
+    /**
+     * Singleton: istanza del bean e vista no-interface generata (sottoclasse che delega all'istanza).
+     */
+    private final class SingletonBean {
+
+        private final Object target;
+        private final Object view;
+        private final EJBContext context;
+
+        SingletonBean(Class<?> type) throws Exception {
+            this.target = type.getDeclaredConstructor().newInstance();
+            this.view = new ByteBuddy()
+                    .subclass(type)
+                    .name(type.getName() + "$$SoakView")
+                    .method(isPublic().and(not(isDeclaredBy(Object.class))))
+                    .intercept(InvocationHandlerAdapter.of((proxy, method, args) -> call(attribute(method), target, method, args)))
+                    .make()
+                    .load(type.getClassLoader(), ClassLoadingStrategy.UsingLookup.of(MethodHandles.privateLookupIn(type, MethodHandles.lookup())))
+                    .getLoaded()
+                    .getDeclaredConstructor()
+                    .newInstance();
+            this.context = SoakContainer.this.context(SessionContext.class, target, this);
+        }
+    }
+
+    /**
+     * Operazioni dell'MBean ejb3 di un MDB invocate da ListenerWarmUp.
+     */
+    public interface Delivery {
+
+        void startDelivery() throws Exception;
+
+        void stopDelivery();
+    }
+
+    /**
+     * MDB con consegna attivabile via JMX (startDelivery, stopDelivery).
+     */
+    private final class MessageDrivenBean implements Delivery {
+
+        private final String name;
+        private final Class<? extends MessageListener> type;
+        private final Destination destination;
+        private final int sessions;
+        private final ObjectName objectName;
+        private final List<Thread> workers = new ArrayList<>();
+
+        private volatile boolean active;
+
+        MessageDrivenBean(String name, Class<? extends MessageListener> type, Destination destination, int sessions) throws Exception {
+            this.name = name;
+            this.type = type;
+            this.destination = destination;
+            this.sessions = sessions;
+            this.objectName = new ObjectName("jboss.as:deployment=" + DEPLOYMENT + ",subsystem=ejb3,message-driven-bean=" + name);
+        }
+
+        @Override
+        public synchronized void startDelivery() throws Exception {
+            if (active) {
+                return;
+            }
+            active = true;
+            for (int i = 0; i < sessions; i++) {
+                MessageListener listener = type.getDeclaredConstructor().newInstance();
+                inject(listener, context(MessageDrivenContext.class, listener, null));
+                Thread worker = threads("soak-mdb-" + name).newThread(() -> consume(listener));
+                worker.start();
+                workers.add(worker);
+            }
+            logger.info("SoakContainer: Consegna a {} avviata", name);
+        }
+
+        @Override
+        public synchronized void stopDelivery() {
+            active = false;
+            for (Thread worker : workers) {
+                try {
+                    worker.join(POLL_TIMEOUT * 2);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            workers.clear();
+        }
+
+        private void consume(MessageListener listener) {
+            while (active) {
+                try (JMSContext context = connectionFactory.createContext(JMSContext.SESSION_TRANSACTED)) {
+                    JMSConsumer consumer = context.createConsumer(destination);
+                    while (active) {
+                        Message message = consumer.receive(POLL_TIMEOUT);
+                        if (message != null) {
+                            deliver(context, listener, message);
+                        }
+                    }
+                } catch (JMSRuntimeException e) {
+                    logger.warn("SoakContainer: Sessione di {} chiusa per errore, riapro: {}", name, e.getMessage());
+                }
+            }
+        }
+
+        /**
+         * onMessage nella transazione JTA del messaggio (REQUIRED); commit della sessione JMS solo dopo il commit.
+         */
+        private void deliver(JMSContext context, MessageListener listener, Message message) {
+            boolean committed = false;
+            try {
+                transactionManager.begin();
+                try {
+                    listener.onMessage(message);
+                } catch (RuntimeException e) {
+                    logger.debug("SoakContainer: onMessage di {} fallito, rollback: {}", name, e.getMessage());
+                    transactionManager.setRollbackOnly();
+                }
+                if (transactionManager.getStatus() == Status.STATUS_ACTIVE) {
+                    transactionManager.commit();
+                    committed = true;
+                } else {
+                    transactionManager.rollback();
+                }
+            } catch (Exception e) {
+                logger.warn("SoakContainer: Transazione del messaggio di {} fallita: {}", name, e.getMessage());
+                try {
+                    if (transactionManager.getTransaction() != null) {
+                        transactionManager.rollback();
+                    }
+                } catch (SystemException ignored) {
+                    // Transazione già conclusa
+                }
+            }
+            if (committed) {
+                context.commit();
+            } else {
+                context.rollback();
+            }
+        }
+    }
+}
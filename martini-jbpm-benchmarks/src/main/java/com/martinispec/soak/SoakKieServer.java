@@ -0,0 +1,193 @@
+package com.martinispec.soak;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.kie.api.definition.process.Process;
+import org.kie.internal.runtime.manager.SessionNotFoundException;
+import org.kie.server.api.marshalling.Marshaller;
+import org.kie.server.api.marshalling.MarshallerFactory;
+import org.kie.server.api.marshalling.MarshallingFormat;
+import org.kie.server.api.model.KieContainerResource;
+import org.kie.server.api.model.KieContainerResourceList;
+import org.kie.server.api.model.KieContainerStatus;
+import org.kie.server.api.model.KieServerInfo;
+import org.kie.server.api.model.KieServiceResponse;
+import org.kie.server.api.model.ReleaseId;
+import org.kie.server.api.model.ServiceResponse;
+import org.kie.server.api.model.definition.ProcessDefinition;
+import org.kie.server.api.model.definition.ProcessDefinitionList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Endpoint REST di KIE Server per il soak test, sul runtime jBPM in-process (SoakRuntime).
+ *
+ * Espone solo le risorse usate dal servizio con il client KIE (marshalling JSON, come KieClientProvider):
+ * - GET  {base}                                          info del server (warm-up e health check)
+ * - GET  {base}/containers                               container del KJAR (ContainerResolver)
+ * - GET  {base}/containers/{id}                          release del container (ProcessRoutingTable)
+ * - GET  {base}/queries/containers/{id}/processes/definitions   processi del container (ProcessRoutingTable)
+ * - POST {base}/containers/{id}/processes/{processId}/instances                  avvio (RestProcessDispatcher)
+ * - POST {base}/containers/{id}/processes/instances/{piid}/signal/{signalName}   signal (RestProcessDispatcher)
+ * - GET  {base}/containers/{id}/processes/instances/{piid}/signals               signal attesi (SignalFanOut)
+ *
+ * Avvio e signal servono il confronto con il dispatch embedded (-Dmartini.dispatch.mode=rest): ogni comando
+ * paga HTTP e marshalling JSON e gira in una transazione propria del motore, non in quella del listener.
+ * Processo o istanza inesistenti rispondono 404, come KIE Server.
+ *
+ * Il container ha la release del KJAR (com.martinispec:martiniavicolo:1.0.0-SNAPSHOT): se il KJAR è installato
+ * nel repository Maven locale la tabella di routing legge anche gli start event dei BPMN.
+ * All'avvio imposta kie.server.url sull'indirizzo locale (porta libera).
+ */
+final class SoakKieServer implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(SoakKieServer.class);
+
+    private static final String BASE_PATH = "/kie-server/services/rest/server";
+    private static final ReleaseId RELEASE_ID = new ReleaseId("com.martinispec", "martiniavicolo", "1.0.0-SNAPSHOT");
+
+    private final SoakRuntime runtime;
+    private final String containerId;
+    private final Marshaller marshaller = MarshallerFactory.getMarshaller(MarshallingFormat.JSON, getClass().getClassLoader());
+    private final ExecutorService workers;
+    private HttpServer server;
+
+    /**
+     * @param threads Thread che servono le richieste
+     */
+    SoakKieServer(SoakRuntime runtime, String containerId, int threads) {
+        this.runtime = runtime;
+        this.containerId = containerId;
+        this.workers = Executors.newFixedThreadPool(threads);
+    }
+
+    void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext(BASE_PATH, this::handle);
+        server.setExecutor(workers);
+        server.start();
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + BASE_PATH;
+        System.setProperty("kie.server.url", url);
+        logger.info("SoakKieServer: In ascolto su {}", url);
+    }
+
+    @Override
+    public void close() {
+        if (server != null) {
+            server.stop(0);
+        }
+        workers.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String[] path = exchange.getRequestURI().getPath().substring(BASE_PATH.length()).replaceAll("^/|/$", "").split("/");
+            route(exchange, exchange.getRequestMethod(), path);
+        } catch (RuntimeException e) {
+            logger.warn("SoakKieServer: {} {} fallita: {}", exchange.getRequestMethod(), exchange.getRequestURI(), e.getMessage(), e);
+            respond(exchange, 500, new ServiceResponse<>(KieServiceResponse.ResponseType.FAILURE, e.getMessage()));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void route(HttpExchange exchange, String method, String[] path) throws IOException {
+        if ("GET".equals(method) && path.length == 1 && path[0].isEmpty()) {
+            KieServerInfo info = new KieServerInfo("soak", "7.74.1.Final");
+            info.setCapabilities(Collections.singletonList("BPM"));
+            respond(exchange, 200, new ServiceResponse<>(KieServiceResponse.ResponseType.SUCCESS, "Kie Server info", info));
+        } else if ("GET".equals(method) && path.length == 1 && "containers".equals(path[0])) {
+            respond(exchange, 200, new ServiceResponse<>(KieServiceResponse.ResponseType.SUCCESS, "Lista container",
+                                                         new KieContainerResourceList(Collections.singletonList(container()))));
+        } else if ("GET".equals(method) && path.length == 2 && "containers".equals(path[0])) {
+            if (containerId.equals(path[1])) {
+                respond(exchange, 200, new ServiceResponse<>(KieServiceResponse.ResponseType.SUCCESS, "Info container", container()));
+            } else {
+                notFound(exchange, "Container " + path[1] + " non deployato");
+            }
+        } else if ("GET".equals(method) && path.length == 5 && "queries".equals(path[0]) && "definitions".equals(path[4])) {
+            if (containerId.equals(path[2])) {
+                respond(exchange, 200, definitions());
+            } else {
+                notFound(exchange, "Container " + path[2] + " non deployato");
+            }
+        } else if ("POST".equals(method) && path.length == 5 && "containers".equals(path[0])
+                   && "processes".equals(path[2]) && "instances".equals(path[4])) {
+            if (!containerId.equals(path[1]) || !deployed(path[3])) {
+                notFound(exchange, "Processo " + path[3] + " non trovato nel container " + path[1]);
+                return;
+            }
+            Map<String, Object> variables = read(exchange, Map.class);
+            respond(exchange, 201, runtime.startProcess(path[1], path[3], variables));
+        } else if ("POST".equals(method) && path.length == 7 && "containers".equals(path[0])
+                   && "instances".equals(path[3]) && "signal".equals(path[5])) {
+            Object event = read(exchange, Object.class);
+            try {
+                runtime.signalProcessInstance(path[1], Long.valueOf(path[4]), path[6], event);
+            } catch (SessionNotFoundException e) {
+                notFound(exchange, "Istanza " + path[4] + " non trovata");
+                return;
+            }
+            exchange.sendResponseHeaders(200, -1);
+        } else if ("GET".equals(method) && path.length == 6 && "containers".equals(path[0])
+                   && "instances".equals(path[3]) && "signals".equals(path[5])) {
+            respond(exchange, 200, runtime.availableSignals(path[1], Long.valueOf(path[4])));
+        } else {
+            notFound(exchange, "Risorsa non disponibile nel soak test: " + method + " " + exchange.getRequestURI());
+        }
+    }
+
+    private boolean deployed(String processId) {
+        return runtime.processes().stream().anyMatch(process -> process.getId().equals(processId));
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T read(HttpExchange exchange, Class<?> type) throws IOException {
+        String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        return body.isBlank() ? null : (T) marshaller.unmarshall(body, type);
+    }
+
+    private KieContainerResource container() {
+        return new KieContainerResource(containerId, RELEASE_ID, KieContainerStatus.STARTED);
+    }
+
+    private ProcessDefinitionList definitions() {
+        List<Process> processes = runtime.processes();
+        ProcessDefinition[] definitions = new ProcessDefinition[processes.size()];
+        for (int i = 0; i < definitions.length; i++) {
+            Process process = processes.get(i);
+            ProcessDefinition definition = new ProcessDefinition();
+            definition.setId(process.getId());
+            definition.setName(process.getName());
+            definition.setVersion(process.getVersion());
+            definition.setPackageName(process.getPackageName());
+            definition.setContainerId(containerId);
+            definitions[i] = definition;
+        }
+        return new ProcessDefinitionList(definitions);
+    }
+
+    private void notFound(HttpExchange exchange, String message) throws IOException {
+        respond(exchange, 404, new ServiceResponse<>(KieServiceResponse.ResponseType.FAILURE, message));
+    }
+
+    private void respond(HttpExchange exchange, int status, Object body) throws IOException {
+        byte[] bytes = marshaller.marshall(body).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
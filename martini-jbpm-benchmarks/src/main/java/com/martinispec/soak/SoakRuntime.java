@@ -0,0 +1,156 @@
+package com.martinispec.soak;
+
+import com.arjuna.ats.arjuna.recovery.RecoveryManager;
+import com.martinispec.handlers.JmsSendMessageHandler;
+import com.martinispec.listeners.CorrelationIndexEventListener;
+import com.martinispec.listeners.PendingMessageEventListener;
+import com.martinispec.model.store.JdbcStore;
+import org.apache.tomcat.dbcp.dbcp2.BasicDataSource;
+import org.jbpm.services.api.ProcessService;
+import org.jbpm.test.JbpmJUnitBaseTestCase;
+import org.kie.api.definition.process.Process;
+import org.kie.api.event.process.ProcessEventListener;
+import org.kie.api.io.ResourceType;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.manager.RuntimeEngine;
+import org.kie.api.runtime.manager.RuntimeManager;
+import org.kie.api.runtime.process.ProcessInstance;
+import org.kie.internal.runtime.manager.InternalRuntimeManager;
+import org.kie.internal.runtime.manager.SessionNotFoundException;
+import org.kie.internal.runtime.manager.context.ProcessInstanceIdContext;
+
+import javax.naming.InitialContext;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runtime jBPM in-process per il soak test: processi del KJAR, persistenza JPA su H2 e JTA Narayana
+ * (infrastruttura di jbpm-test), strategia PER_PROCESS_INSTANCE come in kie-deployment-descriptor.xml.
+ *
+ * Registra gli stessi handler e listener del deployment descriptor (JmsSendMessageHandler,
+ * CorrelationIndexEventListener, PendingMessageEventListener) più il listener delle statistiche.
+ * Avvio, signal e signal disponibili sono esposti come ProcessService di jBPM (dispatch embedded del servizio)
+ * e a SoakKieServer (dispatch REST); partecipano alla transazione JTA del chiamante, se presente.
+ */
+final class SoakRuntime extends JbpmJUnitBaseTestCase {
+
+    private static final String DATASOURCE_JNDI = "jdbc/jbpm-ds";
+
+    private final String identifier;
+    private final int maxPoolSize;
+    private RuntimeManager manager;
+
+    /**
+     * @param maxPoolSize Connessioni massime del datasource: ogni starter, sessione MDB e thread di SoakKieServer
+     *                    tiene la propria connessione per tutta la transazione JTA
+     */
+    SoakRuntime(String identifier, int maxPoolSize) {
+        super(true, true, "org.jbpm.persistence.jpa");
+        this.identifier = identifier;
+        this.maxPoolSize = maxPoolSize;
+    }
+
+    /**
+     * Avvia datasource H2, transaction manager e RuntimeManager.
+     * Il datasource di jBPM è pubblicato anche come datasource degli store martini (stessa transazione JTA);
+     * le tabelle MARTINI_* le crea SchemaInitializer del servizio.
+     */
+    void start(ProcessEventListener statistics) throws Exception {
+        setUp();
+        InitialContext context = new InitialContext();
+        BasicDataSource dataSource = (BasicDataSource) context.lookup(DATASOURCE_JNDI);
+        // jbpm-test configura solo la dimensione iniziale del pool (massimo di default: 8 connessioni)
+        dataSource.setMaxTotal(maxPoolSize);
+        context.rebind(JdbcStore.DATASOURCE_JNDI, dataSource);
+        addWorkItemHandler("JMS Send Message", new JmsSendMessageHandler());
+        addProcessEventListener(new CorrelationIndexEventListener(identifier));
+        addProcessEventListener(new PendingMessageEventListener(identifier));
+        addProcessEventListener(statistics);
+
+        Map<String, ResourceType> resources = new LinkedHashMap<>();
+        resources.put("com/martinispec/processes/processopadre.bpmn", ResourceType.BPMN2);
+        resources.put("com/martinispec/processes/procfiglio.bpmn", ResourceType.BPMN2);
+        manager = createRuntimeManager(Strategy.PROCESS_INSTANCE, resources, identifier);
+    }
+
+    void stop() throws Exception {
+        tearDown();
+        // Il recovery manager avviato con il datasource XA ha un thread non daemon che terrebbe viva la JVM
+        RecoveryManager.manager().terminate();
+    }
+
+    /**
+     * ProcessService limitato ai metodi usati da EmbeddedProcessDispatcher; il deploymentId è ignorato
+     * (un solo container).
+     */
+    @SuppressWarnings("unchecked")
+    ProcessService processService() {
+        return (ProcessService) Proxy.newProxyInstance(ProcessService.class.getClassLoader(), new Class<?>[] { ProcessService.class },
+                (proxy, method, args) -> {
+                    Class<?>[] types = method.getParameterTypes();
+                    if ("startProcess".equals(method.getName()) && types.length == 3 && types[2] == Map.class) {
+                        return startProcess((String) args[0], (String) args[1], (Map<String, Object>) args[2]);
+                    }
+                    if ("signalProcessInstance".equals(method.getName()) && types.length == 4 && types[1] == Long.class) {
+                        signalProcessInstance((String) args[0], (Long) args[1], (String) args[2], args[3]);
+                        return null;
+                    }
+                    if ("getAvailableSignals".equals(method.getName()) && types.length == 2) {
+                        return availableSignals((String) args[0], (Long) args[1]);
+                    }
+                    if ("toString".equals(method.getName())) {
+                        return "SoakProcessService[" + identifier + "]";
+                    }
+                    throw new UnsupportedOperationException(method.getName() + " non disponibile nel soak test");
+                });
+    }
+
+    /**
+     * Definizioni dei processi del KJAR caricate nel runtime.
+     */
+    List<Process> processes() {
+        return new ArrayList<>(((InternalRuntimeManager) manager).getEnvironment().getKieBase().getProcesses());
+    }
+
+    Long startProcess(String containerId, String processId, Map<String, Object> variables) {
+        RuntimeEngine engine = manager.getRuntimeEngine(ProcessInstanceIdContext.get());
+        try {
+            return engine.getKieSession().startProcess(processId, variables).getId();
+        } finally {
+            manager.disposeRuntimeEngine(engine);
+        }
+    }
+
+    void signalProcessInstance(String containerId, Long processInstanceId, String signalName, Object event) {
+        RuntimeEngine engine = manager.getRuntimeEngine(ProcessInstanceIdContext.get(processInstanceId));
+        try {
+            engine.getKieSession().signalEvent(signalName, event, processInstanceId);
+        } finally {
+            manager.disposeRuntimeEngine(engine);
+        }
+    }
+
+    /**
+     * Un'istanza già terminata (sessione rimossa da PER_PROCESS_INSTANCE) non attende alcun signal.
+     */
+    Collection<String> availableSignals(String containerId, Long processInstanceId) {
+        try {
+            RuntimeEngine engine = manager.getRuntimeEngine(ProcessInstanceIdContext.get(processInstanceId));
+            try {
+                KieSession session = engine.getKieSession();
+                ProcessInstance instance = session.getProcessInstance(processInstanceId);
+                return instance != null ? Arrays.asList(instance.getEventTypes()) : Collections.emptyList();
+            } finally {
+                manager.disposeRuntimeEngine(engine);
+            }
+        } catch (SessionNotFoundException e) {
+            return Collections.emptyList();
+        }
+    }
+}
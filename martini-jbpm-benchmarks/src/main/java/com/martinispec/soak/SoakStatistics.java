@@ -0,0 +1,88 @@
+package com.martinispec.soak;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.kie.api.event.process.DefaultProcessEventListener;
+import org.kie.api.event.process.ProcessCompletedEvent;
+import org.kie.api.runtime.process.WorkflowProcessInstance;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistiche del soak test: latenza avvio → completamento dei processi padre e padri mai completati.
+ *
+ * La latenza parte dall'istante pianificato dell'avvio, non da quello effettivo: se gli avvii restano
+ * indietro rispetto al rate richiesto il ritardo viene misurato (niente coordinated omission).
+ * Sono misurati solo i padri avviati dopo il warm-up; il padre è identificato dalla variabile ordineId.
+ */
+final class SoakStatistics extends DefaultProcessEventListener {
+
+    static final String PARENT_PROCESS = "com.martinispec.processopadre";
+
+    private static final long MAX_LATENCY_MICROS = TimeUnit.HOURS.toMicros(1);
+
+    // ordineId -> istante pianificato dell'avvio (System.nanoTime())
+    private final ConcurrentMap<String, Long> outstanding = new ConcurrentHashMap<>();
+    private final Histogram latency = new ConcurrentHistogram(MAX_LATENCY_MICROS, 3);
+    private final LongAdder measured = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failedStarts = new LongAdder();
+
+    /**
+     * Registra un padre da misurare, prima dell'avvio.
+     */
+    void scheduled(String ordineId, long intendedNanos) {
+        outstanding.put(ordineId, intendedNanos);
+        measured.increment();
+    }
+
+    void startFailed(String ordineId) {
+        if (outstanding.remove(ordineId) != null) {
+            failedStarts.increment();
+        }
+    }
+
+    @Override
+    public void afterProcessCompleted(ProcessCompletedEvent event) {
+        if (!PARENT_PROCESS.equals(event.getProcessInstance().getProcessId())
+                || !(event.getProcessInstance() instanceof WorkflowProcessInstance)) {
+            return;
+        }
+        Object ordineId = ((WorkflowProcessInstance) event.getProcessInstance()).getVariable("ordineId");
+        Long intended = ordineId != null ? outstanding.remove(String.valueOf(ordineId)) : null;
+        if (intended != null) {
+            long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - intended);
+            latency.recordValue(Math.min(micros, MAX_LATENCY_MICROS));
+            completed.increment();
+        }
+    }
+
+    /**
+     * Padri misurati avviati ma non ancora completati.
+     */
+    int outstanding() {
+        return outstanding.size();
+    }
+
+    long measured() {
+        return measured.sum();
+    }
+
+    long completed() {
+        return completed.sum();
+    }
+
+    long failedStarts() {
+        return failedStarts.sum();
+    }
+
+    /**
+     * Istogramma delle latenze in microsecondi.
+     */
+    Histogram latency() {
+        return latency;
+    }
+}
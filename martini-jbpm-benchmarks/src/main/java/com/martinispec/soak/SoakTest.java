@@ -0,0 +1,322 @@
+package com.martinispec.soak;
+
+import com.arjuna.ats.internal.jta.transaction.arjunacore.TransactionSynchronizationRegistryImple;
+import com.martinispec.benchmarks.InMemoryNamingContextFactory;
+import com.martinispec.jms.AsyncProcessMessagePipeline;
+import com.martinispec.jms.BatchProcessMessageConsumer;
+import com.martinispec.jms.JmsProcessMessageListener;
+import com.martinispec.jms.ListenerWarmUp;
+import com.martinispec.jms.MessageAggregator;
+import com.martinispec.jms.MessageDeduplicator;
+import com.martinispec.jms.OutboxRelay;
+import com.martinispec.jms.PendingMessageBuffer;
+import com.martinispec.jms.PriorityProcessMessageListener;
+import com.martinispec.jms.SchemaInitializer;
+import com.martinispec.model.metrics.MessagingMetrics;
+import com.martinispec.model.store.JdbcStore;
+import com.martinispec.model.store.PendingMessageStore;
+import org.HdrHistogram.Histogram;
+import org.apache.activemq.artemis.api.core.QueueConfiguration;
+import org.apache.activemq.artemis.api.core.RoutingType;
+import org.apache.activemq.artemis.api.core.SimpleString;
+import org.apache.activemq.artemis.api.jms.ActiveMQJMSClient;
+import org.apache.activemq.artemis.core.config.Configuration;
+import org.apache.activemq.artemis.core.config.impl.ConfigurationImpl;
+import org.apache.activemq.artemis.core.server.embedded.EmbeddedActiveMQ;
+import org.apache.activemq.artemis.core.settings.impl.AddressSettings;
+import org.apache.activemq.artemis.jms.client.ActiveMQConnectionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSContext;
+import javax.jms.Queue;
+import javax.jms.QueueBrowser;
+import javax.naming.Context;
+import javax.transaction.TransactionManager;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Soak test del flusso padre/figlio: processopadre → avviaFiglio → procfiglio → figlioCompletato → processopadre.
+ *
+ * Tutto nella stessa JVM: broker Artemis in-VM (PROCESS.MESSAGES, corsia PRIORITY e DLQ), runtime jBPM su H2
+ * (SoakRuntime) con JmsSendMessageHandler e listener del KJAR, e le classi reali di martini-jbpm-service in un
+ * container EJB minimale (SoakContainer): JmsProcessMessageListener e PriorityProcessMessageListener come MDB,
+ * consumer batch e pipeline asincrona se abilitati, con PendingMessageBuffer, MessageDeduplicator,
+ * MessageAggregator, OutboxRelay, retry/DLQ e ListenerWarmUp, che avvia la consegna agli MDB.
+ * Le chiamate a KIE Server del servizio (container, definizioni dei processi, info) sono servite da SoakKieServer.
+ * Avvio e signal passano dal dispatch scelto con -Dmartini.dispatch.mode: embedded (default, ProcessService di
+ * SoakRuntime nella transazione del listener) oppure rest (client KIE verso gli endpoint di SoakKieServer, con
+ * HTTP e marshalling JSON): a parità di carico il report confronta le due modalità (latenza, signal persi e
+ * metriche martini_message_dispatch_seconds e martini_dispatch_* con label mode).
+ *
+ * Avvia processi padre al rate richiesto, misura la latenza avvio → completamento del padre (HdrHistogram)
+ * e conta i padri che non ricevono figlioCompletato entro il drain (signal persi). Il report finale
+ * include i messaggi in DLQ e le metriche di handler e listener (MessagingMetrics).
+ *
+ * Esecuzione (profilo benchmarks):
+ *   mvn install -Pbenchmarks
+ *   java -Dmartini.soak.rate=20 -Dmartini.soak.duration=600 -cp martini-jbpm-benchmarks/target/benchmarks.jar \
+ *        com.martinispec.soak.SoakTest
+ *
+ * Parametri del test:
+ *   -Dmartini.soak.rate=20              (avvii di processi padre al secondo)
+ *   -Dmartini.soak.duration=300         (s di carico misurato, dopo il warm-up)
+ *   -Dmartini.soak.warmup=30            (s di carico non misurato)
+ *   -Dmartini.soak.starters=64          (thread che avviano i padri: ogni avvio resta nello script del padre)
+ *   -Dmartini.soak.drainTimeout=120     (s di attesa dei padri ancora aperti a fine carico)
+ *   -Dmartini.dispatch.mode=embedded    (embedded | rest: dispatch di avvio e signal)
+ *   -Dmartini.soak.kieServer.threads=16 (thread degli endpoint REST di SoakKieServer)
+ *   -Dmartini.soak.brokerPersistence=false
+ *   -Dmartini.soak.report=soak-report.txt
+ * Le modalità da confrontare sono le proprietà usuali del servizio e del KJAR: martini.listener.mdb.maxSession
+ * (default 15), martini.listener.batch.enabled / martini.listener.async.enabled con martini.listener.mdb.active=false,
+ * martini.message.format, martini.outbox.enabled, martini.claimcheck.threshold, martini.message.grouping,
+ * martini.pending.ttl, martini.pending.sweepInterval, ...
+ *
+ * La latenza include lo script "Operazione Padre" del processo padre (Thread.sleep di 2 s).
+ */
+public final class SoakTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(SoakTest.class);
+
+    private static final String CONTAINER_ID = "martiniavicolo-soak";
+    private static final String QUEUE_NAME = "PROCESS.MESSAGES";
+    private static final String PRIORITY_QUEUE_NAME = QUEUE_NAME + ".PRIORITY";
+    private static final String DLQ_NAME = QUEUE_NAME + ".DLQ";
+    private static final String CHILD_PROCESS = "com.martinispec.procfiglio";
+    private static final String PROCESS_SERVICE_JNDI = "java:global/soak/ProcessService";
+
+    private static final double RATE = Double.parseDouble(System.getProperty("martini.soak.rate", "20"));
+    private static final long DURATION = Long.getLong("martini.soak.duration", 300L);
+    private static final long WARMUP = Long.getLong("martini.soak.warmup", 30L);
+    private static final int STARTERS = Integer.getInteger("martini.soak.starters", 64);
+    private static final long DRAIN_TIMEOUT = Long.getLong("martini.soak.drainTimeout", 120L);
+    private static final int KIE_SERVER_THREADS = Integer.getInteger("martini.soak.kieServer.threads", 16);
+    private static final boolean BROKER_PERSISTENCE = Boolean.getBoolean("martini.soak.brokerPersistence");
+    private static final String REPORT = System.getProperty("martini.soak.report", "soak-report.txt");
+
+    // Stesse proprietà di jboss-ejb3.xml
+    private static final int MDB_SESSIONS = Integer.getInteger("martini.listener.mdb.maxSession", 15);
+    private static final int PRIORITY_SESSIONS = Integer.getInteger("martini.listener.priority.maxSession", 5);
+
+    private SoakTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty(Context.INITIAL_CONTEXT_FACTORY, InMemoryNamingContextFactory.class.getName());
+        // Prima dell'inizializzazione delle classi del servizio, che leggono la configurazione una sola volta
+        defaultProperty("kie.container.id", CONTAINER_ID);
+        defaultProperty("message.routing.avviaFiglio", CHILD_PROCESS);
+        defaultProperty("martini.dispatch.mode", "embedded");
+        defaultProperty("martini.dispatch.embedded.jndi", PROCESS_SERVICE_JNDI);
+
+        EmbeddedActiveMQ broker = new EmbeddedActiveMQ();
+        broker.setConfiguration(brokerConfiguration());
+        broker.start();
+
+        SoakStatistics statistics = new SoakStatistics();
+        // Una connessione per ogni chiamante concorrente (starter, MDB, endpoint REST), più i bean del servizio
+        SoakRuntime runtime = new SoakRuntime(CONTAINER_ID, STARTERS + MDB_SESSIONS + PRIORITY_SESSIONS + KIE_SERVER_THREADS + 16);
+        runtime.start(statistics);
+
+        ActiveMQConnectionFactory artemis = new ActiveMQConnectionFactory("vm://0");
+        TransactionManager transactionManager = com.arjuna.ats.jta.TransactionManager.transactionManager();
+        InMemoryNamingContextFactory.bind("java:/JmsXA", TransactionalConnectionFactory.wrap(artemis, transactionManager));
+        InMemoryNamingContextFactory.bind("java:/ConnectionFactory", artemis);
+        for (String queueName : new String[] { QUEUE_NAME, PRIORITY_QUEUE_NAME, DLQ_NAME }) {
+            Queue queue = ActiveMQJMSClient.createQueue(queueName);
+            InMemoryNamingContextFactory.bind("jms/queue/" + queueName, queue);
+            InMemoryNamingContextFactory.bind("java:/jms/queue/" + queueName, queue);
+        }
+        InMemoryNamingContextFactory.bind(PROCESS_SERVICE_JNDI, runtime.processService());
+
+        SoakKieServer kieServer = new SoakKieServer(runtime, CONTAINER_ID, KIE_SERVER_THREADS);
+        kieServer.start();
+
+        // MDB deployati con la consegna disattivata: la avvia ListenerWarmUp a warm-up completato
+        SoakContainer container = new SoakContainer(transactionManager, new TransactionSynchronizationRegistryImple(), artemis);
+        container.deploy(JmsProcessMessageListener.class, MDB_SESSIONS);
+        container.deploy(PriorityProcessMessageListener.class, PRIORITY_SESSIONS);
+        container.start(SchemaInitializer.class, PendingMessageBuffer.class, MessageDeduplicator.class, MessageAggregator.class,
+                        OutboxRelay.class, ListenerWarmUp.class, BatchProcessMessageConsumer.class, AsyncProcessMessagePipeline.class);
+        ListenerWarmUp warmUp = container.lookup(ListenerWarmUp.class);
+        warmUp.awaitReady();
+        logger.info("SoakTest: Listener {} (warm-up {} ms)", warmUp.getState(), warmUp.getDurationMillis());
+
+        try {
+            drive(runtime, statistics);
+            drain(statistics);
+            String report = report(statistics, artemis);
+            Files.write(Paths.get(REPORT), report.getBytes(StandardCharsets.UTF_8));
+            System.out.println(report);
+            logger.info("SoakTest: Report scritto in {}", Paths.get(REPORT).toAbsolutePath());
+        } finally {
+            container.close();
+            kieServer.close();
+            runtime.stop();
+            artemis.close();
+            broker.stop();
+            InMemoryNamingContextFactory.clear();
+        }
+    }
+
+    /**
+     * Code del servizio; i messaggi oltre i tentativi di consegna del broker vanno in DLQ come nel server.
+     */
+    private static Configuration brokerConfiguration() throws Exception {
+        AddressSettings deadLetter = new AddressSettings()
+                .setDeadLetterAddress(SimpleString.toSimpleString(DLQ_NAME))
+                .setMaxDeliveryAttempts(10);
+        return new ConfigurationImpl()
+                .setPersistenceEnabled(BROKER_PERSISTENCE)
+                .setJournalDirectory("target/soak-broker/journal")
+                .setBindingsDirectory("target/soak-broker/bindings")
+                .setLargeMessagesDirectory("target/soak-broker/large-messages")
+                .setPagingDirectory("target/soak-broker/paging")
+                .setSecurityEnabled(false)
+                .addAcceptorConfiguration("in-vm", "vm://0")
+                .addQueueConfiguration(new QueueConfiguration(QUEUE_NAME).setRoutingType(RoutingType.ANYCAST))
+                .addQueueConfiguration(new QueueConfiguration(PRIORITY_QUEUE_NAME).setRoutingType(RoutingType.ANYCAST))
+                .addQueueConfiguration(new QueueConfiguration(DLQ_NAME).setRoutingType(RoutingType.ANYCAST))
+                .addAddressesSetting(QUEUE_NAME, deadLetter)
+                .addAddressesSetting(PRIORITY_QUEUE_NAME, deadLetter);
+    }
+
+    private static void defaultProperty(String name, String value) {
+        if (System.getProperty(name) == null) {
+            System.setProperty(name, value);
+        }
+    }
+
+    /**
+     * Avvii a rate costante: warm-up non misurato, poi carico misurato.
+     * L'istante pianificato di ogni avvio è t0 + n / rate, indipendente da quando il thread lo esegue.
+     */
+    private static void drive(SoakRuntime runtime, SoakStatistics statistics) throws InterruptedException {
+        long periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / RATE);
+        long warmupStarts = (long) (WARMUP * RATE);
+        long totalStarts = warmupStarts + (long) (DURATION * RATE);
+        AtomicLong sequence = new AtomicLong();
+        long t0 = System.nanoTime();
+
+        ExecutorService starters = Executors.newFixedThreadPool(STARTERS);
+        ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor();
+        ticker.scheduleAtFixedRate(() -> {
+            long n = sequence.getAndIncrement();
+            if (n >= totalStarts) {
+                return;
+            }
+            boolean measured = n >= warmupStarts;
+            String ordineId = (measured ? "SOAK-" : "WARMUP-") + n;
+            if (measured) {
+                statistics.scheduled(ordineId, t0 + n * periodNanos);
+            }
+            starters.execute(() -> start(runtime, statistics, ordineId));
+        }, 0, periodNanos, TimeUnit.NANOSECONDS);
+
+        logger.info("SoakTest: {} avvii/s, warm-up {} s, carico misurato {} s", RATE, WARMUP, DURATION);
+        while (sequence.get() < totalStarts) {
+            Thread.sleep(1000L);
+        }
+        ticker.shutdownNow();
+        starters.shutdown();
+        starters.awaitTermination(DRAIN_TIMEOUT, TimeUnit.SECONDS);
+    }
+
+    private static void start(SoakRuntime runtime, SoakStatistics statistics, String ordineId) {
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("ordineId", ordineId);
+        variables.put("lottoNumero", "LOTTO-" + ordineId);
+        try {
+            runtime.startProcess(CONTAINER_ID, SoakStatistics.PARENT_PROCESS, variables);
+        } catch (RuntimeException e) {
+            statistics.startFailed(ordineId);
+            logger.warn("SoakTest: Avvio del padre '{}' fallito: {}", ordineId, e.getMessage());
+        }
+    }
+
+    /**
+     * Attende il completamento dei padri misurati, al massimo martini.soak.drainTimeout secondi.
+     */
+    private static void drain(SoakStatistics statistics) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(DRAIN_TIMEOUT);
+        while (statistics.outstanding() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(500L);
+        }
+    }
+
+    private static String report(SoakStatistics statistics, ConnectionFactory connectionFactory) throws IOException {
+        Histogram latency = statistics.latency();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (PrintStream out = new PrintStream(buffer, true, StandardCharsets.UTF_8.name())) {
+            out.println("=== Soak test padre/figlio ===");
+            out.printf("rate=%s/s duration=%ds warmup=%ds starters=%d%n", RATE, DURATION, WARMUP, STARTERS);
+            out.printf("dispatch=%s mdb.maxSession=%d batch=%s async=%s%n",
+                       System.getProperty("martini.dispatch.mode"), MDB_SESSIONS,
+                       Boolean.getBoolean("martini.listener.batch.enabled"), Boolean.getBoolean("martini.listener.async.enabled"));
+            out.printf("format=%s outbox=%s claimcheck.threshold=%s grouping=%s%n",
+                       System.getProperty("martini.message.format", "binary"),
+                       Boolean.getBoolean("martini.outbox.enabled"),
+                       System.getProperty("martini.claimcheck.threshold", "0"),
+                       System.getProperty("martini.message.grouping", "true"));
+            out.println();
+            out.printf("Padri misurati:          %d%n", statistics.measured());
+            out.printf("Completati:              %d (%.1f/s)%n", statistics.completed(), statistics.completed() / (double) DURATION);
+            out.printf("Avvii falliti:           %d%n", statistics.failedStarts());
+            out.printf("Signal persi:            %d (padri non completati entro %d s di drain)%n",
+                       statistics.outstanding(), DRAIN_TIMEOUT);
+            out.printf("Messaggi in DLQ:         %s, ancora in attesa: %s%n", deadLettered(connectionFactory), pendingCount());
+            out.println();
+            out.println("Latenza avvio -> completamento del padre (ms):");
+            out.printf("  p50=%.1f p90=%.1f p99=%.1f p99.9=%.1f max=%.1f mean=%.1f%n",
+                       latency.getValueAtPercentile(50) / 1000.0, latency.getValueAtPercentile(90) / 1000.0,
+                       latency.getValueAtPercentile(99) / 1000.0, latency.getValueAtPercentile(99.9) / 1000.0,
+                       latency.getMaxValue() / 1000.0, latency.getMean() / 1000.0);
+            out.println();
+            latency.outputPercentileDistribution(out, 1000.0);
+            out.println();
+            out.println("=== Metriche ===");
+            out.print(MessagingMetrics.forComponent("kjar").getPrometheusText());
+            out.print(MessagingMetrics.forComponent("service").getPrometheusText());
+        }
+        return buffer.toString(StandardCharsets.UTF_8.name());
+    }
+
+    /**
+     * Messaggi in DLQ (motivo nella proprietà martiniDeadLetterReason, conteggi per motivo nelle metriche).
+     */
+    private static String deadLettered(ConnectionFactory connectionFactory) {
+        try (JMSContext context = connectionFactory.createContext()) {
+            QueueBrowser browser = context.createBrowser(ActiveMQJMSClient.createQueue(DLQ_NAME));
+            int count = 0;
+            for (Enumeration<?> messages = browser.getEnumeration(); messages.hasMoreElements(); messages.nextElement()) {
+                count++;
+            }
+            return String.valueOf(count);
+        } catch (Exception e) {
+            return "n/d";
+        }
+    }
+
+    private static String pendingCount() {
+        try {
+            return String.valueOf(PendingMessageStore.fromJndi(JdbcStore.DATASOURCE_JNDI).findActive(Integer.MAX_VALUE).size());
+        } catch (Exception e) {
+            return "n/d";
+        }
+    }
+}
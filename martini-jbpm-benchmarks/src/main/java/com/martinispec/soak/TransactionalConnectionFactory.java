@@ -0,0 +1,131 @@
+package com.martinispec.soak;
+
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSContext;
+import javax.jms.JMSProducer;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.SystemException;
+import javax.transaction.Transaction;
+import javax.transaction.TransactionManager;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sostituto di java:/JmsXA fuori da WildFly: gli invii fatti in una transazione JTA partono solo al commit.
+ *
+ * Il pooled connection factory del server arruola la sessione JMS nella transazione del motore: il messaggio
+ * inviato da JmsSendMessageHandler o dal PendingMessageEventListener esiste solo dopo il commit del processo.
+ * Con la ConnectionFactory del client Artemis l'invio sarebbe immediato e il listener riceverebbe signal per
+ * istanze non ancora salvate; qui gli invii di un JMSContext vengono trattenuti e eseguiti in afterCompletion
+ * (scartati in caso di rollback). Senza transazione attiva l'invio è immediato.
+ *
+ * Non è un vero XA (un errore del broker dopo il commit perde il messaggio), ma riproduce l'ordine degli eventi
+ * che conta per il flusso padre/figlio.
+ */
+final class TransactionalConnectionFactory {
+
+    private TransactionalConnectionFactory() {
+    }
+
+    static ConnectionFactory wrap(ConnectionFactory delegate, TransactionManager transactionManager) {
+        return proxy(ConnectionFactory.class, (proxy, method, args) -> {
+            Object result = invoke(delegate, method, args);
+            if (result instanceof JMSContext) {
+                return context((JMSContext) result, transactionManager);
+            }
+            return result;
+        });
+    }
+
+    private static JMSContext context(JMSContext delegate, TransactionManager transactionManager) {
+        List<Runnable> pending = new ArrayList<>();
+        return proxy(JMSContext.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "createProducer":
+                    return producer(delegate.createProducer(), pending, transactionManager);
+                case "close":
+                    close(delegate, pending, transactionManager);
+                    return null;
+                default:
+                    return invoke(delegate, method, args);
+            }
+        });
+    }
+
+    private static JMSProducer producer(JMSProducer delegate, List<Runnable> pending, TransactionManager transactionManager) {
+        return proxy(JMSProducer.class, (proxy, method, args) -> {
+            if (method.getName().equals("send") && activeTransaction(transactionManager) != null) {
+                pending.add(() -> invokeUnchecked(delegate, method, args));
+                return proxy;
+            }
+            Object result = invoke(delegate, method, args);
+            return result == delegate ? proxy : result;
+        });
+    }
+
+    private static void close(JMSContext delegate, List<Runnable> pending, TransactionManager transactionManager)
+            throws SystemException {
+        Transaction transaction = pending.isEmpty() ? null : activeTransaction(transactionManager);
+        if (transaction == null) {
+            try {
+                pending.forEach(Runnable::run);
+            } finally {
+                delegate.close();
+            }
+            return;
+        }
+        try {
+            transaction.registerSynchronization(new Synchronization() {
+                @Override
+                public void beforeCompletion() {
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    try {
+                        if (status == Status.STATUS_COMMITTED) {
+                            pending.forEach(Runnable::run);
+                        }
+                    } finally {
+                        delegate.close();
+                    }
+                }
+            });
+        } catch (Exception e) {
+            delegate.close();
+            throw new IllegalStateException("Registrazione dell'invio al commit fallita", e);
+        }
+    }
+
+    private static Transaction activeTransaction(TransactionManager transactionManager) throws SystemException {
+        Transaction transaction = transactionManager.getTransaction();
+        return transaction != null && transaction.getStatus() == Status.STATUS_ACTIVE ? transaction : null;
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static void invokeUnchecked(Object target, Method method, Object[] args) {
+        try {
+            method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new IllegalStateException(e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, handler));
+    }
+}
@@ -0,0 +1,66 @@
+package com.martinispec.handlers;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jms.ConnectionFactory;
+import javax.jms.Destination;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Cache delle risorse JMS ottenute via JNDI, condivisa da tutte le istanze degli handler e dei listener.
+ *
+ * Le istanze del WorkItemHandler vengono create per ogni KieSession dal deployment descriptor,
+ * quindi la cache è statica: ConnectionFactory e code vengono cercate una sola volta per nome JNDI.
+ *
+ * Connessioni, sessioni e producer NON vengono tenuti aperti qui: la ConnectionFactory
+ * java:/JmsXA è il pooled connection factory del resource adapter, che riusa le connessioni
+ * fisiche e arruola ogni JMSContext nella transazione JTA corrente. Aprire e chiudere un
+ * JMSContext per invio è quindi economico e mantiene la semantica transazionale (il messaggio
+ * viene consegnato solo al commit della transazione del processo).
+ */
+public final class JmsResourceCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(JmsResourceCache.class);
+
+    private static final ConcurrentMap<String, Object> RESOURCES = new ConcurrentHashMap<>();
+
+    private JmsResourceCache() {
+    }
+
+    public static ConnectionFactory connectionFactory(String jndiName) throws NamingException {
+        return (ConnectionFactory) lookup(jndiName);
+    }
+
+    public static Destination destination(String jndiName) throws NamingException {
+        return (Destination) lookup(jndiName);
+    }
+
+    /**
+     * Rimuove le risorse dalla cache (es. dopo un errore JMS dovuto a una coda/factory ridefinita).
+     */
+    public static void evict(String... jndiNames) {
+        for (String jndiName : jndiNames) {
+            if (RESOURCES.remove(jndiName) != null) {
+                logger.info("JmsResourceCache: Risorsa '{}' rimossa dalla cache", jndiName);
+            }
+        }
+    }
+
+    private static Object lookup(String jndiName) throws NamingException {
+        Object resource = RESOURCES.get(jndiName);
+        if (resource == null) {
+            resource = new InitialContext().lookup(jndiName);
+            Object previous = RESOURCES.putIfAbsent(jndiName, resource);
+            if (previous != null) {
+                resource = previous;
+            } else {
+                logger.debug("JmsResourceCache: Risorsa '{}' registrata in cache", jndiName);
+            }
+        }
+        return resource;
+    }
+}
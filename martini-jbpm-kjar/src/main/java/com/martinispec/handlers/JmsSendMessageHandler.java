@@ -1,6 +1,15 @@
 package com.martinispec.handlers;
 
+import com.martinispec.model.MessageGroups;
+import com.martinispec.model.MessagePriority;
 import com.martinispec.model.ProcessMessage;
+import com.martinispec.model.codec.BinaryProcessMessageCodec;
+import com.martinispec.model.codec.ProcessMessageCodec;
+import com.martinispec.model.codec.ProcessMessageCodecs;
+import com.martinispec.model.metrics.MessagingMetrics;
+import com.martinispec.model.store.ClaimCheck;
+import com.martinispec.model.store.JdbcStore;
+import com.martinispec.model.store.OutboxStore;
 import org.kie.api.runtime.process.WorkItem;
 import org.kie.api.runtime.process.WorkItemHandler;
 import org.kie.api.runtime.process.WorkItemManager;
@@ -8,10 +17,16 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.jms.*;
-import javax.naming.InitialContext;
 import javax.naming.NamingException;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 
 /**
  * WorkItemHandler per l'invio di messaggi JMS con la struttura ProcessMessage.
@@ -23,10 +38,45 @@ import java.util.Map;
  *   - correlationKey (String, opzionale): Chiave di correlazione per notificare processo esistente
  *   - variables (Map<String,Object>, opzionale): Variabili da passare al processo target
  *   - queueJndi (String, opzionale): Nome JNDI della coda (default: "jms/queue/PROCESS.MESSAGES")
+ *   - containerId (String, opzionale): Container o alias destinatario (default: kie.container.id del servizio)
+ *   - variablesList (List<Map<String,Object>>, opzionale): un messaggio per elemento, con le variabili comuni
+ *     (variables) più quelle dell'elemento
+ *   - correlationKeyList (List<String>, opzionale): un messaggio per correlation key; con variablesList le due liste
+ *     vanno in coppia (stessa lunghezza). Una lista vuota è un errore (work item abortito), non zero messaggi
+ *   - priority (String o Integer, opzionale): high, normal, low o 0-9 (default: martini.priority.<messageName>, poi normal)
+ * - Risultati del work item: messageCount (Integer), messageIds (List<String>), messageId (String, un solo messaggio)
+ * 
+ * Invio multiplo (scatter): tutti i messaggi del work item usano lo stesso JMSContext e producer, con un solo
+ * lookup JNDI, e partono insieme al commit della transazione del processo (o tutti o nessuno).
  * 
  * Comportamento:
  * - Se correlationKey è vuota/null: il messaggio avvierà un nuovo processo con receive event matching
  * - Se correlationKey è valorizzata: il messaggio notificherà il processo in attesa con quella correlation key
+ * 
+ * Container: con un alias i nuovi processi partono nella versione più recente del KJAR e i signal raggiungono
+ * le istanze di tutte le versioni con quell'alias (vedi ContainerResolver del servizio).
+ * 
+ * Ordine: i messaggi con correlationKey hanno JMSXGroupID derivato dalla chiave (vedi MessageGroups),
+ * quindi quelli per la stessa correlation key vengono consumati in sequenza.
+ * 
+ * Identificativo: ogni messaggio riceve un martiniMessageId univoco (UUID), conservato da retry e ripubblicazioni;
+ * il listener del servizio lo usa per scartare i duplicati (vedi MessageDeduplicator).
+ * 
+ * Priorità: JMSPriority del messaggio (vedi MessagePriority); con -Dmartini.priority.lanes.enabled=true i messaggi
+ * prioritari per la coda di default vanno sulla corsia PROCESS.MESSAGES.PRIORITY, consumata da sessioni dedicate.
+ * 
+ * Formato (-Dmartini.message.format): "binary" (default, BytesMessage compatto) oppure "java" (ObjectMessage legacy).
+ * 
+ * Outbox (-Dmartini.outbox.enabled=true): il messaggio non viene inviato al broker ma scritto nella tabella
+ * MARTINI_OUTBOX del datasource di jBPM, nella transazione del processo; l'OutboxRelay del servizio lo pubblica
+ * su JMS dopo il commit. Un rollback del processo annulla anche il messaggio e il commit non attende il broker.
+ * I messaggi non rappresentabili nel formato binario vengono inviati direttamente.
+ * 
+ * Claim-check (-Dmartini.claimcheck.threshold): oltre la soglia il payload binario viene scritto in MARTINI_PAYLOAD
+ * nella transazione del processo e il messaggio porta solo il riferimento (vedi ClaimCheck).
+ * 
+ * Metriche (registro "kjar" di MessagingMetrics): martini_message_send_seconds, martini_message_outbox_seconds e
+ * martini_messages_total{outcome=sent|outbox|failed, message}.
  */
 public class JmsSendMessageHandler implements WorkItemHandler {
     
@@ -35,12 +85,21 @@ public class JmsSendMessageHandler implements WorkItemHandler {
     private static final String DEFAULT_QUEUE_JNDI = "jms/queue/PROCESS.MESSAGES";
     private static final String CONNECTION_FACTORY_JNDI = "java:/JmsXA";
     
+    private static final MessagingMetrics METRICS = MessagingMetrics.forComponent("kjar");
+    private static final MessagingMetrics.Timer SEND_TIMER = METRICS.timer("martini_message_send_seconds");
+    private static final MessagingMetrics.Timer OUTBOX_TIMER = METRICS.timer("martini_message_outbox_seconds");
+    
+    private static final boolean OUTBOX_ENABLED = Boolean.getBoolean("martini.outbox.enabled");
+    private static volatile OutboxStore outboxStore;
+    
     @Override
     public void executeWorkItem(WorkItem workItem, WorkItemManager manager) {
         // Estrai parametri configurabili dall'elemento BPMN
         String messageName = (String) workItem.getParameter("messageName");
         String correlationKey = (String) workItem.getParameter("correlationKey");
         String queueJndi = (String) workItem.getParameter("queueJndi");
+        String containerId = (String) workItem.getParameter("containerId");
+        Object requestedPriority = workItem.getParameter("priority");
         
         @SuppressWarnings("unchecked")
         Map<String, Object> variables = (Map<String, Object>) workItem.getParameter("variables");
@@ -53,72 +112,277 @@ public class JmsSendMessageHandler implements WorkItemHandler {
             throw new IllegalArgumentException(error);
         }
         
-        // Usa coda predefinita se non specificata
-        if (queueJndi == null || queueJndi.trim().isEmpty()) {
-            queueJndi = DEFAULT_QUEUE_JNDI;
-        }
-        
         if (variables == null) {
             variables = new HashMap<>();
         }
         
-        // Crea il ProcessMessage con la struttura standard
-        ProcessMessage processMessage = new ProcessMessage(messageName, correlationKey, variables);
+        // Crea i ProcessMessage con la struttura standard (uno, o uno per elemento delle liste)
+        List<ProcessMessage> processMessages;
+        int priority;
+        try {
+            priority = MessagePriority.resolve(messageName, requestedPriority);
+            processMessages = createMessages(messageName, correlationKey, variables,
+                                             workItem.getParameter("variablesList"), workItem.getParameter("correlationKeyList"));
+        } catch (IllegalArgumentException e) {
+            logger.error("JmsSendMessageHandler: {}", e.getMessage());
+            manager.abortWorkItem(workItem.getId());
+            throw e;
+        }
+        processMessages.forEach(m -> m.setPriority(priority));
+        if (containerId != null && !containerId.trim().isEmpty()) {
+            processMessages.forEach(m -> m.setTargetContainer(containerId.trim()));
+        }
         
-        logger.info("JmsSendMessageHandler: Invio messaggio '{}' alla coda '{}' - CorrelationKey: '{}' - Variables: {}", 
-                    messageName, queueJndi, correlationKey, variables.keySet());
+        // Usa coda predefinita (o la sua corsia prioritaria) se non specificata
+        if (queueJndi == null || queueJndi.trim().isEmpty()) {
+            queueJndi = MessagePriority.destination(DEFAULT_QUEUE_JNDI, priority);
+        }
         
-        Connection connection = null;
-        Session session = null;
+        if (processMessages.size() == 1) {
+            logger.debug("JmsSendMessageHandler: Invio messaggio '{}' alla coda '{}' - CorrelationKey: '{}' - Variables: {}", 
+                        messageName, queueJndi, correlationKey, variables.keySet());
+        } else {
+            logger.debug("JmsSendMessageHandler: Invio di {} messaggi '{}' alla coda '{}'", processMessages.size(), messageName, queueJndi);
+        }
+        
+        if (OUTBOX_ENABLED && addToOutbox(processMessages, queueJndi, workItem, manager)) {
+            return;
+        }
         
+        long sendStart = System.nanoTime();
         try {
-            // JNDI Lookup
-            InitialContext ctx = new InitialContext();
-            ConnectionFactory cf = (ConnectionFactory) ctx.lookup(CONNECTION_FACTORY_JNDI);
-            Destination queue = (Destination) ctx.lookup(queueJndi);
+            // ConnectionFactory e coda dalla cache JNDI condivisa
+            ConnectionFactory cf = JmsResourceCache.connectionFactory(CONNECTION_FACTORY_JNDI);
+            Destination queue = JmsResourceCache.destination(queueJndi);
             
-            // Crea connessione e sessione JMS
-            connection = cf.createConnection();
-            session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
-            MessageProducer producer = session.createProducer(queue);
-            
-            // Crea ObjectMessage con il ProcessMessage
-            ObjectMessage message = session.createObjectMessage(processMessage);
-            
-            // Aggiungi proprietà JMS per filtering (opzionale ma utile per monitoring)
-            message.setStringProperty("messageName", messageName);
-            if (correlationKey != null && !correlationKey.trim().isEmpty()) {
-                message.setStringProperty("correlationKey", correlationKey);
+            // JMSContext dal pooled connection factory: riusa le connessioni del pool e
+            // partecipa alla transazione JTA corrente (invio effettivo al commit, tutti i messaggi insieme)
+            String jmsMessageId = null;
+            try (JMSContext context = cf.createContext()) {
+                // Invia con PERSISTENT delivery mode per QoS
+                JMSProducer producer = context.createProducer()
+                                              .setDeliveryMode(DeliveryMode.PERSISTENT)
+                                              .setPriority(priority);
+                for (ProcessMessage processMessage : processMessages) {
+                    // Payload nel formato configurato (binario compatto o ObjectMessage legacy)
+                    Message message = createMessage(context, processMessage);
+                    setProperties(message, processMessage);
+                    producer.send(queue, message);
+                    jmsMessageId = message.getJMSMessageID();
+                }
             }
+            SEND_TIMER.recordSince(sendStart);
+            METRICS.add("martini_messages_total", processMessages.size(), "outcome", "sent", "message", messageName);
             
-            // Invia con PERSISTENT delivery mode per QoS
-            producer.send(message, DeliveryMode.PERSISTENT, Message.DEFAULT_PRIORITY, Message.DEFAULT_TIME_TO_LIVE);
-            
-            logger.info("JmsSendMessageHandler: Messaggio '{}' inviato con successo - JMS MessageID: {}", 
-                        messageName, message.getJMSMessageID());
+            logger.debug("JmsSendMessageHandler: {} messaggi '{}' inviati con successo - ultimo JMS MessageID: {}", 
+                        processMessages.size(), messageName, jmsMessageId);
             
             // Completa work item
-            manager.completeWorkItem(workItem.getId(), new HashMap<>());
+            manager.completeWorkItem(workItem.getId(), results(processMessages));
             
         } catch (NamingException e) {
+            METRICS.increment("martini_messages_total", "outcome", "failed", "message", messageName);
             logger.error("JmsSendMessageHandler: JNDI lookup fallito per la coda '{}': {}", queueJndi, e.getMessage(), e);
             manager.abortWorkItem(workItem.getId());
             throw new RuntimeException("JNDI lookup fallito", e);
             
-        } catch (JMSException e) {
+        } catch (IOException e) {
+            METRICS.increment("martini_messages_total", "outcome", "failed", "message", messageName);
+            logger.error("JmsSendMessageHandler: Codifica del messaggio '{}' fallita: {}", messageName, e.getMessage(), e);
+            manager.abortWorkItem(workItem.getId());
+            throw new RuntimeException("Codifica messaggio fallita", e);
+            
+        } catch (SQLException e) {
+            METRICS.increment("martini_messages_total", "outcome", "failed", "message", messageName);
+            logger.error("JmsSendMessageHandler: Claim-check del messaggio '{}' fallito: {}", messageName, e.getMessage(), e);
+            manager.abortWorkItem(workItem.getId());
+            throw new RuntimeException("Claim-check fallito", e);
+            
+        } catch (JMSException | JMSRuntimeException e) {
+            METRICS.increment("martini_messages_total", "outcome", "failed", "message", messageName);
             logger.error("JmsSendMessageHandler: Errore JMS durante l'invio del messaggio '{}': {}", messageName, e.getMessage(), e);
+            // Le risorse in cache potrebbero non essere più valide (es. coda ridefinita)
+            JmsResourceCache.evict(CONNECTION_FACTORY_JNDI, queueJndi);
             manager.abortWorkItem(workItem.getId());
             throw new RuntimeException("Invio JMS fallito", e);
-            
-        } finally {
-            // Cleanup
+        }
+    }
+    
+    /**
+     * Un messaggio per elemento di variablesList e/o correlationKeyList (stessa lunghezza se presenti entrambe),
+     * altrimenti un solo messaggio; liste vuote sono rifiutate. Le variabili di ogni elemento si aggiungono a quelle comuni (variables).
+     * Ogni messaggio riceve un martiniMessageId univoco.
+     */
+    private static List<ProcessMessage> createMessages(String messageName, String correlationKey, Map<String, Object> variables,
+                                                       Object variablesList, Object correlationKeyList) {
+        List<?> items = asList(variablesList, "variablesList");
+        List<?> keys = asList(correlationKeyList, "correlationKeyList");
+        if (items != null && items.isEmpty() || keys != null && keys.isEmpty()) {
+            throw new IllegalArgumentException("'" + (items != null && items.isEmpty() ? "variablesList" : "correlationKeyList")
+                                               + "' è vuota: nessun messaggio da inviare");
+        }
+        if (items != null && keys != null && items.size() != keys.size()) {
+            throw new IllegalArgumentException("'variablesList' (" + items.size() + ") e 'correlationKeyList' (" + keys.size()
+                                               + ") devono avere la stessa lunghezza");
+        }
+        int count = items != null ? items.size() : keys != null ? keys.size() : 1;
+        List<ProcessMessage> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> messageVariables = new HashMap<>(variables);
+            if (items != null) {
+                Object item = items.get(i);
+                if (item != null && !(item instanceof Map)) {
+                    throw new IllegalArgumentException("'variablesList' deve contenere mappe di variabili, trovato "
+                                                       + item.getClass().getName());
+                }
+                if (item != null) {
+                    @SuppressWarnings("unchecked")
+                    Map<String, Object> itemVariables = (Map<String, Object>) item;
+                    messageVariables.putAll(itemVariables);
+                }
+            }
+            String messageKey = keys != null && keys.get(i) != null ? String.valueOf(keys.get(i)) : correlationKey;
+            ProcessMessage processMessage = new ProcessMessage(messageName, messageKey, items != null || keys != null ? messageVariables : variables);
+            processMessage.setMessageId(UUID.randomUUID().toString());
+            messages.add(processMessage);
+        }
+        return messages;
+    }
+    
+    private static List<?> asList(Object parameter, String name) {
+        if (parameter == null) {
+            return null;
+        }
+        if (parameter instanceof List) {
+            return (List<?>) parameter;
+        }
+        if (parameter instanceof Collection) {
+            return new ArrayList<>((Collection<?>) parameter);
+        }
+        if (parameter instanceof Object[]) {
+            return Arrays.asList((Object[]) parameter);
+        }
+        throw new IllegalArgumentException("'" + name + "' deve essere una lista, trovato " + parameter.getClass().getName());
+    }
+    
+    /**
+     * Proprietà JMS per routing e filtering: nome, correlation key, gruppo, container e identificativo.
+     */
+    private static void setProperties(Message message, ProcessMessage processMessage) throws JMSException {
+        message.setStringProperty("messageName", processMessage.getMessageName());
+        if (processMessage.hasCorrelationKey()) {
+            message.setStringProperty("correlationKey", processMessage.getCorrelationKey());
+        }
+        // Gruppo per correlation key: i messaggi della stessa istanza vengono elaborati in ordine
+        String groupId = MessageGroups.groupId(processMessage.getCorrelationKey());
+        if (groupId != null) {
+            message.setStringProperty(MessageGroups.GROUP_PROPERTY, groupId);
+        }
+        if (processMessage.getTargetContainer() != null) {
+            message.setStringProperty(ProcessMessageCodecs.CONTAINER_PROPERTY, processMessage.getTargetContainer());
+        }
+        message.setStringProperty(ProcessMessageCodecs.MESSAGE_ID_PROPERTY, processMessage.getMessageId());
+    }
+    
+    /**
+     * Risultati del work item: messageCount, messageIds e, per un solo messaggio, messageId.
+     */
+    private static Map<String, Object> results(List<ProcessMessage> processMessages) {
+        List<String> messageIds = new ArrayList<>(processMessages.size());
+        processMessages.forEach(m -> messageIds.add(m.getMessageId()));
+        Map<String, Object> results = new HashMap<>();
+        results.put("messageCount", messageIds.size());
+        results.put("messageIds", messageIds);
+        if (messageIds.size() == 1) {
+            results.put("messageId", messageIds.get(0));
+        }
+        return results;
+    }
+    
+    /**
+     * Scrive i messaggi nell'outbox, nella transazione del processo, e completa il work item.
+     * 
+     * @return false se un messaggio non è rappresentabile nel formato binario (vanno inviati direttamente)
+     */
+    private static boolean addToOutbox(List<ProcessMessage> processMessages, String queueJndi, WorkItem workItem,
+                                       WorkItemManager manager) {
+        String messageName = processMessages.get(0).getMessageName();
+        ProcessMessageCodec codec = ProcessMessageCodecs.forFormat(BinaryProcessMessageCodec.FORMAT);
+        List<byte[]> payloads = new ArrayList<>(processMessages.size());
+        try {
+            for (ProcessMessage processMessage : processMessages) {
+                payloads.add(codec.encode(processMessage));
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            logger.warn("JmsSendMessageHandler: Messaggio '{}' non codificabile per l'outbox ({}), invio diretto",
+                        messageName, e.getMessage());
+            return false;
+        }
+        
+        long outboxStart = System.nanoTime();
+        try {
+            for (int i = 0; i < processMessages.size(); i++) {
+                ProcessMessage processMessage = processMessages.get(i);
+                getOutboxStore().add(processMessage.getMessageId(), queueJndi, messageName, processMessage.getCorrelationKey(),
+                                     processMessage.getTargetContainer(), codec.format(), payloads.get(i));
+            }
+        } catch (SQLException | RuntimeException e) {
+            METRICS.increment("martini_messages_total", "outcome", "failed", "message", messageName);
+            logger.error("JmsSendMessageHandler: Scrittura nell'outbox del messaggio '{}' fallita: {}", messageName, e.getMessage(), e);
+            manager.abortWorkItem(workItem.getId());
+            throw new RuntimeException("Scrittura outbox fallita", e);
+        }
+        OUTBOX_TIMER.recordSince(outboxStart);
+        METRICS.add("martini_messages_total", processMessages.size(), "outcome", "outbox", "message", messageName);
+        logger.debug("JmsSendMessageHandler: {} messaggi '{}' scritti nell'outbox per la coda '{}'",
+                     processMessages.size(), messageName, queueJndi);
+        
+        manager.completeWorkItem(workItem.getId(), results(processMessages));
+        return true;
+    }
+    
+    private static OutboxStore getOutboxStore() {
+        OutboxStore current = outboxStore;
+        if (current == null) {
+            synchronized (JmsSendMessageHandler.class) {
+                current = outboxStore;
+                if (current == null) {
+                    current = OutboxStore.fromJndi(JdbcStore.DATASOURCE_JNDI);
+                    outboxStore = current;
+                }
+            }
+        }
+        return current;
+    }
+    
+    /**
+     * Crea il messaggio JMS nel formato martini.message.format.
+     * 
+     * Con il formato binario il payload è un BytesMessage con la proprietà martiniFormat;
+     * se una variabile non è rappresentabile nel formato si ripiega sull'ObjectMessage legacy.
+     */
+    private static Message createMessage(JMSContext context, ProcessMessage processMessage)
+            throws IOException, JMSException, SQLException {
+        ProcessMessageCodec codec = ProcessMessageCodecs.forFormat(ProcessMessageCodecs.sendFormat());
+        if (codec != null) {
             try {
-                if (session != null) session.close();
-                if (connection != null) connection.close();
-            } catch (JMSException e) {
-                logger.warn("JmsSendMessageHandler: Errore durante la chiusura delle risorse JMS: {}", e.getMessage());
+                byte[] payload = codec.encode(processMessage);
+                BytesMessage message = context.createBytesMessage();
+                // Payload grande: scritto in MARTINI_PAYLOAD, nel messaggio solo il riferimento
+                String reference = ClaimCheck.storeIfLarge(payload);
+                if (reference != null) {
+                    message.setStringProperty(ClaimCheck.REFERENCE_PROPERTY, reference);
+                } else {
+                    message.writeBytes(payload);
+                }
+                message.setStringProperty(ProcessMessageCodecs.FORMAT_PROPERTY, codec.format());
+                return message;
+            } catch (IllegalArgumentException e) {
+                logger.warn("JmsSendMessageHandler: Messaggio '{}' non codificabile in formato '{}' ({}), uso ObjectMessage",
+                            processMessage.getMessageName(), codec.format(), e.getMessage());
             }
         }
+        return context.createObjectMessage(processMessage);
     }
     
     @Override
@@ -0,0 +1,132 @@
+package com.martinispec.listeners;
+
+import com.martinispec.model.store.CorrelationIndexStore;
+import com.martinispec.model.store.JdbcStore;
+import org.kie.api.event.process.DefaultProcessEventListener;
+import org.kie.api.event.process.ProcessCompletedEvent;
+import org.kie.api.event.process.ProcessStartedEvent;
+import org.kie.api.event.process.ProcessVariableChangedEvent;
+import org.kie.api.runtime.process.WorkflowProcessInstance;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * ProcessEventListener che mantiene l'indice delle correlation key (MARTINI_CORRELATION_INDEX).
+ *
+ * Registrazione in kie-deployment-descriptor.xml:
+ *   new com.martinispec.listeners.CorrelationIndexEventListener(runtimeManager.getIdentifier())
+ * con le variabili di -Dmartini.correlation.variables (default correlationKey,ordineId), oppure con una lista
+ * esplicita come secondo argomento.
+ *
+ * Comportamento:
+ * - All'avvio del processo registra il valore delle variabili di correlazione configurate
+ * - Se una di queste variabili cambia durante il processo, l'indice viene aggiornato
+ * - Al completamento (o abort) del processo le voci vengono rimosse
+ *
+ * Le scritture avvengono nella transazione del motore: se il processo va in rollback,
+ * anche l'indice resta coerente.
+ */
+public class CorrelationIndexEventListener extends DefaultProcessEventListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(CorrelationIndexEventListener.class);
+
+    private static volatile CorrelationIndexStore store;
+
+    private final String containerId;
+    private final Set<String> correlationVariables;
+
+    /**
+     * @param containerId Identificativo del deployment (runtimeManager.getIdentifier())
+     */
+    public CorrelationIndexEventListener(String containerId) {
+        this(containerId, CorrelationIndexStore.DEFAULT_VARIABLES);
+    }
+
+    /**
+     * @param containerId Identificativo del deployment (runtimeManager.getIdentifier())
+     * @param correlationVariables Nomi delle variabili di correlazione separati da virgola
+     */
+    public CorrelationIndexEventListener(String containerId, String correlationVariables) {
+        this.containerId = containerId;
+        this.correlationVariables = Arrays.stream(correlationVariables.split(","))
+                                          .map(String::trim)
+                                          .filter(name -> !name.isEmpty())
+                                          .collect(Collectors.toCollection(LinkedHashSet::new));
+    }
+
+    @Override
+    public void beforeProcessStarted(ProcessStartedEvent event) {
+        // beforeProcessStarted: le variabili iniziali sono già impostate e, se il processo
+        // termina in modo sincrono, la rimozione in afterProcessCompleted avviene dopo la registrazione
+        if (!(event.getProcessInstance() instanceof WorkflowProcessInstance)) {
+            return;
+        }
+        WorkflowProcessInstance instance = (WorkflowProcessInstance) event.getProcessInstance();
+        for (String variable : correlationVariables) {
+            Object value = instance.getVariable(variable);
+            if (value != null && !String.valueOf(value).trim().isEmpty()) {
+                register(instance.getId(), variable, String.valueOf(value));
+            }
+        }
+    }
+
+    @Override
+    public void afterVariableChanged(ProcessVariableChangedEvent event) {
+        String variable = event.getVariableId();
+        if (!correlationVariables.contains(variable)) {
+            return;
+        }
+        long processInstanceId = event.getProcessInstance().getId();
+        Object value = event.getNewValue();
+        try {
+            if (value == null || String.valueOf(value).trim().isEmpty()) {
+                getStore().unregister(processInstanceId, variable);
+            } else {
+                getStore().register(processInstanceId, containerId, variable, String.valueOf(value));
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Aggiornamento indice di correlazione fallito", e);
+        }
+    }
+
+    @Override
+    public void afterProcessCompleted(ProcessCompletedEvent event) {
+        long processInstanceId = event.getProcessInstance().getId();
+        try {
+            getStore().removeInstance(processInstanceId);
+            logger.debug("CorrelationIndexEventListener: Rimosse correlation key del processo {}", processInstanceId);
+        } catch (SQLException e) {
+            throw new RuntimeException("Pulizia indice di correlazione fallita", e);
+        }
+    }
+
+    private void register(long processInstanceId, String variable, String correlationKey) {
+        try {
+            getStore().register(processInstanceId, containerId, variable, correlationKey);
+            logger.debug("CorrelationIndexEventListener: Registrata correlation key '{}'='{}' per processo {}",
+                         variable, correlationKey, processInstanceId);
+        } catch (SQLException e) {
+            throw new RuntimeException("Registrazione indice di correlazione fallita", e);
+        }
+    }
+
+    private static CorrelationIndexStore getStore() {
+        CorrelationIndexStore current = store;
+        if (current == null) {
+            synchronized (CorrelationIndexEventListener.class) {
+                current = store;
+                if (current == null) {
+                    current = CorrelationIndexStore.fromJndi(JdbcStore.DATASOURCE_JNDI);
+                    store = current;
+                }
+            }
+        }
+        return current;
+    }
+}
@@ -0,0 +1,169 @@
+package com.martinispec.listeners;
+
+import com.martinispec.handlers.JmsResourceCache;
+import com.martinispec.model.MessageGroups;
+import com.martinispec.model.MessagePriority;
+import com.martinispec.model.codec.ProcessMessageCodecs;
+import com.martinispec.model.store.ClaimCheck;
+import com.martinispec.model.store.CorrelationIndexStore;
+import com.martinispec.model.store.JdbcStore;
+import com.martinispec.model.store.PendingMessageStore;
+import com.martinispec.model.store.PendingMessageStore.PendingMessage;
+import org.jbpm.workflow.core.node.EventNode;
+import org.kie.api.definition.process.Node;
+import org.kie.api.event.process.DefaultProcessEventListener;
+import org.kie.api.event.process.ProcessNodeTriggeredEvent;
+import org.kie.api.runtime.process.WorkflowProcessInstance;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jms.BytesMessage;
+import javax.jms.ConnectionFactory;
+import javax.jms.DeliveryMode;
+import javax.jms.Destination;
+import javax.jms.JMSContext;
+import javax.jms.JMSException;
+import javax.jms.JMSRuntimeException;
+import javax.naming.NamingException;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * ProcessEventListener che consegna i messaggi arrivati in anticipo (MARTINI_PENDING_MESSAGE).
+ *
+ * Registrazione in kie-deployment-descriptor.xml:
+ *   new com.martinispec.listeners.PendingMessageEventListener(runtimeManager.getIdentifier())
+ * con le stesse variabili di correlazione del CorrelationIndexEventListener (-Dmartini.correlation.variables).
+ *
+ * Quando un'istanza raggiunge un intermediate catch event di tipo signal, cerca i messaggi in attesa
+ * con quel nome e con una delle sue correlation key, li prende in carico (rimozione dallo store) e li
+ * ripubblica su PROCESS.MESSAGES indirizzati a questa istanza (martiniTargetInstances) e al suo container
+ * (martiniContainer).
+ *
+ * Rimozione e invio (java:/JmsXA) avvengono nella transazione del motore: il messaggio parte solo
+ * al commit, quando lo stato di attesa è già persistito, quindi il signal non può più arrivare in anticipo.
+ */
+public class PendingMessageEventListener extends DefaultProcessEventListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(PendingMessageEventListener.class);
+
+    private static final String CONNECTION_FACTORY_JNDI = "java:/JmsXA";
+    private static final String QUEUE_JNDI = "jms/queue/PROCESS.MESSAGES";
+
+    private static volatile PendingMessageStore store;
+
+    private final String containerId;
+    private final Set<String> correlationVariables;
+
+    /**
+     * @param containerId Identificativo del deployment (runtimeManager.getIdentifier())
+     */
+    public PendingMessageEventListener(String containerId) {
+        this(containerId, CorrelationIndexStore.DEFAULT_VARIABLES);
+    }
+
+    /**
+     * @param containerId Identificativo del deployment (runtimeManager.getIdentifier())
+     * @param correlationVariables Nomi delle variabili di correlazione separati da virgola
+     */
+    public PendingMessageEventListener(String containerId, String correlationVariables) {
+        this.containerId = containerId;
+        this.correlationVariables = Arrays.stream(correlationVariables.split(","))
+                                          .map(String::trim)
+                                          .filter(name -> !name.isEmpty())
+                                          .collect(Collectors.toCollection(LinkedHashSet::new));
+    }
+
+    @Override
+    public void afterNodeTriggered(ProcessNodeTriggeredEvent event) {
+        // afterNodeTriggered: il nodo è attivo e registrato come listener dell'evento
+        Node node = event.getNodeInstance().getNode();
+        if (!(node instanceof EventNode) || !(event.getProcessInstance() instanceof WorkflowProcessInstance)) {
+            return;
+        }
+        String signalName = ((EventNode) node).getType();
+        if (signalName == null) {
+            return;
+        }
+        WorkflowProcessInstance instance = (WorkflowProcessInstance) event.getProcessInstance();
+        Set<String> correlationKeys = new LinkedHashSet<>();
+        for (String variable : correlationVariables) {
+            Object value = instance.getVariable(variable);
+            if (value != null && !String.valueOf(value).trim().isEmpty()) {
+                correlationKeys.add(String.valueOf(value));
+            }
+        }
+        if (correlationKeys.isEmpty()) {
+            return;
+        }
+
+        try {
+            List<PendingMessage> pending = getStore().findFor(containerId, correlationKeys, signalName, instance.getId());
+            for (PendingMessage message : pending) {
+                if (getStore().remove(message.getId())) {
+                    deliver(message, instance.getId());
+                    logger.info("PendingMessageEventListener: Messaggio '{}' in attesa da {} ms consegnato al processo {}",
+                                signalName, System.currentTimeMillis() - message.getCreatedAt(), instance.getId());
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Lettura dei messaggi in attesa fallita", e);
+        }
+    }
+
+    private static void deliver(PendingMessage pending, long processInstanceId) throws SQLException {
+        // Priorità configurata per il messaggio: con le corsie abilitate i signal urgenti vanno sulla coda prioritaria
+        int priority = MessagePriority.resolve(pending.getMessageName(), null);
+        String queueJndi = MessagePriority.destination(QUEUE_JNDI, priority);
+        try {
+            ConnectionFactory cf = JmsResourceCache.connectionFactory(CONNECTION_FACTORY_JNDI);
+            Destination queue = JmsResourceCache.destination(queueJndi);
+            try (JMSContext context = cf.createContext()) {
+                BytesMessage message = context.createBytesMessage();
+                String reference = ClaimCheck.storeIfLarge(pending.getPayload());
+                if (reference != null) {
+                    message.setStringProperty(ClaimCheck.REFERENCE_PROPERTY, reference);
+                } else {
+                    message.writeBytes(pending.getPayload());
+                }
+                message.setStringProperty(ProcessMessageCodecs.FORMAT_PROPERTY, pending.getFormat());
+                message.setStringProperty("messageName", pending.getMessageName());
+                message.setStringProperty("correlationKey", pending.getCorrelationKey());
+                String groupId = MessageGroups.groupId(pending.getCorrelationKey());
+                if (groupId != null) {
+                    message.setStringProperty(MessageGroups.GROUP_PROPERTY, groupId);
+                }
+                message.setStringProperty(ProcessMessageCodecs.TARGET_INSTANCES_PROPERTY, String.valueOf(processInstanceId));
+                // Container effettivo dell'istanza (con un alias il messaggio non va risolto di nuovo)
+                message.setStringProperty(ProcessMessageCodecs.CONTAINER_PROPERTY, pending.getContainerId());
+                // Id della riga in attesa: identifica la consegna per la deduplica del listener
+                message.setStringProperty(ProcessMessageCodecs.MESSAGE_ID_PROPERTY, pending.getId());
+                context.createProducer()
+                       .setDeliveryMode(DeliveryMode.PERSISTENT)
+                       .setPriority(priority)
+                       .send(queue, message);
+            }
+        } catch (NamingException | JMSException | JMSRuntimeException e) {
+            JmsResourceCache.evict(CONNECTION_FACTORY_JNDI, queueJndi);
+            throw new RuntimeException("Consegna del messaggio in attesa '" + pending.getMessageName() + "' fallita", e);
+        }
+    }
+
+    private static PendingMessageStore getStore() {
+        PendingMessageStore current = store;
+        if (current == null) {
+            synchronized (PendingMessageEventListener.class) {
+                current = store;
+                if (current == null) {
+                    current = PendingMessageStore.fromJndi(JdbcStore.DATASOURCE_JNDI);
+                    store = current;
+                }
+            }
+        }
+        return current;
+    }
+}
@@ -0,0 +1,174 @@
+package com.martinispec.handlers;
+
+import com.martinispec.model.codec.ProcessMessageCodecs;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.kie.api.runtime.process.WorkItem;
+import org.kie.api.runtime.process.WorkItemManager;
+import org.mockito.ArgumentCaptor;
+
+import javax.jms.BytesMessage;
+import javax.jms.ConnectionFactory;
+import javax.jms.Destination;
+import javax.jms.JMSContext;
+import javax.jms.JMSProducer;
+import javax.jms.Message;
+import javax.jms.Queue;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class JmsSendMessageHandlerTest {
+
+    private static final String CONNECTION_FACTORY_JNDI = "java:/JmsXA";
+    private static final String QUEUE_JNDI = "jms/queue/PROCESS.MESSAGES";
+
+    private final JmsSendMessageHandler handler = new JmsSendMessageHandler();
+    private final Queue queue = mock(Queue.class);
+    private final JMSProducer producer = mock(JMSProducer.class);
+    private final WorkItemManager manager = mock(WorkItemManager.class);
+    private final Map<String, Object> parameters = new HashMap<>();
+    private final List<Map<String, String>> sent = new ArrayList<>();
+
+    @BeforeEach
+    void wireResources() throws Exception {
+        ConnectionFactory connectionFactory = mock(ConnectionFactory.class);
+        JMSContext context = mock(JMSContext.class);
+        when(connectionFactory.createContext()).thenReturn(context);
+        when(context.createProducer()).thenReturn(producer);
+        when(context.createBytesMessage()).thenAnswer(invocation -> message());
+        when(producer.setDeliveryMode(anyInt())).thenReturn(producer);
+        when(producer.setPriority(anyInt())).thenReturn(producer);
+        resources().put(CONNECTION_FACTORY_JNDI, connectionFactory);
+        resources().put(QUEUE_JNDI, queue);
+        parameters.put("messageName", "avviaFiglio");
+        parameters.put("correlationKey", "ORD-1");
+        parameters.put("variables", Collections.singletonMap("origine", "padre"));
+    }
+
+    @AfterEach
+    void clearResources() {
+        resources().clear();
+    }
+
+    @Test
+    void oneMessageIsSentPerListElement() {
+        parameters.put("variablesList", Arrays.asList(Collections.singletonMap("riga", 1), Collections.singletonMap("riga", 2)));
+        parameters.put("correlationKeyList", Arrays.asList("ORD-1/1", "ORD-1/2"));
+
+        handler.executeWorkItem(workItem(), manager);
+
+        assertThat(sent).extracting(properties -> properties.get("correlationKey")).containsExactly("ORD-1/1", "ORD-1/2");
+        assertThat(sent).extracting(properties -> properties.get(ProcessMessageCodecs.MESSAGE_ID_PROPERTY))
+                .doesNotContainNull()
+                .doesNotHaveDuplicates();
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Map<String, Object>> results = ArgumentCaptor.forClass(Map.class);
+        verify(manager).completeWorkItem(eq(7L), results.capture());
+        assertThat(results.getValue())
+                .containsEntry("messageCount", 2)
+                .containsEntry("messageIds", Arrays.asList(sent.get(0).get(ProcessMessageCodecs.MESSAGE_ID_PROPERTY),
+                                                           sent.get(1).get(ProcessMessageCodecs.MESSAGE_ID_PROPERTY)))
+                .doesNotContainKey("messageId");
+    }
+
+    @Test
+    void correlationKeyArrayIsAccepted() {
+        parameters.put("correlationKeyList", new String[] {"ORD-1", "ORD-2", "ORD-3"});
+
+        handler.executeWorkItem(workItem(), manager);
+
+        assertThat(sent).extracting(properties -> properties.get("correlationKey")).containsExactly("ORD-1", "ORD-2", "ORD-3");
+    }
+
+    @Test
+    void emptyVariablesListIsRejected() {
+        parameters.put("variablesList", Collections.emptyList());
+
+        assertRejected("variablesList");
+    }
+
+    @Test
+    void emptyCorrelationKeyListIsRejected() {
+        parameters.put("correlationKeyList", Collections.emptyList());
+
+        assertRejected("correlationKeyList");
+    }
+
+    @Test
+    void listsOfDifferentLengthAreRejected() {
+        parameters.put("variablesList", Arrays.asList(Collections.singletonMap("riga", 1), Collections.singletonMap("riga", 2)));
+        parameters.put("correlationKeyList", Collections.singletonList("ORD-1/1"));
+
+        assertRejected("stessa lunghezza");
+    }
+
+    @Test
+    void variablesListOfNonMapsIsRejected() {
+        parameters.put("variablesList", Arrays.asList(Collections.singletonMap("riga", 1), "riga 2"));
+
+        assertRejected("mappe di variabili");
+    }
+
+    @Test
+    void nonListParameterIsRejected() {
+        parameters.put("correlationKeyList", "ORD-1,ORD-2");
+
+        assertRejected("deve essere una lista");
+    }
+
+    private void assertRejected(String reason) {
+        assertThatIllegalArgumentException().isThrownBy(() -> handler.executeWorkItem(workItem(), manager))
+                .withMessageContaining(reason);
+
+        verify(manager).abortWorkItem(7L);
+        verify(manager, never()).completeWorkItem(anyLong(), anyMap());
+        verify(producer, never()).send(any(Destination.class), any(Message.class));
+    }
+
+    private WorkItem workItem() {
+        WorkItem workItem = mock(WorkItem.class);
+        when(workItem.getId()).thenReturn(7L);
+        when(workItem.getParameter(anyString())).thenAnswer(invocation -> parameters.get(invocation.<String>getArgument(0)));
+        return workItem;
+    }
+
+    private BytesMessage message() throws Exception {
+        BytesMessage message = mock(BytesMessage.class);
+        Map<String, String> properties = new HashMap<>();
+        sent.add(properties);
+        doAnswer(invocation -> properties.put(invocation.getArgument(0), invocation.getArgument(1)))
+                .when(message).setStringProperty(anyString(), anyString());
+        return message;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> resources() {
+        try {
+            Field resources = JmsResourceCache.class.getDeclaredField("RESOURCES");
+            resources.setAccessible(true);
+            return (Map<String, Object>) resources.get(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
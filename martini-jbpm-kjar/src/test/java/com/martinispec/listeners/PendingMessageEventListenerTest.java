@@ -0,0 +1,191 @@
+package com.martinispec.listeners;
+
+import com.martinispec.handlers.JmsResourceCache;
+import com.martinispec.model.codec.ProcessMessageCodecs;
+import com.martinispec.model.store.PendingMessageStore;
+import com.martinispec.model.store.PendingMessageStore.PendingMessage;
+import org.jbpm.workflow.core.node.EventNode;
+import org.jbpm.workflow.core.node.HumanTaskNode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.kie.api.definition.process.Node;
+import org.kie.api.event.process.ProcessNodeTriggeredEvent;
+import org.kie.api.runtime.process.NodeInstance;
+import org.kie.api.runtime.process.WorkflowProcessInstance;
+
+import javax.jms.BytesMessage;
+import javax.jms.ConnectionFactory;
+import javax.jms.Destination;
+import javax.jms.JMSContext;
+import javax.jms.JMSProducer;
+import javax.jms.JMSRuntimeException;
+import javax.jms.Queue;
+import java.lang.reflect.Field;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PendingMessageEventListenerTest {
+
+    private static final String CONNECTION_FACTORY_JNDI = "java:/JmsXA";
+    private static final String QUEUE_JNDI = "jms/queue/PROCESS.MESSAGES";
+
+    private final PendingMessageStore store = mock(PendingMessageStore.class);
+    private final Queue queue = mock(Queue.class);
+    private final JMSProducer producer = mock(JMSProducer.class);
+    private final BytesMessage message = mock(BytesMessage.class);
+    private final WorkflowProcessInstance instance = mock(WorkflowProcessInstance.class);
+
+    private final PendingMessageEventListener listener = new PendingMessageEventListener("c1", "ordineId, correlationKey");
+
+    @BeforeEach
+    void wireResources() {
+        ConnectionFactory connectionFactory = mock(ConnectionFactory.class);
+        JMSContext context = mock(JMSContext.class);
+        when(connectionFactory.createContext()).thenReturn(context);
+        when(context.createBytesMessage()).thenReturn(message);
+        when(context.createProducer()).thenReturn(producer);
+        when(producer.setDeliveryMode(anyInt())).thenReturn(producer);
+        when(producer.setPriority(anyInt())).thenReturn(producer);
+        when(instance.getId()).thenReturn(42L);
+        setStore(store);
+        resources().put(CONNECTION_FACTORY_JNDI, connectionFactory);
+        resources().put(QUEUE_JNDI, queue);
+    }
+
+    @AfterEach
+    void clearResources() {
+        setStore(null);
+        resources().clear();
+    }
+
+    @Test
+    void pendingMessageIsDeliveredToTheWaitingInstance() throws Exception {
+        when(instance.getVariable("ordineId")).thenReturn("ORD-1");
+        PendingMessage pending = pending("p1");
+        when(store.findFor("c1", Collections.singleton("ORD-1"), "figlioCompletato", 42L))
+                .thenReturn(Collections.singletonList(pending));
+        when(store.remove("p1")).thenReturn(true);
+
+        listener.afterNodeTriggered(event(eventNode("figlioCompletato")));
+
+        verify(message).writeBytes(pending.getPayload());
+        verify(message).setStringProperty(ProcessMessageCodecs.FORMAT_PROPERTY, "binary");
+        verify(message).setStringProperty("messageName", "figlioCompletato");
+        verify(message).setStringProperty(ProcessMessageCodecs.TARGET_INSTANCES_PROPERTY, "42");
+        verify(message).setStringProperty(ProcessMessageCodecs.CONTAINER_PROPERTY, "c1");
+        verify(message).setStringProperty(ProcessMessageCodecs.MESSAGE_ID_PROPERTY, "p1");
+        verify(producer).send(queue, message);
+    }
+
+    @Test
+    void messageClaimedElsewhereIsNotDelivered() throws Exception {
+        when(instance.getVariable("ordineId")).thenReturn("ORD-1");
+        when(store.findFor(anyString(), any(), anyString(), anyLong())).thenReturn(Arrays.asList(pending("p1"), pending("p2")));
+        when(store.remove("p1")).thenReturn(false);
+        when(store.remove("p2")).thenReturn(true);
+
+        listener.afterNodeTriggered(event(eventNode("figlioCompletato")));
+
+        verify(message).setStringProperty(ProcessMessageCodecs.MESSAGE_ID_PROPERTY, "p2");
+        verify(message, never()).setStringProperty(ProcessMessageCodecs.MESSAGE_ID_PROPERTY, "p1");
+    }
+
+    @Test
+    void allCorrelationVariablesAreSearched() throws Exception {
+        when(instance.getVariable("ordineId")).thenReturn("ORD-1");
+        when(instance.getVariable("correlationKey")).thenReturn("PRATICA-9");
+
+        listener.afterNodeTriggered(event(eventNode("figlioCompletato")));
+
+        verify(store).findFor("c1", new LinkedHashSet<>(Arrays.asList("ORD-1", "PRATICA-9")), "figlioCompletato", 42L);
+    }
+
+    @Test
+    void otherNodesAndUncorrelatedInstancesAreIgnored() throws Exception {
+        listener.afterNodeTriggered(event(mock(HumanTaskNode.class)));
+        listener.afterNodeTriggered(event(eventNode("figlioCompletato")));
+
+        verify(store, never()).findFor(anyString(), any(), anyString(), anyLong());
+    }
+
+    @Test
+    void failedDeliveryFailsTheTransactionAndEvictsTheResources() throws Exception {
+        when(instance.getVariable("ordineId")).thenReturn("ORD-1");
+        when(store.findFor(anyString(), any(), anyString(), anyLong())).thenReturn(Collections.singletonList(pending("p1")));
+        when(store.remove("p1")).thenReturn(true);
+        when(producer.send(any(Destination.class), any(BytesMessage.class))).thenThrow(new JMSRuntimeException("broker non raggiungibile"));
+
+        assertThatThrownBy(() -> listener.afterNodeTriggered(event(eventNode("figlioCompletato"))))
+                .isInstanceOf(RuntimeException.class)
+                .hasMessageContaining("figlioCompletato");
+
+        assertThat(resources()).isEmpty();
+    }
+
+    @Test
+    void storeErrorFailsTheTransaction() throws Exception {
+        when(instance.getVariable("ordineId")).thenReturn("ORD-1");
+        when(store.findFor(anyString(), any(), anyString(), anyLong())).thenThrow(new SQLException("lock timeout"));
+
+        assertThatThrownBy(() -> listener.afterNodeTriggered(event(eventNode("figlioCompletato"))))
+                .hasCauseInstanceOf(SQLException.class);
+    }
+
+    private ProcessNodeTriggeredEvent event(Node node) {
+        NodeInstance nodeInstance = mock(NodeInstance.class);
+        when(nodeInstance.getNode()).thenReturn(node);
+        ProcessNodeTriggeredEvent event = mock(ProcessNodeTriggeredEvent.class);
+        when(event.getNodeInstance()).thenReturn(nodeInstance);
+        when(event.getProcessInstance()).thenReturn(instance);
+        return event;
+    }
+
+    private static EventNode eventNode(String type) {
+        EventNode node = mock(EventNode.class);
+        when(node.getType()).thenReturn(type);
+        return node;
+    }
+
+    private static PendingMessage pending(String id) {
+        long now = System.currentTimeMillis();
+        return new PendingMessage(id, "c1", "ORD-1", "figlioCompletato", null, "binary", new byte[] { 'M', 'P', 1, 0 },
+                                  now - 1_000L, now + 60_000L);
+    }
+
+    private static void setStore(PendingMessageStore value) {
+        try {
+            Field store = PendingMessageEventListener.class.getDeclaredField("store");
+            store.setAccessible(true);
+            store.set(null, value);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> resources() {
+        try {
+            Field resources = JmsResourceCache.class.getDeclaredField("RESOURCES");
+            resources.setAccessible(true);
+            return (Map<String, Object>) resources.get(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.martinispec.model;
+
+/**
+ * Gruppo JMS (JMSXGroupID) dei messaggi di processo, derivato dalla correlation key.
+ *
+ * Artemis consegna tutti i messaggi dello stesso gruppo a un solo consumer alla volta e nell'ordine di invio:
+ * i messaggi per la stessa correlation key vengono così elaborati in sequenza (nessun lock ottimistico
+ * in conflitto sulla stessa istanza con PER_PROCESS_INSTANCE), quelli per chiavi diverse in parallelo
+ * sulle sessioni dell'MDB, sugli slot della pipeline asincrona e sui nodi del cluster.
+ *
+ * Le correlation key vengono distribuite su un numero fisso di gruppi (hash), così il broker mantiene
+ * un numero limitato di associazioni gruppo → consumer anche con milioni di chiavi:
+ *   -Dmartini.message.grouping=true        (false = nessun gruppo, nessuna garanzia d'ordine)
+ *   -Dmartini.message.groupBuckets=256     (0 = un gruppo per correlation key)
+ *
+ * I messaggi senza correlation key (avvio di processo) non hanno gruppo.
+ */
+public final class MessageGroups {
+
+    /**
+     * Proprietà JMS del gruppo.
+     */
+    public static final String GROUP_PROPERTY = "JMSXGroupID";
+
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("martini.message.grouping", "true"));
+    private static final int BUCKETS = Integer.getInteger("martini.message.groupBuckets", 256);
+
+    private MessageGroups() {
+    }
+
+    /**
+     * @param correlationKey Correlation key del messaggio (anche null)
+     * @return Identificativo del gruppo oppure null se il messaggio non va raggruppato
+     */
+    public static String groupId(String correlationKey) {
+        if (!ENABLED || correlationKey == null || correlationKey.trim().isEmpty()) {
+            return null;
+        }
+        if (BUCKETS <= 0) {
+            return correlationKey;
+        }
+        return "martini-" + Math.floorMod(correlationKey.hashCode(), BUCKETS);
+    }
+}
@@ -0,0 +1,97 @@
+package com.martinispec.model;
+
+/**
+ * Priorità dei messaggi di processo (JMSPriority) e corsia di consegna.
+ *
+ * La priorità (0-9, default 4) è indicata dal work item (parametro priority) oppure configurata per messageName:
+ *   -Dmartini.priority.<messageName>=high|normal|low|0-9     (es. martini.priority.figlioCompletato=high)
+ * high = 7, normal = 4, low = 1. Artemis consegna prima i messaggi con priorità più alta fra quelli in coda.
+ *
+ * Corsie (-Dmartini.priority.lanes.enabled=true): i messaggi con priorità almeno martini.priority.lane.threshold
+ * (default 7) vanno sulla coda PROCESS.MESSAGES.PRIORITY, consumata da un MDB con sessioni proprie: i signal
+ * urgenti non attendono lo smaltimento di un arretrato di messaggi di avvio sulla coda principale.
+ * Solo la coda di default viene divisa in corsie; una coda indicata esplicitamente resta invariata.
+ */
+public final class MessagePriority {
+
+    public static final int LOW = 1;
+    public static final int NORMAL = 4;
+    public static final int HIGH = 7;
+
+    /**
+     * Suffisso della coda della corsia prioritaria (PROCESS.MESSAGES → PROCESS.MESSAGES.PRIORITY).
+     */
+    public static final String LANE_SUFFIX = ".PRIORITY";
+
+    private static final boolean LANES_ENABLED = Boolean.getBoolean("martini.priority.lanes.enabled");
+    private static final int LANE_THRESHOLD = Integer.getInteger("martini.priority.lane.threshold", HIGH);
+
+    private MessagePriority() {
+    }
+
+    /**
+     * @param messageName Nome del messaggio
+     * @param requested Priorità indicata dal mittente (Integer, numero o high/normal/low), null per quella configurata
+     * @return Priorità JMS 0-9
+     * @throws IllegalArgumentException se la priorità indicata non è valida
+     */
+    public static int resolve(String messageName, Object requested) {
+        if (requested != null) {
+            return parse(requested);
+        }
+        String configured = System.getProperty("martini.priority." + messageName);
+        if (configured == null) {
+            return NORMAL;
+        }
+        try {
+            return parse(configured);
+        } catch (IllegalArgumentException e) {
+            return NORMAL;
+        }
+    }
+
+    /**
+     * @param queueJndi Coda di default (es. jms/queue/PROCESS.MESSAGES)
+     * @param priority Priorità JMS del messaggio
+     * @return Coda della corsia prioritaria se le corsie sono abilitate e la priorità supera la soglia, altrimenti queueJndi
+     */
+    public static String destination(String queueJndi, int priority) {
+        return isPriorityLane(priority) ? queueJndi + LANE_SUFFIX : queueJndi;
+    }
+
+    public static boolean isPriorityLane(int priority) {
+        return LANES_ENABLED && priority >= LANE_THRESHOLD;
+    }
+
+    public static boolean lanesEnabled() {
+        return LANES_ENABLED;
+    }
+
+    private static int parse(Object value) {
+        if (value instanceof Number) {
+            return check(((Number) value).intValue(), value);
+        }
+        String text = String.valueOf(value).trim().toLowerCase();
+        switch (text) {
+            case "high":
+                return HIGH;
+            case "normal":
+                return NORMAL;
+            case "low":
+                return LOW;
+            default:
+                try {
+                    return check(Integer.parseInt(text), value);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Priorità '" + value + "' non valida (high, normal, low o 0-9)");
+                }
+        }
+    }
+
+    private static int check(int priority, Object value) {
+        if (priority < 0 || priority > 9) {
+            throw new IllegalArgumentException("Priorità '" + value + "' non valida (high, normal, low o 0-9)");
+        }
+        return priority;
+    }
+}
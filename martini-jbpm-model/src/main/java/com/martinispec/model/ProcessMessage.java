@@ -35,6 +35,25 @@ public class ProcessMessage implements Serializable {
      */
     private Map<String, Object> variables;
     
+    /**
+     * Container KIE target (opzionale): id del container oppure alias, risolto dal listener
+     * nella versione più recente. Se null si usa il container di default del listener (kie.container.id).
+     * Esempio: "martiniavicolo" (alias), "martiniavicolo_1.1.0"
+     */
+    private String targetContainer;
+    
+    /**
+     * Identificativo univoco del messaggio (opzionale), assegnato dal JmsSendMessageHandler.
+     * Trasportato nella proprietà JMS martiniMessageId: il listener scarta i messaggi già elaborati.
+     */
+    private String messageId;
+    
+    /**
+     * Priorità JMS 0-9 (opzionale, vedi MessagePriority). Trasportata nell'header JMSPriority;
+     * se null si usa quella configurata per il messageName.
+     */
+    private Integer priority;
+    
     /**
      * Costruttore vuoto per la serializzazione.
      */
@@ -92,6 +111,30 @@ public class ProcessMessage implements Serializable {
         this.variables = variables;
     }
     
+    public String getTargetContainer() {
+        return targetContainer;
+    }
+    
+    public void setTargetContainer(String targetContainer) {
+        this.targetContainer = targetContainer;
+    }
+    
+    public String getMessageId() {
+        return messageId;
+    }
+    
+    public void setMessageId(String messageId) {
+        this.messageId = messageId;
+    }
+    
+    public Integer getPriority() {
+        return priority;
+    }
+    
+    public void setPriority(Integer priority) {
+        this.priority = priority;
+    }
+    
     /**
      * Verifica se il messaggio ha una correlation key definita.
      * 
@@ -114,8 +157,11 @@ public class ProcessMessage implements Serializable {
     @Override
     public String toString() {
         return "ProcessMessage{" +
-                "messageName='" + messageName + '\'' +
+                "messageId='" + messageId + '\'' +
+                ", messageName='" + messageName + '\'' +
                 ", correlationKey='" + correlationKey + '\'' +
+                ", targetContainer='" + targetContainer + '\'' +
+                ", priority=" + priority +
                 ", variables=" + variables +
                 '}';
     }
@@ -0,0 +1,437 @@
+package com.martinispec.model.codec;
+
+import com.martinispec.model.ProcessMessage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Formato binario compatto per ProcessMessage.
+ *
+ * Layout (big endian):
+ *   header  : 'M' 'P' | versione schema (1 byte) | flag (1 byte, bit 0 = corpo GZIP)
+ *   corpo   : messageName | correlationKey | [targetContainer, solo versione 2] | numero variabili | (nome, valore)*
+ *
+ * La versione 2 viene scritta solo per i messaggi con targetContainer, così i listener non ancora
+ * aggiornati continuano a leggere i messaggi senza container.
+ *
+ * Stringhe e lunghezze usano varint + UTF-8; ogni valore è preceduto da un tag di tipo.
+ * Sono supportati i tipi semplici (String, numeri, Boolean, Character, BigDecimal/BigInteger,
+ * Date, Instant, LocalDate, LocalDateTime, byte[]) e liste/mappe con chiavi String annidate.
+ * Un tipo diverso provoca IllegalArgumentException: il mittente può ripiegare sul formato legacy.
+ *
+ * Il corpo viene compresso quando supera martini.message.compress.threshold byte (default 4096,
+ * 0 disabilita la compressione).
+ *
+ * In lettura ogni lunghezza (stringhe, byte[], elementi di liste e mappe) è verificata contro i byte
+ * rimanenti del corpo prima di allocare: un payload troncato o corrotto provoca IOException, non
+ * un'allocazione sproporzionata. Un corpo GZIP può espandersi al massimo a martini.message.maxSize byte
+ * (default 64 MB). Liste e mappe possono annidarsi fino a 64 livelli, in scrittura e in lettura: oltre,
+ * IllegalArgumentException in codifica e IOException in decodifica (non StackOverflowError).
+ */
+public class BinaryProcessMessageCodec implements ProcessMessageCodec {
+
+    public static final String FORMAT = "binary";
+
+    static final int SCHEMA_VERSION = 1;
+    static final int SCHEMA_VERSION_CONTAINER = 2;
+
+    private static final byte MAGIC_0 = 'M';
+    private static final byte MAGIC_1 = 'P';
+    private static final int FLAG_GZIP = 0x01;
+
+    private static final int COMPRESS_THRESHOLD = Integer.getInteger("martini.message.compress.threshold", 4096);
+    private static final long MAX_SIZE = Long.getLong("martini.message.maxSize", 64L * 1024 * 1024);
+
+    // Capacità iniziale massima di liste e mappe: il resto cresce con gli elementi effettivamente letti
+    private static final int MAX_INITIAL_CAPACITY = 1024;
+
+    // Livelli di liste e mappe annidate: la lettura è ricorsiva
+    static final int MAX_DEPTH = 64;
+
+    private static final byte T_NULL = 0;
+    private static final byte T_STRING = 1;
+    private static final byte T_BOOLEAN = 2;
+    private static final byte T_INTEGER = 3;
+    private static final byte T_LONG = 4;
+    private static final byte T_DOUBLE = 5;
+    private static final byte T_FLOAT = 6;
+    private static final byte T_SHORT = 7;
+    private static final byte T_BYTE = 8;
+    private static final byte T_CHARACTER = 9;
+    private static final byte T_BIG_DECIMAL = 10;
+    private static final byte T_BIG_INTEGER = 11;
+    private static final byte T_DATE = 12;
+    private static final byte T_INSTANT = 13;
+    private static final byte T_LOCAL_DATE = 14;
+    private static final byte T_LOCAL_DATE_TIME = 15;
+    private static final byte T_BYTES = 16;
+    private static final byte T_LIST = 17;
+    private static final byte T_MAP = 18;
+
+    @Override
+    public String format() {
+        return FORMAT;
+    }
+
+    @Override
+    public byte[] encode(ProcessMessage message) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(body);
+        writeString(out, message.getMessageName());
+        writeString(out, message.getCorrelationKey());
+        int version = SCHEMA_VERSION;
+        if (message.getTargetContainer() != null) {
+            writeString(out, message.getTargetContainer());
+            version = SCHEMA_VERSION_CONTAINER;
+        }
+        Map<String, Object> variables = message.getVariables();
+        if (variables == null) {
+            writeVarInt(out, 0);
+        } else {
+            writeVarInt(out, variables.size());
+            for (Map.Entry<String, Object> entry : variables.entrySet()) {
+                writeString(out, entry.getKey());
+                writeValue(out, entry.getValue(), 0);
+            }
+        }
+        out.flush();
+
+        int flags = 0;
+        byte[] payload = body.toByteArray();
+        if (COMPRESS_THRESHOLD > 0 && payload.length > COMPRESS_THRESHOLD) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(payload.length / 2);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                gzip.write(payload);
+            }
+            if (compressed.size() < payload.length) {
+                payload = compressed.toByteArray();
+                flags |= FLAG_GZIP;
+            }
+        }
+
+        byte[] result = new byte[payload.length + 4];
+        result[0] = MAGIC_0;
+        result[1] = MAGIC_1;
+        result[2] = (byte) version;
+        result[3] = (byte) flags;
+        System.arraycopy(payload, 0, result, 4, payload.length);
+        return result;
+    }
+
+    @Override
+    public ProcessMessage decode(byte[] payload) throws IOException {
+        if (payload == null || payload.length < 4 || payload[0] != MAGIC_0 || payload[1] != MAGIC_1) {
+            throw new IOException("Payload non in formato " + FORMAT);
+        }
+        int version = payload[2] & 0xFF;
+        if (version != SCHEMA_VERSION && version != SCHEMA_VERSION_CONTAINER) {
+            throw new IOException("Versione schema " + version + " non supportata (attesa " + SCHEMA_VERSION
+                                  + " o " + SCHEMA_VERSION_CONTAINER + ")");
+        }
+        InputStream body = new ByteArrayInputStream(payload, 4, payload.length - 4);
+        long limit = payload.length - 4;
+        if ((payload[3] & FLAG_GZIP) != 0) {
+            body = new GZIPInputStream(body);
+            limit = MAX_SIZE;
+        }
+
+        try (BodyInput in = new BodyInput(body, limit)) {
+            String messageName = readString(in);
+            String correlationKey = readString(in);
+            String targetContainer = version == SCHEMA_VERSION_CONTAINER ? readString(in) : null;
+            int count = readCount(in, 2);
+            Map<String, Object> variables = new LinkedHashMap<>(capacity(count * 2));
+            for (int i = 0; i < count; i++) {
+                variables.put(readString(in), readValue(in, 0));
+            }
+            ProcessMessage message = new ProcessMessage(messageName, correlationKey, variables);
+            message.setTargetContainer(targetContainer);
+            return message;
+        }
+    }
+
+    private static void writeValue(DataOutputStream out, Object value, int depth) throws IOException {
+        if (value == null) {
+            out.writeByte(T_NULL);
+        } else if (value instanceof String) {
+            out.writeByte(T_STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(T_BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(T_INTEGER);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(T_LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Double) {
+            out.writeByte(T_DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            out.writeByte(T_FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Short) {
+            out.writeByte(T_SHORT);
+            out.writeShort((Short) value);
+        } else if (value instanceof Byte) {
+            out.writeByte(T_BYTE);
+            out.writeByte((Byte) value);
+        } else if (value instanceof Character) {
+            out.writeByte(T_CHARACTER);
+            out.writeChar((Character) value);
+        } else if (value instanceof BigDecimal) {
+            out.writeByte(T_BIG_DECIMAL);
+            writeString(out, value.toString());
+        } else if (value instanceof BigInteger) {
+            out.writeByte(T_BIG_INTEGER);
+            writeString(out, value.toString());
+        } else if (value instanceof Date && value.getClass() == Date.class) {
+            out.writeByte(T_DATE);
+            out.writeLong(((Date) value).getTime());
+        } else if (value instanceof Instant) {
+            out.writeByte(T_INSTANT);
+            out.writeLong(((Instant) value).getEpochSecond());
+            out.writeInt(((Instant) value).getNano());
+        } else if (value instanceof LocalDate) {
+            out.writeByte(T_LOCAL_DATE);
+            writeString(out, value.toString());
+        } else if (value instanceof LocalDateTime) {
+            out.writeByte(T_LOCAL_DATE_TIME);
+            writeString(out, value.toString());
+        } else if (value instanceof byte[]) {
+            byte[] bytes = (byte[]) value;
+            out.writeByte(T_BYTES);
+            writeVarInt(out, bytes.length);
+            out.write(bytes);
+        } else if ((value instanceof List || value instanceof Map) && depth >= MAX_DEPTH) {
+            throw new IllegalArgumentException("Liste/mappe annidate oltre " + MAX_DEPTH + " livelli");
+        } else if (value instanceof List) {
+            Collection<?> list = (Collection<?>) value;
+            out.writeByte(T_LIST);
+            writeVarInt(out, list.size());
+            for (Object item : list) {
+                writeValue(out, item, depth + 1);
+            }
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            out.writeByte(T_MAP);
+            writeVarInt(out, map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                if (!(entry.getKey() instanceof String)) {
+                    throw new IllegalArgumentException("Chiave di mappa non String non supportata: " + entry.getKey());
+                }
+                writeString(out, (String) entry.getKey());
+                writeValue(out, entry.getValue(), depth + 1);
+            }
+        } else {
+            throw new IllegalArgumentException("Tipo di variabile non supportato dal formato " + FORMAT + ": "
+                                               + value.getClass().getName());
+        }
+    }
+
+    private static Object readValue(BodyInput in, int depth) throws IOException {
+        byte type = in.readByte();
+        if ((type == T_LIST || type == T_MAP) && depth >= MAX_DEPTH) {
+            throw new IOException("Liste/mappe annidate oltre " + MAX_DEPTH + " livelli");
+        }
+        switch (type) {
+            case T_NULL:
+                return null;
+            case T_STRING:
+                return readString(in);
+            case T_BOOLEAN:
+                return in.readBoolean();
+            case T_INTEGER:
+                return in.readInt();
+            case T_LONG:
+                return in.readLong();
+            case T_DOUBLE:
+                return in.readDouble();
+            case T_FLOAT:
+                return in.readFloat();
+            case T_SHORT:
+                return in.readShort();
+            case T_BYTE:
+                return in.readByte();
+            case T_CHARACTER:
+                return in.readChar();
+            case T_BIG_DECIMAL:
+                return new BigDecimal(readString(in));
+            case T_BIG_INTEGER:
+                return new BigInteger(readString(in));
+            case T_DATE:
+                return new Date(in.readLong());
+            case T_INSTANT:
+                return Instant.ofEpochSecond(in.readLong(), in.readInt());
+            case T_LOCAL_DATE:
+                return LocalDate.parse(readString(in));
+            case T_LOCAL_DATE_TIME:
+                return LocalDateTime.parse(readString(in));
+            case T_BYTES:
+                byte[] bytes = new byte[readCount(in, 1)];
+                in.readFully(bytes);
+                return bytes;
+            case T_LIST:
+                int size = readCount(in, 1);
+                List<Object> list = new ArrayList<>(capacity(size));
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue(in, depth + 1));
+                }
+                return list;
+            case T_MAP:
+                int entries = readCount(in, 2);
+                Map<String, Object> map = new LinkedHashMap<>(capacity(entries * 2));
+                for (int i = 0; i < entries; i++) {
+                    map.put(readString(in), readValue(in, depth + 1));
+                }
+                return map;
+            default:
+                throw new IOException("Tag di tipo sconosciuto: " + type);
+        }
+    }
+
+    /**
+     * Stringa nullable: varint (lunghezza UTF-8 + 1, 0 = null) seguito dai byte.
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length + 1);
+        out.write(bytes);
+    }
+
+    private static String readString(BodyInput in) throws IOException {
+        int length = readVarInt(in);
+        if (length == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[checkLength(in, length - 1, 1)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Varint troncato");
+            }
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Varint non valido");
+    }
+
+    /**
+     * Numero di byte o di elementi, ciascuno lungo almeno minBytes: deve stare nei byte rimanenti.
+     */
+    private static int readCount(BodyInput in, int minBytes) throws IOException {
+        return checkLength(in, readVarInt(in), minBytes);
+    }
+
+    private static int checkLength(BodyInput in, int length, int minBytes) throws IOException {
+        if (length < 0) {
+            throw new IOException("Lunghezza non valida: " + length);
+        }
+        if ((long) length * minBytes > in.remaining()) {
+            throw new IOException("Lunghezza " + length + " oltre i byte rimanenti del messaggio (" + in.remaining() + ")");
+        }
+        return length;
+    }
+
+    private static int capacity(int requested) {
+        return Math.max(16, Math.min(requested, MAX_INITIAL_CAPACITY));
+    }
+
+    /**
+     * Corpo in lettura con il numero di byte che possono ancora essere letti: la dimensione del corpo
+     * non compresso, o martini.message.maxSize per il corpo GZIP (oltre il limite la lettura termina).
+     */
+    private static final class BodyInput extends DataInputStream {
+
+        BodyInput(InputStream body, long limit) {
+            super(new LimitedInputStream(body, limit));
+        }
+
+        long remaining() {
+            return ((LimitedInputStream) in).remaining;
+        }
+    }
+
+    private static final class LimitedInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = super.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.martinispec.model.codec;
+
+import com.martinispec.model.ProcessMessage;
+
+import java.io.IOException;
+
+/**
+ * Codifica di un ProcessMessage nel payload di un messaggio JMS (BytesMessage).
+ *
+ * Il formato usato è indicato dalla proprietà JMS {@link ProcessMessageCodecs#FORMAT_PROPERTY},
+ * così mittente e listener possono convivere con formati diversi durante una migrazione.
+ */
+public interface ProcessMessageCodec {
+
+    /**
+     * Identificativo del formato, inviato nella proprietà JMS del messaggio.
+     */
+    String format();
+
+    /**
+     * @param message Messaggio da codificare
+     * @return Payload binario
+     * @throws IllegalArgumentException se una variabile ha un tipo non rappresentabile nel formato
+     */
+    byte[] encode(ProcessMessage message) throws IOException;
+
+    /**
+     * @param payload Payload binario ricevuto
+     * @return Messaggio decodificato
+     * @throws IOException se il payload non è valido o usa una versione di schema non supportata
+     */
+    ProcessMessage decode(byte[] payload) throws IOException;
+}
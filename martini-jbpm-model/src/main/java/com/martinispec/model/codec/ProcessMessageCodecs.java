@@ -0,0 +1,77 @@
+package com.martinispec.model.codec;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registro dei codec disponibili per ProcessMessage.
+ *
+ * Configurazione lato mittente:
+ *   -Dmartini.message.format=binary   (default) BytesMessage con {@link BinaryProcessMessageCodec}
+ *   -Dmartini.message.format=java     ObjectMessage con serializzazione Java (legacy)
+ *
+ * Il listener accetta sempre entrambi: il BytesMessage viene decodificato con il codec indicato
+ * dalla proprietà {@link #FORMAT_PROPERTY}, l'ObjectMessage senza proprietà è il formato legacy.
+ */
+public final class ProcessMessageCodecs {
+
+    /**
+     * Proprietà JMS con l'identificativo del formato del payload.
+     */
+    public static final String FORMAT_PROPERTY = "martiniFormat";
+
+    /**
+     * Proprietà JMS con il container target (id o alias), se indicato. Prevale sul targetContainer del payload:
+     * i messaggi ripubblicati per istanze specifiche indicano il container effettivo delle istanze.
+     */
+    public static final String CONTAINER_PROPERTY = "martiniContainer";
+
+    /**
+     * Proprietà JMS con l'identificativo univoco del messaggio, assegnato dal mittente e conservato
+     * da retry, DLQ e ripubblicazioni: il listener la usa per riconoscere i duplicati.
+     * Viaggia come proprietà (non nel payload) così è disponibile anche con il claim-check.
+     */
+    public static final String MESSAGE_ID_PROPERTY = "martiniMessageId";
+
+    /**
+     * Proprietà JMS con le istanze destinatarie esplicite (id separati da virgola): il listener fa il signal
+     * solo a queste, senza risolvere la correlation key (retry del fan-out, messaggi in attesa consegnati).
+     */
+    public static final String TARGET_INSTANCES_PROPERTY = "martiniTargetInstances";
+
+    /**
+     * Formato legacy: ObjectMessage con ProcessMessage serializzato.
+     */
+    public static final String JAVA_FORMAT = "java";
+
+    private static final Map<String, ProcessMessageCodec> CODECS = new ConcurrentHashMap<>();
+
+    static {
+        register(new BinaryProcessMessageCodec());
+    }
+
+    private ProcessMessageCodecs() {
+    }
+
+    /**
+     * Registra un codec aggiuntivo (sostituisce un eventuale codec con lo stesso formato).
+     */
+    public static void register(ProcessMessageCodec codec) {
+        CODECS.put(codec.format(), codec);
+    }
+
+    /**
+     * @param format Identificativo del formato
+     * @return Codec registrato oppure null se il formato non è noto
+     */
+    public static ProcessMessageCodec forFormat(String format) {
+        return format != null ? CODECS.get(format) : null;
+    }
+
+    /**
+     * Formato configurato per l'invio (martini.message.format, default binary).
+     */
+    public static String sendFormat() {
+        return System.getProperty("martini.message.format", BinaryProcessMessageCodec.FORMAT);
+    }
+}
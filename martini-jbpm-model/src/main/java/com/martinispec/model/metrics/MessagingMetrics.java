@@ -0,0 +1,239 @@
+package com.martinispec.model.metrics;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Registro minimale di metriche (timer, contatori, gauge) per handler e listener JMS.
+ *
+ * Un registro per componente (es. "kjar" per il JmsSendMessageHandler, "service" per il listener),
+ * registrato come MXBean su com.martinispec:type=MessagingMetrics,component=&lt;componente&gt;.
+ * Il testo Prometheus di tutti i componenti nella JVM è esposto dall'endpoint HTTP del servizio.
+ *
+ * Le metriche sono identificate da nome + coppie etichetta/valore; l'etichetta component
+ * viene aggiunta automaticamente.
+ */
+public final class MessagingMetrics implements MessagingMetricsMXBean {
+
+    private static final String OBJECT_NAME = "com.martinispec:type=MessagingMetrics,component=";
+
+    // Bucket degli istogrammi di latenza, in secondi
+    private static final double[] BUCKETS = { 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10 };
+
+    private static final ConcurrentMap<String, MessagingMetrics> REGISTRIES = new ConcurrentHashMap<>();
+
+    private final String component;
+    private final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLong> gauges = new ConcurrentHashMap<>();
+
+    private MessagingMetrics(String component) {
+        this.component = component;
+    }
+
+    /**
+     * Registro del componente, creato e registrato in JMX al primo utilizzo.
+     */
+    public static MessagingMetrics forComponent(String component) {
+        return REGISTRIES.computeIfAbsent(component, MessagingMetrics::register);
+    }
+
+    private static MessagingMetrics register(String component) {
+        MessagingMetrics metrics = new MessagingMetrics(component);
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME + component);
+            try {
+                server.registerMBean(metrics, name);
+            } catch (InstanceAlreadyExistsException e) {
+                // Redeploy: sostituisce il registro della versione precedente
+                server.unregisterMBean(name);
+                server.registerMBean(metrics, name);
+            }
+        } catch (Exception e) {
+            // Metriche comunque disponibili in memoria, solo senza JMX
+        }
+        return metrics;
+    }
+
+    /**
+     * Rimuove il registro dal server JMX (undeploy).
+     */
+    public static void unregister(String component) {
+        if (REGISTRIES.remove(component) != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(OBJECT_NAME + component));
+            } catch (Exception e) {
+                // Già rimosso
+            }
+        }
+    }
+
+    /**
+     * @param name Nome della metrica (es. martini_message_route_seconds)
+     * @param labels Coppie etichetta, valore
+     */
+    public Timer timer(String name, String... labels) {
+        return timers.computeIfAbsent(key(name, labels), k -> new Timer());
+    }
+
+    public void increment(String name, String... labels) {
+        counters.computeIfAbsent(key(name, labels), k -> new LongAdder()).increment();
+    }
+
+    public void add(String name, long delta, String... labels) {
+        counters.computeIfAbsent(key(name, labels), k -> new LongAdder()).add(delta);
+    }
+
+    public AtomicLong gauge(String name, String... labels) {
+        return gauges.computeIfAbsent(key(name, labels), k -> new AtomicLong());
+    }
+
+    private String key(String name, String... labels) {
+        StringBuilder sb = new StringBuilder(name).append("{component=\"").append(component).append('"');
+        for (int i = 0; i + 1 < labels.length; i += 2) {
+            sb.append(',').append(labels[i]).append("=\"").append(escape(labels[i + 1])).append('"');
+        }
+        return sb.append('}').toString();
+    }
+
+    private static String escape(String value) {
+        if (value == null) {
+            return "";
+        }
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        return snapshot(counters, LongAdder::sum);
+    }
+
+    @Override
+    public Map<String, Long> getGauges() {
+        return snapshot(gauges, AtomicLong::get);
+    }
+
+    @Override
+    public Map<String, Long> getTimerCounts() {
+        return snapshot(timers, t -> t.count.sum());
+    }
+
+    @Override
+    public Map<String, Double> getTimerMeanMillis() {
+        return snapshot(timers, Timer::meanMillis);
+    }
+
+    @Override
+    public Map<String, Double> getTimerMaxMillis() {
+        return snapshot(timers, t -> t.max.get() / 1_000_000.0);
+    }
+
+    @Override
+    public void reset() {
+        counters.clear();
+        timers.clear();
+    }
+
+    private static <V, R> Map<String, R> snapshot(Map<String, V> metrics, Function<V, R> value) {
+        Map<String, R> result = new TreeMap<>();
+        metrics.forEach((key, metric) -> result.put(key, value.apply(metric)));
+        return result;
+    }
+
+    @Override
+    public String getPrometheusText() {
+        StringBuilder out = new StringBuilder();
+        appendFamilies(out, getCounters(), "counter");
+        appendFamilies(out, getGauges(), "gauge");
+
+        Map<String, Timer> sorted = new TreeMap<>(timers);
+        String family = null;
+        for (Map.Entry<String, Timer> entry : sorted.entrySet()) {
+            String name = entry.getKey().substring(0, entry.getKey().indexOf('{'));
+            String labels = entry.getKey().substring(name.length() + 1, entry.getKey().length() - 1);
+            if (!name.equals(family)) {
+                out.append("# TYPE ").append(name).append(" histogram\n");
+                family = name;
+            }
+            Timer timer = entry.getValue();
+            long cumulative = 0;
+            for (int i = 0; i < BUCKETS.length; i++) {
+                cumulative += timer.buckets[i].sum();
+                out.append(name).append("_bucket{").append(labels).append(",le=\"").append(BUCKETS[i]).append("\"} ")
+                   .append(cumulative).append('\n');
+            }
+            long count = timer.count.sum();
+            out.append(name).append("_bucket{").append(labels).append(",le=\"+Inf\"} ").append(count).append('\n');
+            out.append(name).append("_sum{").append(labels).append("} ").append(timer.totalNanos.sum() / 1e9).append('\n');
+            out.append(name).append("_count{").append(labels).append("} ").append(count).append('\n');
+        }
+        return out.toString();
+    }
+
+    private static void appendFamilies(StringBuilder out, Map<String, Long> values, String type) {
+        String family = null;
+        for (Map.Entry<String, Long> entry : values.entrySet()) {
+            String name = entry.getKey().substring(0, entry.getKey().indexOf('{'));
+            if (!name.equals(family)) {
+                out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+                family = name;
+            }
+            out.append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+        }
+    }
+
+    /**
+     * Timer di latenza: conteggio, somma, massimo e istogramma a bucket fissi.
+     */
+    public static final class Timer {
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+        private final LongAdder[] buckets = new LongAdder[BUCKETS.length];
+
+        private Timer() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * @param nanos Durata misurata con System.nanoTime()
+         */
+        public void record(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            max.accumulateAndGet(nanos, Math::max);
+            double seconds = nanos / 1e9;
+            for (int i = 0; i < BUCKETS.length; i++) {
+                if (seconds <= BUCKETS[i]) {
+                    buckets[i].increment();
+                    break;
+                }
+            }
+        }
+
+        /**
+         * Registra il tempo trascorso da start (System.nanoTime()).
+         */
+        public void recordSince(long start) {
+            record(System.nanoTime() - start);
+        }
+
+        private double meanMillis() {
+            long n = count.sum();
+            return n == 0 ? 0.0 : totalNanos.sum() / 1_000_000.0 / n;
+        }
+    }
+}
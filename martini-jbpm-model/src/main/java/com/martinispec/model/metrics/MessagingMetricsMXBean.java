@@ -0,0 +1,47 @@
+package com.martinispec.model.metrics;
+
+import java.util.Map;
+
+/**
+ * Metriche della comunicazione JMS tra processi esposte via JMX.
+ *
+ * ObjectName: com.martinispec:type=MessagingMetrics,component=&lt;componente&gt;
+ * Le chiavi sono nel formato Prometheus nome{etichette}.
+ */
+public interface MessagingMetricsMXBean {
+
+    /**
+     * Contatori (es. messaggi avviati/segnalati/non instradati/falliti per messageName).
+     */
+    Map<String, Long> getCounters();
+
+    /**
+     * Valori correnti dei gauge (es. messaggi in elaborazione).
+     */
+    Map<String, Long> getGauges();
+
+    /**
+     * Numero di misure per timer.
+     */
+    Map<String, Long> getTimerCounts();
+
+    /**
+     * Latenza media per timer, in millisecondi.
+     */
+    Map<String, Double> getTimerMeanMillis();
+
+    /**
+     * Latenza massima per timer, in millisecondi.
+     */
+    Map<String, Double> getTimerMaxMillis();
+
+    /**
+     * Tutte le metriche nel formato di esposizione testuale di Prometheus.
+     */
+    String getPrometheusText();
+
+    /**
+     * Azzera contatori e timer (i gauge riflettono lo stato corrente e non vengono azzerati).
+     */
+    void reset();
+}
@@ -0,0 +1,267 @@
+package com.martinispec.model.store;
+
+import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Messaggi in aggregazione (scatter-gather): i completamenti dei figli raccolti per correlation key
+ * finché il gruppo non raggiunge il numero atteso o scade, poi consegnati al padre in un solo signal.
+ *
+ * Una riga per messaggio raccolto; il gruppo (GROUP_KEY) è identificato da nome del messaggio,
+ * correlation key e container target. EXPECTED è il numero di messaggi atteso indicato dal membro
+ * (0 = non indicato), EXPIRES_AT la scadenza del gruppo calcolata all'arrivo del membro.
+ *
+ * Scritto e letto dal listener JMS nella transazione del messaggio ricevuto e dalla riconciliazione
+ * periodica del servizio. La rimozione (DELETE per id) è la presa in carico: solo chi rimuove
+ * le righe le consegna nel messaggio aggregato.
+ */
+public class AggregationStore extends JdbcStore {
+
+    public static final String TABLE = "MARTINI_AGGREGATION";
+
+    private static final String SELECT = "SELECT ID, GROUP_KEY, MESSAGE_NAME, CORRELATION_KEY, TARGET_CONTAINER, EXPECTED,"
+                                         + " FORMAT, PAYLOAD, CREATED_AT, EXPIRES_AT FROM " + TABLE;
+
+    public AggregationStore(DataSource dataSource) {
+        super(dataSource);
+    }
+
+    /**
+     * Crea lo store sul datasource indicato via JNDI.
+     *
+     * @param jndiName Nome JNDI del datasource (es. java:jboss/datasources/jBPMDS)
+     */
+    public static AggregationStore fromJndi(String jndiName) {
+        return new AggregationStore(lookupDataSource(jndiName));
+    }
+
+    @Override
+    protected String tableName() {
+        return TABLE;
+    }
+
+    @Override
+    protected String[] createStatements() {
+        return new String[] {
+            "CREATE TABLE " + TABLE + " ("
+                + "ID VARCHAR(36) NOT NULL, "
+                + "GROUP_KEY VARCHAR(36) NOT NULL, "
+                + "MESSAGE_NAME VARCHAR(255) NOT NULL, "
+                + "CORRELATION_KEY VARCHAR(255) NOT NULL, "
+                + "TARGET_CONTAINER VARCHAR(255), "
+                + "EXPECTED INTEGER NOT NULL, "
+                + "FORMAT VARCHAR(32) NOT NULL, "
+                + "PAYLOAD " + binaryType() + " NOT NULL, "
+                + "CREATED_AT BIGINT NOT NULL, "
+                + "EXPIRES_AT BIGINT NOT NULL, "
+                + "PRIMARY KEY (ID))",
+            "CREATE INDEX IDX_MARTINI_AGGREGATION_GROUP ON " + TABLE + " (GROUP_KEY)",
+            "CREATE INDEX IDX_MARTINI_AGGREGATION_EXP ON " + TABLE + " (EXPIRES_AT)"
+        };
+    }
+
+    /**
+     * Chiave del gruppo: UUID derivato da nome del messaggio, correlation key e container target.
+     */
+    public static String groupKey(String messageName, String correlationKey, String targetContainer) {
+        String source = messageName + '\n' + correlationKey + '\n' + (targetContainer != null ? targetContainer : "");
+        return UUID.nameUUIDFromBytes(source.getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    /**
+     * Aggiunge un messaggio al gruppo.
+     *
+     * @param expected Numero di messaggi atteso nel gruppo, 0 se il messaggio non lo indica
+     * @param format Formato del payload (codec di martini-jbpm-model)
+     * @param timeoutMillis Attesa massima del gruppo dall'arrivo di questo messaggio
+     * @return Identificativo della riga
+     */
+    public String add(String groupKey, String messageName, String correlationKey, String targetContainer,
+                      int expected, String format, byte[] payload, long timeoutMillis) throws SQLException {
+        String id = UUID.randomUUID().toString();
+        long now = System.currentTimeMillis();
+        try (Connection connection = getConnection();
+             PreparedStatement insert = connection.prepareStatement(
+                     "INSERT INTO " + TABLE + " (ID, GROUP_KEY, MESSAGE_NAME, CORRELATION_KEY, TARGET_CONTAINER, EXPECTED,"
+                         + " FORMAT, PAYLOAD, CREATED_AT, EXPIRES_AT) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+            insert.setString(1, id);
+            insert.setString(2, groupKey);
+            insert.setString(3, messageName);
+            insert.setString(4, correlationKey);
+            if (targetContainer != null) {
+                insert.setString(5, targetContainer);
+            } else {
+                insert.setNull(5, Types.VARCHAR);
+            }
+            insert.setInt(6, expected);
+            insert.setString(7, format);
+            insert.setBytes(8, payload);
+            insert.setLong(9, now);
+            insert.setLong(10, now + timeoutMillis);
+            insert.executeUpdate();
+        }
+        return id;
+    }
+
+    /**
+     * @return true se il gruppo ha raggiunto il numero di messaggi atteso (il massimo indicato dai membri)
+     */
+    public boolean isComplete(String groupKey) throws SQLException {
+        try (Connection connection = getConnection();
+             PreparedStatement select = connection.prepareStatement(
+                     "SELECT COUNT(*), MAX(EXPECTED) FROM " + TABLE + " WHERE GROUP_KEY = ?")) {
+            select.setString(1, groupKey);
+            try (ResultSet rs = select.executeQuery()) {
+                if (!rs.next()) {
+                    return false;
+                }
+                int count = rs.getInt(1);
+                int expected = rs.getInt(2);
+                return expected > 0 && count >= expected;
+            }
+        }
+    }
+
+    /**
+     * Messaggi del gruppo in ordine di arrivo.
+     */
+    public List<AggregatedMessage> findGroup(String groupKey) throws SQLException {
+        try (Connection connection = getConnection();
+             PreparedStatement select = connection.prepareStatement(SELECT + " WHERE GROUP_KEY = ? ORDER BY CREATED_AT, ID")) {
+            select.setString(1, groupKey);
+            return read(select);
+        }
+    }
+
+    /**
+     * Gruppi da consegnare: completi (messi in attesa da un'aggregazione concorrente) o scaduti.
+     *
+     * @return Chiavi dei gruppi
+     */
+    public List<String> findDue(int maxResults) throws SQLException {
+        try (Connection connection = getConnection();
+             PreparedStatement select = connection.prepareStatement(
+                     "SELECT GROUP_KEY FROM " + TABLE + " GROUP BY GROUP_KEY"
+                         + " HAVING MIN(EXPIRES_AT) <= ? OR (MAX(EXPECTED) > 0 AND COUNT(*) >= MAX(EXPECTED))")) {
+            select.setLong(1, System.currentTimeMillis());
+            select.setMaxRows(maxResults);
+            List<String> groups = new ArrayList<>();
+            try (ResultSet rs = select.executeQuery()) {
+                while (rs.next()) {
+                    groups.add(rs.getString(1));
+                }
+            }
+            return groups;
+        }
+    }
+
+    /**
+     * Rimuove (prende in carico) un messaggio del gruppo.
+     *
+     * @return true se la riga è stata rimossa da questa chiamata, false se già presa in carico da altri
+     */
+    public boolean remove(String id) throws SQLException {
+        try (Connection connection = getConnection();
+             PreparedStatement delete = connection.prepareStatement("DELETE FROM " + TABLE + " WHERE ID = ?")) {
+            delete.setString(1, id);
+            return delete.executeUpdate() == 1;
+        }
+    }
+
+    private static List<AggregatedMessage> read(PreparedStatement select) throws SQLException {
+        List<AggregatedMessage> messages = new ArrayList<>();
+        try (ResultSet rs = select.executeQuery()) {
+            while (rs.next()) {
+                messages.add(new AggregatedMessage(rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4),
+                                                   rs.getString(5), rs.getInt(6), rs.getString(7), rs.getBytes(8),
+                                                   rs.getLong(9), rs.getLong(10)));
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Messaggio raccolto in un gruppo.
+     */
+    public static final class AggregatedMessage {
+
+        private final String id;
+        private final String groupKey;
+        private final String messageName;
+        private final String correlationKey;
+        private final String targetContainer;
+        private final int expected;
+        private final String format;
+        private final byte[] payload;
+        private final long createdAt;
+        private final long expiresAt;
+
+        AggregatedMessage(String id, String groupKey, String messageName, String correlationKey, String targetContainer,
+                          int expected, String format, byte[] payload, long createdAt, long expiresAt) {
+            this.id = id;
+            this.groupKey = groupKey;
+            this.messageName = messageName;
+            this.correlationKey = correlationKey;
+            this.targetContainer = targetContainer;
+            this.expected = expected;
+            this.format = format;
+            this.payload = payload;
+            this.createdAt = createdAt;
+            this.expiresAt = expiresAt;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getGroupKey() {
+            return groupKey;
+        }
+
+        public String getMessageName() {
+            return messageName;
+        }
+
+        public String getCorrelationKey() {
+            return correlationKey;
+        }
+
+        /**
+         * @return Container target indicato dal messaggio, null per il container di default
+         */
+        public String getTargetContainer() {
+            return targetContainer;
+        }
+
+        /**
+         * @return Numero di messaggi atteso nel gruppo, 0 se non indicato
+         */
+        public int getExpected() {
+            return expected;
+        }
+
+        public String getFormat() {
+            return format;
+        }
+
+        public byte[] getPayload() {
+            return payload;
+        }
+
+        public long getCreatedAt() {
+            return createdAt;
+        }
+
+        public long getExpiresAt() {
+            return expiresAt;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.martinispec.model.store;
+
+import java.sql.SQLException;
+
+/**
+ * Claim-check dei payload grandi: oltre la soglia il payload codificato del ProcessMessage non viaggia
+ * nel messaggio JMS ma viene scritto in MARTINI_PAYLOAD, e il messaggio (BytesMessage senza corpo)
+ * porta solo il riferimento nella proprietà {@link #REFERENCE_PROPERTY}, oltre a messageName e correlationKey.
+ *
+ * Riduce journal e paging del broker per lotti e ordini con molti dati. La scrittura avviene nella transazione
+ * del mittente (datasource di jBPM); il listener legge il payload solo quando servono le variabili e rimuove
+ * la riga dopo il dispatch. Retry e DLQ conservano il riferimento. Le righe dei messaggi che non arrivano al
+ * listener vengono rimosse per età dal ClaimCheckPurger del servizio (martini.claimcheck.retention).
+ *
+ * Configurazione:
+ *   -Dmartini.claimcheck.threshold=0   (byte del payload codificato oltre i quali si usa il claim-check, 0 = disattivo)
+ *
+ * Vale solo per il formato binario; l'ObjectMessage legacy viaggia sempre completo.
+ */
+public final class ClaimCheck {
+
+    /**
+     * Proprietà JMS con il riferimento al payload.
+     */
+    public static final String REFERENCE_PROPERTY = "martiniClaimCheck";
+
+    private static final int THRESHOLD = Integer.getInteger("martini.claimcheck.threshold", 0);
+
+    private static volatile PayloadStore store;
+
+    private ClaimCheck() {
+    }
+
+    /**
+     * @param payload Payload codificato
+     * @return true se il payload va memorizzato a parte
+     */
+    public static boolean applies(byte[] payload) {
+        return THRESHOLD > 0 && payload.length > THRESHOLD;
+    }
+
+    /**
+     * Memorizza il payload nella transazione corrente se supera la soglia.
+     *
+     * @return Riferimento da impostare in {@link #REFERENCE_PROPERTY}, null se il payload va nel messaggio
+     */
+    public static String storeIfLarge(byte[] payload) throws SQLException {
+        return applies(payload) ? getStore().put(payload) : null;
+    }
+
+    /**
+     * @return Payload oppure null se il riferimento non esiste più
+     */
+    public static byte[] load(String reference) throws SQLException {
+        return getStore().get(reference);
+    }
+
+    /**
+     * Rimuove il payload dopo il dispatch del messaggio.
+     */
+    public static void release(String reference) throws SQLException {
+        getStore().remove(reference);
+    }
+
+    public static PayloadStore getStore() {
+        PayloadStore current = store;
+        if (current == null) {
+            synchronized (ClaimCheck.class) {
+                current = store;
+                if (current == null) {
+                    current = PayloadStore.fromJndi(JdbcStore.DATASOURCE_JNDI);
+                    store = current;
+                }
+            }
+        }
+        return current;
+    }
+}
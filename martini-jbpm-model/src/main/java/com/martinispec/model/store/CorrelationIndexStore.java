@@ -0,0 +1,172 @@
+package com.martinispec.model.store;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Indice correlationKey → processInstanceId.
+ *
+ * Alimentato dal CorrelationIndexEventListener del KJAR (avvio processo, cambio variabile,
+ * completamento) e interrogato dal listener JMS per inviare i signal con una sola query
+ * indicizzata, indipendentemente dal numero di istanze attive.
+ */
+public class CorrelationIndexStore extends JdbcStore {
+
+    public static final String TABLE = "MARTINI_CORRELATION_INDEX";
+
+    /**
+     * Variabili di correlazione indicizzate dai listener del KJAR registrati senza lista esplicita
+     * (-Dmartini.correlation.variables, nomi separati da virgola). Solo queste variabili sono cercate dal listener JMS.
+     */
+    public static final String DEFAULT_VARIABLES = System.getProperty("martini.correlation.variables", "correlationKey,ordineId");
+
+    public CorrelationIndexStore(DataSource dataSource) {
+        super(dataSource);
+    }
+
+    /**
+     * Crea lo store sul datasource indicato via JNDI.
+     *
+     * @param jndiName Nome JNDI del datasource (es. java:jboss/datasources/jBPMDS)
+     */
+    public static CorrelationIndexStore fromJndi(String jndiName) {
+        return new CorrelationIndexStore(lookupDataSource(jndiName));
+    }
+
+    @Override
+    protected String tableName() {
+        return TABLE;
+    }
+
+    @Override
+    protected String[] createStatements() {
+        return new String[] {
+            "CREATE TABLE " + TABLE + " ("
+                + "PROCESS_INSTANCE_ID BIGINT NOT NULL, "
+                + "VARIABLE_NAME VARCHAR(255) NOT NULL, "
+                + "CORRELATION_KEY VARCHAR(255) NOT NULL, "
+                + "CONTAINER_ID VARCHAR(255), "
+                + "PRIMARY KEY (PROCESS_INSTANCE_ID, VARIABLE_NAME))",
+            "CREATE INDEX IDX_MARTINI_CORR_KEY ON " + TABLE + " (CORRELATION_KEY)"
+        };
+    }
+
+    /**
+     * Registra (o aggiorna) il valore di una variabile di correlazione per un'istanza.
+     *
+     * @param processInstanceId ID dell'istanza di processo
+     * @param containerId Container (deployment) dell'istanza
+     * @param variableName Nome della variabile di correlazione
+     * @param correlationKey Valore della variabile
+     */
+    public void register(long processInstanceId, String containerId, String variableName, String correlationKey) throws SQLException {
+        try (Connection connection = getConnection()) {
+            try (PreparedStatement delete = connection.prepareStatement(
+                    "DELETE FROM " + TABLE + " WHERE PROCESS_INSTANCE_ID = ? AND VARIABLE_NAME = ?")) {
+                delete.setLong(1, processInstanceId);
+                delete.setString(2, variableName);
+                delete.executeUpdate();
+            }
+            try (PreparedStatement insert = connection.prepareStatement(
+                    "INSERT INTO " + TABLE + " (PROCESS_INSTANCE_ID, VARIABLE_NAME, CORRELATION_KEY, CONTAINER_ID) VALUES (?, ?, ?, ?)")) {
+                insert.setLong(1, processInstanceId);
+                insert.setString(2, variableName);
+                insert.setString(3, correlationKey);
+                insert.setString(4, containerId);
+                insert.executeUpdate();
+            }
+        }
+    }
+
+    /**
+     * Rimuove una singola variabile di correlazione (es. variabile azzerata).
+     */
+    public void unregister(long processInstanceId, String variableName) throws SQLException {
+        try (Connection connection = getConnection();
+             PreparedStatement delete = connection.prepareStatement(
+                     "DELETE FROM " + TABLE + " WHERE PROCESS_INSTANCE_ID = ? AND VARIABLE_NAME = ?")) {
+            delete.setLong(1, processInstanceId);
+            delete.setString(2, variableName);
+            delete.executeUpdate();
+        }
+    }
+
+    /**
+     * Rimuove tutte le voci di un'istanza (processo completato o abortito).
+     */
+    public void removeInstance(long processInstanceId) throws SQLException {
+        try (Connection connection = getConnection();
+             PreparedStatement delete = connection.prepareStatement(
+                     "DELETE FROM " + TABLE + " WHERE PROCESS_INSTANCE_ID = ?")) {
+            delete.setLong(1, processInstanceId);
+            delete.executeUpdate();
+        }
+    }
+
+    /**
+     * Trova le istanze attive con la correlation key indicata.
+     *
+     * @param containerId Container in cui cercare
+     * @param correlationKey Valore della correlation key
+     * @return ID delle istanze in ordine crescente (vuota se nessuna)
+     */
+    public List<Long> findInstances(String containerId, String correlationKey) throws SQLException {
+        List<Long> ids = new ArrayList<>();
+        try (Connection connection = getConnection();
+             PreparedStatement select = connection.prepareStatement(
+                     "SELECT DISTINCT PROCESS_INSTANCE_ID FROM " + TABLE
+                         + " WHERE CORRELATION_KEY = ? AND CONTAINER_ID = ? ORDER BY PROCESS_INSTANCE_ID")) {
+            select.setString(1, correlationKey);
+            select.setString(2, containerId);
+            try (ResultSet rs = select.executeQuery()) {
+                while (rs.next()) {
+                    ids.add(rs.getLong(1));
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Trova le istanze attive con la correlation key in più container (es. versioni di un alias), con una sola query.
+     *
+     * @param containerIds Container in cui cercare, nell'ordine desiderato del risultato
+     * @param correlationKey Valore della correlation key
+     * @return ID delle istanze per container, solo i container con almeno un'istanza
+     */
+    public Map<String, List<Long>> findInstances(List<String> containerIds, String correlationKey) throws SQLException {
+        Map<String, List<Long>> byContainer = new LinkedHashMap<>();
+        if (containerIds.isEmpty()) {
+            return byContainer;
+        }
+        StringBuilder sql = new StringBuilder("SELECT DISTINCT CONTAINER_ID, PROCESS_INSTANCE_ID FROM ").append(TABLE)
+                .append(" WHERE CORRELATION_KEY = ? AND CONTAINER_ID IN (");
+        for (int i = 0; i < containerIds.size(); i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        sql.append(") ORDER BY PROCESS_INSTANCE_ID");
+        containerIds.forEach(containerId -> byContainer.put(containerId, new ArrayList<>()));
+        try (Connection connection = getConnection();
+             PreparedStatement select = connection.prepareStatement(sql.toString())) {
+            int index = 1;
+            select.setString(index++, correlationKey);
+            for (String containerId : containerIds) {
+                select.setString(index++, containerId);
+            }
+            try (ResultSet rs = select.executeQuery()) {
+                while (rs.next()) {
+                    byContainer.get(rs.getString(1)).add(rs.getLong(2));
+                }
+            }
+        }
+        byContainer.values().removeIf(List::isEmpty);
+        return byContainer;
+    }
+}
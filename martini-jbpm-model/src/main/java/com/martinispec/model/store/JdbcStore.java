@@ -0,0 +1,149 @@
+package com.martinispec.model.store;
+
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Locale;
+
+/**
+ * Base per le tabelle di supporto alla comunicazione JMS tra processi.
+ *
+ * Le tabelle vivono nel datasource di jBPM, quindi le scritture eseguite da un listener
+ * del KJAR partecipano alla stessa transazione JTA del motore.
+ *
+ * Lo schema non viene creato durante l'uso: il DDL in una transazione JTA provoca un commit implicito
+ * su diversi database. Le tabelle si creano con lo script martini-schema.sql oppure all'avvio del servizio
+ * (createSchema() su una connessione fuori transazione); al primo accesso lo store verifica solo che esistano.
+ */
+public abstract class JdbcStore {
+
+    /**
+     * Datasource di default: lo stesso usato da KIE Server per la persistenza dei processi.
+     */
+    public static final String DEFAULT_DATASOURCE_JNDI =
+            System.getProperty("org.kie.server.persistence.ds", "java:jboss/datasources/jBPMDS");
+
+    /**
+     * Datasource delle tabelle di supporto (-Dmartini.datasource, default DEFAULT_DATASOURCE_JNDI).
+     * Usato sia dal KJAR (scrittori) sia dal servizio (lettori), che devono vedere le stesse tabelle.
+     */
+    public static final String DATASOURCE_JNDI = System.getProperty("martini.datasource", DEFAULT_DATASOURCE_JNDI);
+
+    protected final DataSource dataSource;
+
+    private volatile boolean schemaReady;
+    private volatile String binaryType = "BLOB";
+
+    protected JdbcStore(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * Esegue il lookup JNDI di un DataSource.
+     *
+     * @param jndiName Nome JNDI del datasource
+     * @return DataSource trovato
+     */
+    protected static DataSource lookupDataSource(String jndiName) {
+        try {
+            return (DataSource) new InitialContext().lookup(jndiName);
+        } catch (NamingException e) {
+            throw new IllegalStateException("JNDI lookup fallito per il datasource '" + jndiName + "'", e);
+        }
+    }
+
+    /**
+     * Nome della tabella gestita dallo store.
+     */
+    protected abstract String tableName();
+
+    /**
+     * Statement DDL per creare tabella e indici.
+     */
+    protected abstract String[] createStatements();
+
+    /**
+     * Tipo SQL per le colonne binarie nel database corrente, da usare in {@link #createStatements()}:
+     * BYTEA su PostgreSQL, VARBINARY(MAX) su SQL Server, BLOB altrove.
+     */
+    protected String binaryType() {
+        return binaryType;
+    }
+
+    /**
+     * Restituisce una connessione, verificando al primo utilizzo che la tabella esista.
+     *
+     * @throws SQLException se la tabella non esiste (schema non creato)
+     */
+    protected Connection getConnection() throws SQLException {
+        Connection connection = dataSource.getConnection();
+        if (!schemaReady) {
+            try {
+                if (!tableExists(connection)) {
+                    throw new SQLException("Tabella " + tableName() + " assente: creare lo schema con martini-schema.sql"
+                                           + " o avviare martini-jbpm-service");
+                }
+                schemaReady = true;
+            } catch (SQLException e) {
+                connection.close();
+                throw e;
+            }
+        }
+        return connection;
+    }
+
+    /**
+     * Crea tabella e indici se la tabella non esiste.
+     *
+     * Va chiamato fuori da una transazione JTA (es. bean di avvio con NOT_SUPPORTED): la connessione
+     * deve essere in autocommit, perché il DDL su diversi database chiude implicitamente la transazione.
+     */
+    public synchronized void createSchema() throws SQLException {
+        if (schemaReady) {
+            return;
+        }
+        try (Connection connection = dataSource.getConnection()) {
+            ensureSchema(connection);
+        }
+    }
+
+    private void ensureSchema(Connection connection) throws SQLException {
+        if (!tableExists(connection)) {
+            String product = connection.getMetaData().getDatabaseProductName().toLowerCase(Locale.ROOT);
+            if (product.contains("postgres")) {
+                binaryType = "BYTEA";
+            } else if (product.contains("microsoft") || product.contains("sql server")) {
+                binaryType = "VARBINARY(MAX)";
+            }
+            try (Statement statement = connection.createStatement()) {
+                for (String ddl : createStatements()) {
+                    statement.execute(ddl);
+                }
+            } catch (SQLException e) {
+                // Un altro nodo può averla creata nel frattempo
+                if (!tableExists(connection)) {
+                    throw e;
+                }
+            }
+        }
+        schemaReady = true;
+    }
+
+    private boolean tableExists(Connection connection) throws SQLException {
+        DatabaseMetaData metaData = connection.getMetaData();
+        String table = tableName();
+        for (String candidate : new String[] { table.toUpperCase(Locale.ROOT), table.toLowerCase(Locale.ROOT) }) {
+            try (ResultSet rs = metaData.getTables(null, null, candidate, new String[] { "TABLE" })) {
+                if (rs.next()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
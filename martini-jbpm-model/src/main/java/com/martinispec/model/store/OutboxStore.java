@@ -0,0 +1,206 @@
+package com.martinispec.model.store;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Outbox dei messaggi JMS inviati dai processi (transactional outbox).
+ *
+ * Scritto dal JmsSendMessageHandler del KJAR nella transazione del motore: il messaggio esiste solo
+ * se il processo esegue il commit. Letto dal relay del servizio, che pubblica i messaggi su JMS e
+ * rimuove le righe nella stessa transazione XA. La rimozione (DELETE per id) è la presa in carico:
+ * con più nodi ogni messaggio viene pubblicato una sola volta.
+ */
+public class OutboxStore extends JdbcStore {
+
+    public static final String TABLE = "MARTINI_OUTBOX";
+
+    // Ordine di inserimento a parità di millisecondo (più invii nella stessa transazione)
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    public OutboxStore(DataSource dataSource) {
+        super(dataSource);
+    }
+
+    /**
+     * Crea lo store sul datasource indicato via JNDI.
+     *
+     * @param jndiName Nome JNDI del datasource (es. java:jboss/datasources/jBPMDS)
+     */
+    public static OutboxStore fromJndi(String jndiName) {
+        return new OutboxStore(lookupDataSource(jndiName));
+    }
+
+    @Override
+    protected String tableName() {
+        return TABLE;
+    }
+
+    @Override
+    protected String[] createStatements() {
+        return new String[] {
+            "CREATE TABLE " + TABLE + " ("
+                + "ID VARCHAR(36) NOT NULL, "
+                + "DESTINATION VARCHAR(255) NOT NULL, "
+                + "MESSAGE_NAME VARCHAR(255) NOT NULL, "
+                + "CORRELATION_KEY VARCHAR(255), "
+                + "TARGET_CONTAINER VARCHAR(255), "
+                + "FORMAT VARCHAR(32) NOT NULL, "
+                + "PAYLOAD " + binaryType() + " NOT NULL, "
+                + "CREATED_AT BIGINT NOT NULL, "
+                + "SEQ BIGINT NOT NULL, "
+                + "PRIMARY KEY (ID))",
+            "CREATE INDEX IDX_MARTINI_OUTBOX_ORDER ON " + TABLE + " (CREATED_AT, SEQ)"
+        };
+    }
+
+    /**
+     * Accoda un messaggio nella transazione corrente.
+     *
+     * @param messageId Identificativo del messaggio (null = generato), pubblicato come martiniMessageId
+     * @param destination Nome JNDI della destinazione
+     * @param targetContainer Container o alias destinatario (null = container di default del consumer)
+     * @param format Formato del payload (codec di martini-jbpm-model)
+     * @return Identificativo del messaggio
+     */
+    public String add(String messageId, String destination, String messageName, String correlationKey, String targetContainer,
+                      String format, byte[] payload) throws SQLException {
+        String id = messageId != null ? messageId : UUID.randomUUID().toString();
+        try (Connection connection = getConnection();
+             PreparedStatement insert = connection.prepareStatement(
+                     "INSERT INTO " + TABLE + " (ID, DESTINATION, MESSAGE_NAME, CORRELATION_KEY, TARGET_CONTAINER, FORMAT, PAYLOAD,"
+                         + " CREATED_AT, SEQ) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+            insert.setString(1, id);
+            insert.setString(2, destination);
+            insert.setString(3, messageName);
+            insert.setString(4, correlationKey);
+            insert.setString(5, targetContainer);
+            insert.setString(6, format);
+            insert.setBytes(7, payload);
+            insert.setLong(8, System.currentTimeMillis());
+            insert.setLong(9, SEQUENCE.incrementAndGet());
+            insert.executeUpdate();
+        }
+        return id;
+    }
+
+    /**
+     * Messaggi da pubblicare, in ordine di inserimento.
+     */
+    public List<OutboxMessage> fetch(int maxResults) throws SQLException {
+        List<OutboxMessage> messages = new ArrayList<>();
+        try (Connection connection = getConnection();
+             PreparedStatement select = connection.prepareStatement(
+                     "SELECT ID, DESTINATION, MESSAGE_NAME, CORRELATION_KEY, TARGET_CONTAINER, FORMAT, PAYLOAD, CREATED_AT"
+                         + " FROM " + TABLE
+                         + " ORDER BY CREATED_AT, SEQ")) {
+            select.setMaxRows(maxResults);
+            try (ResultSet rs = select.executeQuery()) {
+                while (rs.next()) {
+                    messages.add(new OutboxMessage(rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4),
+                                                   rs.getString(5), rs.getString(6), rs.getBytes(7), rs.getLong(8)));
+                }
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Rimuove (prende in carico) un messaggio.
+     *
+     * @return true se la riga è stata rimossa da questa chiamata, false se già pubblicata da un altro nodo
+     */
+    public boolean remove(String id) throws SQLException {
+        try (Connection connection = getConnection();
+             PreparedStatement delete = connection.prepareStatement("DELETE FROM " + TABLE + " WHERE ID = ?")) {
+            delete.setString(1, id);
+            return delete.executeUpdate() == 1;
+        }
+    }
+
+    /**
+     * Messaggi in attesa di pubblicazione.
+     */
+    public long count() throws SQLException {
+        try (Connection connection = getConnection();
+             PreparedStatement select = connection.prepareStatement("SELECT COUNT(*) FROM " + TABLE);
+             ResultSet rs = select.executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0L;
+        }
+    }
+
+    /**
+     * Messaggio da pubblicare.
+     */
+    public static final class OutboxMessage {
+
+        private final String id;
+        private final String destination;
+        private final String messageName;
+        private final String correlationKey;
+        private final String targetContainer;
+        private final String format;
+        private final byte[] payload;
+        private final long createdAt;
+
+        public OutboxMessage(String id, String destination, String messageName, String correlationKey, String targetContainer,
+                             String format, byte[] payload, long createdAt) {
+            this.id = id;
+            this.destination = destination;
+            this.messageName = messageName;
+            this.correlationKey = correlationKey;
+            this.targetContainer = targetContainer;
+            this.format = format;
+            this.payload = payload;
+            this.createdAt = createdAt;
+        }
+
+        /**
+         * @return Identificativo del messaggio (anche martiniMessageId del messaggio pubblicato)
+         */
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * @return Nome JNDI della destinazione
+         */
+        public String getDestination() {
+            return destination;
+        }
+
+        public String getMessageName() {
+            return messageName;
+        }
+
+        public String getCorrelationKey() {
+            return correlationKey;
+        }
+
+        /**
+         * @return Container o alias destinatario, null per il container di default
+         */
+        public String getTargetContainer() {
+            return targetContainer;
+        }
+
+        public String getFormat() {
+            return format;
+        }
+
+        public byte[] getPayload() {
+            return payload;
+        }
+
+        public long getCreatedAt() {
+            return createdAt;
+        }
+    }
+}
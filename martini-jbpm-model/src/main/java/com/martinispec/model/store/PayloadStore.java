@@ -0,0 +1,140 @@
+package com.martinispec.model.store;
+
+import javax.sql.DataSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.UUID;
+
+/**
+ * Payload dei messaggi oltre la soglia del claim-check (vedi {@link ClaimCheck}).
+ *
+ * Una riga per messaggio con lo SHA-256 del contenuto, verificato alla lettura. Le righe non sono
+ * condivise tra messaggi con lo stesso contenuto: la deduplica richiederebbe un upsert e un contatore
+ * di riferimenti nella transazione del motore, dove un inserimento concorrente in conflitto annullerebbe
+ * l'intera transazione su alcuni database. La riga viene rimossa dopo il dispatch del messaggio; le righe
+ * di messaggi mai arrivati al listener (es. scaduti sul broker) vengono rimosse per età ({@link #purge(long)}).
+ */
+public class PayloadStore extends JdbcStore {
+
+    public static final String TABLE = "MARTINI_PAYLOAD";
+
+    public PayloadStore(DataSource dataSource) {
+        super(dataSource);
+    }
+
+    /**
+     * Crea lo store sul datasource indicato via JNDI.
+     *
+     * @param jndiName Nome JNDI del datasource (es. java:jboss/datasources/jBPMDS)
+     */
+    public static PayloadStore fromJndi(String jndiName) {
+        return new PayloadStore(lookupDataSource(jndiName));
+    }
+
+    @Override
+    protected String tableName() {
+        return TABLE;
+    }
+
+    @Override
+    protected String[] createStatements() {
+        return new String[] {
+            "CREATE TABLE " + TABLE + " ("
+                + "ID VARCHAR(36) NOT NULL, "
+                + "CONTENT_HASH VARCHAR(64) NOT NULL, "
+                + "SIZE_BYTES BIGINT NOT NULL, "
+                + "PAYLOAD " + binaryType() + " NOT NULL, "
+                + "CREATED_AT BIGINT NOT NULL, "
+                + "PRIMARY KEY (ID))",
+            "CREATE INDEX IDX_MARTINI_PAYLOAD_CREATED ON " + TABLE + " (CREATED_AT)"
+        };
+    }
+
+    /**
+     * Memorizza un payload nella transazione corrente.
+     *
+     * @return Riferimento da inserire nel messaggio
+     */
+    public String put(byte[] payload) throws SQLException {
+        String id = UUID.randomUUID().toString();
+        try (Connection connection = getConnection();
+             PreparedStatement insert = connection.prepareStatement(
+                     "INSERT INTO " + TABLE + " (ID, CONTENT_HASH, SIZE_BYTES, PAYLOAD, CREATED_AT) VALUES (?, ?, ?, ?, ?)")) {
+            insert.setString(1, id);
+            insert.setString(2, sha256(payload));
+            insert.setLong(3, payload.length);
+            insert.setBytes(4, payload);
+            insert.setLong(5, System.currentTimeMillis());
+            insert.executeUpdate();
+        }
+        return id;
+    }
+
+    /**
+     * @return Payload oppure null se il riferimento non esiste (già rimosso)
+     * @throws SQLException anche se il contenuto non corrisponde all'hash memorizzato
+     */
+    public byte[] get(String id) throws SQLException {
+        try (Connection connection = getConnection();
+             PreparedStatement select = connection.prepareStatement(
+                     "SELECT CONTENT_HASH, PAYLOAD FROM " + TABLE + " WHERE ID = ?")) {
+            select.setString(1, id);
+            try (ResultSet rs = select.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                String hash = rs.getString(1);
+                byte[] payload = rs.getBytes(2);
+                if (!hash.equals(sha256(payload))) {
+                    throw new SQLException("Payload '" + id + "' corrotto: hash non corrispondente");
+                }
+                return payload;
+            }
+        }
+    }
+
+    /**
+     * Rimuove un payload.
+     *
+     * @return true se la riga esisteva
+     */
+    public boolean remove(String id) throws SQLException {
+        try (Connection connection = getConnection();
+             PreparedStatement delete = connection.prepareStatement("DELETE FROM " + TABLE + " WHERE ID = ?")) {
+            delete.setString(1, id);
+            return delete.executeUpdate() == 1;
+        }
+    }
+
+    /**
+     * Rimuove i payload memorizzati prima dell'istante indicato.
+     *
+     * @param createdBefore Epoch millis
+     * @return Righe rimosse
+     */
+    public int purge(long createdBefore) throws SQLException {
+        try (Connection connection = getConnection();
+             PreparedStatement delete = connection.prepareStatement(
+                     "DELETE FROM " + TABLE + " WHERE CREATED_AT < ?")) {
+            delete.setLong(1, createdBefore);
+            return delete.executeUpdate();
+        }
+    }
+
+    private static String sha256(byte[] payload) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(payload);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 non disponibile", e);
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package com.martinispec.model.store;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Messaggi arrivati prima che l'istanza destinataria sia in attesa del signal corrispondente.
+ *
+ * Chiave: container + correlation key + nome del messaggio, con istanza destinataria opzionale
+ * (null = la prima istanza con quella correlation key che raggiunge l'evento). Ogni messaggio ha una scadenza.
+ *
+ * Scritto dal listener JMS quando il signal non può essere consegnato; letto e rimosso dal
+ * PendingMessageEventListener del KJAR quando un'istanza entra nello stato di attesa, nella transazione
+ * del motore, e dalla riconciliazione periodica del servizio. La rimozione (DELETE per id) è la presa
+ * in carico: solo chi rimuove la riga consegna il messaggio.
+ */
+public class PendingMessageStore extends JdbcStore {
+
+    public static final String TABLE = "MARTINI_PENDING_MESSAGE";
+
+    private static final String SELECT = "SELECT ID, CONTAINER_ID, CORRELATION_KEY, MESSAGE_NAME, TARGET_INSTANCE_ID,"
+                                         + " FORMAT, PAYLOAD, CREATED_AT, EXPIRES_AT FROM " + TABLE;
+
+    public PendingMessageStore(DataSource dataSource) {
+        super(dataSource);
+    }
+
+    /**
+     * Crea lo store sul datasource indicato via JNDI.
+     *
+     * @param jndiName Nome JNDI del datasource (es. java:jboss/datasources/jBPMDS)
+     */
+    public static PendingMessageStore fromJndi(String jndiName) {
+        return new PendingMessageStore(lookupDataSource(jndiName));
+    }
+
+    @Override
+    protected String tableName() {
+        return TABLE;
+    }
+
+    @Override
+    protected String[] createStatements() {
+        return new String[] {
+            "CREATE TABLE " + TABLE + " ("
+                + "ID VARCHAR(36) NOT NULL, "
+                + "CONTAINER_ID VARCHAR(255) NOT NULL, "
+                + "CORRELATION_KEY VARCHAR(255) NOT NULL, "
+                + "MESSAGE_NAME VARCHAR(255) NOT NULL, "
+                + "TARGET_INSTANCE_ID BIGINT, "
+                + "FORMAT VARCHAR(32) NOT NULL, "
+                + "PAYLOAD " + binaryType() + " NOT NULL, "
+                + "CREATED_AT BIGINT NOT NULL, "
+                + "EXPIRES_AT BIGINT NOT NULL, "
+                + "PRIMARY KEY (ID))",
+            "CREATE INDEX IDX_MARTINI_PENDING_KEY ON " + TABLE + " (CORRELATION_KEY, MESSAGE_NAME)",
+            "CREATE INDEX IDX_MARTINI_PENDING_EXP ON " + TABLE + " (EXPIRES_AT)"
+        };
+    }
+
+    /**
+     * Memorizza un messaggio in attesa.
+     *
+     * @param targetInstanceId Istanza destinataria, null per la prima istanza con la correlation key
+     * @param format Formato del payload (codec di martini-jbpm-model)
+     * @param ttlMillis Durata massima dell'attesa
+     * @return Identificativo del messaggio
+     */
+    public String hold(String containerId, String correlationKey, String messageName, Long targetInstanceId,
+                       String format, byte[] payload, long ttlMillis) throws SQLException {
+        String id = UUID.randomUUID().toString();
+        long now = System.currentTimeMillis();
+        try (Connection connection = getConnection();
+             PreparedStatement insert = connection.prepareStatement(
+                     "INSERT INTO " + TABLE + " (ID, CONTAINER_ID, CORRELATION_KEY, MESSAGE_NAME, TARGET_INSTANCE_ID,"
+                         + " FORMAT, PAYLOAD, CREATED_AT, EXPIRES_AT) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+            insert.setString(1, id);
+            insert.setString(2, containerId);
+            insert.setString(3, correlationKey);
+            insert.setString(4, messageName);
+            if (targetInstanceId != null) {
+                insert.setLong(5, targetInstanceId);
+            } else {
+                insert.setNull(5, Types.BIGINT);
+            }
+            insert.setString(6, format);
+            insert.setBytes(7, payload);
+            insert.setLong(8, now);
+            insert.setLong(9, now + ttlMillis);
+            insert.executeUpdate();
+        }
+        return id;
+    }
+
+    /**
+     * Messaggi non scaduti per un'istanza che attende il signal messageName.
+     *
+     * @param correlationKeys Valori delle variabili di correlazione dell'istanza
+     * @return Messaggi in ordine di arrivo (vuota se nessuno)
+     */
+    public List<PendingMessage> findFor(String containerId, Collection<String> correlationKeys, String messageName,
+                                        long processInstanceId) throws SQLException {
+        if (correlationKeys.isEmpty()) {
+            return Collections.emptyList();
+        }
+        StringBuilder sql = new StringBuilder(SELECT)
+                .append(" WHERE CONTAINER_ID = ? AND MESSAGE_NAME = ? AND EXPIRES_AT > ?")
+                .append(" AND (TARGET_INSTANCE_ID IS NULL OR TARGET_INSTANCE_ID = ?) AND CORRELATION_KEY IN (");
+        for (int i = 0; i < correlationKeys.size(); i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        sql.append(") ORDER BY CREATED_AT");
+        try (Connection connection = getConnection();
+             PreparedStatement select = connection.prepareStatement(sql.toString())) {
+            int index = 1;
+            select.setString(index++, containerId);
+            select.setString(index++, messageName);
+            select.setLong(index++, System.currentTimeMillis());
+            select.setLong(index++, processInstanceId);
+            for (String correlationKey : correlationKeys) {
+                select.setString(index++, correlationKey);
+            }
+            return read(select);
+        }
+    }
+
+    /**
+     * Messaggi non scaduti, dal più vecchio (riconciliazione periodica).
+     */
+    public List<PendingMessage> findActive(int maxResults) throws SQLException {
+        return find(" WHERE EXPIRES_AT > ? ORDER BY CREATED_AT", maxResults);
+    }
+
+    /**
+     * Messaggi scaduti, dal più vecchio.
+     */
+    public List<PendingMessage> findExpired(int maxResults) throws SQLException {
+        return find(" WHERE EXPIRES_AT <= ? ORDER BY EXPIRES_AT", maxResults);
+    }
+
+    /**
+     * Rimuove (prende in carico) un messaggio.
+     *
+     * @return true se la riga è stata rimossa da questa chiamata, false se già presa in carico da altri
+     */
+    public boolean remove(String id) throws SQLException {
+        try (Connection connection = getConnection();
+             PreparedStatement delete = connection.prepareStatement("DELETE FROM " + TABLE + " WHERE ID = ?")) {
+            delete.setString(1, id);
+            return delete.executeUpdate() == 1;
+        }
+    }
+
+    private List<PendingMessage> find(String where, int maxResults) throws SQLException {
+        try (Connection connection = getConnection();
+             PreparedStatement select = connection.prepareStatement(SELECT + where)) {
+            select.setLong(1, System.currentTimeMillis());
+            select.setMaxRows(maxResults);
+            return read(select);
+        }
+    }
+
+    private static List<PendingMessage> read(PreparedStatement select) throws SQLException {
+        List<PendingMessage> messages = new ArrayList<>();
+        try (ResultSet rs = select.executeQuery()) {
+            while (rs.next()) {
+                // wasNull si riferisce all'ultima colonna letta: va controllato subito dopo getLong
+                long target = rs.getLong(5);
+                Long targetInstanceId = rs.wasNull() ? null : target;
+                messages.add(new PendingMessage(rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4),
+                                                targetInstanceId, rs.getString(6), rs.getBytes(7),
+                                                rs.getLong(8), rs.getLong(9)));
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Messaggio in attesa.
+     */
+    public static final class PendingMessage {
+
+        private final String id;
+        private final String containerId;
+        private final String correlationKey;
+        private final String messageName;
+        private final Long targetInstanceId;
+        private final String format;
+        private final byte[] payload;
+        private final long createdAt;
+        private final long expiresAt;
+
+        public PendingMessage(String id, String containerId, String correlationKey, String messageName, Long targetInstanceId,
+                              String format, byte[] payload, long createdAt, long expiresAt) {
+            this.id = id;
+            this.containerId = containerId;
+            this.correlationKey = correlationKey;
+            this.messageName = messageName;
+            this.targetInstanceId = targetInstanceId;
+            this.format = format;
+            this.payload = payload;
+            this.createdAt = createdAt;
+            this.expiresAt = expiresAt;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getContainerId() {
+            return containerId;
+        }
+
+        public String getCorrelationKey() {
+            return correlationKey;
+        }
+
+        public String getMessageName() {
+            return messageName;
+        }
+
+        /**
+         * @return Istanza destinataria, null se vale la prima istanza con la correlation key
+         */
+        public Long getTargetInstanceId() {
+            return targetInstanceId;
+        }
+
+        public String getFormat() {
+            return format;
+        }
+
+        public byte[] getPayload() {
+            return payload;
+        }
+
+        public long getCreatedAt() {
+            return createdAt;
+        }
+
+        public long getExpiresAt() {
+            return expiresAt;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.martinispec.model.store;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Messaggi già elaborati dal listener JMS, per riconoscere i duplicati (redelivery, retry dopo un
+ * dispatch riuscito, commit del batch fallito dopo la chiamata a KIE Server).
+ *
+ * Una riga per chiave di deduplica (martiniMessageId, più le istanze destinatarie per le ripubblicazioni
+ * mirate), con l'istante di elaborazione: le righe più vecchie della finestra di deduplica vengono rimosse
+ * periodicamente, quindi la tabella resta limitata al traffico della finestra.
+ */
+public class ProcessedMessageStore extends JdbcStore {
+
+    public static final String TABLE = "MARTINI_PROCESSED_MESSAGE";
+
+    /**
+     * Lunghezza massima della chiave (colonna MESSAGE_KEY).
+     */
+    public static final int MAX_KEY_LENGTH = 255;
+
+    public ProcessedMessageStore(DataSource dataSource) {
+        super(dataSource);
+    }
+
+    /**
+     * Crea lo store sul datasource indicato via JNDI.
+     *
+     * @param jndiName Nome JNDI del datasource (es. java:jboss/datasources/jBPMDS)
+     */
+    public static ProcessedMessageStore fromJndi(String jndiName) {
+        return new ProcessedMessageStore(lookupDataSource(jndiName));
+    }
+
+    @Override
+    protected String tableName() {
+        return TABLE;
+    }
+
+    @Override
+    protected String[] createStatements() {
+        return new String[] {
+            "CREATE TABLE " + TABLE + " ("
+                + "MESSAGE_KEY VARCHAR(" + MAX_KEY_LENGTH + ") NOT NULL, "
+                + "MESSAGE_NAME VARCHAR(255), "
+                + "PROCESSED_AT BIGINT NOT NULL, "
+                + "PRIMARY KEY (MESSAGE_KEY))",
+            "CREATE INDEX IDX_MARTINI_PROCESSED_AT ON " + TABLE + " (PROCESSED_AT)"
+        };
+    }
+
+    /**
+     * Registra un messaggio come elaborato, nella transazione corrente.
+     *
+     * @return false se la chiave era già registrata (duplicato)
+     */
+    public boolean record(String messageKey, String messageName) throws SQLException {
+        try (Connection connection = getConnection();
+             PreparedStatement insert = connection.prepareStatement(
+                     "INSERT INTO " + TABLE + " (MESSAGE_KEY, MESSAGE_NAME, PROCESSED_AT) VALUES (?, ?, ?)")) {
+            insert.setString(1, messageKey);
+            insert.setString(2, messageName);
+            insert.setLong(3, System.currentTimeMillis());
+            insert.executeUpdate();
+            return true;
+        } catch (SQLException e) {
+            // Violazione della chiave primaria (SQLState 23xxx): già registrato
+            if (e.getSQLState() != null && e.getSQLState().startsWith("23")) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return true se la chiave è registrata (messaggio già elaborato entro la finestra)
+     */
+    public boolean contains(String messageKey) throws SQLException {
+        try (Connection connection = getConnection();
+             PreparedStatement select = connection.prepareStatement(
+                     "SELECT 1 FROM " + TABLE + " WHERE MESSAGE_KEY = ?")) {
+            select.setString(1, messageKey);
+            try (ResultSet rs = select.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    /**
+     * Rimuove le registrazioni più vecchie dell'istante indicato.
+     *
+     * @param processedBefore Epoch millis
+     * @return Righe rimosse
+     */
+    public int purge(long processedBefore) throws SQLException {
+        try (Connection connection = getConnection();
+             PreparedStatement delete = connection.prepareStatement(
+                     "DELETE FROM " + TABLE + " WHERE PROCESSED_AT < ?")) {
+            delete.setLong(1, processedBefore);
+            return delete.executeUpdate();
+        }
+    }
+}
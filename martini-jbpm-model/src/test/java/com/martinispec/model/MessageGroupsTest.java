@@ -0,0 +1,40 @@
+package com.martinispec.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MessageGroupsTest {
+
+    @Test
+    void messagesWithoutCorrelationKeyHaveNoGroup() {
+        assertThat(MessageGroups.groupId(null)).isNull();
+        assertThat(MessageGroups.groupId("")).isNull();
+        assertThat(MessageGroups.groupId("  ")).isNull();
+    }
+
+    @Test
+    void sameCorrelationKeyAlwaysMapsToSameGroup() {
+        assertThat(MessageGroups.groupId("ORD-42")).isEqualTo(MessageGroups.groupId("ORD-42"));
+    }
+
+    @Test
+    void correlationKeysAreSpreadOverBoundedBuckets() {
+        Set<String> groups = new HashSet<>();
+        for (int i = 0; i < 10_000; i++) {
+            String groupId = MessageGroups.groupId("ORD-" + i);
+            assertThat(groupId).matches("martini-(\\d|[1-9]\\d|1\\d\\d|2[0-4]\\d|25[0-5])");
+            groups.add(groupId);
+        }
+        assertThat(groups).hasSize(256);
+    }
+
+    @Test
+    void negativeHashCodesMapToValidBuckets() {
+        // "polygenelubricants".hashCode() == Integer.MIN_VALUE
+        assertThat(MessageGroups.groupId("polygenelubricants")).isEqualTo("martini-0");
+    }
+}
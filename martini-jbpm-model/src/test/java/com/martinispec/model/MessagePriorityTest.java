@@ -0,0 +1,71 @@
+package com.martinispec.model;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+import static org.assertj.core.api.Assumptions.assumeThat;
+
+class MessagePriorityTest {
+
+    private static final String CONFIGURED = "martini.priority.figlioCompletato";
+
+    private String previous;
+
+    @BeforeEach
+    void saveConfiguration() {
+        previous = System.clearProperty(CONFIGURED);
+    }
+
+    @AfterEach
+    void restoreConfiguration() {
+        if (previous == null) {
+            System.clearProperty(CONFIGURED);
+        } else {
+            System.setProperty(CONFIGURED, previous);
+        }
+    }
+
+    @Test
+    void requestedPriorityAcceptsNamesAndNumbers() {
+        assertThat(MessagePriority.resolve("esito", "high")).isEqualTo(MessagePriority.HIGH);
+        assertThat(MessagePriority.resolve("esito", " Normal ")).isEqualTo(MessagePriority.NORMAL);
+        assertThat(MessagePriority.resolve("esito", "LOW")).isEqualTo(MessagePriority.LOW);
+        assertThat(MessagePriority.resolve("esito", "0")).isZero();
+        assertThat(MessagePriority.resolve("esito", 9)).isEqualTo(9);
+        assertThat(MessagePriority.resolve("esito", 5L)).isEqualTo(5);
+    }
+
+    @Test
+    void invalidRequestedPriorityIsRejected() {
+        assertThatIllegalArgumentException().isThrownBy(() -> MessagePriority.resolve("esito", "urgente"));
+        assertThatIllegalArgumentException().isThrownBy(() -> MessagePriority.resolve("esito", "10"));
+        assertThatIllegalArgumentException().isThrownBy(() -> MessagePriority.resolve("esito", -1));
+    }
+
+    @Test
+    void configuredPriorityAppliesWhenNoneRequested() {
+        System.setProperty(CONFIGURED, "high");
+
+        assertThat(MessagePriority.resolve("figlioCompletato", null)).isEqualTo(MessagePriority.HIGH);
+        assertThat(MessagePriority.resolve("figlioCompletato", "low")).isEqualTo(MessagePriority.LOW);
+        assertThat(MessagePriority.resolve("avviaFiglio", null)).isEqualTo(MessagePriority.NORMAL);
+    }
+
+    @Test
+    void invalidConfiguredPriorityFallsBackToNormal() {
+        System.setProperty(CONFIGURED, "subito");
+
+        assertThat(MessagePriority.resolve("figlioCompletato", null)).isEqualTo(MessagePriority.NORMAL);
+    }
+
+    @Test
+    void defaultQueueIsKeptWithoutLanes() {
+        // martini.priority.lanes.enabled è letto una volta sola al caricamento della classe
+        assumeThat(MessagePriority.lanesEnabled()).isFalse();
+
+        assertThat(MessagePriority.destination("jms/queue/PROCESS.MESSAGES", 9)).isEqualTo("jms/queue/PROCESS.MESSAGES");
+    }
+}
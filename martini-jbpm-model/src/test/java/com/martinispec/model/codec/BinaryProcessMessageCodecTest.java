@@ -0,0 +1,182 @@
+package com.martinispec.model.codec;
+
+import com.martinispec.model.ProcessMessage;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BinaryProcessMessageCodecTest {
+
+    private final BinaryProcessMessageCodec codec = new BinaryProcessMessageCodec();
+
+    @Test
+    void roundTripWithoutContainerWritesVersion1() throws IOException {
+        Map<String, Object> variables = new LinkedHashMap<>();
+        variables.put("ordineId", "ORD-1");
+        variables.put("quantita", 3);
+        variables.put("importo", new BigDecimal("12.50"));
+        variables.put("urgente", Boolean.TRUE);
+        variables.put("consegna", LocalDate.of(2024, 5, 1));
+        variables.put("ricevuto", Instant.ofEpochSecond(1700000000L, 42));
+        variables.put("lotti", Arrays.asList("A", 2L, null));
+        variables.put("dettaglio", Collections.singletonMap("nota", "ok"));
+        variables.put("vuoto", null);
+
+        byte[] payload = codec.encode(new ProcessMessage("figlioCompletato", "ORD-1", variables));
+        ProcessMessage decoded = codec.decode(payload);
+
+        assertThat(payload[2]).isEqualTo((byte) BinaryProcessMessageCodec.SCHEMA_VERSION);
+        assertThat(decoded.getMessageName()).isEqualTo("figlioCompletato");
+        assertThat(decoded.getCorrelationKey()).isEqualTo("ORD-1");
+        assertThat(decoded.getTargetContainer()).isNull();
+        assertThat(decoded.getVariables()).isEqualTo(variables);
+    }
+
+    @Test
+    void roundTripWithContainerWritesVersion2() throws IOException {
+        ProcessMessage message = new ProcessMessage("avviaFiglio", Collections.singletonMap("dati", new byte[] { 1, 2, 3 }));
+        message.setTargetContainer("martiniavicolo");
+
+        byte[] payload = codec.encode(message);
+        ProcessMessage decoded = codec.decode(payload);
+
+        assertThat(payload[2]).isEqualTo((byte) BinaryProcessMessageCodec.SCHEMA_VERSION_CONTAINER);
+        assertThat(decoded.getTargetContainer()).isEqualTo("martiniavicolo");
+        assertThat(decoded.getCorrelationKey()).isNull();
+        assertThat((byte[]) decoded.getVariables().get("dati")).containsExactly(1, 2, 3);
+    }
+
+    @Test
+    void largeBodyIsCompressed() throws IOException {
+        char[] text = new char[20_000];
+        Arrays.fill(text, 'x');
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("testo", new String(text));
+
+        byte[] payload = codec.encode(new ProcessMessage("esito", "K", variables));
+
+        assertThat(payload[3] & 0x01).isEqualTo(1);
+        assertThat(payload.length).isLessThan(text.length);
+        assertThat(codec.decode(payload).getVariables()).isEqualTo(variables);
+    }
+
+    @Test
+    void truncatedPayloadIsRejected() throws IOException {
+        byte[] payload = codec.encode(new ProcessMessage("esito", "ORD-1", Collections.singletonMap("ordineId", "ORD-1")));
+
+        for (int length = 0; length < payload.length; length++) {
+            byte[] truncated = Arrays.copyOf(payload, length);
+            assertThatThrownBy(() -> codec.decode(truncated)).isInstanceOf(IOException.class);
+        }
+    }
+
+    @Test
+    void oversizedStringLengthIsRejected() {
+        ByteArrayOutputStream payload = header();
+        writeVarInt(payload, Integer.MAX_VALUE);
+
+        assertThatThrownBy(() -> codec.decode(payload.toByteArray()))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("oltre i byte rimanenti");
+    }
+
+    @Test
+    void oversizedCollectionCountIsRejected() {
+        ByteArrayOutputStream payload = header();
+        writeVarInt(payload, 0);                  // messageName null
+        writeVarInt(payload, 0);                  // correlationKey null
+        writeVarInt(payload, 1);                  // una variabile
+        writeVarInt(payload, 2);                  // nome "v"
+        payload.write('v');
+        payload.write(17);                        // lista
+        writeVarInt(payload, 100_000_000);
+
+        assertThatThrownBy(() -> codec.decode(payload.toByteArray())).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void unknownVersionIsRejected() throws IOException {
+        byte[] payload = codec.encode(new ProcessMessage("esito", Collections.emptyMap()));
+        payload[2] = 9;
+
+        assertThatThrownBy(() -> codec.decode(payload)).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void nestingUpToTheLimitRoundTrips() throws IOException {
+        Map<String, Object> variables = Collections.singletonMap("albero", nested(BinaryProcessMessageCodec.MAX_DEPTH));
+
+        byte[] payload = codec.encode(new ProcessMessage("esito", "K", variables));
+
+        assertThat(codec.decode(payload).getVariables()).isEqualTo(variables);
+    }
+
+    @Test
+    void nestingBeyondTheLimitIsNotEncoded() {
+        ProcessMessage message = new ProcessMessage("esito", "K",
+                Collections.singletonMap("albero", nested(BinaryProcessMessageCodec.MAX_DEPTH + 1)));
+
+        assertThatIllegalArgumentException().isThrownBy(() -> codec.encode(message));
+    }
+
+    @Test
+    void deepNestingIsRejectedWithoutStackOverflow() {
+        ByteArrayOutputStream payload = header();
+        writeVarInt(payload, 0);                  // messageName null
+        writeVarInt(payload, 0);                  // correlationKey null
+        writeVarInt(payload, 1);                  // una variabile
+        writeVarInt(payload, 2);                  // nome "v"
+        payload.write('v');
+        for (int i = 0; i < 20_000; i++) {
+            payload.write(17);                    // lista di un elemento
+            writeVarInt(payload, 1);
+        }
+        payload.write(0);                         // null in fondo
+
+        assertThatThrownBy(() -> codec.decode(payload.toByteArray()))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("annidate");
+    }
+
+    private static Object nested(int levels) {
+        Object value = "foglia";
+        for (int i = 0; i < levels; i++) {
+            List<Object> list = new ArrayList<>();
+            list.add(value);
+            value = list;
+        }
+        return value;
+    }
+
+    private static ByteArrayOutputStream header() {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        payload.write('M');
+        payload.write('P');
+        payload.write(BinaryProcessMessageCodec.SCHEMA_VERSION);
+        payload.write(0);
+        return payload;
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+}
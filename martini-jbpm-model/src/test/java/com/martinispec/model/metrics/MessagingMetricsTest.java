@@ -0,0 +1,103 @@
+package com.martinispec.model.metrics;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MessagingMetricsTest {
+
+    private static final String COMPONENT = "test";
+
+    @AfterEach
+    void unregister() {
+        MessagingMetrics.unregister(COMPONENT);
+    }
+
+    @Test
+    void registryIsSharedPerComponentAndExposedInJmx() throws Exception {
+        MessagingMetrics metrics = MessagingMetrics.forComponent(COMPONENT);
+        metrics.increment("martini_messages_total", "outcome", "sent");
+
+        assertThat(MessagingMetrics.forComponent(COMPONENT)).isSameAs(metrics);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("com.martinispec:type=MessagingMetrics,component=" + COMPONENT);
+        assertThat(server.isRegistered(name)).isTrue();
+        MessagingMetricsMXBean proxy = JMX.newMXBeanProxy(server, name, MessagingMetricsMXBean.class);
+        assertThat(proxy.getCounters()).containsEntry("martini_messages_total{component=\"test\",outcome=\"sent\"}", 1L);
+
+        MessagingMetrics.unregister(COMPONENT);
+
+        assertThat(server.isRegistered(name)).isFalse();
+    }
+
+    @Test
+    void labelsIdentifyDistinctSeries() {
+        MessagingMetrics metrics = MessagingMetrics.forComponent(COMPONENT);
+
+        metrics.increment("martini_messages_total", "outcome", "sent", "message", "figlioCompletato");
+        metrics.add("martini_messages_total", 2, "outcome", "sent", "message", "figlioCompletato");
+        metrics.increment("martini_messages_total", "outcome", "failed", "message", "nome \"strano\"");
+        metrics.gauge("martini_inflight", "consumer", "mdb").set(4);
+
+        assertThat(metrics.getCounters())
+                .containsEntry("martini_messages_total{component=\"test\",outcome=\"sent\",message=\"figlioCompletato\"}", 3L)
+                .containsEntry("martini_messages_total{component=\"test\",outcome=\"failed\",message=\"nome \\\"strano\\\"\"}", 1L);
+        assertThat(metrics.getGauges()).containsEntry("martini_inflight{component=\"test\",consumer=\"mdb\"}", 4L);
+    }
+
+    @Test
+    void timerRecordsCountMeanAndMax() {
+        MessagingMetrics metrics = MessagingMetrics.forComponent(COMPONENT);
+        MessagingMetrics.Timer timer = metrics.timer("martini_message_route_seconds", "target", "signal");
+
+        timer.record(TimeUnit.MILLISECONDS.toNanos(2));
+        timer.record(TimeUnit.MILLISECONDS.toNanos(4));
+
+        String key = "martini_message_route_seconds{component=\"test\",target=\"signal\"}";
+        assertThat(metrics.getTimerCounts()).containsEntry(key, 2L);
+        assertThat(metrics.getTimerMeanMillis()).containsEntry(key, 3.0);
+        assertThat(metrics.getTimerMaxMillis()).containsEntry(key, 4.0);
+    }
+
+    @Test
+    void prometheusTextHasCumulativeBuckets() {
+        MessagingMetrics metrics = MessagingMetrics.forComponent(COMPONENT);
+        MessagingMetrics.Timer timer = metrics.timer("martini_message_send_seconds");
+        timer.record(TimeUnit.MICROSECONDS.toNanos(300));
+        timer.record(TimeUnit.MILLISECONDS.toNanos(20));
+        timer.record(TimeUnit.SECONDS.toNanos(30));
+        metrics.increment("martini_messages_total", "outcome", "sent");
+
+        String text = metrics.getPrometheusText();
+
+        assertThat(text).contains("# TYPE martini_messages_total counter\n")
+                        .contains("martini_messages_total{component=\"test\",outcome=\"sent\"} 1\n")
+                        .contains("# TYPE martini_message_send_seconds histogram\n")
+                        .contains("martini_message_send_seconds_bucket{component=\"test\",le=\"5.0E-4\"} 1\n")
+                        .contains("martini_message_send_seconds_bucket{component=\"test\",le=\"0.025\"} 2\n")
+                        .contains("martini_message_send_seconds_bucket{component=\"test\",le=\"10.0\"} 2\n")
+                        .contains("martini_message_send_seconds_bucket{component=\"test\",le=\"+Inf\"} 3\n")
+                        .contains("martini_message_send_seconds_count{component=\"test\"} 3\n");
+    }
+
+    @Test
+    void resetClearsCountersAndTimersButKeepsGauges() {
+        MessagingMetrics metrics = MessagingMetrics.forComponent(COMPONENT);
+        metrics.increment("martini_messages_total");
+        metrics.timer("martini_message_send_seconds").record(1_000L);
+        metrics.gauge("martini_inflight").set(2);
+
+        metrics.reset();
+
+        assertThat(metrics.getCounters()).isEmpty();
+        assertThat(metrics.getTimerCounts()).isEmpty();
+        assertThat(metrics.getGauges()).containsEntry("martini_inflight{component=\"test\"}", 2L);
+    }
+}
@@ -0,0 +1,72 @@
+package com.martinispec.model.store;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PayloadStoreTest {
+
+    private static final byte[] PAYLOAD = { 'M', 'P', 1, 0, 42 };
+
+    private JdbcDataSource dataSource;
+    private PayloadStore store;
+
+    @BeforeEach
+    void createStore() throws SQLException {
+        dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1");
+        store = new PayloadStore(dataSource);
+        store.createSchema();
+    }
+
+    @Test
+    void storedPayloadIsReadBackUntilRemoved() throws SQLException {
+        String reference = store.put(PAYLOAD);
+
+        assertThat(store.get(reference)).containsExactly(PAYLOAD);
+        assertThat(store.remove(reference)).isTrue();
+        assertThat(store.remove(reference)).isFalse();
+        assertThat(store.get(reference)).isNull();
+    }
+
+    @Test
+    void corruptedPayloadIsRejected() throws SQLException {
+        String reference = store.put(PAYLOAD);
+        update("UPDATE " + PayloadStore.TABLE + " SET PAYLOAD = ? WHERE ID = ?", new byte[] { 0 }, reference);
+
+        assertThatThrownBy(() -> store.get(reference))
+                .isInstanceOf(SQLException.class)
+                .hasMessageContaining("corrotto");
+    }
+
+    @Test
+    void purgeRemovesOnlyPayloadsOlderThanTheLimit() throws SQLException {
+        String old = store.put(PAYLOAD);
+        String recent = store.put(PAYLOAD);
+        long now = System.currentTimeMillis();
+        update("UPDATE " + PayloadStore.TABLE + " SET CREATED_AT = ? WHERE ID = ?", now - 10_000L, old);
+
+        assertThat(store.purge(now - 5_000L)).isEqualTo(1);
+
+        assertThat(store.get(old)).isNull();
+        assertThat(store.get(recent)).containsExactly(PAYLOAD);
+        assertThat(store.purge(now - 5_000L)).isZero();
+    }
+
+    private void update(String sql, Object value, String id) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement update = connection.prepareStatement(sql)) {
+            update.setObject(1, value);
+            update.setString(2, id);
+            update.executeUpdate();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.martinispec.model.store;
+
+import com.martinispec.model.store.PendingMessageStore.PendingMessage;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PendingMessageStoreTest {
+
+    private static final byte[] PAYLOAD = { 1, 2, 3 };
+
+    private PendingMessageStore store;
+
+    @BeforeEach
+    void createStore() throws SQLException {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1");
+        store = new PendingMessageStore(dataSource);
+        store.createSchema();
+    }
+
+    @Test
+    void heldMessageIsFoundByCorrelationKeyForAnyInstance() throws SQLException {
+        String id = store.hold("c1", "ORD-1", "figlioCompletato", null, "binary", PAYLOAD, 60_000L);
+
+        List<PendingMessage> found = store.findFor("c1", Arrays.asList("ALTRO", "ORD-1"), "figlioCompletato", 7L);
+
+        assertThat(found).singleElement().satisfies(pending -> {
+            assertThat(pending.getId()).isEqualTo(id);
+            assertThat(pending.getContainerId()).isEqualTo("c1");
+            assertThat(pending.getCorrelationKey()).isEqualTo("ORD-1");
+            assertThat(pending.getTargetInstanceId()).isNull();
+            assertThat(pending.getFormat()).isEqualTo("binary");
+            assertThat(pending.getPayload()).containsExactly(PAYLOAD);
+            assertThat(pending.getExpiresAt()).isGreaterThan(pending.getCreatedAt());
+        });
+    }
+
+    @Test
+    void targetedMessageIsFoundOnlyForItsInstance() throws SQLException {
+        store.hold("c1", "ORD-1", "figlioCompletato", 7L, "binary", PAYLOAD, 60_000L);
+
+        assertThat(store.findFor("c1", Collections.singleton("ORD-1"), "figlioCompletato", 7L)).hasSize(1);
+        assertThat(store.findFor("c1", Collections.singleton("ORD-1"), "figlioCompletato", 8L)).isEmpty();
+        assertThat(store.findFor("c1", Collections.singleton("ORD-1"), "altroMessaggio", 7L)).isEmpty();
+        assertThat(store.findFor("c2", Collections.singleton("ORD-1"), "figlioCompletato", 7L)).isEmpty();
+        assertThat(store.findFor("c1", Collections.emptyList(), "figlioCompletato", 7L)).isEmpty();
+    }
+
+    @Test
+    void activeAndExpiredAreDisjoint() throws SQLException {
+        String active = store.hold("c1", "ORD-1", "figlioCompletato", null, "binary", PAYLOAD, 60_000L);
+        String expired = store.hold("c1", "ORD-2", "figlioCompletato", null, "binary", PAYLOAD, -1L);
+
+        assertThat(store.findActive(10)).extracting(PendingMessage::getId).containsExactly(active);
+        assertThat(store.findExpired(10)).extracting(PendingMessage::getId).containsExactly(expired);
+        assertThat(store.findFor("c1", Collections.singleton("ORD-2"), "figlioCompletato", 1L)).isEmpty();
+    }
+
+    @Test
+    void findRespectsMaxResults() throws SQLException {
+        for (int i = 0; i < 5; i++) {
+            store.hold("c1", "ORD-" + i, "figlioCompletato", null, "binary", PAYLOAD, 60_000L);
+        }
+
+        assertThat(store.findActive(2)).hasSize(2);
+    }
+
+    @Test
+    void removeClaimsTheMessageOnlyOnce() throws SQLException {
+        String id = store.hold("c1", "ORD-1", "figlioCompletato", null, "binary", PAYLOAD, 60_000L);
+
+        assertThat(store.remove(id)).isTrue();
+        assertThat(store.remove(id)).isFalse();
+        assertThat(store.findActive(10)).isEmpty();
+    }
+
+    @Test
+    void missingTableIsReported() {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1");
+
+        assertThatThrownBy(() -> new PendingMessageStore(dataSource).findActive(10))
+                .isInstanceOf(SQLException.class)
+                .hasMessageContaining(PendingMessageStore.TABLE);
+    }
+}
@@ -0,0 +1,519 @@
+package com.martinispec.jms;
+
+import com.martinispec.kie.ContainerResolver;
+import com.martinispec.kie.CorrelationResolver;
+import com.martinispec.kie.ProcessDispatcherProvider;
+import com.martinispec.kie.ProcessRoutingTable;
+import com.martinispec.kie.SignalFanOut;
+import com.martinispec.model.ProcessMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.LocalBean;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.enterprise.concurrent.ManagedThreadFactory;
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pipeline asincrona opzionale per la coda PROCESS.MESSAGES, alternativa all'MDB.
+ *
+ * Abilitazione (l'MDB va disattivato, altrimenti i due consumer si dividono i messaggi):
+ *   -Dmartini.listener.async.enabled=true -Dmartini.listener.mdb.active=false
+ *
+ * Stadi, collegati da code bounded (martini.listener.async.queue):
+ * 1. receive/decode: i receiver leggono dalla coda JMS e decodificano il ProcessMessage
+ * 2. route: risoluzione del container (id o alias, vedi ContainerResolver), del processo da avviare
+ *    o delle istanze correlate
+ * 3. dispatch: avvio/signal su jBPM con un pool di thread dedicato (martini.listener.async.dispatchers)
+ *
+ * Ogni messaggio in volo occupa uno "slot", cioè una sessione JMS transacted con il proprio consumer:
+ * il commit (ack) avviene solo dopo il dispatch, quindi la garanzia di consegna è la stessa dell'MDB.
+ * I messaggi falliti o senza destinatario sono ripubblicati con ritardo o inviati in DLQ (RetryPolicy)
+ * sulla sessione dello slot, nello stesso commit dell'ack; se non è possibile, rollback e redelivery. Il numero di slot (martini.listener.async.inflight)
+ * limita i messaggi in volo: quando sono tutti occupati, o le code tra gli stadi sono piene, i receiver
+ * smettono di leggere dalla coda (backpressure).
+ * I messaggi già elaborati (MessageDeduplicator) sono confermati nello stadio di routing senza dispatch; la
+ * registrazione avviene subito dopo il dispatch, quindi un rollback successivo dello slot non ripete avvio/signal.
+ * I messaggi conservati dal PendingMessageBuffer sono scritti su database fuori dalla sessione JMS: nello stadio
+ * di routing insieme alla registrazione come elaborati (holdProcessed), quindi un rollback successivo dello slot
+ * non li conserva due volte; nel fan-out un rollback può consegnarli due volte (at-least-once, come i signal ripetuti).
+ * I messaggi da aggregare (MessageAggregator) sono aggiunti al gruppo nello stadio di routing, insieme alla
+ * registrazione come elaborati: un rollback successivo dello slot non li conta due volte.
+ * I receiver aprono le sessioni solo dopo il warm-up del listener (ListenerWarmUp).
+ */
+@Singleton
+@Startup
+@LocalBean
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class AsyncProcessMessagePipeline {
+
+    private static final Logger logger = LoggerFactory.getLogger(AsyncProcessMessagePipeline.class);
+
+    private static final boolean ENABLED = Boolean.getBoolean("martini.listener.async.enabled");
+    private static final int RECEIVERS = Integer.getInteger("martini.listener.async.receivers", 2);
+    private static final int ROUTERS = Integer.getInteger("martini.listener.async.routers", 2);
+    private static final int DISPATCHERS = Integer.getInteger("martini.listener.async.dispatchers", 16);
+    private static final int IN_FLIGHT = Integer.getInteger("martini.listener.async.inflight", 64);
+    private static final int QUEUE_CAPACITY = Integer.getInteger("martini.listener.async.queue", 32);
+    private static final String CONNECTION_FACTORY_JNDI = System.getProperty("martini.listener.async.connectionFactory",
+                                                                             "java:/ConnectionFactory");
+    private static final String QUEUE_JNDI = "java:/jms/queue/PROCESS.MESSAGES";
+
+    private static final long POLL_TIMEOUT = 1000L;
+    private static final long RECONNECT_DELAY = 5000L;
+
+    // Metriche (JMX com.martinispec:type=MessagingMetrics,component=service)
+    private static final String CONSUMER = "async";
+    private static final AtomicLong IN_FLIGHT_GAUGE = ListenerMetrics.inFlight(CONSUMER);
+
+    @EJB
+    private ContainerResolver containerResolver;
+
+    @EJB
+    private ProcessDispatcherProvider dispatcherProvider;
+
+    @EJB
+    private ProcessRoutingTable routingTable;
+
+    @EJB
+    private CorrelationResolver correlationResolver;
+
+    @EJB
+    private PendingMessageBuffer pendingBuffer;
+
+    @EJB
+    private MessageDeduplicator deduplicator;
+
+    @EJB
+    private MessageAggregator aggregator;
+
+    @EJB
+    private ListenerWarmUp warmUp;
+
+    @Resource
+    private ManagedThreadFactory threadFactory;
+
+    private final List<Thread> workers = new ArrayList<>();
+
+    private BlockingQueue<Work> routeQueue;
+    private BlockingQueue<Work> dispatchQueue;
+
+    private volatile boolean running;
+    private ConnectionFactory connectionFactory;
+    private Destination queue;
+
+    @PostConstruct
+    void start() {
+        if (!ENABLED) {
+            return;
+        }
+        if (Boolean.getBoolean("martini.listener.batch.enabled")) {
+            logger.warn("AsyncProcessMessagePipeline: Attivo insieme al consumer batch, i messaggi verranno divisi tra i due");
+        }
+        try {
+            InitialContext ctx = new InitialContext();
+            connectionFactory = (ConnectionFactory) ctx.lookup(CONNECTION_FACTORY_JNDI);
+            queue = (Destination) ctx.lookup(QUEUE_JNDI);
+        } catch (NamingException e) {
+            logger.error("AsyncProcessMessagePipeline: JNDI lookup fallito, pipeline non avviata: {}", e.getMessage(), e);
+            return;
+        }
+        routeQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        dispatchQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        running = true;
+
+        int slotsPerReceiver = Math.max(1, IN_FLIGHT / RECEIVERS);
+        for (int i = 0; i < RECEIVERS; i++) {
+            Receiver receiver = new Receiver(slotsPerReceiver);
+            startWorker("martini-async-receiver-" + i, receiver::run);
+        }
+        for (int i = 0; i < ROUTERS; i++) {
+            startWorker("martini-async-router-" + i, this::routeLoop);
+        }
+        for (int i = 0; i < DISPATCHERS; i++) {
+            startWorker("martini-async-dispatcher-" + i, this::dispatchLoop);
+        }
+        logger.info("AsyncProcessMessagePipeline: Avviata ({} receiver, {} router, {} dispatcher, {} messaggi in volo max)",
+                    RECEIVERS, ROUTERS, DISPATCHERS, slotsPerReceiver * RECEIVERS);
+    }
+
+    @PreDestroy
+    void stop() {
+        running = false;
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join(POLL_TIMEOUT * 2);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        workers.clear();
+    }
+
+    private void startWorker(String name, Runnable task) {
+        Thread worker = threadFactory.newThread(task);
+        worker.setName(name);
+        worker.start();
+        workers.add(worker);
+    }
+
+    /**
+     * Stadio 2: risolve il target del messaggio (processo da avviare o istanze correlate).
+     */
+    private void routeLoop() {
+        while (running) {
+            Work work;
+            try {
+                work = routeQueue.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+                if (work == null) {
+                    continue;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                ProcessMessage processMessage = work.processMessage;
+                if (deduplicator.isDuplicate(processMessage, work.jmsMessage)) {
+                    ListenerMetrics.outcome(CONSUMER, ListenerMetrics.DUPLICATE, processMessage.getMessageName());
+                    if (work.slot.complete(true)) {
+                        ProcessMessageDecoder.releaseClaimCheck(work.jmsMessage);
+                    }
+                    continue;
+                }
+                if (aggregator.accepts(processMessage, work.jmsMessage)) {
+                    aggregator.collect(processMessage, work.jmsMessage);
+                    ListenerMetrics.outcome(CONSUMER, ListenerMetrics.AGGREGATED, processMessage.getMessageName());
+                    if (work.slot.complete(true)) {
+                        ProcessMessageDecoder.releaseClaimCheck(work.jmsMessage);
+                    }
+                    continue;
+                }
+                long routeStart = System.nanoTime();
+                if (processMessage.hasCorrelationKey()) {
+                    List<String> containers = containerResolver.resolve(processMessage.getTargetContainer());
+                    List<Long> targets = ProcessMessageDecoder.targetInstances(work.jmsMessage);
+                    work.instanceIds = targets != null
+                                       ? Collections.singletonMap(containers.get(0), targets)
+                                       : correlationResolver.resolve(containers, processMessage.getCorrelationKey());
+                    ListenerMetrics.route(true).recordSince(routeStart);
+                    if (work.instanceIds.values().stream().allMatch(List::isEmpty)) {
+                        if (pendingBuffer.holdProcessed(containers.get(0), processMessage, work.jmsMessage)) {
+                            ListenerMetrics.outcome(CONSUMER, ListenerMetrics.PENDING, processMessage.getMessageName());
+                            if (work.slot.complete(true)) {
+                                ProcessMessageDecoder.releaseClaimCheck(work.jmsMessage);
+                            }
+                            continue;
+                        }
+                        ListenerMetrics.outcome(CONSUMER, ListenerMetrics.UNMATCHED, processMessage.getMessageName());
+                        logger.warn("AsyncProcessMessagePipeline: ⚠️  Nessun processo attivo trovato con correlationKey '{}' per messaggio '{}'",
+                                    processMessage.getCorrelationKey(), processMessage.getMessageName());
+                        unmatched(work);
+                        continue;
+                    }
+                } else {
+                    work.containerId = containerResolver.latest(processMessage.getTargetContainer());
+                    work.processId = routingTable.resolve(work.containerId, processMessage.getMessageName());
+                    ListenerMetrics.route(false).recordSince(routeStart);
+                    if (work.processId == null) {
+                        ListenerMetrics.outcome(CONSUMER, ListenerMetrics.UNMATCHED, processMessage.getMessageName());
+                        logger.warn("AsyncProcessMessagePipeline: Nessun processo trovato per receive event con messaggio '{}'",
+                                    processMessage.getMessageName());
+                        unmatched(work);
+                        continue;
+                    }
+                }
+                dispatchQueue.put(work);
+            } catch (InterruptedException e) {
+                work.slot.complete(false);
+                Thread.currentThread().interrupt();
+                return;
+            } catch (JMSException | RuntimeException e) {
+                ListenerMetrics.outcome(CONSUMER, ListenerMetrics.FAILED, work.processMessage.getMessageName());
+                logger.error("AsyncProcessMessagePipeline: Routing del messaggio '{}' fallito: {}",
+                             work.processMessage.getMessageName(), e.getMessage(), e);
+                failed(work, e);
+            }
+        }
+    }
+
+    /**
+     * Stadio 3: avvio/signal su jBPM, poi conferma (o rollback) della sessione del messaggio.
+     */
+    private void dispatchLoop() {
+        while (running) {
+            Work work;
+            try {
+                work = dispatchQueue.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+                if (work == null) {
+                    continue;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            ProcessMessage processMessage = work.processMessage;
+            String messageName = processMessage.getMessageName();
+            try {
+                if (work.processId != null) {
+                    Long processInstanceId = dispatcherProvider.get().startProcess(work.containerId, work.processId,
+                                                                                   processMessage.getVariables());
+                    ListenerMetrics.outcome(CONSUMER, ListenerMetrics.STARTED, messageName);
+                    logger.debug("AsyncProcessMessagePipeline: ✅ Avviato nuovo processo '{}' (instance ID: {}) per messaggio '{}'",
+                                 work.processId, processInstanceId, messageName);
+                } else {
+                    int signalled = 0;
+                    for (Map.Entry<String, List<Long>> container : work.instanceIds.entrySet()) {
+                        if (container.getValue().isEmpty()) {
+                            continue;
+                        }
+                        SignalFanOut.Outcome outcome = pendingBuffer.signalOrHold(container.getKey(), processMessage,
+                                                                                  container.getValue());
+                        ProcessMessagePublisher.requeueFailedSignals(container.getKey(), processMessage, work.jmsMessage, outcome);
+                        signalled += outcome.getSignalled().size();
+                    }
+                    ListenerMetrics.outcome(CONSUMER, ListenerMetrics.SIGNALLED, messageName);
+                    logger.debug("AsyncProcessMessagePipeline: ✅ Signal '{}' inviato a {} processo(i) con correlationKey '{}'",
+                                 messageName, signalled, processMessage.getCorrelationKey());
+                }
+                // Messaggi conservati e signal ripubblicati sono già confermati (nessuna transazione JTA sui thread
+                // della pipeline): la registrazione segue le regole del dispatch
+                deduplicator.markProcessed(processMessage, work.jmsMessage);
+                // Payload del claim-check rimosso solo dopo la conferma del messaggio
+                if (work.slot.complete(true)) {
+                    ProcessMessageDecoder.releaseClaimCheck(work.jmsMessage);
+                }
+            } catch (JMSException | RuntimeException e) {
+                ListenerMetrics.outcome(CONSUMER, ListenerMetrics.FAILED, messageName);
+                logger.error("AsyncProcessMessagePipeline: Dispatch del messaggio '{}' fallito: {}",
+                             messageName, e.getMessage(), e);
+                failed(work, e);
+            }
+        }
+    }
+
+    /**
+     * Messaggio senza processo né istanze: retry ritardato e poi DLQ, altrimenti scartato.
+     */
+    private void unmatched(Work work) {
+        if (RetryPolicy.isEnabled()) {
+            try {
+                RetryPolicy.onUnmatched(work.slot.session, work.jmsMessage, work.processMessage.getMessageName(),
+                                        "Nessun processo o istanza trovato");
+            } catch (JMSException e) {
+                logger.error("AsyncProcessMessagePipeline: Retry del messaggio '{}' non possibile, scartato: {}",
+                             work.processMessage.getMessageName(), e.getMessage(), e);
+            }
+        }
+        work.slot.complete(true);
+    }
+
+    /**
+     * Messaggio fallito: retry ritardato o DLQ nel commit dello slot, altrimenti rollback e redelivery.
+     */
+    private void failed(Work work, Throwable error) {
+        if (RetryPolicy.isEnabled()) {
+            try {
+                RetryPolicy.onFailure(work.slot.session, work.jmsMessage, work.processMessage.getMessageName(), error);
+                work.slot.complete(true);
+                return;
+            } catch (JMSException e) {
+                logger.error("AsyncProcessMessagePipeline: Retry del messaggio '{}' non possibile, rollback: {}",
+                             work.processMessage.getMessageName(), e.getMessage(), e);
+            }
+        }
+        work.slot.complete(false);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stadio 1: un receiver possiede una connessione JMS e un insieme fisso di slot.
+     * Legge un nuovo messaggio solo quando ha uno slot libero.
+     */
+    private final class Receiver {
+
+        private final int slotCount;
+        private final BlockingQueue<Slot> freeSlots;
+
+        private Receiver(int slotCount) {
+            this.slotCount = slotCount;
+            this.freeSlots = new ArrayBlockingQueue<>(slotCount);
+        }
+
+        private void run() {
+            // Nessun consumer aperto prima del warm-up: i messaggi restano in coda
+            warmUp.awaitReady();
+            while (running) {
+                List<Slot> slots = new ArrayList<>();
+                try (Connection connection = connectionFactory.createConnection()) {
+                    for (int i = 0; i < slotCount; i++) {
+                        Session session = connection.createSession(true, Session.SESSION_TRANSACTED);
+                        Slot slot = new Slot(this, session, session.createConsumer(queue));
+                        slots.add(slot);
+                        freeSlots.add(slot);
+                    }
+                    connection.start();
+                    receiveLoop();
+                } catch (JMSException e) {
+                    if (running) {
+                        logger.error("AsyncProcessMessagePipeline: Errore JMS, riconnessione tra {} ms: {}", RECONNECT_DELAY, e.getMessage(), e);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } finally {
+                    awaitSlots(slots);
+                    slots.forEach(slot -> slot.closed = true);
+                    freeSlots.clear();
+                }
+                if (running) {
+                    sleep(RECONNECT_DELAY);
+                }
+            }
+        }
+
+        private void receiveLoop() throws JMSException, InterruptedException {
+            while (running) {
+                // Backpressure: senza slot liberi non si legge dalla coda
+                Slot slot = freeSlots.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+                if (slot == null) {
+                    continue;
+                }
+                Message jmsMessage;
+                ProcessMessage processMessage;
+                // Lo slot è occupato fino a complete(), che decrementa il gauge
+                IN_FLIGHT_GAUGE.incrementAndGet();
+                try {
+                    jmsMessage = slot.consumer.receive(POLL_TIMEOUT);
+                    if (jmsMessage == null) {
+                        IN_FLIGHT_GAUGE.decrementAndGet();
+                        freeSlots.add(slot);
+                        continue;
+                    }
+                    long decodeStart = System.nanoTime();
+                    processMessage = ProcessMessageDecoder.decode(jmsMessage);
+                    ListenerMetrics.decode().recordSince(decodeStart);
+                } catch (JMSException e) {
+                    slot.complete(false);
+                    throw e;
+                }
+                if (processMessage == null) {
+                    // Messaggio non valido: confermato senza redelivery, come nell'MDB
+                    slot.complete(true);
+                    continue;
+                }
+                try {
+                    routeQueue.put(new Work(slot, jmsMessage, processMessage));
+                } catch (InterruptedException e) {
+                    slot.complete(false);
+                    throw e;
+                }
+            }
+        }
+
+        /**
+         * Attende che i messaggi in volo terminino prima di chiudere la connessione.
+         */
+        private void awaitSlots(List<Slot> slots) {
+            long deadline = System.currentTimeMillis() + RECONNECT_DELAY * 2;
+            while (freeSlots.size() < slots.size() && System.currentTimeMillis() < deadline) {
+                sleep(100L);
+            }
+        }
+    }
+
+    /**
+     * Sessione transacted dedicata a un messaggio in volo: usata da un solo stadio alla volta.
+     */
+    private static final class Slot {
+
+        private final Receiver owner;
+        private final Session session;
+        private final MessageConsumer consumer;
+        // Connessione del receiver chiusa: lo slot non va più reso
+        private volatile boolean closed;
+
+        private Slot(Receiver owner, Session session, MessageConsumer consumer) {
+            this.owner = owner;
+            this.session = session;
+            this.consumer = consumer;
+        }
+
+        /**
+         * Conferma (commit) o annulla (rollback, redelivery) il messaggio e rende lo slot al receiver.
+         *
+         * @return true se il messaggio è stato confermato
+         */
+        private boolean complete(boolean success) {
+            IN_FLIGHT_GAUGE.decrementAndGet();
+            try {
+                if (success) {
+                    session.commit();
+                } else {
+                    session.rollback();
+                }
+                return success;
+            } catch (JMSException e) {
+                logger.error("AsyncProcessMessagePipeline: {} della sessione fallito: {}",
+                             success ? "Commit" : "Rollback", e.getMessage(), e);
+                return false;
+            } finally {
+                if (!closed) {
+                    owner.freeSlots.offer(this);
+                }
+            }
+        }
+    }
+
+    /**
+     * Messaggio in transito tra gli stadi della pipeline.
+     */
+    private static final class Work {
+
+        private final Slot slot;
+        private final Message jmsMessage;
+        private final ProcessMessage processMessage;
+        private String containerId;
+        private String processId;
+        private Map<String, List<Long>> instanceIds = Collections.emptyMap();
+
+        private Work(Slot slot, Message jmsMessage, ProcessMessage processMessage) {
+            this.slot = slot;
+            this.jmsMessage = jmsMessage;
+            this.processMessage = processMessage;
+        }
+    }
+}
@@ -0,0 +1,551 @@
+package com.martinispec.jms;
+
+import com.martinispec.kie.ContainerResolver;
+import com.martinispec.kie.CorrelationResolver;
+import com.martinispec.kie.KieClientProvider;
+import com.martinispec.kie.ProcessRoutingTable;
+import com.martinispec.kie.SignalFanOut;
+import com.martinispec.model.ProcessMessage;
+import com.martinispec.model.codec.ProcessMessageCodecs;
+import org.kie.server.api.commands.CommandScript;
+import org.kie.server.api.commands.DescriptorCommand;
+import org.kie.server.api.marshalling.Marshaller;
+import org.kie.server.api.marshalling.MarshallerFactory;
+import org.kie.server.api.marshalling.MarshallingFormat;
+import org.kie.server.api.model.KieServerCommand;
+import org.kie.server.api.model.KieServiceResponse;
+import org.kie.server.api.model.ServiceResponse;
+import org.kie.server.api.model.ServiceResponsesList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.LocalBean;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.enterprise.concurrent.ManagedThreadFactory;
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Consumer batch opzionale per la coda PROCESS.MESSAGES, alternativo all'MDB.
+ *
+ * Abilitazione (l'MDB va disattivato, altrimenti i due consumer si dividono i messaggi):
+ *   -Dmartini.listener.batch.enabled=true -Dmartini.listener.mdb.active=false
+ *
+ * Funzionamento:
+ * - Ogni consumer legge in una sessione JMS transacted fino a N messaggi
+ *   (martini.listener.batch.size) o fino a T millisecondi dal primo (martini.listener.batch.wait)
+ * - Dopo la risoluzione del container (id o alias, vedi ContainerResolver) ogni messaggio diventa uno o più
+ *   comandi ProcessService di KIE Server, nell'ordine di arrivo dei messaggi
+ * - L'intero batch viene inviato con una sola chiamata CommandScript. Lo script non è atomico: ogni comando
+ *   viene eseguito nella propria transazione e ha il proprio esito, quindi l'esito è valutato per messaggio
+ * - I messaggi riusciti sono registrati come elaborati (MessageDeduplicator) subito dopo la risposta;
+ *   quelli falliti (avvio, signal a tutte le istanze, lettura o routing) sono ripubblicati con ritardo o inviati
+ *   in DLQ (RetryPolicy) nella sessione del batch; un signal fallito solo per alcune istanze viene ritentato
+ *   solo per quelle (martiniTargetInstances). Un messaggio non valido non blocca gli altri del batch
+ * - Il commit della sessione conferma insieme ack, retry e DLQ. Con retry disabilitato, o se la ripubblicazione
+ *   fallisce, il batch va in rollback e redelivery: i messaggi riusciti risultano già elaborati e non vengono ripetuti
+ * - Signal arrivati in anticipo (PendingMessageBuffer, attivo di default): un messaggio senza istanze viene
+ *   conservato e registrato come elaborato in una sola transazione; i signal alle istanze correlate non entrano nel CommandScript ma passano dal buffer come nell'MDB
+ *   (signal solo alle istanze in attesa, messaggio conservato per le altre), al momento del routing. Con il buffer
+ *   attivo il CommandScript raggruppa quindi solo gli avvii; con -Dmartini.pending.enabled=false anche i signal
+ * - I messaggi da aggregare (MessageAggregator) sono aggiunti al gruppo e registrati come elaborati in una
+ *   transazione propria, prima del commit della sessione: un rollback del batch non li conta due volte
+ * - I messaggi senza processo né istanze (e non conservati) sono ripubblicati con ritardo o inviati in DLQ
+ *   (RetryPolicy) nella stessa sessione, quindi nel commit del batch
+ * - I consumer si aprono solo dopo il warm-up del listener (ListenerWarmUp)
+ */
+@Singleton
+@Startup
+@LocalBean
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class BatchProcessMessageConsumer {
+
+    private static final Logger logger = LoggerFactory.getLogger(BatchProcessMessageConsumer.class);
+
+    private static final boolean ENABLED = Boolean.getBoolean("martini.listener.batch.enabled");
+    private static final int BATCH_SIZE = Integer.getInteger("martini.listener.batch.size", 50);
+    private static final long BATCH_WAIT = Long.getLong("martini.listener.batch.wait", 200L);
+    private static final int CONSUMERS = Integer.getInteger("martini.listener.batch.consumers", 1);
+    private static final String CONNECTION_FACTORY_JNDI = System.getProperty("martini.listener.batch.connectionFactory",
+                                                                             "java:/ConnectionFactory");
+    private static final String QUEUE_JNDI = "java:/jms/queue/PROCESS.MESSAGES";
+
+    private static final long POLL_TIMEOUT = 1000L;
+    private static final long RECONNECT_DELAY = 5000L;
+
+    private static final String CONSUMER = "batch";
+    private static final AtomicLong IN_FLIGHT = ListenerMetrics.inFlight(CONSUMER);
+
+    @EJB
+    private KieClientProvider kieClient;
+
+    @EJB
+    private ContainerResolver containerResolver;
+
+    @EJB
+    private ProcessRoutingTable routingTable;
+
+    @EJB
+    private CorrelationResolver correlationResolver;
+
+    @EJB
+    private PendingMessageBuffer pendingBuffer;
+
+    @EJB
+    private MessageDeduplicator deduplicator;
+
+    @EJB
+    private MessageAggregator aggregator;
+
+    @EJB
+    private ListenerWarmUp warmUp;
+
+    @Resource
+    private ManagedThreadFactory threadFactory;
+
+    private final List<Thread> workers = new ArrayList<>();
+    private final Marshaller marshaller = MarshallerFactory.getMarshaller(MarshallingFormat.JSON, getClass().getClassLoader());
+
+    private volatile boolean running;
+    private ConnectionFactory connectionFactory;
+    private Destination queue;
+
+    @PostConstruct
+    void start() {
+        if (!ENABLED) {
+            return;
+        }
+        try {
+            InitialContext ctx = new InitialContext();
+            connectionFactory = (ConnectionFactory) ctx.lookup(CONNECTION_FACTORY_JNDI);
+            queue = (Destination) ctx.lookup(QUEUE_JNDI);
+        } catch (NamingException e) {
+            logger.error("BatchProcessMessageConsumer: JNDI lookup fallito, consumer batch non avviato: {}", e.getMessage(), e);
+            return;
+        }
+        running = true;
+        for (int i = 0; i < CONSUMERS; i++) {
+            Thread worker = threadFactory.newThread(this::consumeLoop);
+            worker.setName("martini-batch-consumer-" + i);
+            worker.start();
+            workers.add(worker);
+        }
+        logger.info("BatchProcessMessageConsumer: Avviati {} consumer batch (size: {}, wait: {} ms)", CONSUMERS, BATCH_SIZE, BATCH_WAIT);
+    }
+
+    @PreDestroy
+    void stop() {
+        running = false;
+        for (Thread worker : workers) {
+            try {
+                worker.join(POLL_TIMEOUT * 2);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        workers.clear();
+    }
+
+    private void consumeLoop() {
+        // Nessun consumer aperto prima del warm-up: i messaggi restano in coda
+        warmUp.awaitReady();
+        while (running) {
+            try (Connection connection = connectionFactory.createConnection()) {
+                Session session = connection.createSession(true, Session.SESSION_TRANSACTED);
+                MessageConsumer consumer = session.createConsumer(queue);
+                connection.start();
+
+                while (running) {
+                    List<Message> batch = drain(consumer);
+                    if (batch.isEmpty()) {
+                        continue;
+                    }
+                    IN_FLIGHT.addAndGet(batch.size());
+                    // Esiti registrati solo dopo il commit: in caso di rollback tutto il batch è in redelivery
+                    List<String[]> outcomes = new ArrayList<>(batch.size());
+                    List<Message> dispatched = new ArrayList<>(batch.size());
+                    try {
+                        dispatch(session, batch, outcomes, dispatched);
+                        session.commit();
+                        outcomes.forEach(o -> ListenerMetrics.outcome(CONSUMER, o[0], o[1]));
+                        // Payload del claim-check rimossi solo dopo la conferma del batch
+                        dispatched.forEach(ProcessMessageDecoder::releaseClaimCheck);
+                    } catch (RuntimeException e) {
+                        logger.error("BatchProcessMessageConsumer: Batch di {} messaggi fallito, rollback: {}",
+                                     batch.size(), e.getMessage(), e);
+                        outcomes.forEach(o -> ListenerMetrics.outcome(CONSUMER, ListenerMetrics.FAILED, o[1]));
+                        session.rollback();
+                    } finally {
+                        IN_FLIGHT.addAndGet(-batch.size());
+                    }
+                }
+            } catch (JMSException e) {
+                if (running) {
+                    logger.error("BatchProcessMessageConsumer: Errore JMS, riconnessione tra {} ms: {}", RECONNECT_DELAY, e.getMessage(), e);
+                    sleep(RECONNECT_DELAY);
+                }
+            }
+        }
+    }
+
+    /**
+     * Attende il primo messaggio, poi raccoglie fino a BATCH_SIZE messaggi entro BATCH_WAIT ms.
+     */
+    private List<Message> drain(MessageConsumer consumer) throws JMSException {
+        List<Message> batch = new ArrayList<>();
+        Message first = consumer.receive(POLL_TIMEOUT);
+        if (first == null) {
+            return batch;
+        }
+        batch.add(first);
+        long deadline = System.currentTimeMillis() + BATCH_WAIT;
+        while (batch.size() < BATCH_SIZE) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                break;
+            }
+            Message next = consumer.receive(remaining);
+            if (next == null) {
+                break;
+            }
+            batch.add(next);
+        }
+        return batch;
+    }
+
+    private void dispatch(Session session, List<Message> batch, List<String[]> outcomes, List<Message> dispatched) {
+        // Comandi nell'ordine di arrivo dei messaggi: KIE Server li esegue in sequenza, ciascuno nella propria transazione
+        List<KieServerCommand> commands = new ArrayList<>();
+        List<BatchEntry> entries = new ArrayList<>(batch.size());
+        List<Failure> failures = new ArrayList<>();
+
+        for (Message jmsMessage : batch) {
+            String messageName = null;
+            try {
+                long decodeStart = System.nanoTime();
+                ProcessMessage processMessage = ProcessMessageDecoder.decode(jmsMessage);
+                List<Long> targets = ProcessMessageDecoder.targetInstances(jmsMessage);
+                ListenerMetrics.decode().recordSince(decodeStart);
+                if (processMessage == null) {
+                    continue;
+                }
+                messageName = processMessage.getMessageName();
+                if (deduplicator.isDuplicate(processMessage, jmsMessage)) {
+                    outcomes.add(new String[] { ListenerMetrics.DUPLICATE, messageName });
+                    dispatched.add(jmsMessage);
+                    continue;
+                }
+                if (aggregator.accepts(processMessage, jmsMessage)) {
+                    aggregator.collect(processMessage, jmsMessage);
+                    outcomes.add(new String[] { ListenerMetrics.AGGREGATED, messageName });
+                    dispatched.add(jmsMessage);
+                    continue;
+                }
+                BatchEntry entry = route(session, jmsMessage, processMessage, targets, commands, outcomes, dispatched, failures);
+                if (entry != null) {
+                    entries.add(entry);
+                }
+            } catch (JMSException | RuntimeException e) {
+                // Errore del singolo messaggio (lettura, container non risolto, ...): non blocca gli altri
+                logger.error("BatchProcessMessageConsumer: Elaborazione del messaggio '{}' fallita: {}", messageName, e.getMessage(), e);
+                outcomes.add(new String[] { ListenerMetrics.FAILED, messageName });
+                failures.add(new Failure(jmsMessage, messageName, e, Collections.emptyMap()));
+            }
+        }
+
+        if (!commands.isEmpty()) {
+            List<ServiceResponse<?>> responses = execute(commands);
+            for (BatchEntry entry : entries) {
+                complete(entry, responses, outcomes, dispatched, failures);
+            }
+            logger.debug("BatchProcessMessageConsumer: ✅ Batch di {} messaggi elaborato: {} comandi in una chiamata, {} falliti",
+                         batch.size(), commands.size(), failures.size());
+        }
+
+        // Dopo la registrazione dei messaggi riusciti: un rollback da qui in poi non ne ripete avvio o signal
+        for (Failure failure : failures) {
+            retry(session, failure);
+        }
+    }
+
+    /**
+     * Risolve processo o istanze del messaggio e aggiunge i relativi comandi al batch.
+     *
+     * @return Voce del batch, null se il messaggio non ha comandi nello script (conservato, segnalato tramite
+     *         il buffer dei messaggi in attesa, o già rimandato in retry/DLQ)
+     */
+    private BatchEntry route(Session session, Message jmsMessage, ProcessMessage processMessage, List<Long> targets,
+                             List<KieServerCommand> commands, List<String[]> outcomes, List<Message> dispatched,
+                             List<Failure> failures) {
+        String messageName = processMessage.getMessageName();
+        String payload = marshaller.marshall(processMessage.getVariables());
+        String format = marshaller.getFormat().getType();
+        long routeStart = System.nanoTime();
+
+        if (!processMessage.hasCorrelationKey()) {
+            String containerId = containerResolver.latest(processMessage.getTargetContainer());
+            String processId = routingTable.resolve(containerId, messageName);
+            ListenerMetrics.route(false).recordSince(routeStart);
+            if (processId == null) {
+                logger.warn("BatchProcessMessageConsumer: Nessun processo trovato per receive event con messaggio '{}'", messageName);
+                outcomes.add(new String[] { ListenerMetrics.UNMATCHED, messageName });
+                unmatched(session, jmsMessage, messageName);
+                return null;
+            }
+            BatchEntry entry = new BatchEntry(jmsMessage, processMessage, commands.size(), ListenerMetrics.STARTED);
+            entry.targets.add(new Target(containerId, null));
+            commands.add(new DescriptorCommand("ProcessService", "startProcess", payload, format, containerId, processId));
+            return entry;
+        }
+
+        List<String> containers = containerResolver.resolve(processMessage.getTargetContainer());
+        Map<String, List<Long>> instanceIds = targets != null
+                                              ? Collections.singletonMap(containers.get(0), targets)
+                                              : correlationResolver.resolve(containers, processMessage.getCorrelationKey());
+        ListenerMetrics.route(true).recordSince(routeStart);
+        if (instanceIds.values().stream().allMatch(List::isEmpty)) {
+            // Il processo destinatario potrebbe non essere ancora stato indicizzato: il messaggio attende
+            if (pendingBuffer.holdProcessed(containers.get(0), processMessage, jmsMessage)) {
+                outcomes.add(new String[] { ListenerMetrics.PENDING, messageName });
+                dispatched.add(jmsMessage);
+                return null;
+            }
+            logger.warn("BatchProcessMessageConsumer: ⚠️  Nessun processo attivo trovato con correlationKey '{}' per messaggio '{}'",
+                        processMessage.getCorrelationKey(), messageName);
+            outcomes.add(new String[] { ListenerMetrics.UNMATCHED, messageName });
+            unmatched(session, jmsMessage, messageName);
+            return null;
+        }
+        if (pendingBuffer.isEnabled()) {
+            signalOrHold(jmsMessage, processMessage, instanceIds, outcomes, dispatched, failures);
+            return null;
+        }
+        BatchEntry entry = new BatchEntry(jmsMessage, processMessage, commands.size(), ListenerMetrics.SIGNALLED);
+        instanceIds.forEach((containerId, ids) -> {
+            for (Long instanceId : ids) {
+                entry.targets.add(new Target(containerId, instanceId));
+                commands.add(new DescriptorCommand("ProcessService", "signalProcessInstance", payload, format,
+                                                   containerId, instanceId, messageName));
+            }
+        });
+        return entry;
+    }
+
+    /**
+     * Invia il CommandScript. Se la chiamata fallisce nel suo insieme nessun comando ha un esito noto:
+     * tutti risultano falliti e i messaggi seguono la politica di retry.
+     *
+     * @return Risposte nello stesso ordine dei comandi (vuota se la chiamata è fallita)
+     */
+    private List<ServiceResponse<?>> execute(List<KieServerCommand> commands) {
+        try {
+            ServiceResponsesList responses = kieClient.execute(client -> client.executeScript(new CommandScript(commands)));
+            return responses != null && responses.getResponses() != null ? responses.getResponses() : Collections.emptyList();
+        } catch (RuntimeException e) {
+            logger.error("BatchProcessMessageConsumer: Chiamata batch di {} comandi fallita: {}", commands.size(), e.getMessage(), e);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Esito di un messaggio dalle risposte dei suoi comandi (vedi settle).
+     * Le istanze non più esistenti non vengono ritentate.
+     */
+    private void complete(BatchEntry entry, List<ServiceResponse<?>> responses, List<String[]> outcomes,
+                          List<Message> dispatched, List<Failure> failures) {
+        String messageName = entry.processMessage.getMessageName();
+        Map<String, List<Long>> failedInstances = new LinkedHashMap<>();
+        String error = null;
+        int served = 0;
+        for (int i = 0; i < entry.targets.size(); i++) {
+            int index = entry.firstCommand + i;
+            ServiceResponse<?> response = index < responses.size() ? responses.get(index) : null;
+            Target target = entry.targets.get(i);
+            if (response != null && response.getType() == KieServiceResponse.ResponseType.SUCCESS) {
+                served++;
+            } else if (response != null && target.instanceId != null && isGone(response.getMsg())) {
+                logger.warn("BatchProcessMessageConsumer: Istanza {} non più esistente, signal '{}' ignorato", target.instanceId, messageName);
+                served++;
+            } else {
+                error = response != null ? response.getMsg() : "Nessun esito dalla chiamata batch";
+                failedInstances.computeIfAbsent(target.containerId, k -> new ArrayList<>()).add(target.instanceId);
+            }
+        }
+
+        settle(entry.jmsMessage, entry.processMessage, entry.outcome,
+               error != null ? new IllegalStateException("Comando batch fallito: " + error) : null,
+               served > 0, failedInstances, outcomes, dispatched, failures);
+    }
+
+    /**
+     * Signal tramite il PendingMessageBuffer, fuori dal CommandScript: solo alle istanze che attendono il signal,
+     * il messaggio viene conservato per le altre. L'esito per istanza segue le stesse regole dei comandi del batch.
+     */
+    private void signalOrHold(Message jmsMessage, ProcessMessage processMessage, Map<String, List<Long>> instanceIds,
+                              List<String[]> outcomes, List<Message> dispatched, List<Failure> failures) {
+        Map<String, List<Long>> failedInstances = new LinkedHashMap<>();
+        RuntimeException error = null;
+        boolean served = false;
+        for (Map.Entry<String, List<Long>> container : instanceIds.entrySet()) {
+            if (container.getValue().isEmpty()) {
+                continue;
+            }
+            SignalFanOut.Outcome outcome = pendingBuffer.signalOrHold(container.getKey(), processMessage, container.getValue());
+            served |= !outcome.isTotalFailure();
+            if (outcome.hasFailures()) {
+                error = error != null ? error : outcome.getFailed().values().iterator().next();
+                failedInstances.put(container.getKey(), new ArrayList<>(outcome.getFailed().keySet()));
+            }
+        }
+        settle(jmsMessage, processMessage, ListenerMetrics.SIGNALLED, error, served, failedInstances, outcomes, dispatched, failures);
+    }
+
+    /**
+     * Esito di un messaggio:
+     * - nessun errore: registrato come elaborato
+     * - nessuna istanza (o avvio) servita: l'intero messaggio va in retry
+     * - errore solo per una parte delle istanze: registrato come elaborato, retry di una copia indirizzata
+     *   alle sole istanze fallite (martiniTargetInstances), per container
+     */
+    private void settle(Message jmsMessage, ProcessMessage processMessage, String outcome, RuntimeException error,
+                        boolean served, Map<String, List<Long>> failedInstances, List<String[]> outcomes,
+                        List<Message> dispatched, List<Failure> failures) {
+        String messageName = processMessage.getMessageName();
+        if (error == null) {
+            deduplicator.markProcessed(processMessage, jmsMessage);
+            outcomes.add(new String[] { outcome, messageName });
+            dispatched.add(jmsMessage);
+            return;
+        }
+        if (!served) {
+            outcomes.add(new String[] { ListenerMetrics.FAILED, messageName });
+            failures.add(new Failure(jmsMessage, messageName, error, Collections.emptyMap()));
+            return;
+        }
+        // Le istanze servite non devono ricevere di nuovo il signal: la copia ha un'altra chiave di deduplica
+        deduplicator.markProcessed(processMessage, jmsMessage);
+        outcomes.add(new String[] { outcome, messageName });
+        logger.warn("BatchProcessMessageConsumer: Signal '{}' fallito per le istanze {}, ritento solo quelle: {}",
+                    messageName, failedInstances, error.getMessage());
+        failedInstances.forEach((containerId, ids) -> failures.add(new Failure(jmsMessage, messageName, error, Map.of(
+                ProcessMessageCodecs.CONTAINER_PROPERTY, containerId,
+                ProcessMessageDecoder.TARGET_INSTANCES_PROPERTY, ids.stream().map(String::valueOf).collect(Collectors.joining(","))))));
+    }
+
+    /**
+     * Messaggio (o parte delle sue istanze) non elaborato: retry ritardato o DLQ nella sessione del batch.
+     * Con retry disabilitato o ripubblicazione fallita il batch va in rollback e redelivery: i messaggi
+     * riusciti sono già registrati dal MessageDeduplicator e non vengono ripetuti.
+     */
+    private static void retry(Session session, Failure failure) {
+        if (!RetryPolicy.isEnabled()) {
+            throw new IllegalStateException("Messaggio '" + failure.messageName + "' fallito", failure.error);
+        }
+        try {
+            RetryPolicy.onFailure(session, failure.jmsMessage, failure.messageName, failure.error, failure.overrides);
+        } catch (JMSException e) {
+            throw new IllegalStateException("Retry del messaggio '" + failure.messageName + "' non possibile", e);
+        }
+    }
+
+    /**
+     * Messaggio senza processo né istanze: retry ritardato e poi DLQ, altrimenti scartato.
+     */
+    private static void unmatched(Session session, Message jmsMessage, String messageName) {
+        if (!RetryPolicy.isEnabled()) {
+            return;
+        }
+        try {
+            RetryPolicy.onUnmatched(session, jmsMessage, messageName, "Nessun processo o istanza trovato");
+        } catch (JMSException e) {
+            logger.error("BatchProcessMessageConsumer: Retry del messaggio '{}' non possibile, scartato: {}",
+                         messageName, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Istanza terminata o rimossa: messaggio di ProcessInstanceNotFoundException nella risposta di KIE Server.
+     */
+    private static boolean isGone(String message) {
+        return message != null && (message.contains("ProcessInstanceNotFoundException")
+                                   || message.contains("Could not find process instance"));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Messaggio del batch con i suoi comandi: firstCommand è la posizione del primo nel CommandScript,
+     * targets il container (e l'istanza, per i signal) di ciascun comando.
+     */
+    private static final class BatchEntry {
+
+        private final Message jmsMessage;
+        private final ProcessMessage processMessage;
+        private final int firstCommand;
+        private final String outcome;
+        private final List<Target> targets = new ArrayList<>();
+
+        private BatchEntry(Message jmsMessage, ProcessMessage processMessage, int firstCommand, String outcome) {
+            this.jmsMessage = jmsMessage;
+            this.processMessage = processMessage;
+            this.firstCommand = firstCommand;
+            this.outcome = outcome;
+        }
+    }
+
+    private static final class Target {
+
+        private final String containerId;
+        private final Long instanceId;
+
+        private Target(String containerId, Long instanceId) {
+            this.containerId = containerId;
+            this.instanceId = instanceId;
+        }
+    }
+
+    /**
+     * Messaggio da ritentare, con le proprietà da sostituire nella copia.
+     */
+    private static final class Failure {
+
+        private final Message jmsMessage;
+        private final String messageName;
+        private final Throwable error;
+        private final Map<String, Object> overrides;
+
+        private Failure(Message jmsMessage, String messageName, Throwable error, Map<String, Object> overrides) {
+            this.jmsMessage = jmsMessage;
+            this.messageName = messageName;
+            this.error = error;
+            this.overrides = overrides;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.martinispec.jms;
+
+import com.martinispec.model.store.ClaimCheck;
+import com.martinispec.model.store.PayloadStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.DependsOn;
+import javax.ejb.LocalBean;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.Timeout;
+import javax.ejb.Timer;
+import javax.ejb.TimerConfig;
+import javax.ejb.TimerService;
+import java.sql.SQLException;
+
+/**
+ * Rimozione periodica dei payload del claim-check (MARTINI_PAYLOAD) più vecchi della conservazione.
+ *
+ * Il listener rimuove la riga dopo il dispatch e il purge della DLQ con il messaggio; restano le righe
+ * dei messaggi che non arrivano mai al listener (scaduti o eliminati sul broker), che senza questa
+ * pulizia crescerebbero senza limite.
+ *
+ * Configurazione:
+ *   -Dmartini.claimcheck.retention=604800000    (ms, oltre la permanenza massima di un messaggio in DLQ)
+ *   -Dmartini.claimcheck.purgeInterval=3600000  (ms tra due rimozioni, 0 = nessuna)
+ */
+@Singleton
+@Startup
+@DependsOn("SchemaInitializer")
+@LocalBean
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class ClaimCheckPurger {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClaimCheckPurger.class);
+
+    private static final long RETENTION = Long.getLong("martini.claimcheck.retention", 604_800_000L);
+    private static final long PURGE_INTERVAL = Long.getLong("martini.claimcheck.purgeInterval", 3_600_000L);
+
+    @Resource
+    private TimerService timerService;
+
+    @PostConstruct
+    void init() {
+        if (PURGE_INTERVAL > 0) {
+            timerService.createIntervalTimer(PURGE_INTERVAL, PURGE_INTERVAL, new TimerConfig(null, false));
+        }
+    }
+
+    /**
+     * Rimuove i payload memorizzati da più di martini.claimcheck.retention ms.
+     */
+    @Timeout
+    void purge(Timer timer) {
+        try {
+            int removed = getStore().purge(System.currentTimeMillis() - RETENTION);
+            if (removed > 0) {
+                logger.info("ClaimCheckPurger: Rimossi {} payload più vecchi di {} ms", removed, RETENTION);
+            }
+        } catch (SQLException | IllegalStateException e) {
+            logger.warn("ClaimCheckPurger: Rimozione dei payload scaduti fallita: {}", e.getMessage());
+        }
+    }
+
+    private PayloadStore getStore() {
+        return ClaimCheck.getStore();
+    }
+}
@@ -0,0 +1,198 @@
+package com.martinispec.jms;
+
+import com.martinispec.model.MessagePriority;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.LocalBean;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.Queue;
+import javax.jms.QueueBrowser;
+import javax.jms.Session;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Strumento operativo per la DLQ: consultazione, replay in blocco e pulizia via JMX
+ * (jconsole, jboss-cli, Jolokia).
+ *
+ * Il replay legge i messaggi dalla DLQ in una sessione transacted e li reinvia su PROCESS.MESSAGES
+ * con le proprietà originali, senza quelle diagnostiche della DLQ e con il conteggio dei tentativi azzerato;
+ * il commit avviene ogni martini.dlq.replay.batch messaggi, quindi un errore a metà non perde né duplica messaggi
+ * oltre il batch corrente. La proprietà martiniReplayCount conta i replay subiti dal messaggio.
+ */
+@Singleton
+@Startup
+@LocalBean
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class DeadLetterReplay implements DeadLetterReplayMXBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(DeadLetterReplay.class);
+
+    private static final String MBEAN_NAME = "com.martinispec:type=DeadLetterReplay";
+    private static final String CONNECTION_FACTORY_JNDI = System.getProperty("martini.dlq.replay.connectionFactory",
+                                                                             "java:/ConnectionFactory");
+    private static final String QUEUE_JNDI = "java:/jms/queue/PROCESS.MESSAGES";
+    private static final int REPLAY_BATCH = Integer.getInteger("martini.dlq.replay.batch", 100);
+
+    static final String REPLAY_COUNT_PROPERTY = "martiniReplayCount";
+
+    private static final long RECEIVE_TIMEOUT = 500L;
+
+    @PostConstruct
+    void init() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(MBEAN_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+            }
+        } catch (Exception e) {
+            logger.warn("DeadLetterReplay: Registrazione MBean fallita: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    void destroy() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(MBEAN_NAME));
+        } catch (Exception e) {
+            logger.debug("DeadLetterReplay: Deregistrazione MBean fallita: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public int getDepth() {
+        try (Connection connection = connectionFactory().createConnection()) {
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            QueueBrowser browser = session.createBrowser((Queue) ProcessMessagePublisher.lookupDestination(RetryPolicy.DLQ_JNDI));
+            int depth = 0;
+            for (Enumeration<?> messages = browser.getEnumeration(); messages.hasMoreElements(); messages.nextElement()) {
+                depth++;
+            }
+            return depth;
+        } catch (JMSException e) {
+            throw new IllegalStateException("Lettura della DLQ fallita: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public List<String> browse(String selector, int maxMessages) {
+        List<String> summaries = new ArrayList<>();
+        try (Connection connection = connectionFactory().createConnection()) {
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            QueueBrowser browser = session.createBrowser((Queue) ProcessMessagePublisher.lookupDestination(RetryPolicy.DLQ_JNDI),
+                                                         emptyToNull(selector));
+            Enumeration<?> messages = browser.getEnumeration();
+            while (messages.hasMoreElements() && summaries.size() < maxMessages) {
+                Message message = (Message) messages.nextElement();
+                summaries.add(String.format("%s messageName=%s correlationKey=%s reason=%s attempts=%s error=%s",
+                                            message.getJMSMessageID(),
+                                            message.getStringProperty("messageName"),
+                                            message.getStringProperty("correlationKey"),
+                                            message.getStringProperty(RetryPolicy.DLQ_REASON_PROPERTY),
+                                            message.getObjectProperty(RetryPolicy.RETRY_ATTEMPT_PROPERTY),
+                                            message.getStringProperty(RetryPolicy.DLQ_ERROR_PROPERTY)));
+            }
+        } catch (JMSException e) {
+            throw new IllegalStateException("Lettura della DLQ fallita: " + e.getMessage(), e);
+        }
+        return summaries;
+    }
+
+    @Override
+    public int replay(String selector, int maxMessages) {
+        Map<String, Object> reset = new HashMap<>();
+        reset.put(RetryPolicy.RETRY_ATTEMPT_PROPERTY, null);
+        reset.put(RetryPolicy.DLQ_REASON_PROPERTY, null);
+        reset.put(RetryPolicy.DLQ_ERROR_PROPERTY, null);
+        reset.put(RetryPolicy.DLQ_TIME_PROPERTY, null);
+        reset.put(ProcessMessageDecoder.FANOUT_ATTEMPT_PROPERTY, null);
+
+        int replayed = drain(selector, maxMessages, (session, message) -> {
+            Map<String, Object> properties = new HashMap<>(reset);
+            int replays = message.propertyExists(REPLAY_COUNT_PROPERTY) ? message.getIntProperty(REPLAY_COUNT_PROPERTY) : 0;
+            properties.put(REPLAY_COUNT_PROPERTY, replays + 1);
+            Destination queue = ProcessMessagePublisher.lookupDestination(MessagePriority.destination(QUEUE_JNDI, message.getJMSPriority()));
+            ProcessMessagePublisher.forward(session, message, queue, 0L, properties);
+        });
+        logger.info("DeadLetterReplay: {} messaggi reinviati dalla DLQ (selettore: '{}')", replayed, selector);
+        return replayed;
+    }
+
+    @Override
+    public int purge(String selector, int maxMessages) {
+        int purged = drain(selector, maxMessages, (session, message) -> ProcessMessageDecoder.releaseClaimCheck(message));
+        logger.info("DeadLetterReplay: {} messaggi eliminati dalla DLQ (selettore: '{}')", purged, selector);
+        return purged;
+    }
+
+    /**
+     * Consuma fino a maxMessages messaggi dalla DLQ applicando l'azione, con commit ogni REPLAY_BATCH messaggi.
+     */
+    private int drain(String selector, int maxMessages, MessageAction action) {
+        int processed = 0;
+        int committed = 0;
+        try (Connection connection = connectionFactory().createConnection()) {
+            Session session = connection.createSession(true, Session.SESSION_TRANSACTED);
+            Destination dlq = ProcessMessagePublisher.lookupDestination(RetryPolicy.DLQ_JNDI);
+            MessageConsumer consumer = session.createConsumer(dlq, emptyToNull(selector));
+            connection.start();
+
+            int uncommitted = 0;
+            Message message;
+            while (processed < maxMessages && (message = consumer.receive(RECEIVE_TIMEOUT)) != null) {
+                action.apply(session, message);
+                processed++;
+                if (++uncommitted >= REPLAY_BATCH) {
+                    session.commit();
+                    committed = processed;
+                    uncommitted = 0;
+                }
+            }
+            session.commit();
+        } catch (JMSException e) {
+            // I messaggi del batch corrente restano in DLQ (rollback alla chiusura della sessione)
+            throw new IllegalStateException("Operazione sulla DLQ interrotta dopo " + committed + " messaggi: " + e.getMessage(), e);
+        }
+        return processed;
+    }
+
+    private static ConnectionFactory connectionFactory() throws JMSException {
+        try {
+            return (ConnectionFactory) new InitialContext().lookup(CONNECTION_FACTORY_JNDI);
+        } catch (NamingException e) {
+            JMSException jmsException = new JMSException("JNDI lookup fallito per '" + CONNECTION_FACTORY_JNDI + "'");
+            jmsException.setLinkedException(e);
+            throw jmsException;
+        }
+    }
+
+    private static String emptyToNull(String selector) {
+        return selector == null || selector.trim().isEmpty() ? null : selector;
+    }
+
+    @FunctionalInterface
+    private interface MessageAction {
+        void apply(Session session, Message message) throws JMSException;
+    }
+}
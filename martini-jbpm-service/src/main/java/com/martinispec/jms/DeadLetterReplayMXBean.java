@@ -0,0 +1,30 @@
+package com.martinispec.jms;
+
+import java.util.List;
+
+/**
+ * Consultazione e replay della DLQ PROCESS.MESSAGES.DLQ.
+ *
+ * Registrato come "com.martinispec:type=DeadLetterReplay".
+ * Il selettore è un selettore JMS sulle proprietà del messaggio, ad esempio
+ * "messageName = 'avviaFiglio'" oppure "martiniDeadLetterReason = 'EXHAUSTED'" (vuoto = tutti).
+ */
+public interface DeadLetterReplayMXBean {
+
+    /** Messaggi presenti in DLQ (conteggio con QueueBrowser). */
+    int getDepth();
+
+    /** Riepilogo (id, messageName, correlationKey, motivo, errore) dei primi messaggi che soddisfano il selettore. */
+    List<String> browse(String selector, int maxMessages);
+
+    /**
+     * Reinvia su PROCESS.MESSAGES i primi maxMessages messaggi che soddisfano il selettore,
+     * azzerando il conteggio dei tentativi.
+     *
+     * @return Numero di messaggi reinviati
+     */
+    int replay(String selector, int maxMessages);
+
+    /** Elimina dalla DLQ i messaggi che soddisfano il selettore; restituisce quanti ne ha rimossi. */
+    int purge(String selector, int maxMessages);
+}
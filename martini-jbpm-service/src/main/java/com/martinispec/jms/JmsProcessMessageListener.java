@@ -1,43 +1,64 @@
 package com.martinispec.jms;
 
+import com.martinispec.kie.ContainerResolver;
+import com.martinispec.kie.CorrelationResolver;
+import com.martinispec.kie.ProcessDispatcherProvider;
+import com.martinispec.kie.ProcessRoutingTable;
+import com.martinispec.kie.SignalFanOut;
 import com.martinispec.model.ProcessMessage;
-import org.kie.server.api.model.definition.ProcessDefinition;
-import org.kie.server.api.model.instance.ProcessInstance;
-import org.kie.server.client.KieServicesClient;
-import org.kie.server.client.KieServicesConfiguration;
-import org.kie.server.client.KieServicesFactory;
-import org.kie.server.client.ProcessServicesClient;
-import org.kie.server.client.QueryServicesClient;
+import org.kie.server.api.exception.KieServicesHttpException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Resource;
 import javax.ejb.ActivationConfigProperty;
+import javax.ejb.EJB;
 import javax.ejb.MessageDriven;
+import javax.ejb.MessageDrivenContext;
 import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.MessageListener;
-import javax.jms.ObjectMessage;
-import java.util.*;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Message-Driven Bean per la gestione dei messaggi JMS di comunicazione tra processi.
  * 
  * Logica di routing basata sulla presenza della correlation key:
  * 
+ * Container: quello indicato dal messaggio (martiniContainer, id o alias) oppure kie.container.id;
+ * un alias corrisponde a tutte le versioni del KJAR deployate con quell'alias (vedi ContainerResolver).
+ * 
  * 1. SE correlationKey è NULL o VUOTA:
- *    - Cerca il processo definition che ha un receive event con nome = messageName
+ *    - Risolve il processo con start event (o routing configurato) per messageName
  *    - Avvia un nuovo processo di quel tipo
  *    - Passa le variables al nuovo processo
  * 
  * 2. SE correlationKey è VALORIZZATA:
- *    - Cerca processi attivi che hanno una variabile con lo stesso valore della correlationKey
- *    - Invia un signal con nome = messageName al processo trovato
+ *    - Cerca nell'indice delle correlation key i processi attivi con quel valore
+ *    - Invia un signal con nome = messageName ai processi trovati (in parallelo, esito per istanza)
  *    - Passa le variables come parte del signal
  * 
- * Struttura messaggio attesa: ProcessMessage (ObjectMessage JMS)
+ * Struttura messaggio attesa: ProcessMessage (BytesMessage compatto o ObjectMessage legacy)
  * - messageName: nome univoco del messaggio (obbligatorio)
  * - correlationKey: chiave di correlazione (opzionale)
  * - variables: mappa di variabili da passare al processo
+ * 
+ * Messaggi già elaborati (stesso martiniMessageId, vedi MessageDeduplicator): confermati senza dispatch.
+ * 
+ * Messaggi configurati per l'aggregazione (martini.aggregate.messages, vedi MessageAggregator): raccolti per
+ * correlation key e consegnati in un solo signal quando il gruppo è completo o scade.
+ * 
+ * Corsie: con -Dmartini.priority.lanes.enabled=true i messaggi prioritari arrivano su PROCESS.MESSAGES.PRIORITY
+ * e sono elaborati con la stessa logica da PriorityProcessMessageListener, con sessioni proprie (jboss-ejb3.xml).
+ * 
+ * Warm-up: al deploy ListenerWarmUp prepara client KIE, container, routing e risorse JMS e sospende la consegna
+ * fino al completamento; i messaggi arrivati prima attendono il gate.
+ * 
+ * Messaggi non elaborabili (errore o nessun processo/istanza trovato): retry ritardato con backoff
+ * o DLQ PROCESS.MESSAGES.DLQ secondo RetryPolicy, nella stessa transazione dell'ack.
  */
 @MessageDriven(
     name = "JmsProcessMessageListener",
@@ -51,179 +72,216 @@ public class JmsProcessMessageListener implements MessageListener {
     
     private static final Logger logger = LoggerFactory.getLogger(JmsProcessMessageListener.class);
     
-    // KIE Server configuration
-    private static final String KIE_SERVER_URL = System.getProperty("kie.server.url", 
-                                                                     "http://localhost:8080/kie-server/services/rest/server");
-    private static final String KIE_SERVER_USER = System.getProperty("kie.server.user", "kieserver");
-    private static final String KIE_SERVER_PASSWORD = System.getProperty("kie.server.password", "kieserver1!");
-    private static final String CONTAINER_ID = System.getProperty("kie.container.id", "martiniavicolo_1.0.0-SNAPSHOT");
+    // Metriche (JMX com.martinispec:type=MessagingMetrics,component=service), etichetta consumer per corsia
+    private final String consumer = consumer();
+    private final AtomicLong inFlight = ListenerMetrics.inFlight(consumer);
+    
+    // Container KIE target: id o alias del messaggio (default kie.container.id) -> container effettivi
+    @EJB
+    private ContainerResolver containerResolver;
+    
+    // Dispatch verso jBPM: REST (client condiviso) o in-JVM, secondo martini.dispatch.mode,
+    // con limite adattivo delle chiamate concorrenti (martini.dispatch.limit.*)
+    @EJB
+    private ProcessDispatcherProvider dispatcherProvider;
+    
+    // Tabella di routing messageName -> processId (costruita una volta per versione del container)
+    @EJB
+    private ProcessRoutingTable routingTable;
+    
+    // Risoluzione correlationKey -> istanze attive (indice MARTINI_CORRELATION_INDEX)
+    @EJB
+    private CorrelationResolver correlationResolver;
+    
+    // Signal arrivati prima che l'istanza raggiunga l'evento di cattura (MARTINI_PENDING_MESSAGE)
+    @EJB
+    private PendingMessageBuffer pendingBuffer;
+    
+    // Messaggi già elaborati (MARTINI_PROCESSED_MESSAGE): redelivery e retry non ripetono avvio/signal
+    @EJB
+    private MessageDeduplicator deduplicator;
+    
+    // Completamenti raccolti per correlation key e consegnati in un solo signal (MARTINI_AGGREGATION)
+    @EJB
+    private MessageAggregator aggregator;
+    
+    // Gate del warm-up: i messaggi consegnati prima del completamento attendono (vedi ListenerWarmUp)
+    @EJB
+    private ListenerWarmUp warmUp;
+    
+    @Resource
+    private MessageDrivenContext messageDrivenContext;
     
     @Override
     public void onMessage(Message jmsMessage) {
+        inFlight.incrementAndGet();
+        String messageName = null;
         try {
-            if (!(jmsMessage instanceof ObjectMessage)) {
-                logger.warn("JmsProcessMessageListener: Messaggio ricevuto non è ObjectMessage, ignoro");
+            warmUp.awaitReady();
+            long decodeStart = System.nanoTime();
+            ProcessMessage processMessage = ProcessMessageDecoder.decode(jmsMessage);
+            ListenerMetrics.decode().recordSince(decodeStart);
+            if (processMessage == null) {
                 return;
             }
+            messageName = processMessage.getMessageName();
             
-            ObjectMessage objectMessage = (ObjectMessage) jmsMessage;
-            Object payload = objectMessage.getObject();
+            if (logger.isDebugEnabled()) {
+                logger.debug("JmsProcessMessageListener: Ricevuto messaggio '{}' (JMS MessageID: {}) - CorrelationKey: '{}', Variables: {}", 
+                             processMessage.getMessageName(), jmsMessage.getJMSMessageID(),
+                             processMessage.getCorrelationKey(), processMessage.getVariables().keySet());
+            }
             
-            if (!(payload instanceof ProcessMessage)) {
-                logger.error("JmsProcessMessageListener: Payload non è un ProcessMessage, ignoro. Tipo: {}", 
-                            payload != null ? payload.getClass().getName() : "null");
+            if (deduplicator.isDuplicate(processMessage, jmsMessage)) {
+                ListenerMetrics.outcome(consumer, ListenerMetrics.DUPLICATE, messageName);
+                ProcessMessageDecoder.releaseClaimCheck(jmsMessage);
                 return;
             }
             
-            ProcessMessage processMessage = (ProcessMessage) payload;
-            
-            // Validazione
-            if (processMessage.getMessageName() == null || processMessage.getMessageName().trim().isEmpty()) {
-                logger.error("JmsProcessMessageListener: messageName è obbligatorio, ignoro messaggio");
+            // Scatter-gather: il messaggio viene aggiunto al suo gruppo, il signal parte col messaggio aggregato
+            if (aggregator.accepts(processMessage, jmsMessage)) {
+                aggregator.collect(processMessage, jmsMessage);
+                ListenerMetrics.outcome(consumer, ListenerMetrics.AGGREGATED, messageName);
+                ProcessMessageDecoder.releaseClaimCheck(jmsMessage);
                 return;
             }
             
-            logger.info("JmsProcessMessageListener: Ricevuto messaggio '{}' (JMS MessageID: {})", 
-                        processMessage.getMessageName(), jmsMessage.getJMSMessageID());
-            logger.info("JmsProcessMessageListener: CorrelationKey: '{}', Variables: {}", 
-                        processMessage.getCorrelationKey(), processMessage.getVariables().keySet());
-            
-            // Crea client KIE Server
-            KieServicesConfiguration config = KieServicesFactory.newRestConfiguration(KIE_SERVER_URL, 
-                                                                                       KIE_SERVER_USER, 
-                                                                                       KIE_SERVER_PASSWORD);
-            config.setTimeout(30000L); // 30 secondi timeout
-            KieServicesClient kieClient = KieServicesFactory.newKieServicesClient(config);
-            ProcessServicesClient processClient = kieClient.getServicesClient(ProcessServicesClient.class);
-            QueryServicesClient queryClient = kieClient.getServicesClient(QueryServicesClient.class);
-            
             // Routing basato su correlationKey
+            Routed routed;
             if (processMessage.hasCorrelationKey()) {
                 // Scenario 2: Notifica processo esistente con correlation key
-                handleSignalToCorrelatedProcess(processClient, queryClient, processMessage);
+                routed = handleSignalToCorrelatedProcess(processMessage, jmsMessage);
             } else {
                 // Scenario 1: Avvia nuovo processo con receive event
-                handleStartProcessWithReceiveEvent(processClient, queryClient, processMessage);
+                routed = handleStartProcessWithReceiveEvent(processMessage);
+            }
+            if (routed == Routed.UNMATCHED) {
+                handleUnmatched(jmsMessage, messageName);
+                return;
             }
+            if (routed == Routed.DISPATCHED) {
+                deduplicator.markProcessed(processMessage, jmsMessage);
+            } else {
+                deduplicator.markProcessedInTransaction(processMessage, jmsMessage);
+            }
+            // Payload del claim-check non più necessario: rimosso nella transazione del messaggio
+            ProcessMessageDecoder.releaseClaimCheck(jmsMessage);
             
-        } catch (JMSException e) {
-            logger.error("JmsProcessMessageListener: Errore JMS nell'elaborazione del messaggio: {}", e.getMessage(), e);
-            throw new RuntimeException("Errore nell'elaborazione del messaggio JMS", e);
         } catch (Exception e) {
-            logger.error("JmsProcessMessageListener: Errore inaspettato: {}", e.getMessage(), e);
-            throw new RuntimeException("Errore nell'elaborazione del messaggio", e);
+            handleFailure(jmsMessage, messageName, e);
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+    
+    /**
+     * Esito del routing, decide in quale transazione il messaggio viene registrato come elaborato.
+     */
+    private enum Routed {
+        // Nessun processo né istanza: retry/DLQ
+        UNMATCHED,
+        // Solo avvio/signal: con il dispatch REST la registrazione deve sopravvivere a un rollback dell'MDB
+        DISPATCHED,
+        // Anche effetti nella transazione dell'MDB (messaggio conservato, signal falliti ripubblicati):
+        // registrazione nella stessa transazione, un rollback fa rielaborare la redelivery
+        TRANSACTIONAL
+    }
+
+    /**
+     * Etichetta consumer delle metriche: "mdb" per la coda principale, ridefinita dall'MDB della corsia prioritaria.
+     */
+    protected String consumer() {
+        return "mdb";
+    }
+    
+    /**
+     * Messaggio senza processo né istanze: retry ritardato e poi DLQ.
+     * Se la ripubblicazione non è possibile (es. DLQ non configurata) il messaggio viene scartato come in precedenza.
+     */
+    private void handleUnmatched(Message jmsMessage, String messageName) {
+        if (!RetryPolicy.isEnabled()) {
+            ProcessMessageDecoder.releaseClaimCheck(jmsMessage);
+            return;
+        }
+        try {
+            RetryPolicy.onUnmatched(null, jmsMessage, messageName, "Nessun processo o istanza trovato");
+        } catch (JMSException e) {
+            logger.error("JmsProcessMessageListener: Retry del messaggio '{}' non possibile, scartato: {}", messageName, e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * Errore di elaborazione: retry ritardato o DLQ nella transazione corrente (il messaggio viene confermato).
+     * Con retry disabilitato, transazione già marcata per il rollback o ripubblicazione fallita,
+     * l'eccezione viene rilanciata e si applica la redelivery del broker.
+     */
+    private void handleFailure(Message jmsMessage, String messageName, Exception error) {
+        if (RetryPolicy.isEnabled() && !messageDrivenContext.getRollbackOnly()) {
+            try {
+                RetryPolicy.onFailure(null, jmsMessage, messageName, error);
+                return;
+            } catch (JMSException e) {
+                logger.error("JmsProcessMessageListener: Retry del messaggio '{}' non possibile, redelivery dal broker: {}",
+                             messageName, e.getMessage(), e);
+            }
         }
+        throw new RuntimeException("Errore nell'elaborazione del messaggio", error);
     }
     
     /**
      * Scenario 1: Avvia un nuovo processo che ha un receive event con il messageName specificato.
      * 
      * Logica:
-     * - Query tutti i process definitions nel container
-     * - Per ogni definition, verifica se ha un receive event con nome = messageName
-     * - Avvia il primo processo trovato con le variables del messaggio
+     * - Sceglie il container: la versione più recente del target del messaggio
+     * - Risolve il processId dalla tabella di routing del container (config + start event BPMN)
+     * - Avvia il processo trovato con le variables del messaggio
+     * 
+     * @return UNMATCHED se nessun processo corrisponde al messaggio
      */
-    private void handleStartProcessWithReceiveEvent(ProcessServicesClient processClient, 
-                                                     QueryServicesClient queryClient, 
-                                                     ProcessMessage processMessage) {
+    private Routed handleStartProcessWithReceiveEvent(ProcessMessage processMessage) {
         String messageName = processMessage.getMessageName();
         Map<String, Object> variables = processMessage.getVariables();
         
-        logger.info("JmsProcessMessageListener: Cerco processo con receive event per messaggio '{}'", messageName);
+        logger.debug("JmsProcessMessageListener: Cerco processo con receive event per messaggio '{}'", messageName);
         
+        String containerId = null;
         try {
-            // Ottieni tutti i process definitions nel container
-            List<ProcessDefinition> processDefinitions = queryClient.findProcesses(0, 100);
-            
-            ProcessDefinition targetProcess = null;
+            long routeStart = System.nanoTime();
+            containerId = containerResolver.latest(processMessage.getTargetContainer());
+            String processId = routingTable.resolve(containerId, messageName);
+            ListenerMetrics.route(false).recordSince(routeStart);
             
-            // 0) Configurazione esterna: system property o env var
-            //    -Dmessage.routing.<messageName>=<processId>
-            //    MESSAGE_ROUTING_<MESSAGENAME>=<processId>
-            String sysKey = "message.routing." + messageName;
-            String envKey = "MESSAGE_ROUTING_" + messageName.replaceAll("[^A-Za-z0-9]", "_").toUpperCase();
-            String configuredProcessId = Optional.ofNullable(System.getProperty(sysKey))
-                                                .orElse(System.getenv(envKey));
-
-            if (configuredProcessId != null && !configuredProcessId.trim().isEmpty()) {
-                String cfg = configuredProcessId.trim();
-                for (ProcessDefinition pd : processDefinitions) {
-                    if (pd.getId().equals(cfg)) {
-                        targetProcess = pd;
-                        logger.info("JmsProcessMessageListener: Routing configurato per '{}': uso processo '{}'", messageName, cfg);
-                        break;
-                    }
-                }
-                if (targetProcess == null) {
-                    logger.warn("JmsProcessMessageListener: Routing configurato '{}' per messaggio '{}' ma processId non trovato nel container", cfg, messageName);
-                }
-            }
-
-            // 1) Ricerca diretta: id o name contiene l'intero messageName
-            if (targetProcess == null) {
-                String mn = messageName.toLowerCase();
-                for (ProcessDefinition pd : processDefinitions) {
-                    if ((pd.getId() != null && pd.getId().toLowerCase().contains(mn)) ||
-                        (pd.getName() != null && pd.getName().toLowerCase().contains(mn))) {
-                        targetProcess = pd;
-                        break;
-                    }
-                }
-            }
-
-            // 2) Ricerca fuzzy: tokenizza il messageName (camelCase/simboli) e cerca token significativi (>=4 char)
-            if (targetProcess == null) {
-                String tokenized = messageName.replaceAll("([a-z])([A-Z])", "$1 $2").toLowerCase();
-                String[] tokens = tokenized.split("[^a-z0-9]+");
-                Set<String> keywords = new LinkedHashSet<>();
-                for (String t : tokens) {
-                    if (t != null && t.length() >= 4) {
-                        keywords.add(t);
-                    }
-                }
-                // fallback: se nessun token >=4, prendi anche quelli >=3
-                if (keywords.isEmpty()) {
-                    for (String t : tokens) {
-                        if (t != null && t.length() >= 3) {
-                            keywords.add(t);
-                        }
-                    }
-                }
-
-                if (!keywords.isEmpty()) {
-                    for (ProcessDefinition pd : processDefinitions) {
-                        String id = Optional.ofNullable(pd.getId()).orElse("").toLowerCase();
-                        String name = Optional.ofNullable(pd.getName()).orElse("").toLowerCase();
-                        for (String kw : keywords) {
-                            if (id.contains(kw) || name.contains(kw)) {
-                                targetProcess = pd;
-                                logger.info("JmsProcessMessageListener: Match fuzzy '{}' -> processo '{}' su keyword '{}'", messageName, pd.getId(), kw);
-                                break;
-                            }
-                        }
-                        if (targetProcess != null) break;
-                    }
-                }
-            }
-            
-            if (targetProcess == null) {
+            if (processId == null) {
+                ListenerMetrics.outcome(consumer, ListenerMetrics.UNMATCHED, messageName);
                 logger.warn("JmsProcessMessageListener: Nessun processo trovato per receive event con messaggio '{}'. " +
                            "Disponibili: {}", 
                            messageName, 
-                           processDefinitions.stream().map(ProcessDefinition::getId).toArray());
-                return;
+                           routingTable.availableProcesses(containerId));
+                return Routed.UNMATCHED;
             }
             
-            logger.info("JmsProcessMessageListener: Trovato processo '{}' (ID: {}) per messaggio '{}'", 
-                        targetProcess.getName(), targetProcess.getId(), messageName);
+            logger.debug("JmsProcessMessageListener: Trovato processo '{}' per messaggio '{}'", processId, messageName);
             
             // Avvia il processo con le variables
-            Long processInstanceId = processClient.startProcess(CONTAINER_ID, targetProcess.getId(), variables);
+            Long processInstanceId = dispatcherProvider.get().startProcess(containerId, processId, variables);
             
-            logger.info("JmsProcessMessageListener: ✅ Avviato nuovo processo '{}' (instance ID: {}) per messaggio '{}'", 
-                        targetProcess.getId(), processInstanceId, messageName);
+            ListenerMetrics.outcome(consumer, ListenerMetrics.STARTED, messageName);
+            logger.debug("JmsProcessMessageListener: ✅ Avviato nuovo processo '{}' (instance ID: {}) per messaggio '{}'", 
+                         processId, processInstanceId, messageName);
+            return Routed.DISPATCHED;
             
+        } catch (KieServicesHttpException e) {
+            ListenerMetrics.outcome(consumer, ListenerMetrics.FAILED, messageName);
+            // Container o processo non più presenti: la tabella verrà ricostruita alla redelivery
+            if (e.getHttpCode() != null && e.getHttpCode() == 404) {
+                routingTable.invalidate(containerId);
+                containerResolver.invalidate();
+            }
+            logger.error("JmsProcessMessageListener: Errore nell'avvio del processo per messaggio '{}': {}", 
+                         messageName, e.getMessage(), e);
+            throw new RuntimeException("Errore nell'avvio del processo", e);
         } catch (Exception e) {
+            ListenerMetrics.outcome(consumer, ListenerMetrics.FAILED, messageName);
             logger.error("JmsProcessMessageListener: Errore nell'avvio del processo per messaggio '{}': {}", 
                          messageName, e.getMessage(), e);
             throw new RuntimeException("Errore nell'avvio del processo", e);
@@ -234,89 +292,69 @@ public class JmsProcessMessageListener implements MessageListener {
      * Scenario 2: Invia un signal a un processo esistente identificato dalla correlation key.
      * 
      * Logica:
-     * - Query tutti i processi attivi nel container
-     * - Per ogni processo, verifica se ha una variabile con valore uguale alla correlationKey
-     * - Invia un signal con nome = messageName al processo trovato
+     * - Cerca le istanze attive con quella correlation key nell'indice MARTINI_CORRELATION_INDEX
+     *   (alimentato dal CorrelationIndexEventListener del KJAR): una sola query indicizzata per tutti
+     *   i container del target (con un alias, tutte le versioni deployate).
+     *   Se il messaggio indica già le istanze destinatarie (martiniTargetInstances) usa quelle.
+     * - Invia un signal con nome = messageName a ciascuna istanza trovata, in parallelo se sono più di una
      * - Le variables del messaggio vengono passate come event data del signal
+     * - Se fallisce solo una parte delle istanze, ripubblica il messaggio per quelle sole
+     *   e conferma l'originale (le istanze già servite non ricevono il signal due volte)
+     * - Le istanze non ancora nello stato di attesa, o la correlation key senza istanze, ricevono il messaggio
+     *   dal PendingMessageBuffer quando raggiungono l'evento di cattura
+     * 
+     * @return UNMATCHED se nessuna istanza attiva corrisponde alla correlation key e il messaggio non può attendere;
+     *         DISPATCHED solo se tutte le istanze hanno ricevuto il signal
      */
-    private void handleSignalToCorrelatedProcess(ProcessServicesClient processClient, 
-                                                  QueryServicesClient queryClient, 
-                                                  ProcessMessage processMessage) {
+    private Routed handleSignalToCorrelatedProcess(ProcessMessage processMessage, Message jmsMessage) {
         String messageName = processMessage.getMessageName();
         String correlationKey = processMessage.getCorrelationKey();
-        Map<String, Object> variables = processMessage.getVariables();
         
-        logger.info("JmsProcessMessageListener: Cerco processo con correlationKey '{}' per inviare signal '{}'", 
-                    correlationKey, messageName);
+        logger.debug("JmsProcessMessageListener: Cerco processo con correlationKey '{}' per inviare signal '{}'", 
+                     correlationKey, messageName);
         
         try {
-            // Query tutti i processi attivi nel container
-            List<Integer> statuses = Collections.singletonList(org.kie.api.runtime.process.ProcessInstance.STATE_ACTIVE);
-            List<ProcessInstance> activeInstances = queryClient.findProcessInstancesByContainerId(CONTAINER_ID, statuses, 0, 100);
-            
-            logger.info("JmsProcessMessageListener: Trovati {} processi attivi nel container", activeInstances.size());
-            
-            int signaled = 0;
+            long routeStart = System.nanoTime();
+            List<String> containers = containerResolver.resolve(processMessage.getTargetContainer());
+            List<Long> targets = ProcessMessageDecoder.targetInstances(jmsMessage);
+            Map<String, List<Long>> instanceIds = targets != null
+                                                  ? Collections.singletonMap(containers.get(0), targets)
+                                                  : correlationResolver.resolve(containers, correlationKey);
+            ListenerMetrics.route(true).recordSince(routeStart);
             
-            // Cerca il processo che matcha la correlationKey
-            // Strategia:
-            // 1. Prima cerca una variabile chiamata "correlationKey" (convenzione standard)
-            // 2. Se non trovata, cerca tra TUTTE le variabili String che matchano il valore
-            // 3. Questo permette flessibilità senza modificare l'MDB per ogni nuovo processo
+            if (instanceIds.values().stream().allMatch(List::isEmpty)) {
+                // Il processo destinatario potrebbe non essere ancora stato indicizzato: il messaggio attende
+                if (pendingBuffer.hold(containers.get(0), processMessage, Collections.emptyList())) {
+                    ListenerMetrics.outcome(consumer, ListenerMetrics.PENDING, messageName);
+                    return Routed.TRANSACTIONAL;
+                }
+                ListenerMetrics.outcome(consumer, ListenerMetrics.UNMATCHED, messageName);
+                logger.warn("JmsProcessMessageListener: ⚠️  Nessun processo attivo trovato con correlationKey '{}' per messaggio '{}'", 
+                            correlationKey, messageName);
+                return Routed.UNMATCHED;
+            }
             
-            for (ProcessInstance instance : activeInstances) {
-                Map<String, Object> processVars = instance.getVariables();
-                
-                if (processVars == null || processVars.isEmpty()) {
+            // Il signal name è il messageName, le variables vengono passate come event data;
+            // le istanze non ancora in attesa ricevono il messaggio quando raggiungono l'evento
+            int signalled = 0;
+            boolean dispatchOnly = true;
+            for (Map.Entry<String, List<Long>> container : instanceIds.entrySet()) {
+                if (container.getValue().isEmpty()) {
                     continue;
                 }
-                
-                boolean matches = false;
-                String matchedVariable = null;
-                
-                // Strategia 1: Cerca prima nella variabile standard "correlationKey"
-                Object correlationKeyValue = processVars.get("correlationKey");
-                if (correlationKeyValue != null && Objects.equals(String.valueOf(correlationKeyValue), correlationKey)) {
-                    matches = true;
-                    matchedVariable = "correlationKey";
-                } else {
-                    // Strategia 2: Cerca in tutte le variabili del processo
-                    // Confronta solo variabili String per evitare falsi positivi con numeri/boolean
-                    for (Map.Entry<String, Object> entry : processVars.entrySet()) {
-                        Object value = entry.getValue();
-                        if (value instanceof String && Objects.equals(value, correlationKey)) {
-                            matches = true;
-                            matchedVariable = entry.getKey();
-                            break;
-                        }
-                    }
-                }
-                
-                if (matches) {
-                    logger.info("JmsProcessMessageListener: ✅ Trovato processo {} con variabile '{}'='{}' che matcha correlationKey '{}'", 
-                                instance.getId(), matchedVariable, correlationKey, correlationKey);
-                    
-                    // Invia signal al processo
-                    // Il signal name è il messageName
-                    // Le variables vengono passate come event data
-                    processClient.signalProcessInstance(CONTAINER_ID, instance.getId(), messageName, variables);
-                    
-                    signaled++;
-                    
-                    logger.info("JmsProcessMessageListener: ✅ Inviato signal '{}' a processo {} (correlationKey: '{}')", 
-                                messageName, instance.getId(), correlationKey);
-                }
+                SignalFanOut.Outcome outcome = pendingBuffer.signalOrHold(container.getKey(), processMessage, container.getValue());
+                ProcessMessagePublisher.requeueFailedSignals(container.getKey(), processMessage, jmsMessage, outcome);
+                signalled += outcome.getSignalled().size();
+                dispatchOnly &= outcome.isDispatchOnly();
             }
             
-            if (signaled == 0) {
-                logger.warn("JmsProcessMessageListener: ⚠️  Nessun processo attivo trovato con correlationKey '{}' per messaggio '{}'", 
-                            correlationKey, messageName);
-            } else {
-                logger.info("JmsProcessMessageListener: ✅ Signal '{}' inviato a {} processo(i) con correlationKey '{}'", 
-                            messageName, signaled, correlationKey);
-            }
+            ListenerMetrics.outcome(consumer, ListenerMetrics.SIGNALLED, messageName);
+            logger.debug("JmsProcessMessageListener: ✅ Signal '{}' inviato a {} processo(i) con correlationKey '{}'", 
+                         messageName, signalled, correlationKey);
+            return dispatchOnly ? Routed.DISPATCHED : Routed.TRANSACTIONAL;
             
         } catch (Exception e) {
+            ListenerMetrics.outcome(consumer, ListenerMetrics.FAILED, messageName);
             logger.error("JmsProcessMessageListener: Errore nell'invio del signal per messaggio '{}': {}", 
                          messageName, e.getMessage(), e);
             throw new RuntimeException("Errore nell'invio del signal", e);
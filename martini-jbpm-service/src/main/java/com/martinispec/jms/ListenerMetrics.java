@@ -0,0 +1,62 @@
+package com.martinispec.jms;
+
+import com.martinispec.model.metrics.MessagingMetrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Metriche dei consumer di PROCESS.MESSAGES (MDB, consumer batch, pipeline asincrona).
+ *
+ * Registro "service" di MessagingMetrics:
+ * - martini_message_decode_seconds / martini_message_route_seconds{target=start|signal}: timer
+ * - martini_messages_total{consumer, outcome=started|signalled|unmatched|pending|duplicate|aggregated|failed, message}: contatori
+ * - martini_messages_in_flight{consumer}: gauge dei messaggi in elaborazione
+ * - martini_messages_retried_total{message} / martini_messages_dead_lettered_total{reason, message}: contatori
+ * - martini_messages_pending_total{message}: messaggi memorizzati in attesa dell'istanza destinataria
+ * - martini_messages_aggregated_total{message, reason=complete|timeout} / martini_messages_aggregated_members_total{message}:
+ *   messaggi aggregati consegnati e messaggi raccolti al loro interno (MessageAggregator)
+ * Il timer del dispatch verso jBPM è nel ProcessDispatcherProvider.
+ */
+final class ListenerMetrics {
+
+    static final String STARTED = "started";
+    static final String SIGNALLED = "signalled";
+    static final String UNMATCHED = "unmatched";
+    static final String FAILED = "failed";
+    static final String PENDING = "pending";
+    static final String DUPLICATE = "duplicate";
+    static final String AGGREGATED = "aggregated";
+
+    private static final MessagingMetrics METRICS = MessagingMetrics.forComponent("service");
+
+    private ListenerMetrics() {
+    }
+
+    static MessagingMetrics.Timer decode() {
+        return METRICS.timer("martini_message_decode_seconds");
+    }
+
+    static MessagingMetrics.Timer route(boolean signal) {
+        return METRICS.timer("martini_message_route_seconds", "target", signal ? "signal" : "start");
+    }
+
+    static void outcome(String consumer, String outcome, String messageName) {
+        METRICS.increment("martini_messages_total", "consumer", consumer, "outcome", outcome, "message", messageName);
+    }
+
+    static void retried(String messageName) {
+        METRICS.increment("martini_messages_retried_total", "message", messageName);
+    }
+
+    static void deadLettered(String reason, String messageName) {
+        METRICS.increment("martini_messages_dead_lettered_total", "reason", reason, "message", messageName);
+    }
+
+    static void pending(String messageName) {
+        METRICS.increment("martini_messages_pending_total", "message", messageName);
+    }
+
+    static AtomicLong inFlight(String consumer) {
+        return METRICS.gauge("martini_messages_in_flight", "consumer", consumer);
+    }
+}
@@ -0,0 +1,325 @@
+package com.martinispec.jms;
+
+import com.martinispec.kie.ContainerResolver;
+import com.martinispec.kie.CorrelationResolver;
+import com.martinispec.kie.KieClientProvider;
+import com.martinispec.kie.ProcessDispatcherProvider;
+import com.martinispec.kie.ProcessRoutingTable;
+import com.martinispec.model.MessagePriority;
+import com.martinispec.model.ProcessMessage;
+import com.martinispec.model.codec.ProcessMessageCodec;
+import com.martinispec.model.codec.ProcessMessageCodecs;
+import com.martinispec.model.metrics.MessagingMetrics;
+import org.kie.server.api.model.KieServerInfo;
+import org.kie.server.api.model.KieServiceResponse;
+import org.kie.server.api.model.ServiceResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.DependsOn;
+import javax.ejb.EJB;
+import javax.ejb.LocalBean;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.Timeout;
+import javax.ejb.Timer;
+import javax.ejb.TimerConfig;
+import javax.ejb.TimerService;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.jms.JMSException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Warm-up del listener al deploy e gate della consegna dei messaggi.
+ *
+ * Dopo un riavvio i primi messaggi pagavano tutto insieme: caricamento delle classi, creazione del client KIE,
+ * handshake con KIE Server, lookup JNDI, lettura dei container e prima findProcesses della tabella di routing.
+ * Il warm-up esegue questi passi prima di accettare messaggi:
+ * - dispatcher (client KIE con getServerInfo, oppure ProcessService embedded)
+ * - container del target di default (ContainerResolver) e relative tabelle di routing (ProcessRoutingTable)
+ * - prima query sull'indice delle correlation key (datasource)
+ * - connection factory, code e prima connessione del pool JMS; codec del formato di invio
+ *
+ * Gli MDB sono deployati con la consegna disattivata (jboss-ejb3.xml, d:active false): al completamento
+ * il warm-up la avvia con l'operazione start-delivery del modello di gestione (JMX, expose-resolved-model),
+ * solo per quelli abilitati:
+ * - JmsProcessMessageListener con martini.listener.mdb.active (default true; false con consumer batch o pipeline asincrona)
+ * - PriorityProcessMessageListener con martini.priority.lanes.enabled
+ * Se l'MDB non è ancora registrato nel modello, o l'operazione fallisce, l'avvio viene ritentato ogni secondo
+ * (WARN dopo martini.warmup.deliveryWarnAfter tentativi). Il consumer batch e la pipeline asincrona attendono
+ * il gate in awaitReady().
+ *
+ * Se KIE Server non è ancora pronto (es. container in avvio nello stesso server) il warm-up viene ripetuto ogni
+ * martini.warmup.retryInterval ms; oltre martini.warmup.timeout la consegna viene aperta comunque (stato FAILED)
+ * e il warm-up continua a essere ripetuto finché non riesce.
+ *
+ * Lo stato (WARMING, READY, FAILED) e la durata sono esposti da GET /ready del MetricsEndpoint per la readiness
+ * probe di Kubernetes e dalle metriche martini_listener_ready (gauge) e martini_listener_warmup_seconds.
+ *
+ * Configurazione:
+ *   -Dmartini.warmup.enabled=true
+ *   -Dmartini.warmup.timeout=120000         (ms prima di aprire comunque la consegna)
+ *   -Dmartini.warmup.retryInterval=5000     (ms tra due tentativi)
+ *   -Dmartini.warmup.deliveryWarnAfter=10   (tentativi di avvio della consegna prima del WARN)
+ */
+@Singleton
+@Startup
+@DependsOn("SchemaInitializer")
+@LocalBean
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class ListenerWarmUp {
+
+    private static final Logger logger = LoggerFactory.getLogger(ListenerWarmUp.class);
+
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("martini.warmup.enabled", "true"));
+    private static final long TIMEOUT = Long.getLong("martini.warmup.timeout", 120_000L);
+    private static final long RETRY_INTERVAL = Long.getLong("martini.warmup.retryInterval", 5_000L);
+
+    private static final int DELIVERY_WARN_AFTER = Integer.getInteger("martini.warmup.deliveryWarnAfter", 10);
+    private static final long DELIVERY_RETRY_INTERVAL = 1000L;
+
+    private static final String MAIN_LISTENER = "JmsProcessMessageListener";
+    private static final String PRIORITY_LISTENER = "PriorityProcessMessageListener";
+    private static final boolean MAIN_LISTENER_ACTIVE = Boolean.parseBoolean(System.getProperty("martini.listener.mdb.active", "true"));
+
+    private static final String WARMUP_KEY = "martini-warmup";
+    private static final String DELIVERY_TIMER = "martini-delivery";
+
+    /**
+     * Stato del warm-up.
+     */
+    public enum State {
+        /** Warm-up in corso, consegna sospesa */
+        WARMING,
+        /** Warm-up completato, consegna aperta */
+        READY,
+        /** Warm-up non riuscito entro il timeout: consegna aperta, nuovi tentativi in corso */
+        FAILED
+    }
+
+    @EJB
+    private KieClientProvider kieClient;
+
+    @EJB
+    private ProcessDispatcherProvider dispatcherProvider;
+
+    @EJB
+    private ContainerResolver containerResolver;
+
+    @EJB
+    private ProcessRoutingTable routingTable;
+
+    @EJB
+    private CorrelationResolver correlationResolver;
+
+    @Resource
+    private TimerService timerService;
+
+    private final CountDownLatch gate = new CountDownLatch(1);
+    // MDB la cui consegna non è ancora stata avviata
+    private final Set<String> inactive = new LinkedHashSet<>();
+    private int deliveryAttempts;
+    private final AtomicLong readyGauge = MessagingMetrics.forComponent("service").gauge("martini_listener_ready");
+
+    private volatile State state = State.WARMING;
+    private volatile long startedAt;
+    private volatile long durationMillis = -1L;
+    private volatile int attempts;
+    private volatile String lastError;
+
+    @PostConstruct
+    void init() {
+        startedAt = System.currentTimeMillis();
+        if (MAIN_LISTENER_ACTIVE) {
+            inactive.add(MAIN_LISTENER);
+        }
+        if (MessagePriority.lanesEnabled()) {
+            inactive.add(PRIORITY_LISTENER);
+        }
+        if (!ENABLED) {
+            open(State.READY);
+            return;
+        }
+        // Fuori dal @PostConstruct: il deploy non attende KIE Server
+        timerService.createSingleActionTimer(0L, new TimerConfig(null, false));
+    }
+
+    /**
+     * Tentativo di warm-up (o di avvio della consegna agli MDB), fuori transazione: un errore non annulla
+     * il timer del tentativo successivo.
+     */
+    @Timeout
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    void attempt(Timer timer) {
+        if (DELIVERY_TIMER.equals(timer.getInfo())) {
+            startDelivery();
+            return;
+        }
+        attempts++;
+        try {
+            warmUp();
+        } catch (JMSException | IOException | RuntimeException e) {
+            lastError = e.getMessage();
+            // Elenco dei container riletto al prossimo tentativo
+            containerResolver.invalidate();
+            long elapsed = System.currentTimeMillis() - startedAt;
+            if (state == State.WARMING && elapsed >= TIMEOUT) {
+                logger.error("ListenerWarmUp: Warm-up non completato dopo {} ms ({} tentativi), consegna dei messaggi aperta: {}",
+                             elapsed, attempts, e.getMessage());
+                open(State.FAILED);
+            } else {
+                logger.info("ListenerWarmUp: Tentativo {} di warm-up fallito ({}), nuovo tentativo tra {} ms",
+                            attempts, e.getMessage(), RETRY_INTERVAL);
+            }
+            timerService.createSingleActionTimer(RETRY_INTERVAL, new TimerConfig(null, false));
+            return;
+        }
+        lastError = null;
+        durationMillis = System.currentTimeMillis() - startedAt;
+        MessagingMetrics.forComponent("service").timer("martini_listener_warmup_seconds")
+                        .record(TimeUnit.MILLISECONDS.toNanos(durationMillis));
+        logger.info("ListenerWarmUp: Warm-up completato in {} ms ({} tentativi)", durationMillis, attempts);
+        open(State.READY);
+    }
+
+    /**
+     * Attende la fine del warm-up (al più fino al timeout configurato dall'avvio).
+     * Dopo l'apertura del gate è una sola lettura volatile.
+     */
+    public void awaitReady() {
+        if (gate.getCount() == 0) {
+            return;
+        }
+        long remaining = startedAt + TIMEOUT - System.currentTimeMillis();
+        try {
+            if (remaining > 0) {
+                gate.await(remaining, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return true se il warm-up è completato
+     */
+    public boolean isReady() {
+        return state == State.READY;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return Durata del warm-up in ms dall'avvio, -1 se non ancora completato
+     */
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    /**
+     * @return Ms trascorsi dall'avvio del warm-up
+     */
+    public long getElapsedMillis() {
+        return System.currentTimeMillis() - startedAt;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * @return Errore dell'ultimo tentativo fallito, null se nessuno
+     */
+    public String getLastError() {
+        return lastError;
+    }
+
+    private void warmUp() throws JMSException, IOException {
+        // Dispatcher: client KIE (creazione e handshake) oppure lookup del ProcessService embedded
+        dispatcherProvider.get();
+        if (!dispatcherProvider.isTransactional()) {
+            ServiceResponse<KieServerInfo> info = kieClient.execute(client -> client.getServerInfo());
+            if (info == null || info.getType() != KieServiceResponse.ResponseType.SUCCESS) {
+                throw new IllegalStateException("KIE Server non pronto: " + (info != null ? info.getMsg() : "nessuna risposta"));
+            }
+        }
+
+        // Container del target di default e tabelle di routing (getContainerInfo + findProcesses + scansione KJAR)
+        List<String> containers = containerResolver.resolve(null);
+        for (String containerId : containers) {
+            routingTable.resolve(containerId, WARMUP_KEY);
+        }
+
+        // Datasource e indice delle correlation key
+        correlationResolver.resolve(containers, WARMUP_KEY);
+
+        // Risorse JMS e codec del formato di invio
+        ProcessMessagePublisher.preload();
+        ProcessMessageCodec codec = ProcessMessageCodecs.forFormat(ProcessMessageCodecs.sendFormat());
+        if (codec != null) {
+            ProcessMessage sample = new ProcessMessage(WARMUP_KEY, WARMUP_KEY, Collections.singletonMap(WARMUP_KEY, 1L));
+            codec.decode(codec.encode(sample));
+        }
+    }
+
+    private synchronized void open(State newState) {
+        state = newState;
+        readyGauge.set(newState == State.READY ? 1L : 0L);
+        if (gate.getCount() > 0) {
+            gate.countDown();
+            startDelivery();
+        }
+    }
+
+    /**
+     * Avvia la consegna agli MDB abilitati; quelli non ancora registrati nel modello di gestione
+     * (o per cui l'operazione fallisce) vengono ritentati.
+     */
+    private synchronized void startDelivery() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (Iterator<String> it = inactive.iterator(); it.hasNext(); ) {
+            String bean = it.next();
+            try {
+                Set<ObjectName> names = server.queryNames(
+                        new ObjectName("jboss.as:subsystem=ejb3,message-driven-bean=" + bean + ",*"), null);
+                if (names.isEmpty()) {
+                    continue;
+                }
+                for (ObjectName name : names) {
+                    server.invoke(name, "startDelivery", new Object[0], new String[0]);
+                }
+                it.remove();
+                logger.info("ListenerWarmUp: Consegna a {} avviata", bean);
+            } catch (Exception e) {
+                logger.warn("ListenerWarmUp: Avvio della consegna a {} fallito: {}", bean, e.getMessage());
+            }
+        }
+        if (inactive.isEmpty()) {
+            return;
+        }
+        if (++deliveryAttempts == DELIVERY_WARN_AFTER) {
+            logger.warn("ListenerWarmUp: Consegna a {} non ancora avviata dopo {} tentativi (MDB non esposto via JMX?); "
+                        + "avvio manuale: /deployment=<deployment>/subsystem=ejb3/message-driven-bean=<nome>:start-delivery",
+                        inactive, deliveryAttempts);
+        }
+        timerService.createSingleActionTimer(DELIVERY_RETRY_INTERVAL, new TimerConfig(DELIVERY_TIMER, false));
+    }
+}
@@ -0,0 +1,287 @@
+package com.martinispec.jms;
+
+import com.martinispec.model.ProcessMessage;
+import com.martinispec.model.codec.BinaryProcessMessageCodec;
+import com.martinispec.model.codec.ProcessMessageCodec;
+import com.martinispec.model.codec.ProcessMessageCodecs;
+import com.martinispec.model.metrics.MessagingMetrics;
+import com.martinispec.model.store.AggregationStore;
+import com.martinispec.model.store.AggregationStore.AggregatedMessage;
+import com.martinispec.model.store.JdbcStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.DependsOn;
+import javax.ejb.EJB;
+import javax.ejb.LocalBean;
+import javax.ejb.SessionContext;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.Timeout;
+import javax.ejb.Timer;
+import javax.ejb.TimerConfig;
+import javax.ejb.TimerService;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Aggregazione scatter-gather: i messaggi configurati (es. figlioCompletato) con la stessa correlation key
+ * vengono raccolti e consegnati al padre in un solo signal, invece di un signal (e una transazione del motore
+ * sull'istanza padre, PER_PROCESS_INSTANCE) per ogni figlio.
+ *
+ * Il listener JMS aggiunge il messaggio al gruppo in MARTINI_AGGREGATION nella transazione dell'ack; il gruppo
+ * viene consegnato quando raggiunge il numero atteso o scade. Il consumer batch e la pipeline asincrona, fuori
+ * dalla transazione JTA, usano {@link #collect(ProcessMessage, Message)}: gruppo e registrazione del messaggio
+ * come elaborato vengono confermati insieme prima del commit della sessione JMS, e una redelivery successiva
+ * è riconosciuta come duplicato invece di essere contata due volte nel gruppo.
+ *
+ * - numero atteso: martini.aggregate.<messageName>.count (fisso) oppure la variabile del messaggio indicata da
+ *   martini.aggregate.<messageName>.countVariable (default expectedCount, es. il messageCount dello scatter)
+ * - scadenza: martini.aggregate.<messageName>.timeout ms dal primo messaggio del gruppo
+ *   (default martini.aggregate.timeout), consegna parziale con i messaggi raccolti
+ *
+ * Il messaggio aggregato viene ripubblicato su PROCESS.MESSAGES (proprietà martiniAggregated, nella stessa
+ * transazione della rimozione del gruppo) e segue il percorso normale: signal, buffer dei messaggi in attesa,
+ * retry, deduplica. Le sue variabili sono quelle dei messaggi raccolti (in ordine di arrivo, l'ultimo prevale),
+ * più la lista delle variabili di ogni messaggio (martini.aggregate.<messageName>.resultVariable,
+ * default aggregatedResults) e il numero di messaggi (martini.aggregate.<messageName>.countResultVariable,
+ * default aggregatedCount).
+ *
+ * Configurazione:
+ *   -Dmartini.aggregate.messages=figlioCompletato   (nomi separati da virgola, vuoto = nessuna aggregazione)
+ *   -Dmartini.aggregate.timeout=60000               (ms)
+ *   -Dmartini.aggregate.sweepInterval=5000          (ms tra due consegne dei gruppi scaduti)
+ *
+ * Un gruppo completato da due messaggi elaborati in parallelo (senza raggruppamento per correlation key)
+ * viene consegnato dalla riconciliazione periodica.
+ */
+@Singleton
+@Startup
+@DependsOn("SchemaInitializer")
+@LocalBean
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class MessageAggregator {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageAggregator.class);
+
+    /**
+     * Presente sul messaggio aggregato (numero di messaggi raccolti): non viene aggregato di nuovo.
+     */
+    static final String AGGREGATED_PROPERTY = "martiniAggregated";
+
+    private static final Set<String> MESSAGES = Collections.unmodifiableSet(
+            Arrays.stream(System.getProperty("martini.aggregate.messages", "").split(","))
+                  .map(String::trim)
+                  .filter(name -> !name.isEmpty())
+                  .collect(Collectors.toSet()));
+    private static final long DEFAULT_TIMEOUT = Long.getLong("martini.aggregate.timeout", 60_000L);
+    private static final long SWEEP_INTERVAL = Long.getLong("martini.aggregate.sweepInterval", 5_000L);
+    private static final int SWEEP_BATCH = 100;
+
+    private static final MessagingMetrics METRICS = MessagingMetrics.forComponent("service");
+
+    @EJB
+    private MessageDeduplicator deduplicator;
+
+    @Resource
+    private TimerService timerService;
+
+    @Resource
+    private SessionContext context;
+
+    private volatile AggregationStore store;
+
+    @PostConstruct
+    void init() {
+        if (!MESSAGES.isEmpty()) {
+            logger.info("MessageAggregator: Aggregazione dei messaggi {}", MESSAGES);
+            if (SWEEP_INTERVAL > 0) {
+                timerService.createIntervalTimer(SWEEP_INTERVAL, SWEEP_INTERVAL, new TimerConfig(null, false));
+            }
+        }
+    }
+
+    /**
+     * @return true se il messaggio va aggiunto a un gruppo: nome configurato, correlation key presente,
+     *         non già aggregato e non indirizzato a istanze specifiche (ripubblicazioni mirate)
+     */
+    public boolean accepts(ProcessMessage processMessage, Message jmsMessage) throws JMSException {
+        return MESSAGES.contains(processMessage.getMessageName())
+               && processMessage.hasCorrelationKey()
+               && !jmsMessage.propertyExists(AGGREGATED_PROPERTY)
+               && !jmsMessage.propertyExists(ProcessMessageDecoder.TARGET_INSTANCES_PROPERTY);
+    }
+
+    /**
+     * Aggiunge il messaggio al suo gruppo nella transazione corrente e, se il gruppo è completo,
+     * pubblica il messaggio aggregato nella stessa transazione.
+     *
+     * @throws IllegalStateException se il messaggio non è memorizzabile o lo store non è disponibile
+     *         (con transazione marcata per il rollback: il gruppo resta invariato e il messaggio torna in coda)
+     */
+    public void collect(ProcessMessage processMessage) {
+        String messageName = processMessage.getMessageName();
+        ProcessMessageCodec codec = ProcessMessageCodecs.forFormat(BinaryProcessMessageCodec.FORMAT);
+        byte[] payload;
+        try {
+            payload = codec.encode(processMessage);
+        } catch (IOException | IllegalArgumentException e) {
+            throw new IllegalStateException("Messaggio '" + messageName + "' non aggregabile: " + e.getMessage(), e);
+        }
+        String groupKey = AggregationStore.groupKey(messageName, processMessage.getCorrelationKey(),
+                                                    processMessage.getTargetContainer());
+        try {
+            getStore().add(groupKey, messageName, processMessage.getCorrelationKey(), processMessage.getTargetContainer(),
+                           expectedCount(processMessage), codec.format(), payload, property(messageName, "timeout", DEFAULT_TIMEOUT));
+            logger.debug("MessageAggregator: Messaggio '{}' (correlationKey '{}') aggiunto al gruppo {}",
+                         messageName, processMessage.getCorrelationKey(), groupKey);
+            if (getStore().isComplete(groupKey)) {
+                flush(groupKey);
+            }
+        } catch (SQLException | JMSException | IOException | RuntimeException e) {
+            context.setRollbackOnly();
+            throw new IllegalStateException("Aggregazione del messaggio '" + messageName + "' fallita: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Come {@link #collect(ProcessMessage)}, registrando il messaggio come elaborato (MessageDeduplicator)
+     * nella stessa transazione: per i consumer la cui sessione JMS non partecipa alla transazione JTA.
+     */
+    public void collect(ProcessMessage processMessage, Message jmsMessage) {
+        collect(processMessage);
+        deduplicator.markProcessedInTransaction(processMessage, jmsMessage);
+    }
+
+    /**
+     * Riconciliazione: consegna dei gruppi scaduti e di quelli completati da messaggi concorrenti,
+     * nella transazione del timer (rimozione del gruppo e invio su JMS atomici).
+     */
+    @Timeout
+    void sweep(Timer timer) {
+        try {
+            for (String groupKey : getStore().findDue(SWEEP_BATCH)) {
+                flush(groupKey);
+            }
+        } catch (SQLException | JMSException | IOException | RuntimeException e) {
+            context.setRollbackOnly();
+            logger.warn("MessageAggregator: Consegna dei gruppi scaduti fallita: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Prende in carico i messaggi del gruppo e pubblica il messaggio aggregato.
+     */
+    private void flush(String groupKey) throws SQLException, JMSException, IOException {
+        List<AggregatedMessage> claimed = new ArrayList<>();
+        for (AggregatedMessage member : getStore().findGroup(groupKey)) {
+            if (getStore().remove(member.getId())) {
+                claimed.add(member);
+            }
+        }
+        if (claimed.isEmpty()) {
+            return;
+        }
+        AggregatedMessage first = claimed.get(0);
+        String messageName = first.getMessageName();
+        int expected = claimed.stream().mapToInt(AggregatedMessage::getExpected).max().orElse(0);
+        boolean complete = expected > 0 && claimed.size() >= expected;
+
+        Map<String, Object> variables = new LinkedHashMap<>();
+        List<Map<String, Object>> results = new ArrayList<>(claimed.size());
+        StringBuilder ids = new StringBuilder();
+        for (AggregatedMessage member : claimed) {
+            Map<String, Object> memberVariables = decode(member).getVariables();
+            variables.putAll(memberVariables);
+            results.add(new LinkedHashMap<>(memberVariables));
+            ids.append(member.getId()).append(',');
+        }
+        variables.put(property(messageName, "resultVariable", "aggregatedResults"), results);
+        variables.put(property(messageName, "countResultVariable", "aggregatedCount"), claimed.size());
+
+        ProcessMessage aggregated = new ProcessMessage(messageName, first.getCorrelationKey(), variables);
+        aggregated.setTargetContainer(first.getTargetContainer());
+        aggregated.setMessageId(UUID.nameUUIDFromBytes(ids.toString().getBytes(StandardCharsets.UTF_8)).toString());
+        ProcessMessagePublisher.publish(aggregated, Map.of(AGGREGATED_PROPERTY, claimed.size()));
+
+        METRICS.increment("martini_messages_aggregated_total", "message", messageName, "reason", complete ? "complete" : "timeout");
+        METRICS.add("martini_messages_aggregated_members_total", claimed.size(), "message", messageName);
+        if (complete) {
+            logger.info("MessageAggregator: {} messaggi '{}' (correlationKey '{}') consegnati in un solo signal",
+                        claimed.size(), messageName, first.getCorrelationKey());
+        } else {
+            logger.warn("MessageAggregator: Gruppo '{}' (correlationKey '{}') scaduto dopo {} ms con {} messaggi su {}, consegna parziale",
+                        messageName, first.getCorrelationKey(), System.currentTimeMillis() - first.getCreatedAt(),
+                        claimed.size(), expected > 0 ? String.valueOf(expected) : "?");
+        }
+    }
+
+    /**
+     * Numero atteso: fisso da configurazione oppure dalla variabile del messaggio (0 se non indicato).
+     */
+    private static int expectedCount(ProcessMessage processMessage) {
+        String messageName = processMessage.getMessageName();
+        long fixed = property(messageName, "count", 0L);
+        if (fixed > 0) {
+            return (int) fixed;
+        }
+        Object value = processMessage.getVariables().get(property(messageName, "countVariable", "expectedCount"));
+        if (value instanceof Number) {
+            return Math.max(0, ((Number) value).intValue());
+        }
+        if (value instanceof String) {
+            try {
+                return Math.max(0, Integer.parseInt(((String) value).trim()));
+            } catch (NumberFormatException e) {
+                logger.warn("MessageAggregator: Numero atteso '{}' non valido per il messaggio '{}'", value, messageName);
+            }
+        }
+        return 0;
+    }
+
+    private static String property(String messageName, String name, String defaultValue) {
+        return System.getProperty("martini.aggregate." + messageName + "." + name, defaultValue);
+    }
+
+    private static long property(String messageName, String name, long defaultValue) {
+        return Long.getLong("martini.aggregate." + messageName + "." + name, defaultValue);
+    }
+
+    private static ProcessMessage decode(AggregatedMessage member) throws IOException {
+        ProcessMessageCodec codec = ProcessMessageCodecs.forFormat(member.getFormat());
+        if (codec == null) {
+            throw new IOException("Formato '" + member.getFormat() + "' non supportato");
+        }
+        return codec.decode(member.getPayload());
+    }
+
+    private AggregationStore getStore() {
+        AggregationStore current = store;
+        if (current == null) {
+            synchronized (this) {
+                current = store;
+                if (current == null) {
+                    current = AggregationStore.fromJndi(JdbcStore.DATASOURCE_JNDI);
+                    store = current;
+                }
+            }
+        }
+        return current;
+    }
+}
@@ -0,0 +1,282 @@
+package com.martinispec.jms;
+
+import com.martinispec.kie.ProcessDispatcherProvider;
+import com.martinispec.model.ProcessMessage;
+import com.martinispec.model.store.JdbcStore;
+import com.martinispec.model.store.ProcessedMessageStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.DependsOn;
+import javax.ejb.EJB;
+import javax.ejb.LocalBean;
+import javax.ejb.SessionContext;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.Timeout;
+import javax.ejb.Timer;
+import javax.ejb.TimerConfig;
+import javax.ejb.TimerService;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Deduplica dei messaggi di PROCESS.MESSAGES in base al martiniMessageId assegnato dal mittente.
+ *
+ * Dopo l'avvio o il signal (o la memorizzazione nel PendingMessageBuffer) il messaggio viene registrato in
+ * MARTINI_PROCESSED_MESSAGE; una nuova consegna dello stesso messaggio viene confermata senza dispatch.
+ * La chiave è il martiniMessageId più le istanze destinatarie per le ripubblicazioni mirate (istanze fallite
+ * di un fan-out, messaggi in attesa consegnati), che sono consegne distinte dello stesso messaggio.
+ *
+ * Transazione della registrazione:
+ * - dispatch embedded: nella transazione del chiamante (MDB), atomica con avvio/signal e ack
+ * - dispatch REST: in una transazione separata, perché avvio/signal su KIE Server sono già confermati;
+ *   se la transazione dell'MDB fallisce dopo il dispatch, la redelivery trova il messaggio registrato
+ * - messaggi con effetti nella transazione del chiamante (conservati dal PendingMessageBuffer, signal falliti
+ *   ripubblicati, aggregati): sempre nella transazione del chiamante (markProcessedInTransaction), così un rollback
+ *   non fa scartare la redelivery; con il dispatch REST le istanze già servite possono ricevere di nuovo il signal
+ *
+ * Controllo economico: le chiavi registrate di recente sono in una cache locale (martini.dedup.cache.size);
+ * il database viene interrogato solo per i messaggi che possono essere duplicati, cioè riconsegnati dal broker
+ * (JMSRedelivered) o ripubblicati dal retry (martiniRetryAttempt). Con -Dmartini.dedup.checkAll=true ogni messaggio
+ * viene verificato sul database. I messaggi senza martiniMessageId (mittenti precedenti) non sono deduplicati.
+ *
+ * Configurazione:
+ *   -Dmartini.dedup.enabled=true
+ *   -Dmartini.dedup.window=86400000         (ms di conservazione delle registrazioni)
+ *   -Dmartini.dedup.purgeInterval=300000    (ms tra due rimozioni delle registrazioni scadute, 0 = nessuna)
+ *   -Dmartini.dedup.cache.size=10000
+ *   -Dmartini.dedup.checkAll=false
+ *
+ * Un errore dello store non blocca il messaggio: viene elaborato come senza deduplica (at-least-once).
+ */
+@Singleton
+@Startup
+@DependsOn("SchemaInitializer")
+@LocalBean
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class MessageDeduplicator {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageDeduplicator.class);
+
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("martini.dedup.enabled", "true"));
+    private static final long WINDOW = Long.getLong("martini.dedup.window", 86_400_000L);
+    private static final long PURGE_INTERVAL = Long.getLong("martini.dedup.purgeInterval", 300_000L);
+    private static final int CACHE_SIZE = Integer.getInteger("martini.dedup.cache.size", 10_000);
+    private static final boolean CHECK_ALL = Boolean.getBoolean("martini.dedup.checkAll");
+
+    @EJB
+    private ProcessDispatcherProvider dispatcherProvider;
+
+    @Resource
+    private TimerService timerService;
+
+    @Resource
+    private SessionContext context;
+
+    @Resource
+    private TransactionSynchronizationRegistry synchronizationRegistry;
+
+    // Chiavi registrate di recente -> istante di registrazione (LRU, accesso sincronizzato)
+    private final Map<String, Long> recent = new LinkedHashMap<String, Long>(1024, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private volatile ProcessedMessageStore store;
+
+    @PostConstruct
+    void init() {
+        if (ENABLED && PURGE_INTERVAL > 0) {
+            timerService.createIntervalTimer(PURGE_INTERVAL, PURGE_INTERVAL, new TimerConfig(null, false));
+        }
+    }
+
+    /**
+     * @return true se il messaggio è già stato elaborato entro la finestra di deduplica
+     */
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    public boolean isDuplicate(ProcessMessage processMessage, Message jmsMessage) {
+        String key = ENABLED ? key(processMessage, jmsMessage) : null;
+        if (key == null) {
+            return false;
+        }
+        Long processedAt;
+        synchronized (recent) {
+            processedAt = recent.get(key);
+        }
+        boolean duplicate;
+        if (processedAt != null) {
+            duplicate = System.currentTimeMillis() - processedAt < WINDOW;
+        } else if (!CHECK_ALL && !mayBeDuplicate(jmsMessage)) {
+            return false;
+        } else {
+            try {
+                duplicate = getStore().contains(key);
+            } catch (SQLException | IllegalStateException e) {
+                logger.warn("MessageDeduplicator: Verifica del messaggio '{}' non possibile, elaborato comunque: {}",
+                            processMessage.getMessageName(), e.getMessage());
+                return false;
+            }
+        }
+        if (duplicate) {
+            logger.info("MessageDeduplicator: Messaggio '{}' ({}) già elaborato, ignorato", processMessage.getMessageName(), key);
+        }
+        return duplicate;
+    }
+
+    /**
+     * Registra il messaggio come elaborato: nella transazione corrente con il dispatch embedded,
+     * altrimenti in una transazione separata confermata subito.
+     */
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    public void markProcessed(ProcessMessage processMessage, Message jmsMessage) {
+        mark(processMessage, jmsMessage, dispatcherProvider.isTransactional());
+    }
+
+    /**
+     * Registra il messaggio come elaborato sempre nella transazione corrente, per i messaggi il cui effetto
+     * è solo transazionale (es. aggiunto a un gruppo dal MessageAggregator): un rollback annulla entrambi.
+     * Senza transazione attiva (thread della AsyncProcessMessagePipeline) la registrazione è confermata subito.
+     */
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    public void markProcessedInTransaction(ProcessMessage processMessage, Message jmsMessage) {
+        mark(processMessage, jmsMessage, true);
+    }
+
+    private void mark(ProcessMessage processMessage, Message jmsMessage, boolean inTransaction) {
+        String key = ENABLED ? key(processMessage, jmsMessage) : null;
+        if (key == null) {
+            return;
+        }
+        try {
+            if (inTransaction) {
+                record(key, processMessage.getMessageName());
+            } else {
+                context.getBusinessObject(MessageDeduplicator.class).recordIndependently(key, processMessage.getMessageName());
+            }
+        } catch (SQLException | RuntimeException e) {
+            logger.warn("MessageDeduplicator: Registrazione del messaggio '{}' fallita, una nuova consegna verrebbe elaborata: {}",
+                        processMessage.getMessageName(), e.getMessage());
+        }
+    }
+
+    /**
+     * Registrazione in una transazione propria (dispatch REST): non viene annullata dal rollback del chiamante.
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void recordIndependently(String key, String messageName) throws SQLException {
+        record(key, messageName);
+    }
+
+    /**
+     * Rimozione periodica delle registrazioni più vecchie della finestra.
+     */
+    @Timeout
+    void purge(Timer timer) {
+        try {
+            int removed = getStore().purge(System.currentTimeMillis() - WINDOW);
+            if (removed > 0) {
+                logger.debug("MessageDeduplicator: Rimosse {} registrazioni oltre la finestra di {} ms", removed, WINDOW);
+            }
+        } catch (SQLException | IllegalStateException e) {
+            logger.warn("MessageDeduplicator: Rimozione delle registrazioni scadute fallita: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Inserisce la chiave nella transazione attiva; la cache locale viene aggiornata solo dopo il commit,
+     * così un rollback non fa scartare la redelivery. Senza transazione (es. thread della
+     * AsyncProcessMessagePipeline) l'inserimento è già confermato e la cache viene aggiornata subito.
+     */
+    private void record(String key, String messageName) throws SQLException {
+        getStore().record(key, messageName);
+        if (synchronizationRegistry.getTransactionKey() == null) {
+            synchronized (recent) {
+                recent.put(key, System.currentTimeMillis());
+            }
+            return;
+        }
+        synchronizationRegistry.registerInterposedSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status == Status.STATUS_COMMITTED) {
+                    synchronized (recent) {
+                        recent.put(key, System.currentTimeMillis());
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Riconsegnato dal broker o ripubblicato dal retry: l'elaborazione precedente può essere andata a buon fine.
+     */
+    private static boolean mayBeDuplicate(Message jmsMessage) {
+        try {
+            return jmsMessage.getJMSRedelivered() || jmsMessage.propertyExists(RetryPolicy.RETRY_ATTEMPT_PROPERTY);
+        } catch (JMSException e) {
+            return true;
+        }
+    }
+
+    /**
+     * martiniMessageId, più le istanze destinatarie se il messaggio è indirizzato a istanze specifiche.
+     *
+     * @return null se il messaggio non ha identificativo
+     */
+    static String key(ProcessMessage processMessage, Message jmsMessage) {
+        String messageId = processMessage.getMessageId();
+        if (messageId == null) {
+            return null;
+        }
+        String targets;
+        try {
+            targets = jmsMessage.getStringProperty(ProcessMessageDecoder.TARGET_INSTANCES_PROPERTY);
+        } catch (JMSException e) {
+            targets = null;
+        }
+        if (targets == null || targets.trim().isEmpty()) {
+            return messageId;
+        }
+        String key = messageId + "@" + targets.trim();
+        if (key.length() > ProcessedMessageStore.MAX_KEY_LENGTH) {
+            key = messageId + "@" + UUID.nameUUIDFromBytes(targets.trim().getBytes(StandardCharsets.UTF_8));
+        }
+        return key.length() <= ProcessedMessageStore.MAX_KEY_LENGTH ? key : null;
+    }
+
+    private ProcessedMessageStore getStore() {
+        ProcessedMessageStore current = store;
+        if (current == null) {
+            synchronized (this) {
+                current = store;
+                if (current == null) {
+                    current = ProcessedMessageStore.fromJndi(JdbcStore.DATASOURCE_JNDI);
+                    store = current;
+                }
+            }
+        }
+        return current;
+    }
+}
@@ -0,0 +1,136 @@
+package com.martinispec.jms;
+
+import com.martinispec.model.metrics.MessagingMetrics;
+import com.martinispec.model.store.JdbcStore;
+import com.martinispec.model.store.OutboxStore;
+import com.martinispec.model.store.OutboxStore.OutboxMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.DependsOn;
+import javax.ejb.LocalBean;
+import javax.ejb.SessionContext;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.Timeout;
+import javax.ejb.Timer;
+import javax.ejb.TimerConfig;
+import javax.ejb.TimerService;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.jms.JMSException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Relay dell'outbox: pubblica su JMS i messaggi scritti dal JmsSendMessageHandler in MARTINI_OUTBOX.
+ *
+ * Ogni batch è una transazione XA: le righe vengono prese in carico (DELETE) e i messaggi inviati
+ * con java:/JmsXA nello stesso commit, quindi un messaggio viene pubblicato una e una sola volta anche
+ * con più nodi o in caso di crash. I messaggi sono pubblicati in ordine di inserimento; a ogni intervallo
+ * il relay prosegue finché trova batch pieni.
+ *
+ * Configurazione (la stessa proprietà abilita l'outbox nel KJAR):
+ *   -Dmartini.outbox.enabled=false
+ *   -Dmartini.outbox.pollInterval=200   (ms)
+ *   -Dmartini.outbox.batchSize=100
+ *
+ * Metriche (registro "service"): martini_outbox_published_total e martini_outbox_lag_seconds
+ * (tempo tra la scrittura nell'outbox e la pubblicazione).
+ */
+@Singleton
+@Startup
+@DependsOn("SchemaInitializer")
+@LocalBean
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class OutboxRelay {
+
+    private static final Logger logger = LoggerFactory.getLogger(OutboxRelay.class);
+
+    private static final boolean ENABLED = Boolean.getBoolean("martini.outbox.enabled");
+    private static final long POLL_INTERVAL = Long.getLong("martini.outbox.pollInterval", 200L);
+    private static final int BATCH_SIZE = Integer.getInteger("martini.outbox.batchSize", 100);
+
+    private static final MessagingMetrics METRICS = MessagingMetrics.forComponent("service");
+    private static final MessagingMetrics.Timer LAG_TIMER = METRICS.timer("martini_outbox_lag_seconds");
+
+    @Resource
+    private TimerService timerService;
+
+    @Resource
+    private SessionContext context;
+
+    private volatile OutboxStore store;
+
+    @PostConstruct
+    void init() {
+        if (ENABLED) {
+            timerService.createIntervalTimer(POLL_INTERVAL, POLL_INTERVAL, new TimerConfig(null, false));
+            logger.info("OutboxRelay: Attivo (intervallo {} ms, batch {})", POLL_INTERVAL, BATCH_SIZE);
+        }
+    }
+
+    @Timeout
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    void relay(Timer timer) {
+        // Ogni batch in una transazione propria, tramite il proxy del bean
+        OutboxRelay self = context.getBusinessObject(OutboxRelay.class);
+        int fetched;
+        do {
+            fetched = self.relayBatch();
+        } while (fetched == BATCH_SIZE);
+    }
+
+    /**
+     * Pubblica un batch di messaggi dell'outbox.
+     *
+     * @return Numero di messaggi letti (BATCH_SIZE se l'outbox potrebbe contenerne altri)
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public int relayBatch() {
+        try {
+            List<OutboxMessage> fetched = getStore().fetch(BATCH_SIZE);
+            List<OutboxMessage> claimed = new ArrayList<>(fetched.size());
+            for (OutboxMessage message : fetched) {
+                // Già pubblicato da un altro nodo: la riga non esiste più
+                if (getStore().remove(message.getId())) {
+                    claimed.add(message);
+                }
+            }
+            if (!claimed.isEmpty()) {
+                ProcessMessagePublisher.publishOutbox(claimed);
+                long now = System.currentTimeMillis();
+                for (OutboxMessage message : claimed) {
+                    LAG_TIMER.record(Math.max(0L, now - message.getCreatedAt()) * 1_000_000L);
+                    METRICS.increment("martini_outbox_published_total", "message", message.getMessageName());
+                }
+                logger.debug("OutboxRelay: Pubblicati {} messaggi", claimed.size());
+            }
+            return fetched.size();
+        } catch (SQLException | JMSException | RuntimeException e) {
+            // Righe e messaggi nella stessa transazione: il batch verrà ripetuto
+            context.setRollbackOnly();
+            logger.warn("OutboxRelay: Pubblicazione dell'outbox fallita: {}", e.getMessage(), e);
+            return 0;
+        }
+    }
+
+    private OutboxStore getStore() {
+        OutboxStore current = store;
+        if (current == null) {
+            synchronized (this) {
+                current = store;
+                if (current == null) {
+                    current = OutboxStore.fromJndi(JdbcStore.DATASOURCE_JNDI);
+                    store = current;
+                }
+            }
+        }
+        return current;
+    }
+}
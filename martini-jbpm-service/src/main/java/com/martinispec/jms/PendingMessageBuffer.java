@@ -0,0 +1,326 @@
+package com.martinispec.jms;
+
+import com.martinispec.kie.CorrelationResolver;
+import com.martinispec.kie.ProcessDispatcherProvider;
+import com.martinispec.kie.SignalFanOut;
+import com.martinispec.model.ProcessMessage;
+import com.martinispec.model.codec.BinaryProcessMessageCodec;
+import com.martinispec.model.codec.ProcessMessageCodec;
+import com.martinispec.model.codec.ProcessMessageCodecs;
+import com.martinispec.model.store.JdbcStore;
+import com.martinispec.model.store.PendingMessageStore;
+import com.martinispec.model.store.PendingMessageStore.PendingMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.DependsOn;
+import javax.ejb.EJB;
+import javax.ejb.LocalBean;
+import javax.ejb.SessionContext;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.Timeout;
+import javax.ejb.Timer;
+import javax.ejb.TimerConfig;
+import javax.ejb.TimerService;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Buffer dei signal arrivati prima che l'istanza destinataria raggiunga l'evento di cattura.
+ *
+ * jBPM ignora un signal inviato a un'istanza che non lo sta attendendo: se il figlio termina prima che
+ * il padre arrivi a "Attendi Completamento", il messaggio figlioCompletato andrebbe perso. Con il buffer:
+ * - il listener JMS invia il signal solo alle istanze che lo attendono (SignalFanOut con onlyWaiting)
+ *   e memorizza il messaggio per le altre, o per la correlation key se nessuna istanza è ancora indicizzata,
+ *   in MARTINI_PENDING_MESSAGE, nella stessa transazione dell'ack
+ * - il PendingMessageEventListener del KJAR lo consegna quando l'istanza entra nello stato di attesa
+ * - una riconciliazione periodica (martini.pending.sweepInterval) consegna i messaggi la cui istanza è
+ *   già in attesa (memorizzati mentre l'istanza raggiungeva l'evento) e sposta in DLQ quelli scaduti
+ *
+ * Configurazione:
+ *   -Dmartini.pending.enabled=true          (false = signal sempre inviato, messaggi senza istanza in retry/DLQ)
+ *   -Dmartini.pending.ttl=600000            (ms di attesa massima)
+ *   -Dmartini.pending.sweepInterval=15000   (ms, 0 = nessuna riconciliazione)
+ *
+ * Solo i messaggi rappresentabili nel formato binario vengono memorizzati; gli altri seguono il percorso normale.
+ */
+@Singleton
+@Startup
+@DependsOn("SchemaInitializer")
+@LocalBean
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class PendingMessageBuffer {
+
+    private static final Logger logger = LoggerFactory.getLogger(PendingMessageBuffer.class);
+
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("martini.pending.enabled", "true"));
+    private static final long TTL = Long.getLong("martini.pending.ttl", 600_000L);
+    private static final long SWEEP_INTERVAL = Long.getLong("martini.pending.sweepInterval", 15_000L);
+    private static final int SWEEP_BATCH = 200;
+
+    // Payload originale (Base64) di un messaggio in attesa non decodificabile, in DLQ
+    static final String PAYLOAD_PROPERTY = "martiniPendingPayload";
+
+    @EJB
+    private ProcessDispatcherProvider dispatcherProvider;
+
+    @EJB
+    private CorrelationResolver correlationResolver;
+
+    @EJB
+    private SignalFanOut signalFanOut;
+
+    @EJB
+    private MessageDeduplicator deduplicator;
+
+    @Resource
+    private TimerService timerService;
+
+    @Resource
+    private SessionContext context;
+
+    private volatile PendingMessageStore store;
+
+    @PostConstruct
+    void init() {
+        if (ENABLED && SWEEP_INTERVAL > 0) {
+            timerService.createIntervalTimer(SWEEP_INTERVAL, SWEEP_INTERVAL, new TimerConfig(null, false));
+        }
+    }
+
+    public boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Signal alle istanze che attendono il messaggio; per le altre il messaggio viene memorizzato
+     * o, se non memorizzabile, il signal viene inviato comunque (comportamento senza buffer).
+     */
+    public SignalFanOut.Outcome signalOrHold(String containerId, ProcessMessage processMessage, List<Long> instanceIds) {
+        SignalFanOut.Outcome outcome = signalFanOut.signalAll(containerId, instanceIds, processMessage.getMessageName(),
+                                                              processMessage.getVariables(), ENABLED);
+        List<Long> notWaiting = new ArrayList<>(outcome.getNotWaiting());
+        if (!notWaiting.isEmpty() && !hold(containerId, processMessage, notWaiting)) {
+            outcome.replaceNotWaiting(signalFanOut.signalAll(containerId, notWaiting, processMessage.getMessageName(),
+                                                             processMessage.getVariables(), false));
+        }
+        return outcome;
+    }
+
+    /**
+     * Memorizza il messaggio per le istanze indicate (non ancora in attesa) oppure, con lista vuota,
+     * per la prima istanza con la sua correlation key che raggiungerà l'evento.
+     *
+     * @return false se il messaggio non è memorizzabile: il chiamante prosegue come senza buffer
+     */
+    public boolean hold(String containerId, ProcessMessage processMessage, List<Long> instanceIds) {
+        if (!ENABLED) {
+            return false;
+        }
+        ProcessMessageCodec codec = ProcessMessageCodecs.forFormat(BinaryProcessMessageCodec.FORMAT);
+        byte[] payload;
+        try {
+            payload = codec.encode(processMessage);
+        } catch (IOException | IllegalArgumentException e) {
+            logger.warn("PendingMessageBuffer: Messaggio '{}' non memorizzabile ({})", processMessage.getMessageName(), e.getMessage());
+            return false;
+        }
+        List<Long> targets = instanceIds.isEmpty() ? Collections.singletonList(null) : instanceIds;
+        try {
+            for (Long target : targets) {
+                getStore().hold(containerId, processMessage.getCorrelationKey(), processMessage.getMessageName(), target,
+                                codec.format(), payload, TTL);
+            }
+        } catch (SQLException | IllegalStateException e) {
+            logger.warn("PendingMessageBuffer: Store dei messaggi in attesa non disponibile ({})", e.getMessage());
+            return false;
+        }
+        ListenerMetrics.pending(processMessage.getMessageName());
+        logger.info("PendingMessageBuffer: Messaggio '{}' (correlationKey '{}') in attesa per {}",
+                    processMessage.getMessageName(), processMessage.getCorrelationKey(),
+                    instanceIds.isEmpty() ? "la prima istanza correlata" : "le istanze " + instanceIds);
+        return true;
+    }
+
+    /**
+     * Memorizza un messaggio senza istanze correlate (hold con lista vuota) e lo registra come elaborato
+     * (MessageDeduplicator) nella stessa transazione: un rollback annulla entrambi e la redelivery viene
+     * conservata di nuovo, invece di essere scartata come duplicato.
+     *
+     * @return false se il messaggio non è memorizzabile (non registrato)
+     */
+    public boolean holdProcessed(String containerId, ProcessMessage processMessage, Message jmsMessage) {
+        if (!hold(containerId, processMessage, Collections.emptyList())) {
+            return false;
+        }
+        deduplicator.markProcessedInTransaction(processMessage, jmsMessage);
+        return true;
+    }
+
+    /**
+     * Riconciliazione: messaggi scaduti in DLQ, consegna di quelli la cui istanza è già in attesa.
+     *
+     * Letture e verifica delle istanze in attesa avvengono fuori transazione; ogni messaggio viene poi elaborato
+     * in una transazione propria (expire, deliver), così una riga che fallisce annulla solo se stessa e non
+     * blocca le altre: resta nello store e viene ritentata alla riconciliazione successiva.
+     */
+    @Timeout
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    void sweep(Timer timer) {
+        List<PendingMessage> expired;
+        List<PendingMessage> active;
+        try {
+            expired = getStore().findExpired(SWEEP_BATCH);
+            active = getStore().findActive(SWEEP_BATCH);
+        } catch (SQLException | IllegalStateException e) {
+            logger.warn("PendingMessageBuffer: Lettura dei messaggi in attesa fallita: {}", e.getMessage());
+            return;
+        }
+        PendingMessageBuffer self = context.getBusinessObject(PendingMessageBuffer.class);
+        for (PendingMessage pending : expired) {
+            try {
+                self.expire(pending);
+            } catch (RuntimeException e) {
+                logger.warn("PendingMessageBuffer: Messaggio scaduto '{}' ({}) non spostato in DLQ, ritento: {}",
+                            pending.getMessageName(), pending.getId(), e.getMessage(), e);
+            }
+        }
+        for (PendingMessage pending : active) {
+            try {
+                List<Long> waiting = waitingInstances(pending);
+                if (!waiting.isEmpty()) {
+                    self.deliver(pending, waiting);
+                }
+            } catch (RuntimeException e) {
+                logger.warn("PendingMessageBuffer: Messaggio '{}' ({}) non consegnato, ritento: {}",
+                            pending.getMessageName(), pending.getId(), e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Sposta in DLQ un messaggio scaduto. La rimozione dallo store è la presa in carico (con più nodi ogni
+     * messaggio è gestito una sola volta) ed è atomica con l'invio su JMS (java:/JmsXA).
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void expire(PendingMessage pending) {
+        try {
+            ProcessMessage processMessage = claim(pending);
+            if (processMessage != null) {
+                RetryPolicy.deadLetter(processMessage, RetryPolicy.Reason.EXPIRED,
+                                       "Nessuna istanza in attesa entro " + TTL + " ms"
+                                       + (pending.getTargetInstanceId() != null ? " (istanza " + pending.getTargetInstanceId() + ")" : ""));
+            }
+        } catch (SQLException | JMSException e) {
+            context.setRollbackOnly();
+            logger.warn("PendingMessageBuffer: Messaggio scaduto '{}' ({}) non spostato in DLQ, ritento: {}",
+                        pending.getMessageName(), pending.getId(), e.getMessage());
+        }
+    }
+
+    /**
+     * Consegna un messaggio alle istanze che lo attendono, indirizzato a loro (martiniTargetInstances);
+     * presa in carico e invio come in expire.
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void deliver(PendingMessage pending, List<Long> waiting) {
+        try {
+            ProcessMessage processMessage = claim(pending);
+            if (processMessage != null) {
+                ProcessMessagePublisher.publish(processMessage, Map.of(
+                        ProcessMessageCodecs.MESSAGE_ID_PROPERTY, pending.getId(),
+                        ProcessMessageCodecs.CONTAINER_PROPERTY, pending.getContainerId(),
+                        ProcessMessageDecoder.TARGET_INSTANCES_PROPERTY,
+                        waiting.stream().map(String::valueOf).collect(Collectors.joining(","))));
+                logger.info("PendingMessageBuffer: Messaggio '{}' in attesa da {} ms consegnato alle istanze {}",
+                            pending.getMessageName(), System.currentTimeMillis() - pending.getCreatedAt(), waiting);
+            }
+        } catch (SQLException | JMSException e) {
+            context.setRollbackOnly();
+            logger.warn("PendingMessageBuffer: Messaggio '{}' ({}) non consegnato, ritento: {}",
+                        pending.getMessageName(), pending.getId(), e.getMessage());
+        }
+    }
+
+    /**
+     * Prende in carico il messaggio rimuovendolo dallo store. Un payload non decodificabile non diventerà mai
+     * consegnabile: il messaggio va in DLQ (UNDECODABLE) con il payload originale in Base64, invece di restare
+     * nello store e fallire a ogni riconciliazione.
+     *
+     * @return Messaggio decodificato, null se già preso in carico da altri o non decodificabile
+     */
+    private ProcessMessage claim(PendingMessage pending) throws SQLException, JMSException {
+        if (!getStore().remove(pending.getId())) {
+            return null;
+        }
+        try {
+            return decode(pending);
+        } catch (IOException | RuntimeException e) {
+            ProcessMessage placeholder = new ProcessMessage(pending.getMessageName(), pending.getCorrelationKey(),
+                                                            Collections.emptyMap());
+            placeholder.setTargetContainer(pending.getContainerId());
+            RetryPolicy.deadLetter(placeholder, RetryPolicy.Reason.UNDECODABLE,
+                                   "Payload in formato '" + pending.getFormat() + "' non decodificabile: " + e.getMessage(),
+                                   Map.of(PAYLOAD_PROPERTY, Base64.getEncoder().encodeToString(pending.getPayload())));
+            return null;
+        }
+    }
+
+    private List<Long> waitingInstances(PendingMessage pending) {
+        List<Long> candidates = pending.getTargetInstanceId() != null
+                                ? Collections.singletonList(pending.getTargetInstanceId())
+                                : correlationResolver.resolve(pending.getContainerId(), pending.getCorrelationKey());
+        List<Long> waiting = new ArrayList<>();
+        for (Long instanceId : candidates) {
+            try {
+                if (dispatcherProvider.get().availableSignals(pending.getContainerId(), instanceId).contains(pending.getMessageName())) {
+                    waiting.add(instanceId);
+                    if (pending.getTargetInstanceId() == null) {
+                        // Messaggio per la correlation key: va alla prima istanza in attesa
+                        break;
+                    }
+                }
+            } catch (RuntimeException e) {
+                logger.debug("PendingMessageBuffer: Signal disponibili dell'istanza {} non leggibili: {}", instanceId, e.getMessage());
+            }
+        }
+        return waiting;
+    }
+
+    private static ProcessMessage decode(PendingMessage pending) throws IOException {
+        ProcessMessageCodec codec = ProcessMessageCodecs.forFormat(pending.getFormat());
+        if (codec == null) {
+            throw new IOException("Formato '" + pending.getFormat() + "' non supportato");
+        }
+        return codec.decode(pending.getPayload());
+    }
+
+    private PendingMessageStore getStore() {
+        PendingMessageStore current = store;
+        if (current == null) {
+            synchronized (this) {
+                current = store;
+                if (current == null) {
+                    current = PendingMessageStore.fromJndi(JdbcStore.DATASOURCE_JNDI);
+                    store = current;
+                }
+            }
+        }
+        return current;
+    }
+}
@@ -0,0 +1,30 @@
+package com.martinispec.jms;
+
+import javax.ejb.ActivationConfigProperty;
+import javax.ejb.MessageDriven;
+
+/**
+ * Message-Driven Bean della corsia prioritaria PROCESS.MESSAGES.PRIORITY (vedi MessagePriority).
+ *
+ * Stessa logica di JmsProcessMessageListener (routing, buffer dei messaggi in attesa, aggregazione, retry e DLQ),
+ * con un pool di sessioni separato: i signal urgenti restano serviti mentre un arretrato di messaggi di avvio
+ * occupa le sessioni della coda principale. Retry e ripubblicazioni restano sulla corsia del messaggio.
+ *
+ * Consegna avviata da ListenerWarmUp con -Dmartini.priority.lanes.enabled=true; sessioni concorrenti da
+ * martini.listener.priority.maxSession (jboss-ejb3.xml).
+ */
+@MessageDriven(
+    name = "PriorityProcessMessageListener",
+    activationConfig = {
+        @ActivationConfigProperty(propertyName = "destinationLookup", propertyValue = "jms/queue/PROCESS.MESSAGES.PRIORITY"),
+        @ActivationConfigProperty(propertyName = "destinationType", propertyValue = "javax.jms.Queue"),
+        @ActivationConfigProperty(propertyName = "acknowledgeMode", propertyValue = "Auto-acknowledge")
+    }
+)
+public class PriorityProcessMessageListener extends JmsProcessMessageListener {
+
+    @Override
+    protected String consumer() {
+        return "mdb-priority";
+    }
+}
@@ -0,0 +1,222 @@
+package com.martinispec.jms;
+
+import com.martinispec.model.ProcessMessage;
+import com.martinispec.model.codec.ProcessMessageCodec;
+import com.martinispec.model.codec.ProcessMessageCodecs;
+import com.martinispec.model.store.ClaimCheck;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.ObjectMessage;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Estrae e valida il ProcessMessage da un messaggio JMS.
+ *
+ * Condiviso dall'MDB e dal consumer batch: i messaggi non validi vengono scartati
+ * (null) con un log, senza provocare redelivery.
+ *
+ * Formati accettati:
+ * - BytesMessage con proprietà martiniFormat (codec di martini-jbpm-model)
+ * - BytesMessage senza corpo con proprietà martiniClaimCheck: payload in MARTINI_PAYLOAD, letto
+ *   solo al primo accesso alle variabili (messaggi non instradati e retry non lo leggono)
+ * - ObjectMessage con ProcessMessage serializzato (legacy, durante la migrazione)
+ */
+final class ProcessMessageDecoder {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProcessMessageDecoder.class);
+
+    /**
+     * Istanze destinatarie esplicite (id separati da virgola): il signal va solo a queste,
+     * senza risolvere la correlation key. Usata per ritentare le istanze fallite di un fan-out.
+     */
+    static final String TARGET_INSTANCES_PROPERTY = ProcessMessageCodecs.TARGET_INSTANCES_PROPERTY;
+
+    /**
+     * Numero di ripubblicazioni del fan-out già effettuate per il messaggio.
+     */
+    static final String FANOUT_ATTEMPT_PROPERTY = "martiniFanOutAttempt";
+
+    private ProcessMessageDecoder() {
+    }
+
+    /**
+     * @param jmsMessage Messaggio ricevuto dalla coda
+     * @return ProcessMessage valido oppure null se il messaggio va ignorato
+     */
+    static ProcessMessage decode(Message jmsMessage) throws JMSException {
+        ProcessMessage processMessage;
+        if (jmsMessage instanceof BytesMessage) {
+            processMessage = decodeBytes((BytesMessage) jmsMessage);
+        } else if (jmsMessage instanceof ObjectMessage) {
+            processMessage = decodeObject((ObjectMessage) jmsMessage);
+        } else {
+            logger.warn("ProcessMessageDecoder: Messaggio ricevuto non è BytesMessage né ObjectMessage, ignoro");
+            return null;
+        }
+        if (processMessage == null) {
+            return null;
+        }
+
+        // Validazione
+        if (processMessage.getMessageName() == null || processMessage.getMessageName().trim().isEmpty()) {
+            logger.error("ProcessMessageDecoder: messageName è obbligatorio, ignoro messaggio");
+            return null;
+        }
+
+        // Identificativo assegnato dal mittente (deduplica), prevale su quello serializzato nel payload legacy
+        String messageId = jmsMessage.getStringProperty(ProcessMessageCodecs.MESSAGE_ID_PROPERTY);
+        if (messageId != null && !messageId.trim().isEmpty()) {
+            processMessage.setMessageId(messageId.trim());
+        }
+
+        // Priorità (e corsia) conservata dalle ripubblicazioni
+        processMessage.setPriority(jmsMessage.getJMSPriority());
+
+        // Container indicato dal mittente o dalla ripubblicazione (prevale su quello nel payload)
+        String container = jmsMessage.getStringProperty(ProcessMessageCodecs.CONTAINER_PROPERTY);
+        if (container != null && !container.trim().isEmpty()) {
+            processMessage.setTargetContainer(container.trim());
+        }
+        return processMessage;
+    }
+
+    /**
+     * @param jmsMessage Messaggio ricevuto dalla coda
+     * @return Istanze destinatarie esplicite oppure null se vanno risolte dalla correlation key
+     */
+    static List<Long> targetInstances(Message jmsMessage) throws JMSException {
+        String targets = jmsMessage.getStringProperty(TARGET_INSTANCES_PROPERTY);
+        if (targets == null || targets.trim().isEmpty()) {
+            return null;
+        }
+        List<Long> instanceIds = new ArrayList<>();
+        for (String id : targets.split(",")) {
+            try {
+                instanceIds.add(Long.valueOf(id.trim()));
+            } catch (NumberFormatException e) {
+                logger.warn("ProcessMessageDecoder: Id istanza '{}' non valido in {}, ignorato", id, TARGET_INSTANCES_PROPERTY);
+            }
+        }
+        return instanceIds;
+    }
+
+    /**
+     * Rimuove il payload del claim-check dopo il dispatch del messaggio (per l'MDB nella stessa transazione).
+     * Un errore non invalida il dispatch: la riga resta nella tabella.
+     */
+    static void releaseClaimCheck(Message jmsMessage) {
+        try {
+            String reference = jmsMessage.getStringProperty(ClaimCheck.REFERENCE_PROPERTY);
+            if (reference != null) {
+                ClaimCheck.release(reference);
+            }
+        } catch (JMSException | SQLException | RuntimeException e) {
+            logger.warn("ProcessMessageDecoder: Rimozione del payload del claim-check fallita: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Formato compatto: codec scelto dalla proprietà martiniFormat.
+     */
+    private static ProcessMessage decodeBytes(BytesMessage jmsMessage) throws JMSException {
+        String format = jmsMessage.getStringProperty(ProcessMessageCodecs.FORMAT_PROPERTY);
+        ProcessMessageCodec codec = ProcessMessageCodecs.forFormat(format);
+        if (codec == null) {
+            logger.error("ProcessMessageDecoder: Formato '{}' non supportato, ignoro messaggio", format);
+            return null;
+        }
+        String reference = jmsMessage.getStringProperty(ClaimCheck.REFERENCE_PROPERTY);
+        if (reference != null) {
+            return new ProcessMessage(jmsMessage.getStringProperty("messageName"), jmsMessage.getStringProperty("correlationKey"),
+                                      new ClaimCheckedVariables(reference, codec));
+        }
+        byte[] payload = new byte[(int) jmsMessage.getBodyLength()];
+        jmsMessage.readBytes(payload);
+        try {
+            return codec.decode(payload);
+        } catch (IOException | RuntimeException e) {
+            logger.error("ProcessMessageDecoder: Payload '{}' non valido, ignoro messaggio: {}", format, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Formato legacy: ProcessMessage serializzato in un ObjectMessage.
+     */
+    private static ProcessMessage decodeObject(ObjectMessage jmsMessage) throws JMSException {
+        Object payload = jmsMessage.getObject();
+
+        if (!(payload instanceof ProcessMessage)) {
+            logger.error("ProcessMessageDecoder: Payload non è un ProcessMessage, ignoro. Tipo: {}",
+                         payload != null ? payload.getClass().getName() : "null");
+            return null;
+        }
+        return (ProcessMessage) payload;
+    }
+
+    /**
+     * Variabili di un messaggio con claim-check, lette da MARTINI_PAYLOAD al primo accesso.
+     */
+    private static final class ClaimCheckedVariables extends AbstractMap<String, Object> {
+
+        private final String reference;
+        private final ProcessMessageCodec codec;
+        private Map<String, Object> variables;
+
+        private ClaimCheckedVariables(String reference, ProcessMessageCodec codec) {
+            this.reference = reference;
+            this.codec = codec;
+        }
+
+        private Map<String, Object> load() {
+            if (variables == null) {
+                try {
+                    byte[] payload = ClaimCheck.load(reference);
+                    if (payload == null) {
+                        throw new IllegalStateException("Payload del claim-check '" + reference + "' non più disponibile");
+                    }
+                    variables = codec.decode(payload).getVariables();
+                } catch (SQLException | IOException e) {
+                    throw new IllegalStateException("Lettura del payload del claim-check '" + reference + "' fallita: "
+                                                    + e.getMessage(), e);
+                }
+            }
+            return variables;
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            return load().entrySet();
+        }
+
+        @Override
+        public Object get(Object key) {
+            return load().get(key);
+        }
+
+        @Override
+        public Object put(String key, Object value) {
+            return load().put(key, value);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return load().containsKey(key);
+        }
+
+        @Override
+        public int size() {
+            return load().size();
+        }
+    }
+}
@@ -0,0 +1,337 @@
+package com.martinispec.jms;
+
+import com.martinispec.kie.SignalFanOut;
+import com.martinispec.model.MessageGroups;
+import com.martinispec.model.MessagePriority;
+import com.martinispec.model.ProcessMessage;
+import com.martinispec.model.codec.ProcessMessageCodec;
+import com.martinispec.model.codec.ProcessMessageCodecs;
+import com.martinispec.model.store.ClaimCheck;
+import com.martinispec.model.store.OutboxStore.OutboxMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jms.BytesMessage;
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.DeliveryMode;
+import javax.jms.Destination;
+import javax.jms.JMSContext;
+import javax.jms.JMSException;
+import javax.jms.JMSProducer;
+import javax.jms.JMSRuntimeException;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.ObjectMessage;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
+
+/**
+ * Ripubblicazione di un ProcessMessage sulla coda PROCESS.MESSAGES dal lato servizio, inoltro
+ * di un messaggio ricevuto (retry ritardato, DLQ, replay) e pubblicazione dell'outbox.
+ *
+ * Usa il pooled connection factory java:/JmsXA: chiamato dall'MDB, l'invio partecipa alla
+ * transazione del messaggio ricevuto (nuovo messaggio e ack sono atomici).
+ */
+final class ProcessMessagePublisher {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProcessMessagePublisher.class);
+
+    private static final String CONNECTION_FACTORY_JNDI = "java:/JmsXA";
+    private static final String QUEUE_JNDI = "java:/jms/queue/PROCESS.MESSAGES";
+
+    // Tentativi massimi di ripubblicazione delle istanze fallite di un fan-out
+    private static final int MAX_FANOUT_ATTEMPTS = Integer.getInteger("martini.signal.fanout.maxRequeue", 3);
+
+    private static final ConcurrentMap<String, Destination> DESTINATIONS = new ConcurrentHashMap<>();
+
+    private static volatile ConnectionFactory connectionFactory;
+
+    private ProcessMessagePublisher() {
+    }
+
+    /**
+     * Gestisce le istanze fallite di un fan-out parziale: le ripubblica in un nuovo messaggio
+     * indirizzato solo a loro (proprietà martiniTargetInstances), così il messaggio originale può essere
+     * confermato senza ripetere il signal alle istanze già servite.
+     *
+     * @param containerId Container effettivo delle istanze (proprietà martiniContainer del nuovo messaggio)
+     * @throws RuntimeException se nessuna istanza è stata servita o i tentativi sono esauriti:
+     *         il messaggio originale va in redelivery
+     */
+    static void requeueFailedSignals(String containerId, ProcessMessage processMessage, Message jmsMessage,
+                                     SignalFanOut.Outcome outcome) throws JMSException {
+        if (!outcome.hasFailures()) {
+            return;
+        }
+        RuntimeException firstError = outcome.getFailed().values().iterator().next();
+        if (outcome.isTotalFailure()) {
+            throw firstError;
+        }
+        int attempt = jmsMessage.propertyExists(ProcessMessageDecoder.FANOUT_ATTEMPT_PROPERTY)
+                      ? jmsMessage.getIntProperty(ProcessMessageDecoder.FANOUT_ATTEMPT_PROPERTY) + 1 : 1;
+        if (attempt > MAX_FANOUT_ATTEMPTS) {
+            throw new IllegalStateException("Signal '" + processMessage.getMessageName() + "' fallito per le istanze "
+                                            + outcome.getFailed().keySet() + " dopo " + MAX_FANOUT_ATTEMPTS + " tentativi",
+                                            firstError);
+        }
+
+        List<Long> failed = new ArrayList<>(outcome.getFailed().keySet());
+        logger.warn("ProcessMessagePublisher: Signal '{}' fallito per {} istanze su {} (tentativo {}), ripubblico solo per {}: {}",
+                    processMessage.getMessageName(), failed.size(),
+                    failed.size() + outcome.getSignalled().size() + outcome.getGone().size(),
+                    attempt, failed, firstError.getMessage());
+        publish(processMessage, Map.of(
+                ProcessMessageCodecs.CONTAINER_PROPERTY, containerId,
+                ProcessMessageDecoder.TARGET_INSTANCES_PROPERTY, failed.stream().map(String::valueOf).collect(Collectors.joining(",")),
+                ProcessMessageDecoder.FANOUT_ATTEMPT_PROPERTY, attempt));
+    }
+
+    /**
+     * Pubblica il messaggio nel formato configurato (martini.message.format) con proprietà aggiuntive,
+     * sulla coda della sua corsia (vedi MessagePriority).
+     */
+    static void publish(ProcessMessage processMessage, Map<String, Object> properties) throws JMSException {
+        publish(processMessage, lookupDestination(MessagePriority.destination(QUEUE_JNDI, priority(processMessage))), properties);
+    }
+
+    /**
+     * Pubblica il messaggio sulla destinazione indicata (es. DLQ).
+     */
+    static void publish(ProcessMessage processMessage, Destination destination, Map<String, Object> properties) throws JMSException {
+        try (JMSContext context = connectionFactory().createContext()) {
+            Message message;
+            ProcessMessageCodec codec = ProcessMessageCodecs.forFormat(ProcessMessageCodecs.sendFormat());
+            byte[] payload = codec != null ? encode(codec, processMessage) : null;
+            if (payload != null) {
+                BytesMessage bytes = context.createBytesMessage();
+                writePayload(bytes, payload);
+                bytes.setStringProperty(ProcessMessageCodecs.FORMAT_PROPERTY, codec.format());
+                message = bytes;
+            } else {
+                message = context.createObjectMessage(processMessage);
+            }
+            message.setStringProperty("messageName", processMessage.getMessageName());
+            if (processMessage.hasCorrelationKey()) {
+                message.setStringProperty("correlationKey", processMessage.getCorrelationKey());
+            }
+            String groupId = MessageGroups.groupId(processMessage.getCorrelationKey());
+            if (groupId != null) {
+                message.setStringProperty(MessageGroups.GROUP_PROPERTY, groupId);
+            }
+            if (processMessage.getTargetContainer() != null) {
+                message.setStringProperty(ProcessMessageCodecs.CONTAINER_PROPERTY, processMessage.getTargetContainer());
+            }
+            if (processMessage.getMessageId() != null) {
+                message.setStringProperty(ProcessMessageCodecs.MESSAGE_ID_PROPERTY, processMessage.getMessageId());
+            }
+            for (Map.Entry<String, Object> property : properties.entrySet()) {
+                message.setObjectProperty(property.getKey(), property.getValue());
+            }
+            context.createProducer()
+                   .setDeliveryMode(DeliveryMode.PERSISTENT)
+                   .setPriority(priority(processMessage))
+                   .send(destination, message);
+        } catch (JMSRuntimeException e) {
+            JMSException jmsException = new JMSException(e.getMessage(), e.getErrorCode());
+            jmsException.initCause(e);
+            throw jmsException;
+        }
+    }
+
+    /**
+     * Pubblica in un'unica sessione i messaggi dell'outbox (payload già codificati), in ordine,
+     * nella transazione JTA corrente.
+     */
+    static void publishOutbox(List<OutboxMessage> messages) throws JMSException {
+        try (JMSContext context = connectionFactory().createContext()) {
+            JMSProducer producer = context.createProducer().setDeliveryMode(DeliveryMode.PERSISTENT);
+            for (OutboxMessage outboxMessage : messages) {
+                // La corsia è nella destinazione della riga, la priorità viene dalla configurazione del messageName
+                producer.setPriority(MessagePriority.resolve(outboxMessage.getMessageName(), null));
+                BytesMessage message = context.createBytesMessage();
+                writePayload(message, outboxMessage.getPayload());
+                message.setStringProperty(ProcessMessageCodecs.FORMAT_PROPERTY, outboxMessage.getFormat());
+                message.setStringProperty("messageName", outboxMessage.getMessageName());
+                String correlationKey = outboxMessage.getCorrelationKey();
+                if (correlationKey != null && !correlationKey.trim().isEmpty()) {
+                    message.setStringProperty("correlationKey", correlationKey);
+                }
+                String groupId = MessageGroups.groupId(correlationKey);
+                if (groupId != null) {
+                    message.setStringProperty(MessageGroups.GROUP_PROPERTY, groupId);
+                }
+                if (outboxMessage.getTargetContainer() != null) {
+                    message.setStringProperty(ProcessMessageCodecs.CONTAINER_PROPERTY, outboxMessage.getTargetContainer());
+                }
+                message.setStringProperty(ProcessMessageCodecs.MESSAGE_ID_PROPERTY, outboxMessage.getId());
+                producer.send(lookupDestination(outboxMessage.getDestination()), message);
+            }
+        } catch (JMSRuntimeException e) {
+            JMSException jmsException = new JMSException(e.getMessage(), e.getErrorCode());
+            jmsException.initCause(e);
+            throw jmsException;
+        }
+    }
+
+    /**
+     * Inoltra una copia del messaggio ricevuto (corpo, proprietà applicative, correlation id e priorità)
+     * con proprietà aggiuntive; un valore null rimuove la proprietà originale.
+     *
+     * @param session Sessione su cui inviare, null per una sessione java:/JmsXA (transazione JTA corrente)
+     * @param deliveryDelay Ritardo di consegna in ms (0 = immediata)
+     */
+    static void forward(Session session, Message original, Destination destination, long deliveryDelay,
+                        Map<String, Object> properties) throws JMSException {
+        if (session == null) {
+            try (Connection connection = connectionFactory().createConnection()) {
+                forward(connection.createSession(), original, destination, deliveryDelay, properties);
+            }
+            return;
+        }
+        Message copy = copyBody(session, original);
+        Map<String, Object> merged = new LinkedHashMap<>();
+        for (Enumeration<?> names = original.getPropertyNames(); names.hasMoreElements(); ) {
+            String name = (String) names.nextElement();
+            // Proprietà gestite dal provider (JMSXDeliveryCount, _AMQ_*, ...) non vanno copiate, il gruppo sì
+            boolean providerProperty = name.startsWith("JMSX") && !name.equals("JMSXGroupID")
+                                       || name.startsWith("JMS_") || name.startsWith("_");
+            if (!providerProperty) {
+                merged.put(name, original.getObjectProperty(name));
+            }
+        }
+        merged.putAll(properties);
+        for (Map.Entry<String, Object> property : merged.entrySet()) {
+            if (property.getValue() != null) {
+                copy.setObjectProperty(property.getKey(), property.getValue());
+            }
+        }
+        copy.setJMSCorrelationID(original.getJMSCorrelationID());
+
+        MessageProducer producer = session.createProducer(destination);
+        try {
+            producer.setDeliveryMode(DeliveryMode.PERSISTENT);
+            producer.setPriority(original.getJMSPriority());
+            if (deliveryDelay > 0) {
+                producer.setDeliveryDelay(deliveryDelay);
+            }
+            producer.send(copy);
+        } finally {
+            producer.close();
+        }
+    }
+
+    private static Message copyBody(Session session, Message original) throws JMSException {
+        if (original instanceof BytesMessage) {
+            BytesMessage bytes = (BytesMessage) original;
+            bytes.reset();
+            byte[] payload = new byte[(int) bytes.getBodyLength()];
+            bytes.readBytes(payload);
+            BytesMessage copy = session.createBytesMessage();
+            copy.writeBytes(payload);
+            return copy;
+        }
+        if (original instanceof ObjectMessage) {
+            return session.createObjectMessage(((ObjectMessage) original).getObject());
+        }
+        if (original instanceof TextMessage) {
+            return session.createTextMessage(((TextMessage) original).getText());
+        }
+        return session.createMessage();
+    }
+
+    /**
+     * Corpo del messaggio oppure, oltre la soglia del claim-check, riferimento al payload in MARTINI_PAYLOAD
+     * (scritto nella transazione JTA corrente).
+     */
+    private static void writePayload(BytesMessage message, byte[] payload) throws JMSException {
+        String reference;
+        try {
+            reference = ClaimCheck.storeIfLarge(payload);
+        } catch (SQLException e) {
+            JMSException jmsException = new JMSException("Claim-check del payload fallito: " + e.getMessage());
+            jmsException.setLinkedException(e);
+            throw jmsException;
+        }
+        if (reference != null) {
+            message.setStringProperty(ClaimCheck.REFERENCE_PROPERTY, reference);
+        } else {
+            message.writeBytes(payload);
+        }
+    }
+
+    /**
+     * Priorità del messaggio ricevuto (JMSPriority) oppure, per i messaggi ricostruiti dagli store, quella configurata.
+     */
+    private static int priority(ProcessMessage processMessage) {
+        return processMessage.getPriority() != null
+               ? processMessage.getPriority()
+               : MessagePriority.resolve(processMessage.getMessageName(), null);
+    }
+
+    private static byte[] encode(ProcessMessageCodec codec, ProcessMessage processMessage) {
+        try {
+            return codec.encode(processMessage);
+        } catch (IOException | IllegalArgumentException e) {
+            logger.debug("ProcessMessagePublisher: Formato '{}' non applicabile ({}), uso ObjectMessage", codec.format(), e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Lookup anticipato di connection factory e code (coda principale, corsia prioritaria, DLQ) e prima
+     * connessione del pool, così il primo messaggio non paga JNDI e handshake con il broker (warm-up).
+     */
+    static void preload() throws JMSException {
+        lookupDestination(QUEUE_JNDI);
+        if (MessagePriority.lanesEnabled()) {
+            lookupDestination(QUEUE_JNDI + MessagePriority.LANE_SUFFIX);
+        }
+        lookupDestination(RetryPolicy.DLQ_JNDI);
+        try (JMSContext context = connectionFactory().createContext()) {
+            context.createProducer();
+        } catch (JMSRuntimeException e) {
+            JMSException jmsException = new JMSException(e.getMessage(), e.getErrorCode());
+            jmsException.initCause(e);
+            throw jmsException;
+        }
+    }
+
+    private static ConnectionFactory connectionFactory() throws JMSException {
+        if (connectionFactory == null) {
+            connectionFactory = (ConnectionFactory) lookup(CONNECTION_FACTORY_JNDI);
+        }
+        return connectionFactory;
+    }
+
+    static Destination lookupDestination(String jndiName) throws JMSException {
+        Destination destination = DESTINATIONS.get(jndiName);
+        if (destination == null) {
+            destination = (Destination) lookup(jndiName);
+            DESTINATIONS.put(jndiName, destination);
+        }
+        return destination;
+    }
+
+    private static Object lookup(String jndiName) throws JMSException {
+        try {
+            return new InitialContext().lookup(jndiName);
+        } catch (NamingException e) {
+            JMSException jmsException = new JMSException("JNDI lookup fallito per '" + jndiName + "'");
+            jmsException.setLinkedException(e);
+            throw jmsException;
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package com.martinispec.jms;
+
+import com.martinispec.model.ProcessMessage;
+import org.kie.server.api.exception.KieServicesHttpException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageFormatException;
+import javax.jms.Session;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+
+/**
+ * Politica di retry dei messaggi di PROCESS.MESSAGES che non è stato possibile elaborare.
+ *
+ * Invece di rilanciare l'eccezione (redelivery immediata dal broker, che in caso di KIE Server lento
+ * o non disponibile produce raffiche di tentativi), il messaggio viene confermato e:
+ * - errore transitorio (I/O, timeout, 5xx, 404 del container, ...): ripubblicato con consegna ritardata,
+ *   backoff esponenziale con jitter, fino a martini.retry.maxAttempts tentativi
+ * - errore permanente (payload o parametri non validi, 4xx): inviato subito alla DLQ
+ * - nessun processo/istanza trovato: ritentato come un errore transitorio (deploy del container in corso,
+ *   istanza non ancora indicizzata), poi DLQ
+ * - tentativi esauriti: DLQ
+ *
+ * La copia ritardata e il messaggio in DLQ portano le proprietà originali più quelle diagnostiche
+ * (martiniRetryAttempt, martiniDeadLetterReason, ...). Sono inviati sulla sessione indicata
+ * (pipeline asincrona, consumer batch) oppure, con session null, su java:/JmsXA nella transazione JTA
+ * corrente (MDB): in entrambi i casi sono atomici con l'ack del messaggio ricevuto.
+ *
+ * Configurazione:
+ *   -Dmartini.retry.enabled=true             (false = comportamento precedente: redelivery dal broker)
+ *   -Dmartini.retry.maxAttempts=5
+ *   -Dmartini.retry.initialDelay=1000        (ms)
+ *   -Dmartini.retry.multiplier=2.0
+ *   -Dmartini.retry.maxDelay=300000          (ms)
+ *   -Dmartini.retry.permanent=com.acme.ValidationException,...   (eccezioni permanenti aggiuntive)
+ *   -Dmartini.retry.dlq.jndi=java:/jms/queue/PROCESS.MESSAGES.DLQ
+ */
+final class RetryPolicy {
+
+    private static final Logger logger = LoggerFactory.getLogger(RetryPolicy.class);
+
+    /** Tentativi di retry già effettuati per il messaggio. */
+    static final String RETRY_ATTEMPT_PROPERTY = "martiniRetryAttempt";
+    /**
+     * UNMATCHED, PERMANENT, EXHAUSTED, EXPIRED (messaggio in attesa scaduto) o UNDECODABLE (messaggio in attesa
+     * non decodificabile), vedi PendingMessageBuffer.
+     */
+    static final String DLQ_REASON_PROPERTY = "martiniDeadLetterReason";
+    /** Classe e messaggio dell'ultimo errore. */
+    static final String DLQ_ERROR_PROPERTY = "martiniDeadLetterError";
+    /** Timestamp (epoch millis) dell'invio in DLQ. */
+    static final String DLQ_TIME_PROPERTY = "martiniDeadLetterTime";
+    /** JMSMessageID del primo messaggio della catena di retry. */
+    static final String ORIGINAL_MESSAGE_ID_PROPERTY = "martiniOriginalMessageId";
+
+    static final String DLQ_JNDI = System.getProperty("martini.retry.dlq.jndi", "java:/jms/queue/PROCESS.MESSAGES.DLQ");
+
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("martini.retry.enabled", "true"));
+    private static final int MAX_ATTEMPTS = Integer.getInteger("martini.retry.maxAttempts", 5);
+    private static final long INITIAL_DELAY = Long.getLong("martini.retry.initialDelay", 1000L);
+    private static final double MULTIPLIER = Double.parseDouble(System.getProperty("martini.retry.multiplier", "2.0"));
+    private static final long MAX_DELAY = Long.getLong("martini.retry.maxDelay", 300_000L);
+    private static final Set<String> PERMANENT_ERRORS = parseClassNames(System.getProperty("martini.retry.permanent", ""));
+
+    // Risposte KIE Server che non cambiano ripetendo la stessa richiesta
+    private static final Set<Integer> PERMANENT_HTTP_CODES = new HashSet<>(Arrays.asList(400, 403, 405, 415, 422));
+    private static final int MAX_ERROR_LENGTH = 1000;
+
+    enum Reason { UNMATCHED, PERMANENT, EXHAUSTED, EXPIRED, UNDECODABLE }
+
+    private RetryPolicy() {
+    }
+
+    static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Gestisce un messaggio la cui elaborazione è fallita: retry ritardato o DLQ.
+     *
+     * @param session Sessione transacted del messaggio ricevuto, null per JmsXA (transazione JTA corrente)
+     * @throws JMSException se la ripubblicazione fallisce: il chiamante deve ricorrere alla redelivery del broker
+     */
+    static void onFailure(Session session, Message jmsMessage, String messageName, Throwable error) throws JMSException {
+        onFailure(session, jmsMessage, messageName, error, Collections.emptyMap());
+    }
+
+    /**
+     * Come {@link #onFailure(Session, Message, String, Throwable)}, con proprietà che sostituiscono quelle
+     * della copia (es. martiniTargetInstances per ritentare solo le istanze fallite di un signal).
+     */
+    static void onFailure(Session session, Message jmsMessage, String messageName, Throwable error,
+                          Map<String, Object> overrides) throws JMSException {
+        if (!isTransient(error)) {
+            deadLetter(session, jmsMessage, messageName, Reason.PERMANENT, describe(error), overrides);
+        } else {
+            retryOrDeadLetter(session, jmsMessage, messageName, describe(error), overrides);
+        }
+    }
+
+    /**
+     * Gestisce un messaggio senza processo da avviare né istanze correlate: retry ritardato, poi DLQ.
+     */
+    static void onUnmatched(Session session, Message jmsMessage, String messageName, String detail) throws JMSException {
+        int attempt = attempts(jmsMessage) + 1;
+        if (attempt > MAX_ATTEMPTS) {
+            deadLetter(session, jmsMessage, messageName, Reason.UNMATCHED, detail, Collections.emptyMap());
+        } else {
+            retry(session, jmsMessage, messageName, attempt, detail, Collections.emptyMap());
+        }
+    }
+
+    private static void retryOrDeadLetter(Session session, Message jmsMessage, String messageName, String error,
+                                          Map<String, Object> overrides) throws JMSException {
+        int attempt = attempts(jmsMessage) + 1;
+        if (attempt > MAX_ATTEMPTS) {
+            deadLetter(session, jmsMessage, messageName, Reason.EXHAUSTED, error, overrides);
+        } else {
+            retry(session, jmsMessage, messageName, attempt, error, overrides);
+        }
+    }
+
+    private static void retry(Session session, Message jmsMessage, String messageName, int attempt, String error,
+                              Map<String, Object> overrides) throws JMSException {
+        long delay = backoff(attempt);
+        Map<String, Object> properties = new HashMap<>(overrides);
+        properties.put(RETRY_ATTEMPT_PROPERTY, attempt);
+        properties.put(ORIGINAL_MESSAGE_ID_PROPERTY, originalMessageId(jmsMessage));
+        ProcessMessagePublisher.forward(session, jmsMessage, jmsMessage.getJMSDestination(), delay, properties);
+        ListenerMetrics.retried(messageName);
+        logger.warn("RetryPolicy: Messaggio '{}' ritentato tra {} ms (tentativo {}/{}): {}",
+                    messageName, delay, attempt, MAX_ATTEMPTS, error);
+    }
+
+    private static void deadLetter(Session session, Message jmsMessage, String messageName, Reason reason, String error,
+                                   Map<String, Object> overrides) throws JMSException {
+        Map<String, Object> properties = new HashMap<>(overrides);
+        properties.put(DLQ_REASON_PROPERTY, reason.name());
+        properties.put(DLQ_ERROR_PROPERTY, error);
+        properties.put(DLQ_TIME_PROPERTY, System.currentTimeMillis());
+        properties.put(RETRY_ATTEMPT_PROPERTY, attempts(jmsMessage));
+        properties.put(ORIGINAL_MESSAGE_ID_PROPERTY, originalMessageId(jmsMessage));
+        ProcessMessagePublisher.forward(session, jmsMessage, ProcessMessagePublisher.lookupDestination(DLQ_JNDI), 0L, properties);
+        ListenerMetrics.deadLettered(reason.name(), messageName);
+        logger.error("RetryPolicy: Messaggio '{}' inviato in DLQ ({}, {} tentativi): {}",
+                     messageName, reason, attempts(jmsMessage), error);
+    }
+
+    /**
+     * Invia in DLQ un messaggio che non corrisponde più a un messaggio JMS ricevuto
+     * (es. scaduto nello store dei messaggi in attesa), nella transazione JTA corrente.
+     */
+    static void deadLetter(ProcessMessage processMessage, Reason reason, String error) throws JMSException {
+        deadLetter(processMessage, reason, error, Collections.emptyMap());
+    }
+
+    /**
+     * Come deadLetter(ProcessMessage, Reason, String), con proprietà diagnostiche aggiuntive.
+     */
+    static void deadLetter(ProcessMessage processMessage, Reason reason, String error, Map<String, Object> extra)
+            throws JMSException {
+        Map<String, Object> properties = new HashMap<>(extra);
+        properties.put(DLQ_REASON_PROPERTY, reason.name());
+        properties.put(DLQ_ERROR_PROPERTY, error);
+        properties.put(DLQ_TIME_PROPERTY, System.currentTimeMillis());
+        ProcessMessagePublisher.publish(processMessage, ProcessMessagePublisher.lookupDestination(DLQ_JNDI), properties);
+        ListenerMetrics.deadLettered(reason.name(), processMessage.getMessageName());
+        logger.error("RetryPolicy: Messaggio '{}' inviato in DLQ ({}): {}", processMessage.getMessageName(), reason, error);
+    }
+
+    /**
+     * Classifica l'errore risalendo la catena delle cause: permanente se una delle cause
+     * non può cambiare ripetendo la richiesta, transitorio altrimenti.
+     */
+    static boolean isTransient(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause() == t ? null : t.getCause()) {
+            if (t instanceof IllegalArgumentException
+                || t instanceof ClassCastException
+                || t instanceof UnsupportedOperationException
+                || t instanceof MessageFormatException
+                || PERMANENT_ERRORS.contains(t.getClass().getName())
+                // ProcessDefinitionNotFoundException (dispatch embedded): per nome, jbpm-services-api è opzionale
+                || t.getClass().getName().equals("org.jbpm.services.api.ProcessDefinitionNotFoundException")) {
+                return false;
+            }
+            if (t instanceof KieServicesHttpException) {
+                Integer code = ((KieServicesHttpException) t).getHttpCode();
+                return code == null || !PERMANENT_HTTP_CODES.contains(code);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Ritardo del tentativo (1 = primo retry): initialDelay * multiplier^(attempt-1),
+     * limitato a maxDelay, con jitter ±20% per non riallineare i retry di messaggi falliti insieme.
+     */
+    static long backoff(int attempt) {
+        double delay = INITIAL_DELAY * Math.pow(MULTIPLIER, Math.max(0, attempt - 1));
+        delay = Math.min(delay, MAX_DELAY);
+        return Math.max(0L, (long) (delay * ThreadLocalRandom.current().nextDouble(0.8, 1.2)));
+    }
+
+    static int attempts(Message jmsMessage) throws JMSException {
+        return jmsMessage.propertyExists(RETRY_ATTEMPT_PROPERTY) ? jmsMessage.getIntProperty(RETRY_ATTEMPT_PROPERTY) : 0;
+    }
+
+    private static String originalMessageId(Message jmsMessage) throws JMSException {
+        String original = jmsMessage.getStringProperty(ORIGINAL_MESSAGE_ID_PROPERTY);
+        return original != null ? original : jmsMessage.getJMSMessageID();
+    }
+
+    private static String describe(Throwable error) {
+        Throwable root = error;
+        while (root.getCause() != null && root.getCause() != root) {
+            root = root.getCause();
+        }
+        String text = root.getClass().getName() + ": " + root.getMessage();
+        return text.length() > MAX_ERROR_LENGTH ? text.substring(0, MAX_ERROR_LENGTH) : text;
+    }
+
+    private static Set<String> parseClassNames(String value) {
+        return Arrays.stream(value.split(","))
+                     .map(String::trim)
+                     .filter(name -> !name.isEmpty())
+                     .collect(Collectors.toSet());
+    }
+}
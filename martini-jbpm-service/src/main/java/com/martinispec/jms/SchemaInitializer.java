@@ -0,0 +1,69 @@
+package com.martinispec.jms;
+
+import com.martinispec.model.store.AggregationStore;
+import com.martinispec.model.store.CorrelationIndexStore;
+import com.martinispec.model.store.JdbcStore;
+import com.martinispec.model.store.OutboxStore;
+import com.martinispec.model.store.PayloadStore;
+import com.martinispec.model.store.PendingMessageStore;
+import com.martinispec.model.store.ProcessedMessageStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PostConstruct;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.LocalBean;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Crea all'avvio le tabelle di supporto (MARTINI_*) nel datasource martini.datasource.
+ *
+ * Il DDL viene eseguito fuori transazione (NOT_SUPPORTED), su connessioni in autocommit: dentro la
+ * transazione JTA del motore o del listener diversi database eseguirebbero un commit implicito.
+ * Le tabelle lette e scritte dal KJAR (indice delle correlation key, messaggi in attesa, outbox, payload)
+ * vengono create qui; se il servizio non è deployato, o il DDL non è consentito all'utente applicativo,
+ * si usa lo script martini-schema.sql e si disattiva la creazione:
+ *   -Dmartini.schema.create=false   (default true)
+ */
+@Singleton
+@Startup
+@LocalBean
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class SchemaInitializer {
+
+    private static final Logger logger = LoggerFactory.getLogger(SchemaInitializer.class);
+
+    private static final boolean CREATE = Boolean.parseBoolean(System.getProperty("martini.schema.create", "true"));
+
+    @PostConstruct
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    void init() {
+        if (!CREATE) {
+            return;
+        }
+        String jndiName = JdbcStore.DATASOURCE_JNDI;
+        List<JdbcStore> stores = Arrays.asList(CorrelationIndexStore.fromJndi(jndiName),
+                                               PendingMessageStore.fromJndi(jndiName),
+                                               ProcessedMessageStore.fromJndi(jndiName),
+                                               OutboxStore.fromJndi(jndiName),
+                                               PayloadStore.fromJndi(jndiName),
+                                               AggregationStore.fromJndi(jndiName));
+        for (JdbcStore store : stores) {
+            try {
+                store.createSchema();
+            } catch (SQLException e) {
+                // Il servizio resta deployato: gli store segnalano la tabella mancante al primo accesso
+                logger.error("SchemaInitializer: Creazione dello schema fallita ({}): {}",
+                             store.getClass().getSimpleName(), e.getMessage(), e);
+            }
+        }
+        logger.info("SchemaInitializer: Schema verificato sul datasource {}", jndiName);
+    }
+}
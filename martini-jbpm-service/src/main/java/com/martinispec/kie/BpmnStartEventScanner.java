@@ -0,0 +1,136 @@
+package com.martinispec.kie;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Estrae dai file BPMN di un KJAR gli start event di tipo message/signal.
+ *
+ * Restituisce la mappa nome messaggio → processId usata dalla tabella di routing:
+ * - startEvent con messageEventDefinition: chiave = name (e id) del bpmn2:message referenziato
+ * - startEvent con signalEventDefinition: chiave = name (e id) del bpmn2:signal referenziato
+ */
+final class BpmnStartEventScanner {
+
+    private static final Logger logger = LoggerFactory.getLogger(BpmnStartEventScanner.class);
+
+    private BpmnStartEventScanner() {
+    }
+
+    /**
+     * Analizza tutte le risorse .bpmn/.bpmn2 contenute nel jar.
+     *
+     * @param kjar File jar del KJAR
+     * @return Mappa nome messaggio → processId
+     */
+    static Map<String, String> scan(File kjar) throws IOException {
+        Map<String, String> routes = new LinkedHashMap<>();
+        try (JarFile jar = new JarFile(kjar)) {
+            Enumeration<JarEntry> entries = jar.entries();
+            while (entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                String name = entry.getName();
+                if (entry.isDirectory() || !(name.endsWith(".bpmn") || name.endsWith(".bpmn2"))) {
+                    continue;
+                }
+                try (InputStream in = jar.getInputStream(entry)) {
+                    routes.putAll(scan(in));
+                } catch (XMLStreamException e) {
+                    logger.warn("BpmnStartEventScanner: Impossibile analizzare '{}': {}", name, e.getMessage());
+                }
+            }
+        }
+        return routes;
+    }
+
+    /**
+     * Analizza una singola definizione BPMN.
+     */
+    static Map<String, String> scan(InputStream bpmn) throws XMLStreamException {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+
+        // id → name di message e signal (possono essere dichiarati prima o dopo il process)
+        Map<String, String> eventNames = new HashMap<>();
+        // [processId, ref] degli start event trovati
+        List<String[]> startRefs = new ArrayList<>();
+
+        XMLStreamReader reader = factory.createXMLStreamReader(bpmn);
+        try {
+            String processId = null;
+            boolean inStartEvent = false;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    switch (reader.getLocalName()) {
+                        case "message":
+                        case "signal":
+                            String id = reader.getAttributeValue(null, "id");
+                            String name = reader.getAttributeValue(null, "name");
+                            if (id != null) {
+                                eventNames.put(id, name != null ? name : id);
+                            }
+                            break;
+                        case "process":
+                            processId = reader.getAttributeValue(null, "id");
+                            break;
+                        case "startEvent":
+                            inStartEvent = true;
+                            break;
+                        case "messageEventDefinition":
+                            if (inStartEvent && processId != null) {
+                                startRefs.add(new String[] { processId, reader.getAttributeValue(null, "messageRef") });
+                            }
+                            break;
+                        case "signalEventDefinition":
+                            if (inStartEvent && processId != null) {
+                                startRefs.add(new String[] { processId, reader.getAttributeValue(null, "signalRef") });
+                            }
+                            break;
+                        default:
+                            break;
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    if ("startEvent".equals(reader.getLocalName())) {
+                        inStartEvent = false;
+                    } else if ("process".equals(reader.getLocalName())) {
+                        processId = null;
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        Map<String, String> routes = new LinkedHashMap<>();
+        for (String[] start : startRefs) {
+            String ref = start[1];
+            if (ref == null) {
+                continue;
+            }
+            routes.put(ref, start[0]);
+            String name = eventNames.get(ref);
+            if (name != null) {
+                routes.put(name, start[0]);
+            }
+        }
+        return routes;
+    }
+}
@@ -0,0 +1,122 @@
+package com.martinispec.kie;
+
+import org.kie.api.builder.ReleaseIdComparator;
+import org.kie.server.api.model.KieContainerResource;
+import org.kie.server.api.model.KieContainerResourceList;
+import org.kie.server.api.model.KieContainerStatus;
+import org.kie.server.api.model.ReleaseId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.LocalBean;
+import javax.ejb.Singleton;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Risolve il container target di un messaggio (id del container o alias) nei container KIE effettivi.
+ *
+ * Durante un rolling upgrade più versioni del KJAR sono deployate insieme con lo stesso alias:
+ * - un alias corrisponde a tutti i container avviati con quell'alias, dalla versione più recente
+ *   (i nuovi processi partono nella più recente, i signal raggiungono le istanze in tutte le versioni)
+ * - un id di container corrisponde solo a se stesso
+ * - un messaggio senza target usa kie.container.id (id o alias)
+ *
+ * L'elenco dei container viene letto da KIE Server al massimo una volta ogni
+ * martini.routing.refresh.interval ms (default 60000), non per ogni messaggio; invalidate() forza
+ * la rilettura (es. container non trovato).
+ */
+@Singleton
+@LocalBean
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class ContainerResolver {
+
+    private static final Logger logger = LoggerFactory.getLogger(ContainerResolver.class);
+
+    private static final String DEFAULT_TARGET = System.getProperty("kie.container.id", "martiniavicolo_1.0.0-SNAPSHOT");
+    private static final long REFRESH_INTERVAL = Long.getLong("martini.routing.refresh.interval", 60000L);
+
+    private static final Comparator<KieContainerResource> LATEST_FIRST = Comparator.comparing(
+            ContainerResolver::releaseOf, new ReleaseIdComparator(ReleaseIdComparator.SortDirection.DESCENDING));
+
+    @EJB
+    private KieClientProvider kieClient;
+
+    // target (id o alias) -> container effettivi, dal più recente
+    private volatile Map<String, List<String>> targets = Collections.emptyMap();
+    private volatile long loadedAt;
+
+    /**
+     * @param target Id del container, alias oppure null per il container di default
+     * @return Container effettivi, dalla versione più recente (mai vuota: un target sconosciuto resta com'è)
+     */
+    public List<String> resolve(String target) {
+        String key = target == null || target.trim().isEmpty() ? DEFAULT_TARGET : target.trim();
+        if (System.currentTimeMillis() - loadedAt > REFRESH_INTERVAL) {
+            reload();
+        }
+        List<String> containers = targets.get(key);
+        return containers != null ? containers : Collections.singletonList(key);
+    }
+
+    /**
+     * Container in cui avviare un nuovo processo: la versione più recente del target.
+     */
+    public String latest(String target) {
+        return resolve(target).get(0);
+    }
+
+    /**
+     * Forza la rilettura dei container al prossimo messaggio.
+     */
+    public void invalidate() {
+        loadedAt = 0L;
+    }
+
+    private synchronized void reload() {
+        if (System.currentTimeMillis() - loadedAt <= REFRESH_INTERVAL) {
+            return;
+        }
+        try {
+            KieContainerResourceList list = kieClient.execute(client -> client.listContainers().getResult());
+            List<KieContainerResource> started = new ArrayList<>();
+            if (list != null && list.getContainers() != null) {
+                for (KieContainerResource container : list.getContainers()) {
+                    if (container.getStatus() == KieContainerStatus.STARTED) {
+                        started.add(container);
+                    }
+                }
+            }
+            started.sort(LATEST_FIRST);
+
+            Map<String, List<String>> resolved = new HashMap<>();
+            for (KieContainerResource container : started) {
+                String alias = container.getContainerAlias();
+                if (alias != null && !alias.isEmpty()) {
+                    resolved.computeIfAbsent(alias, k -> new ArrayList<>()).add(container.getContainerId());
+                }
+            }
+            // Un id di container prevale su un alias con lo stesso nome
+            for (KieContainerResource container : started) {
+                resolved.put(container.getContainerId(), Collections.singletonList(container.getContainerId()));
+            }
+            targets = resolved;
+            logger.debug("ContainerResolver: Container risolti: {}", resolved);
+        } catch (RuntimeException e) {
+            // Si continua con l'ultimo elenco noto (o con i target così come sono)
+            logger.warn("ContainerResolver: Lettura dei container da KIE Server fallita: {}", e.getMessage());
+        }
+        loadedAt = System.currentTimeMillis();
+    }
+
+    private static ReleaseId releaseOf(KieContainerResource container) {
+        return container.getResolvedReleaseId() != null ? container.getResolvedReleaseId() : container.getReleaseId();
+    }
+}
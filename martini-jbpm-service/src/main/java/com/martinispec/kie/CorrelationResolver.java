@@ -0,0 +1,152 @@
+package com.martinispec.kie;
+
+import com.martinispec.model.store.CorrelationIndexStore;
+import com.martinispec.model.store.JdbcStore;
+import org.kie.server.api.model.instance.ProcessInstance;
+import org.kie.server.client.QueryServicesClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.LocalBean;
+import javax.ejb.Singleton;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Risolve una correlation key nelle istanze di processo attive.
+ *
+ * Usa l'indice MARTINI_CORRELATION_INDEX (alimentato dal CorrelationIndexEventListener del KJAR):
+ * una sola query indicizzata. Se l'indice non è disponibile (datasource non raggiungibile)
+ * ripiega sulla scansione delle variabili delle istanze attive, limitata alla prima pagina.
+ *
+ * L'indice contiene solo le variabili configurate (martini.correlation.variables), mentre la scansione
+ * confrontava qualsiasi variabile String. Per correlare su variabili non indicizzate durante la migrazione:
+ *   -Dmartini.correlation.scanFallback=true   (scansione anche quando l'indice non trova istanze)
+ */
+@Singleton
+@LocalBean
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class CorrelationResolver {
+
+    private static final Logger logger = LoggerFactory.getLogger(CorrelationResolver.class);
+
+    private static final boolean SCAN_FALLBACK = Boolean.getBoolean("martini.correlation.scanFallback");
+
+    @EJB
+    private KieClientProvider kieClient;
+
+    private volatile CorrelationIndexStore correlationIndex;
+
+    /**
+     * @param containerId Container in cui cercare
+     * @param correlationKey Valore della correlation key
+     * @return ID delle istanze attive correlate (vuota se nessuna)
+     */
+    public List<Long> resolve(String containerId, String correlationKey) {
+        try {
+            List<Long> instanceIds = getCorrelationIndex().findInstances(containerId, correlationKey);
+            return instanceIds.isEmpty() && SCAN_FALLBACK ? resolveByScan(containerId, correlationKey) : instanceIds;
+        } catch (SQLException | IllegalStateException e) {
+            logger.warn("CorrelationResolver: Indice di correlazione non disponibile ({}), uso la scansione dei processi attivi",
+                        e.getMessage());
+            return resolveByScan(containerId, correlationKey);
+        }
+    }
+
+    /**
+     * Risolve la correlation key in più container (versioni di un alias) con una sola query sull'indice.
+     *
+     * @param containerIds Container in cui cercare, dal più recente
+     * @param correlationKey Valore della correlation key
+     * @return ID delle istanze attive per container, solo i container con almeno un'istanza
+     */
+    public Map<String, List<Long>> resolve(List<String> containerIds, String correlationKey) {
+        if (containerIds.size() == 1) {
+            List<Long> instanceIds = resolve(containerIds.get(0), correlationKey);
+            return instanceIds.isEmpty() ? Collections.emptyMap() : Collections.singletonMap(containerIds.get(0), instanceIds);
+        }
+        try {
+            Map<String, List<Long>> byContainer = getCorrelationIndex().findInstances(containerIds, correlationKey);
+            return byContainer.isEmpty() && SCAN_FALLBACK ? resolveByScan(containerIds, correlationKey) : byContainer;
+        } catch (SQLException | IllegalStateException e) {
+            logger.warn("CorrelationResolver: Indice di correlazione non disponibile ({}), uso la scansione dei processi attivi",
+                        e.getMessage());
+            return resolveByScan(containerIds, correlationKey);
+        }
+    }
+
+    private Map<String, List<Long>> resolveByScan(List<String> containerIds, String correlationKey) {
+        Map<String, List<Long>> byContainer = new LinkedHashMap<>();
+        for (String containerId : containerIds) {
+            List<Long> instanceIds = resolveByScan(containerId, correlationKey);
+            if (!instanceIds.isEmpty()) {
+                byContainer.put(containerId, instanceIds);
+            }
+        }
+        return byContainer;
+    }
+
+    private CorrelationIndexStore getCorrelationIndex() {
+        CorrelationIndexStore current = correlationIndex;
+        if (current == null) {
+            synchronized (this) {
+                current = correlationIndex;
+                if (current == null) {
+                    current = CorrelationIndexStore.fromJndi(JdbcStore.DATASOURCE_JNDI);
+                    correlationIndex = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Scansione legacy: confronta le variabili delle prime 100 istanze attive con la correlationKey.
+     */
+    private List<Long> resolveByScan(String containerId, String correlationKey) {
+        List<Integer> statuses = Collections.singletonList(org.kie.api.runtime.process.ProcessInstance.STATE_ACTIVE);
+        List<ProcessInstance> activeInstances = kieClient.execute(client ->
+                client.getServicesClient(QueryServicesClient.class).findProcessInstancesByContainerId(containerId, statuses, 0, 100));
+
+        List<Long> matches = new ArrayList<>();
+        for (ProcessInstance instance : activeInstances) {
+            if (matches(instance.getVariables(), correlationKey)) {
+                matches.add(instance.getId());
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Confronto delle variabili di un'istanza con la correlationKey.
+     *
+     * Strategia:
+     * 1. Prima cerca una variabile chiamata "correlationKey" (convenzione standard)
+     * 2. Se non trovata, cerca tra TUTTE le variabili String che matchano il valore
+     */
+    static boolean matches(Map<String, Object> processVars, String correlationKey) {
+        if (processVars == null || processVars.isEmpty()) {
+            return false;
+        }
+
+        Object correlationKeyValue = processVars.get("correlationKey");
+        if (correlationKeyValue != null && Objects.equals(String.valueOf(correlationKeyValue), correlationKey)) {
+            return true;
+        }
+        // Confronta solo variabili String per evitare falsi positivi con numeri/boolean
+        for (Object value : processVars.values()) {
+            if (value instanceof String && Objects.equals(value, correlationKey)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,80 @@
+package com.martinispec.kie;
+
+import org.jbpm.services.api.ProcessService;
+import org.kie.server.services.api.KieServerExtension;
+import org.kie.server.services.impl.KieServerImpl;
+import org.kie.server.services.impl.KieServerLocator;
+
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Dispatch in-JVM tramite il ProcessService di jBPM, senza passare dal REST di KIE Server.
+ *
+ * Il ProcessService viene cercato:
+ * 1. via JNDI, se configurato con -Dmartini.dispatch.embedded.jndi
+ * 2. nel registro delle estensioni di KIE Server (estensione "jBPM") deployato nella stessa JVM;
+ *    richiede la dipendenza opzionale su deployment.kie-server.war (jboss-deployment-structure.xml)
+ *
+ * Le chiamate partecipano alla transazione JTA del chiamante: con l'MDB, avvio/signal e ack
+ * del messaggio sono atomici.
+ */
+class EmbeddedProcessDispatcher implements ProcessDispatcher {
+
+    private static final String JBPM_EXTENSION = "jBPM";
+
+    private final ProcessService processService;
+
+    private EmbeddedProcessDispatcher(ProcessService processService) {
+        this.processService = processService;
+    }
+
+    /**
+     * Crea il dispatcher se il ProcessService di jBPM è raggiungibile in questa JVM.
+     *
+     * @param jndiName Nome JNDI del ProcessService (opzionale)
+     * @throws IllegalStateException se il ProcessService non è disponibile
+     */
+    static EmbeddedProcessDispatcher create(String jndiName) {
+        if (jndiName != null && !jndiName.trim().isEmpty()) {
+            try {
+                return new EmbeddedProcessDispatcher((ProcessService) new InitialContext().lookup(jndiName.trim()));
+            } catch (NamingException e) {
+                throw new IllegalStateException("ProcessService non trovato in JNDI '" + jndiName + "'", e);
+            }
+        }
+        KieServerImpl kieServer = KieServerLocator.getInstance();
+        KieServerExtension extension = kieServer != null ? kieServer.getServerRegistry().getServerExtension(JBPM_EXTENSION) : null;
+        if (extension == null) {
+            throw new IllegalStateException("Estensione jBPM di KIE Server non disponibile in questa JVM");
+        }
+        for (Object service : extension.getServices()) {
+            if (service instanceof ProcessService) {
+                return new EmbeddedProcessDispatcher((ProcessService) service);
+            }
+        }
+        throw new IllegalStateException("ProcessService non registrato nell'estensione jBPM di KIE Server");
+    }
+
+    @Override
+    public Long startProcess(String containerId, String processId, Map<String, Object> variables) {
+        return processService.startProcess(containerId, processId, variables);
+    }
+
+    @Override
+    public void signalProcessInstance(String containerId, Long processInstanceId, String signalName, Object event) {
+        processService.signalProcessInstance(containerId, processInstanceId, signalName, event);
+    }
+
+    @Override
+    public Collection<String> availableSignals(String containerId, Long processInstanceId) {
+        return processService.getAvailableSignals(containerId, processInstanceId);
+    }
+
+    @Override
+    public String mode() {
+        return "embedded";
+    }
+}
@@ -0,0 +1,33 @@
+package com.martinispec.kie;
+
+/**
+ * Metriche JMX del client KIE Server condiviso.
+ *
+ * Registrato come "com.martinispec:type=KieClientPool".
+ */
+public interface KieClientPoolMXBean {
+
+    /** Numero massimo di chiamate concorrenti verso KIE Server. */
+    int getMaxConcurrentCalls();
+
+    /** Chiamate attualmente in corso. */
+    int getInFlightCalls();
+
+    /** Picco di chiamate concorrenti osservato. */
+    int getPeakInFlightCalls();
+
+    /** Chiamate che hanno dovuto attendere un permesso libero (pool saturo). */
+    long getSaturatedAcquisitions();
+
+    /** Chiamate rifiutate per timeout di acquisizione. */
+    long getRejectedAcquisitions();
+
+    /** Numero di volte che il client è stato ricreato. */
+    long getRebuildCount();
+
+    /** Esito dell'ultimo health check. */
+    boolean isHealthy();
+
+    /** Timestamp (epoch millis) dell'ultimo health check. */
+    long getLastHealthCheckTime();
+}
@@ -0,0 +1,304 @@
+package com.martinispec.kie;
+
+import org.kie.server.api.exception.KieServicesHttpException;
+import org.kie.server.api.marshalling.MarshallingFormat;
+import org.kie.server.api.model.KieServiceResponse;
+import org.kie.server.api.model.KieServerInfo;
+import org.kie.server.api.model.ServiceResponse;
+import org.kie.server.client.KieServicesClient;
+import org.kie.server.client.KieServicesConfiguration;
+import org.kie.server.client.KieServicesFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.LocalBean;
+import javax.ejb.Singleton;
+import javax.ejb.Timeout;
+import javax.ejb.Timer;
+import javax.ejb.TimerConfig;
+import javax.ejb.TimerService;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Client KIE Server condiviso e thread-safe per tutta l'applicazione.
+ *
+ * Sostituisce la creazione di un KieServicesClient per ogni messaggio JMS:
+ * - il client viene creato una sola volta (lazy) e riusato da tutte le istanze dell'MDB
+ * - le capabilities sono dichiarate in configurazione, quindi non c'è handshake con il server
+ * - le chiamate concorrenti sono limitate da un pool di permessi (kie.client.pool.size)
+ * - un health check periodico verifica il server; se la connessione non si apre (o il gateway risponde
+ *   502/503) il client viene ricreato e la chiamata ripetuta una volta, in modo trasparente per il chiamante.
+ *   Timeout di lettura e altri errori di I/O non vengono ripetuti: start, signal e CommandScript non sono
+ *   idempotenti e la richiesta potrebbe essere già stata eseguita da KIE Server
+ *
+ * Le connessioni HTTP keep-alive sono gestite dal JDK (HttpURLConnection): il numero di
+ * connessioni idle mantenute per host si configura con -Dhttp.maxConnections, che conviene
+ * allineare a kie.client.pool.size.
+ */
+@Singleton
+@LocalBean
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class KieClientProvider implements KieClientPoolMXBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(KieClientProvider.class);
+
+    // KIE Server configuration
+    private static final String KIE_SERVER_URL = System.getProperty("kie.server.url",
+                                                                     "http://localhost:8080/kie-server/services/rest/server");
+    private static final String KIE_SERVER_USER = System.getProperty("kie.server.user", "kieserver");
+    private static final String KIE_SERVER_PASSWORD = System.getProperty("kie.server.password", "kieserver1!");
+    private static final long KIE_SERVER_TIMEOUT = Long.getLong("kie.server.timeout", 30000L);
+
+    // Pool configuration
+    private static final int POOL_SIZE = Integer.getInteger("kie.client.pool.size", 20);
+    private static final long ACQUIRE_TIMEOUT = Long.getLong("kie.client.pool.acquire.timeout", 30000L);
+    private static final long HEALTH_CHECK_INTERVAL = Long.getLong("kie.client.health.interval", 30000L);
+
+    private static final String MBEAN_NAME = "com.martinispec:type=KieClientPool";
+
+    private final Semaphore permits = new Semaphore(POOL_SIZE, true);
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+    private final AtomicLong saturated = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong rebuilds = new AtomicLong();
+
+    private volatile KieServicesClient client;
+    private volatile boolean healthy = true;
+    private volatile long lastHealthCheck;
+
+    @Resource
+    private TimerService timerService;
+
+    @PostConstruct
+    void init() {
+        if (HEALTH_CHECK_INTERVAL > 0) {
+            timerService.createIntervalTimer(HEALTH_CHECK_INTERVAL, HEALTH_CHECK_INTERVAL, new TimerConfig(null, false));
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(MBEAN_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+            }
+        } catch (Exception e) {
+            logger.warn("KieClientProvider: Registrazione MBean fallita: {}", e.getMessage());
+        }
+        logger.info("KieClientProvider: Pool KIE Server inizializzato (url: {}, maxConcurrentCalls: {})", KIE_SERVER_URL, POOL_SIZE);
+    }
+
+    @PreDestroy
+    void destroy() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(MBEAN_NAME));
+        } catch (Exception e) {
+            logger.debug("KieClientProvider: Deregistrazione MBean fallita: {}", e.getMessage());
+        }
+        closeClient(client);
+        client = null;
+    }
+
+    /**
+     * Esegue una chiamata verso KIE Server usando il client condiviso.
+     *
+     * Se la connessione non si apre (es. KIE Server riavviato) il client viene ricreato e la chiamata
+     * ripetuta una sola volta; la richiesta in quel caso non ha raggiunto KIE Server.
+     *
+     * @param call Operazione da eseguire sul client
+     * @return Risultato della chiamata
+     */
+    public <T> T execute(Function<KieServicesClient, T> call) {
+        acquire();
+        try {
+            KieServicesClient current = getClient();
+            try {
+                return call.apply(current);
+            } catch (RuntimeException e) {
+                if (!isConnectionFailure(e)) {
+                    throw e;
+                }
+                logger.warn("KieClientProvider: Errore di connessione verso KIE Server ({}), ricreo il client e riprovo",
+                            e.getMessage());
+                return call.apply(rebuild(current));
+            }
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Health check periodico: verifica che KIE Server risponda e invalida il client se non raggiungibile.
+     */
+    @Timeout
+    void healthCheck(Timer timer) {
+        lastHealthCheck = System.currentTimeMillis();
+        KieServicesClient current = client;
+        if (current == null) {
+            return;
+        }
+        try {
+            ServiceResponse<KieServerInfo> response = current.getServerInfo();
+            boolean ok = response != null && response.getType() == KieServiceResponse.ResponseType.SUCCESS;
+            if (!ok) {
+                logger.warn("KieClientProvider: Health check KIE Server fallito: {}", response != null ? response.getMsg() : "null");
+            } else if (!healthy) {
+                logger.info("KieClientProvider: KIE Server di nuovo raggiungibile");
+            }
+            healthy = ok;
+        } catch (RuntimeException e) {
+            logger.warn("KieClientProvider: KIE Server non raggiungibile: {}", e.getMessage());
+            healthy = false;
+            rebuild(current);
+        }
+    }
+
+    private KieServicesClient getClient() {
+        KieServicesClient current = client;
+        if (current == null) {
+            synchronized (this) {
+                current = client;
+                if (current == null) {
+                    current = createClient();
+                    client = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Ricrea il client solo se nessun altro thread lo ha già fatto dopo il fallimento.
+     */
+    private synchronized KieServicesClient rebuild(KieServicesClient failed) {
+        if (client == failed) {
+            closeClient(failed);
+            client = createClient();
+            rebuilds.incrementAndGet();
+        }
+        return client;
+    }
+
+    private KieServicesClient createClient() {
+        KieServicesConfiguration config = KieServicesFactory.newRestConfiguration(KIE_SERVER_URL,
+                                                                                   KIE_SERVER_USER,
+                                                                                   KIE_SERVER_PASSWORD);
+        config.setTimeout(KIE_SERVER_TIMEOUT);
+        config.setMarshallingFormat(MarshallingFormat.JSON);
+        // Capabilities dichiarate: evita la chiamata di handshake al server durante la creazione
+        config.setCapabilities(Collections.singletonList("BPM"));
+        logger.info("KieClientProvider: Creato client KIE Server verso {}", KIE_SERVER_URL);
+        return KieServicesFactory.newKieServicesClient(config);
+    }
+
+    private void closeClient(KieServicesClient target) {
+        if (target == null) {
+            return;
+        }
+        try {
+            target.close();
+        } catch (RuntimeException e) {
+            logger.debug("KieClientProvider: Errore durante la chiusura del client: {}", e.getMessage());
+        }
+    }
+
+    private void acquire() {
+        try {
+            if (!permits.tryAcquire()) {
+                saturated.incrementAndGet();
+                if (!permits.tryAcquire(ACQUIRE_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                    rejected.incrementAndGet();
+                    throw new IllegalStateException("Pool KIE Server saturo: nessun permesso libero dopo " + ACQUIRE_TIMEOUT + " ms");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrotto in attesa di un permesso del pool KIE Server", e);
+        }
+        int current = inFlight.incrementAndGet();
+        peakInFlight.accumulateAndGet(current, Math::max);
+    }
+
+    private void release() {
+        inFlight.decrementAndGet();
+        permits.release();
+    }
+
+    /**
+     * Errori che garantiscono che la richiesta non è stata eseguita: connessione non aperta
+     * (ConnectException, NoRouteToHostException, UnknownHostException) oppure gateway/servizio
+     * non disponibile (502/503). Un SocketTimeoutException in lettura non è ripetibile.
+     */
+    private static boolean isConnectionFailure(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof ConnectException || t instanceof NoRouteToHostException || t instanceof UnknownHostException) {
+                return true;
+            }
+            if (t instanceof KieServicesHttpException) {
+                Integer code = ((KieServicesHttpException) t).getHttpCode();
+                return code != null && (code == 502 || code == 503);
+            }
+            if (t.getCause() == t) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    // KieClientPoolMXBean
+
+    @Override
+    public int getMaxConcurrentCalls() {
+        return POOL_SIZE;
+    }
+
+    @Override
+    public int getInFlightCalls() {
+        return inFlight.get();
+    }
+
+    @Override
+    public int getPeakInFlightCalls() {
+        return peakInFlight.get();
+    }
+
+    @Override
+    public long getSaturatedAcquisitions() {
+        return saturated.get();
+    }
+
+    @Override
+    public long getRejectedAcquisitions() {
+        return rejected.get();
+    }
+
+    @Override
+    public long getRebuildCount() {
+        return rebuilds.get();
+    }
+
+    @Override
+    public boolean isHealthy() {
+        return healthy;
+    }
+
+    @Override
+    public long getLastHealthCheckTime() {
+        return lastHealthCheck;
+    }
+}
@@ -0,0 +1,183 @@
+package com.martinispec.kie;
+
+import com.martinispec.model.metrics.MessagingMetrics;
+import org.kie.server.api.exception.KieServicesHttpException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Decoratore che limita le chiamate concorrenti verso il motore jBPM con un limite adattivo (AIMD).
+ *
+ * Ogni chiamata (avvio, signal, signal disponibili) attende un permesso; il limite:
+ * - cresce di 1 ogni "limite" chiamate riuscite entro martini.dispatch.limit.latency (default 2000 ms),
+ *   solo se il limite era effettivamente in uso (almeno metà dei permessi occupati)
+ * - si riduce di martini.dispatch.limit.backoff (default 0.75) su una chiamata più lenta della soglia
+ *   o fallita per sovraccarico (IOException/timeout, HTTP 502/503/504), al più una volta per "finestra":
+ *   le chiamate partite prima dell'ultima riduzione non la ripetono
+ * - resta tra martini.dispatch.limit.min (default 1) e martini.dispatch.limit.max (default kie.client.pool.size)
+ *
+ * I thread dell'MDB (e dei consumer batch/asincrono) restano in attesa del permesso, quindi quando KIE Server
+ * rallenta il consumo dalla coda rallenta invece di accumulare chiamate oltre il timeout del client.
+ * Se il permesso non arriva entro martini.dispatch.limit.acquire.timeout la chiamata fallisce e il messaggio
+ * segue RetryPolicy come ogni altro errore di dispatch.
+ *
+ * Metriche nel registro "service": martini_dispatch_concurrency_limit{mode} e
+ * martini_dispatch_in_flight{mode} (gauge), martini_dispatch_limit_wait_seconds{mode},
+ * martini_dispatch_limit_rejected_total{mode}.
+ */
+class LimitedProcessDispatcher implements ProcessDispatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(LimitedProcessDispatcher.class);
+
+    static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("martini.dispatch.limit.enabled", "true"));
+
+    private static final int MAX_LIMIT = Integer.getInteger("martini.dispatch.limit.max",
+                                                            Integer.getInteger("kie.client.pool.size", 20));
+    private static final int MIN_LIMIT = Math.max(1, Integer.getInteger("martini.dispatch.limit.min", 1));
+    private static final int INITIAL_LIMIT = Integer.getInteger("martini.dispatch.limit.initial", MAX_LIMIT);
+    private static final long LATENCY_THRESHOLD = TimeUnit.MILLISECONDS.toNanos(Long.getLong("martini.dispatch.limit.latency", 2000L));
+    private static final double BACKOFF = Double.parseDouble(System.getProperty("martini.dispatch.limit.backoff", "0.75"));
+    private static final long ACQUIRE_TIMEOUT = Long.getLong("martini.dispatch.limit.acquire.timeout", 30000L);
+
+    private final ProcessDispatcher delegate;
+
+    // Stato del limite, protetto dal monitor di this
+    private double limit;
+    private int inFlight;
+    private long lastDecrease;
+
+    private final AtomicLong limitGauge;
+    private final AtomicLong inFlightGauge;
+    private final MessagingMetrics.Timer waitTimer;
+    private final String mode;
+
+    LimitedProcessDispatcher(ProcessDispatcher delegate) {
+        this.delegate = delegate;
+        this.mode = delegate.mode();
+        this.limit = Math.max(MIN_LIMIT, Math.min(MAX_LIMIT, INITIAL_LIMIT));
+        this.lastDecrease = System.nanoTime();
+        MessagingMetrics metrics = MessagingMetrics.forComponent("service");
+        this.limitGauge = metrics.gauge("martini_dispatch_concurrency_limit", "mode", mode);
+        this.inFlightGauge = metrics.gauge("martini_dispatch_in_flight", "mode", mode);
+        this.waitTimer = metrics.timer("martini_dispatch_limit_wait_seconds", "mode", mode);
+        limitGauge.set((long) limit);
+        logger.info("LimitedProcessDispatcher: Limite adattivo delle chiamate concorrenti {} (min {}, max {}, soglia {} ms)",
+                    (int) limit, MIN_LIMIT, MAX_LIMIT, TimeUnit.NANOSECONDS.toMillis(LATENCY_THRESHOLD));
+    }
+
+    @Override
+    public Long startProcess(String containerId, String processId, Map<String, Object> variables) {
+        return call(() -> delegate.startProcess(containerId, processId, variables));
+    }
+
+    @Override
+    public void signalProcessInstance(String containerId, Long processInstanceId, String signalName, Object event) {
+        call(() -> {
+            delegate.signalProcessInstance(containerId, processInstanceId, signalName, event);
+            return null;
+        });
+    }
+
+    @Override
+    public Collection<String> availableSignals(String containerId, Long processInstanceId) {
+        return call(() -> delegate.availableSignals(containerId, processInstanceId));
+    }
+
+    @Override
+    public String mode() {
+        return mode;
+    }
+
+    private <T> T call(Supplier<T> operation) {
+        boolean saturated = acquire();
+        long start = System.nanoTime();
+        boolean overloaded = false;
+        try {
+            return operation.get();
+        } catch (RuntimeException e) {
+            overloaded = isOverload(e);
+            throw e;
+        } finally {
+            release(start, System.nanoTime() - start, overloaded, saturated);
+        }
+    }
+
+    /**
+     * @return true se al momento dell'acquisizione almeno metà dei permessi era occupata
+     */
+    private synchronized boolean acquire() {
+        long waitStart = System.nanoTime();
+        long deadline = waitStart + TimeUnit.MILLISECONDS.toNanos(ACQUIRE_TIMEOUT);
+        try {
+            while (inFlight >= (int) limit) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    MessagingMetrics.forComponent("service").increment("martini_dispatch_limit_rejected_total", "mode", mode);
+                    throw new IllegalStateException("Limite di concorrenza verso jBPM (" + (int) limit
+                                                    + ") saturo dopo " + ACQUIRE_TIMEOUT + " ms");
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrotto in attesa di un permesso verso jBPM", e);
+        } finally {
+            waitTimer.recordSince(waitStart);
+        }
+        inFlight++;
+        inFlightGauge.set(inFlight);
+        return inFlight * 2 >= (int) limit;
+    }
+
+    private synchronized void release(long start, long latency, boolean overloaded, boolean saturated) {
+        inFlight--;
+        inFlightGauge.set(inFlight);
+        int before = (int) limit;
+        if (overloaded || latency > LATENCY_THRESHOLD) {
+            // Una sola riduzione per finestra: le chiamate già in corso alla riduzione precedente non contano
+            if (start - lastDecrease > 0) {
+                limit = Math.max(MIN_LIMIT, limit * BACKOFF);
+                lastDecrease = System.nanoTime();
+            }
+        } else if (saturated && limit < MAX_LIMIT) {
+            limit = Math.min(MAX_LIMIT, limit + 1.0 / limit);
+        }
+        int after = (int) limit;
+        if (after != before) {
+            limitGauge.set(after);
+            if (after < before) {
+                logger.warn("LimitedProcessDispatcher: jBPM rallenta ({} ms{}), limite {} -> {}",
+                            TimeUnit.NANOSECONDS.toMillis(latency), overloaded ? ", errore" : "", before, after);
+            } else if (logger.isDebugEnabled()) {
+                logger.debug("LimitedProcessDispatcher: Limite {} -> {}", before, after);
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * Errori di sovraccarico: IOException (timeout, connessione) nella catena delle cause o HTTP 502/503/504.
+     */
+    private static boolean isOverload(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof IOException) {
+                return true;
+            }
+            if (t instanceof KieServicesHttpException) {
+                Integer code = ((KieServicesHttpException) t).getHttpCode();
+                return code != null && (code == 502 || code == 503 || code == 504);
+            }
+            if (t.getCause() == t) {
+                break;
+            }
+        }
+        return false;
+    }
+}
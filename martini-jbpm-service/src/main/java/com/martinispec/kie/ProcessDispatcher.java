@@ -0,0 +1,36 @@
+package com.martinispec.kie;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Invio dei comandi di avvio/signal al motore jBPM.
+ *
+ * Implementazioni:
+ * - RestProcessDispatcher: KIE Server via REST (default, funziona anche con KIE Server remoto)
+ * - EmbeddedProcessDispatcher: ProcessService di jBPM nella stessa JVM, senza HTTP né marshalling
+ */
+public interface ProcessDispatcher {
+
+    /**
+     * Avvia una nuova istanza di processo.
+     *
+     * @return ID dell'istanza avviata
+     */
+    Long startProcess(String containerId, String processId, Map<String, Object> variables);
+
+    /**
+     * Invia un signal a un'istanza di processo.
+     */
+    void signalProcessInstance(String containerId, Long processInstanceId, String signalName, Object event);
+
+    /**
+     * Signal che l'istanza sta attendendo in questo momento (eventi di cattura attivi).
+     */
+    Collection<String> availableSignals(String containerId, Long processInstanceId);
+
+    /**
+     * Nome della modalità (per log e diagnostica).
+     */
+    String mode();
+}
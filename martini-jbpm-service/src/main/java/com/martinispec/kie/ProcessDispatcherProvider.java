@@ -0,0 +1,83 @@
+package com.martinispec.kie;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.LocalBean;
+import javax.ejb.Singleton;
+
+/**
+ * Seleziona il ProcessDispatcher in base a -Dmartini.dispatch.mode:
+ * - rest (default): KIE Server via REST
+ * - embedded: ProcessService di jBPM nella stessa JVM (errore se non disponibile)
+ * - auto: embedded se disponibile, altrimenti REST
+ *
+ * Il dispatcher restituito misura la latenza di ogni chiamata (TimedProcessDispatcher) e, salvo
+ * -Dmartini.dispatch.limit.enabled=false, limita le chiamate concorrenti con un limite adattivo
+ * sulla latenza osservata (LimitedProcessDispatcher).
+ */
+@Singleton
+@LocalBean
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class ProcessDispatcherProvider {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProcessDispatcherProvider.class);
+
+    private static final String DISPATCH_MODE = System.getProperty("martini.dispatch.mode", "rest");
+    private static final String EMBEDDED_JNDI = System.getProperty("martini.dispatch.embedded.jndi");
+
+    @EJB
+    private KieClientProvider kieClient;
+
+    private volatile ProcessDispatcher dispatcher;
+
+    /**
+     * @return Dispatcher configurato (creato al primo utilizzo)
+     */
+    public ProcessDispatcher get() {
+        ProcessDispatcher current = dispatcher;
+        if (current == null) {
+            synchronized (this) {
+                current = dispatcher;
+                if (current == null) {
+                    current = new TimedProcessDispatcher(create());
+                    if (LimitedProcessDispatcher.ENABLED) {
+                        current = new LimitedProcessDispatcher(current);
+                    }
+                    dispatcher = current;
+                    logger.info("ProcessDispatcherProvider: Modalità di dispatch '{}'", current.mode());
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * @return true se avvio e signal partecipano alla transazione JTA del chiamante (modalità embedded)
+     */
+    public boolean isTransactional() {
+        return "embedded".equals(get().mode());
+    }
+
+    private ProcessDispatcher create() {
+        switch (DISPATCH_MODE.trim().toLowerCase()) {
+            case "embedded":
+                return EmbeddedProcessDispatcher.create(EMBEDDED_JNDI);
+            case "auto":
+                try {
+                    return EmbeddedProcessDispatcher.create(EMBEDDED_JNDI);
+                } catch (IllegalStateException | LinkageError e) {
+                    logger.info("ProcessDispatcherProvider: jBPM ProcessService non disponibile in-JVM ({}), uso REST", e.getMessage());
+                    return new RestProcessDispatcher(kieClient);
+                }
+            case "rest":
+                return new RestProcessDispatcher(kieClient);
+            default:
+                logger.warn("ProcessDispatcherProvider: martini.dispatch.mode '{}' non valido, uso REST", DISPATCH_MODE);
+                return new RestProcessDispatcher(kieClient);
+        }
+    }
+}
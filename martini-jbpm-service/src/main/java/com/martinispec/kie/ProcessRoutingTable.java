@@ -0,0 +1,356 @@
+package com.martinispec.kie;
+
+import org.kie.server.api.model.KieContainerResource;
+import org.kie.server.api.model.ReleaseId;
+import org.kie.server.api.model.definition.ProcessDefinition;
+import org.kie.server.client.QueryServicesClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.LocalBean;
+import javax.ejb.Singleton;
+import javax.ejb.Timeout;
+import javax.ejb.Timer;
+import javax.ejb.TimerConfig;
+import javax.ejb.TimerService;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
+
+/**
+ * Tabella di routing messageName → processId, costruita una volta per versione del container.
+ *
+ * Sorgenti, in ordine di precedenza:
+ * 1. System property  -Dmessage.routing.<messageName>=<processId>
+ * 2. Env var          MESSAGE_ROUTING_<MESSAGENAME>=<processId>
+ * 3. Start event message/signal dichiarati nei BPMN del KJAR deployato
+ *
+ * La tabella viene ricostruita quando il container viene ridepoyato o aggiornato a una nuova
+ * versione (verifica periodica della release risolta), quindi il routing di un messaggio
+ * è una semplice lookup in memoria senza chiamate REST.
+ *
+ * Il matching euristico sui nomi dei processi (legacy) è disponibile solo se abilitato
+ * con -Dmartini.routing.fuzzy=true.
+ *
+ * La costruzione (chiamate REST a KIE Server e lettura del KJAR) avviene fuori dalla mappa delle tabelle:
+ * un container lento da costruire non blocca il routing degli altri. Messaggi concorrenti per un container
+ * senza tabella possono costruirla più volte; resta la prima inserita.
+ * I messageName senza processo sono ricordati in una cache limitata (-Dmartini.routing.negativeCache.size,
+ * default 1000), perché i nomi arrivano dai mittenti e non sono limitati dalle route.
+ */
+@Singleton
+@LocalBean
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class ProcessRoutingTable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProcessRoutingTable.class);
+
+    private static final String ROUTING_PROPERTY_PREFIX = "message.routing.";
+    private static final String ROUTING_ENV_PREFIX = "MESSAGE_ROUTING_";
+
+    private static final long REFRESH_INTERVAL = Long.getLong("martini.routing.refresh.interval", 60000L);
+    private static final boolean FUZZY_MATCHING = Boolean.getBoolean("martini.routing.fuzzy");
+    private static final int NEGATIVE_CACHE_SIZE = Integer.getInteger("martini.routing.negativeCache.size", 1000);
+    private static final String KJAR_REPOSITORY = System.getProperty("martini.kjar.repository",
+            System.getProperty("user.home") + File.separator + ".m2" + File.separator + "repository");
+
+    @EJB
+    private KieClientProvider kieClient;
+
+    @Resource
+    private TimerService timerService;
+
+    private final ConcurrentMap<String, Routes> tables = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void init() {
+        if (REFRESH_INTERVAL > 0) {
+            timerService.createIntervalTimer(REFRESH_INTERVAL, REFRESH_INTERVAL, new TimerConfig(null, false));
+        }
+    }
+
+    /**
+     * Risolve il processo da avviare per un messaggio.
+     *
+     * @param containerId Container target
+     * @param messageName Nome del messaggio
+     * @return processId oppure null se nessun processo gestisce il messaggio
+     */
+    public String resolve(String containerId, String messageName) {
+        Routes routes = tables.get(containerId);
+        if (routes == null) {
+            Routes built = build(containerId);
+            routes = tables.putIfAbsent(containerId, built);
+            if (routes == null) {
+                routes = built;
+            }
+        }
+        return routes.resolve(messageName);
+    }
+
+    /**
+     * Processi disponibili nel container (per diagnostica).
+     */
+    public Set<String> availableProcesses(String containerId) {
+        Routes routes = tables.get(containerId);
+        return routes != null ? routes.processes.keySet() : Collections.emptySet();
+    }
+
+    /**
+     * Forza la ricostruzione della tabella al prossimo messaggio (es. processo non trovato).
+     */
+    public void invalidate(String containerId) {
+        if (tables.remove(containerId) != null) {
+            logger.info("ProcessRoutingTable: Tabella di routing invalidata per container '{}'", containerId);
+        }
+    }
+
+    /**
+     * Verifica periodica: ricostruisce le tabelle dei container la cui release è cambiata.
+     */
+    @Timeout
+    void refresh(Timer timer) {
+        for (Map.Entry<String, Routes> entry : tables.entrySet()) {
+            String containerId = entry.getKey();
+            try {
+                String version = containerVersion(containerId);
+                if (!entry.getValue().version.equals(version)) {
+                    logger.info("ProcessRoutingTable: Container '{}' aggiornato ({} -> {}), ricostruisco la tabella di routing",
+                                containerId, entry.getValue().version, version);
+                    tables.put(containerId, build(containerId));
+                }
+            } catch (RuntimeException e) {
+                logger.warn("ProcessRoutingTable: Verifica container '{}' fallita: {}", containerId, e.getMessage());
+                tables.remove(containerId);
+            }
+        }
+    }
+
+    private Routes build(String containerId) {
+        KieContainerResource container = containerInfo(containerId);
+        ReleaseId releaseId = container.getResolvedReleaseId() != null ? container.getResolvedReleaseId() : container.getReleaseId();
+
+        List<ProcessDefinition> definitions = kieClient.execute(client ->
+                client.getServicesClient(QueryServicesClient.class).findProcessesByContainerId(containerId, 0, 1000));
+        Map<String, ProcessDefinition> processes = definitions.stream()
+                .collect(Collectors.toMap(ProcessDefinition::getId, pd -> pd, (a, b) -> a, LinkedHashMap::new));
+
+        Map<String, String> byProperty = new HashMap<>();
+        Map<String, String> byEnvKey = new HashMap<>();
+        Map<String, String> byBpmn = new HashMap<>();
+
+        // Start event dei BPMN
+        File kjar = kjarFile(releaseId);
+        if (kjar.isFile()) {
+            try {
+                BpmnStartEventScanner.scan(kjar).forEach((message, processId) -> {
+                    if (processes.containsKey(processId)) {
+                        byBpmn.put(message, processId);
+                    }
+                });
+            } catch (IOException e) {
+                logger.warn("ProcessRoutingTable: Lettura KJAR '{}' fallita: {}", kjar, e.getMessage());
+            }
+        } else {
+            logger.warn("ProcessRoutingTable: KJAR non trovato in '{}', uso solo il routing configurato", kjar);
+        }
+
+        // Env var MESSAGE_ROUTING_<MESSAGENAME>
+        System.getenv().forEach((key, value) -> {
+            if (key.startsWith(ROUTING_ENV_PREFIX) && isKnownProcess(processes, value, key, containerId)) {
+                byEnvKey.put(key, value.trim());
+            }
+        });
+
+        // System property message.routing.<messageName>
+        for (String key : System.getProperties().stringPropertyNames()) {
+            String value = System.getProperty(key);
+            if (key.startsWith(ROUTING_PROPERTY_PREFIX) && isKnownProcess(processes, value, key, containerId)) {
+                byProperty.put(key.substring(ROUTING_PROPERTY_PREFIX.length()), value.trim());
+            }
+        }
+
+        String version = versionOf(releaseId);
+        logger.info("ProcessRoutingTable: Tabella di routing per '{}' ({}) costruita: {} route da property, {} da env, {} da BPMN, {} processi",
+                    containerId, version, byProperty.size(), byEnvKey.size(), byBpmn.size(), processes.size());
+        return new Routes(version, byProperty, byEnvKey, byBpmn, processes, FUZZY_MATCHING);
+    }
+
+    private static boolean isKnownProcess(Map<String, ProcessDefinition> processes, String processId, String key, String containerId) {
+        if (processId == null || processId.trim().isEmpty()) {
+            return false;
+        }
+        if (!processes.containsKey(processId.trim())) {
+            logger.warn("ProcessRoutingTable: Routing configurato '{}' -> '{}' ma processId non trovato nel container '{}'",
+                        key, processId, containerId);
+            return false;
+        }
+        return true;
+    }
+
+    private String containerVersion(String containerId) {
+        KieContainerResource container = containerInfo(containerId);
+        return versionOf(container.getResolvedReleaseId() != null ? container.getResolvedReleaseId() : container.getReleaseId());
+    }
+
+    private KieContainerResource containerInfo(String containerId) {
+        KieContainerResource container = kieClient.execute(client -> client.getContainerInfo(containerId).getResult());
+        if (container == null) {
+            throw new IllegalStateException("Container '" + containerId + "' non trovato su KIE Server");
+        }
+        return container;
+    }
+
+    private static String versionOf(ReleaseId releaseId) {
+        return releaseId.getGroupId() + ":" + releaseId.getArtifactId() + ":" + releaseId.getVersion();
+    }
+
+    private static File kjarFile(ReleaseId releaseId) {
+        String path = releaseId.getGroupId().replace('.', File.separatorChar) + File.separator
+                      + releaseId.getArtifactId() + File.separator
+                      + releaseId.getVersion() + File.separator
+                      + releaseId.getArtifactId() + "-" + releaseId.getVersion() + ".jar";
+        return new File(KJAR_REPOSITORY, path);
+    }
+
+    /**
+     * Chiave env var per un messageName: MESSAGE_ROUTING_ + nome normalizzato in maiuscolo.
+     */
+    static String envKey(String messageName) {
+        return ROUTING_ENV_PREFIX + messageName.replaceAll("[^A-Za-z0-9]", "_").toUpperCase();
+    }
+
+    /**
+     * Snapshot immutabile delle route di un container (package-private per i benchmark).
+     */
+    static final class Routes {
+
+        private final String version;
+        private final Map<String, String> byProperty;
+        private final Map<String, String> byEnvKey;
+        private final Map<String, String> byBpmn;
+        private final Map<String, ProcessDefinition> processes;
+        private final boolean fuzzy;
+        // Processi già risolti, così ogni messageName costa una sola lookup
+        private final ConcurrentMap<String, String> resolved = new ConcurrentHashMap<>();
+        // messageName senza processo (LRU limitata, accesso sincronizzato)
+        private final Map<String, Boolean> unresolved;
+
+        Routes(String version, Map<String, String> byProperty, Map<String, String> byEnvKey,
+               Map<String, String> byBpmn, Map<String, ProcessDefinition> processes, boolean fuzzy) {
+            this(version, byProperty, byEnvKey, byBpmn, processes, fuzzy, NEGATIVE_CACHE_SIZE);
+        }
+
+        Routes(String version, Map<String, String> byProperty, Map<String, String> byEnvKey,
+               Map<String, String> byBpmn, Map<String, ProcessDefinition> processes, boolean fuzzy,
+               int negativeCacheSize) {
+            this.version = version;
+            this.byProperty = byProperty;
+            this.byEnvKey = byEnvKey;
+            this.byBpmn = byBpmn;
+            this.processes = processes;
+            this.fuzzy = fuzzy;
+            this.unresolved = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                    return size() > negativeCacheSize;
+                }
+            };
+        }
+
+        String resolve(String messageName) {
+            String processId = resolved.get(messageName);
+            if (processId != null) {
+                return processId;
+            }
+            synchronized (unresolved) {
+                if (unresolved.containsKey(messageName)) {
+                    return null;
+                }
+            }
+            processId = lookup(messageName).orElse(null);
+            if (processId != null) {
+                resolved.putIfAbsent(messageName, processId);
+            } else {
+                synchronized (unresolved) {
+                    unresolved.put(messageName, Boolean.TRUE);
+                }
+            }
+            return processId;
+        }
+
+        int unresolvedCount() {
+            synchronized (unresolved) {
+                return unresolved.size();
+            }
+        }
+
+        Optional<String> lookup(String messageName) {
+            String processId = byProperty.get(messageName);
+            if (processId == null) {
+                processId = byEnvKey.get(envKey(messageName));
+            }
+            if (processId == null) {
+                processId = byBpmn.get(messageName);
+            }
+            if (processId == null && fuzzy) {
+                processId = fuzzyMatch(messageName);
+            }
+            return Optional.ofNullable(processId);
+        }
+
+        /**
+         * Matching euristico legacy: id/name che contengono il messageName o una sua keyword (>=4 char).
+         */
+        String fuzzyMatch(String messageName) {
+            String mn = messageName.toLowerCase();
+            for (ProcessDefinition pd : processes.values()) {
+                if ((pd.getId() != null && pd.getId().toLowerCase().contains(mn)) ||
+                    (pd.getName() != null && pd.getName().toLowerCase().contains(mn))) {
+                    return pd.getId();
+                }
+            }
+
+            String[] tokens = messageName.replaceAll("([a-z])([A-Z])", "$1 $2").toLowerCase().split("[^a-z0-9]+");
+            Set<String> keywords = new LinkedHashSet<>();
+            for (String t : tokens) {
+                if (t.length() >= 4) {
+                    keywords.add(t);
+                }
+            }
+            if (keywords.isEmpty()) {
+                for (String t : tokens) {
+                    if (t.length() >= 3) {
+                        keywords.add(t);
+                    }
+                }
+            }
+            for (ProcessDefinition pd : processes.values()) {
+                String id = Optional.ofNullable(pd.getId()).orElse("").toLowerCase();
+                String name = Optional.ofNullable(pd.getName()).orElse("").toLowerCase();
+                for (String kw : keywords) {
+                    if (id.contains(kw) || name.contains(kw)) {
+                        logger.info("ProcessRoutingTable: Match fuzzy '{}' -> processo '{}' su keyword '{}'", messageName, pd.getId(), kw);
+                        return pd.getId();
+                    }
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.martinispec.kie;
+
+import org.kie.server.client.ProcessServicesClient;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Dispatch via REST verso KIE Server, usando il client condiviso.
+ */
+class RestProcessDispatcher implements ProcessDispatcher {
+
+    private final KieClientProvider kieClient;
+
+    RestProcessDispatcher(KieClientProvider kieClient) {
+        this.kieClient = kieClient;
+    }
+
+    @Override
+    public Long startProcess(String containerId, String processId, Map<String, Object> variables) {
+        return kieClient.execute(client ->
+                client.getServicesClient(ProcessServicesClient.class).startProcess(containerId, processId, variables));
+    }
+
+    @Override
+    public void signalProcessInstance(String containerId, Long processInstanceId, String signalName, Object event) {
+        kieClient.execute(client -> {
+            client.getServicesClient(ProcessServicesClient.class)
+                  .signalProcessInstance(containerId, processInstanceId, signalName, event);
+            return null;
+        });
+    }
+
+    @Override
+    public Collection<String> availableSignals(String containerId, Long processInstanceId) {
+        return kieClient.execute(client ->
+                client.getServicesClient(ProcessServicesClient.class).getAvailableSignals(containerId, processInstanceId));
+    }
+
+    @Override
+    public String mode() {
+        return "rest";
+    }
+}
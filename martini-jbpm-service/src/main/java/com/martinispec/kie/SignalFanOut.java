@@ -0,0 +1,249 @@
+package com.martinispec.kie;
+
+import org.kie.server.api.exception.KieServicesHttpException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.LocalBean;
+import javax.ejb.Singleton;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+
+/**
+ * Invio di un signal a tutte le istanze correlate, con parallelismo limitato.
+ *
+ * Con una sola istanza (o -Dmartini.signal.fanout.parallelism=1) i signal vengono inviati in serie
+ * nel thread chiamante, quindi nella sua transazione. Con più istanze vengono inviati in parallelo
+ * (al massimo martini.signal.fanout.parallelism alla volta, default 8) e l'esito di ogni istanza
+ * viene raccolto in un {@link Outcome}: il chiamante può così ritentare solo le istanze fallite
+ * invece di far ripetere il signal a quelle già servite.
+ *
+ * Un'istanza non più esistente (404 / ProcessInstanceNotFoundException) è "gone": non va ritentata.
+ *
+ * Con onlyWaiting ogni istanza viene prima interrogata sui signal che sta attendendo: se non è ancora
+ * nello stato di attesa il signal non viene inviato (jBPM lo ignorerebbe) e l'istanza risulta "notWaiting",
+ * così il chiamante può conservare il messaggio finché l'istanza non raggiunge l'evento.
+ */
+@Singleton
+@LocalBean
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class SignalFanOut {
+
+    private static final Logger logger = LoggerFactory.getLogger(SignalFanOut.class);
+
+    private static final int PARALLELISM = Integer.getInteger("martini.signal.fanout.parallelism", 8);
+
+    @EJB
+    private ProcessDispatcherProvider dispatcherProvider;
+
+    @Resource
+    private ManagedExecutorService executor;
+
+    /**
+     * @param containerId Container delle istanze
+     * @param instanceIds Istanze da segnalare
+     * @param signalName Nome del signal
+     * @param event Event data del signal
+     * @return Esito per istanza
+     */
+    public Outcome signalAll(String containerId, List<Long> instanceIds, String signalName, Object event) {
+        return signalAll(containerId, instanceIds, signalName, event, false);
+    }
+
+    /**
+     * @param onlyWaiting Invia il signal solo alle istanze che lo stanno attendendo
+     * @return Esito per istanza
+     */
+    public Outcome signalAll(String containerId, List<Long> instanceIds, String signalName, Object event, boolean onlyWaiting) {
+        ProcessDispatcher dispatcher = dispatcherProvider.get();
+        Outcome outcome = new Outcome();
+        if (instanceIds.size() <= 1 || PARALLELISM <= 1) {
+            for (Long instanceId : instanceIds) {
+                outcome.record(signal(dispatcher, containerId, instanceId, signalName, event, onlyWaiting));
+            }
+            return outcome;
+        }
+
+        CompletionService<Result> completion = new ExecutorCompletionService<>(executor);
+        List<Future<Result>> futures = new ArrayList<>(instanceIds.size());
+        int next = 0;
+        int pending = 0;
+        while (next < instanceIds.size() || pending > 0) {
+            while (pending < PARALLELISM && next < instanceIds.size()) {
+                Long instanceId = instanceIds.get(next++);
+                futures.add(completion.submit(() -> signal(dispatcher, containerId, instanceId, signalName, event, onlyWaiting)));
+                pending++;
+            }
+            try {
+                outcome.record(completion.take().get());
+                pending--;
+            } catch (InterruptedException e) {
+                futures.forEach(f -> f.cancel(true));
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Fan-out del signal '" + signalName + "' interrotto", e);
+            } catch (ExecutionException e) {
+                // signal() non propaga eccezioni: qui arrivano solo errori del task stesso
+                pending--;
+                logger.error("SignalFanOut: Task di signal fallito: {}", e.getMessage(), e);
+            }
+        }
+        // Istanze il cui task è fallito senza esito: trattate come da ritentare
+        for (Long instanceId : instanceIds) {
+            if (!outcome.isRecorded(instanceId)) {
+                outcome.record(Result.failed(instanceId, new IllegalStateException("Esito del signal non disponibile")));
+            }
+        }
+        return outcome;
+    }
+
+    private static Result signal(ProcessDispatcher dispatcher, String containerId, Long instanceId,
+                                   String signalName, Object event, boolean onlyWaiting) {
+        try {
+            if (onlyWaiting && !dispatcher.availableSignals(containerId, instanceId).contains(signalName)) {
+                return Result.notWaiting(instanceId);
+            }
+            dispatcher.signalProcessInstance(containerId, instanceId, signalName, event);
+            return Result.signalled(instanceId);
+        } catch (RuntimeException e) {
+            return Result.failed(instanceId, e);
+        }
+    }
+
+    private static boolean isGone(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof KieServicesHttpException && Integer.valueOf(404).equals(((KieServicesHttpException) t).getHttpCode())) {
+                return true;
+            }
+            if ("ProcessInstanceNotFoundException".equals(t.getClass().getSimpleName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Esito del fan-out: istanze segnalate, non ancora in attesa, non più esistenti e fallite.
+     */
+    public static final class Outcome {
+
+        private final List<Long> signalled = Collections.synchronizedList(new ArrayList<>());
+        private final List<Long> notWaiting = Collections.synchronizedList(new ArrayList<>());
+        private final List<Long> gone = Collections.synchronizedList(new ArrayList<>());
+        private final Map<Long, RuntimeException> failed = Collections.synchronizedMap(new LinkedHashMap<>());
+
+        private void record(Result result) {
+            if (result.notWaiting) {
+                notWaiting.add(result.instanceId);
+            } else if (result.error == null) {
+                signalled.add(result.instanceId);
+            } else if (isGone(result.error)) {
+                logger.warn("SignalFanOut: Istanza {} non più esistente, signal ignorato", result.instanceId);
+                gone.add(result.instanceId);
+            } else {
+                failed.put(result.instanceId, result.error);
+            }
+        }
+
+        private boolean isRecorded(Long instanceId) {
+            return signalled.contains(instanceId) || notWaiting.contains(instanceId) || gone.contains(instanceId)
+                   || failed.containsKey(instanceId);
+        }
+
+        public List<Long> getSignalled() {
+            return signalled;
+        }
+
+        /**
+         * Istanze che non stanno ancora attendendo il signal (solo con onlyWaiting): signal non inviato.
+         */
+        public List<Long> getNotWaiting() {
+            return notWaiting;
+        }
+
+        public List<Long> getGone() {
+            return gone;
+        }
+
+        /**
+         * Istanze fallite (da ritentare) con l'errore ricevuto.
+         */
+        public Map<Long, RuntimeException> getFailed() {
+            return failed;
+        }
+
+        /**
+         * Sostituisce l'esito delle istanze non in attesa con quello di un secondo fan-out verso di esse
+         * (es. signal inviato comunque quando il messaggio non può essere conservato).
+         */
+        public Outcome replaceNotWaiting(Outcome retried) {
+            notWaiting.clear();
+            signalled.addAll(retried.signalled);
+            notWaiting.addAll(retried.notWaiting);
+            gone.addAll(retried.gone);
+            failed.putAll(retried.failed);
+            return this;
+        }
+
+        public boolean hasFailures() {
+            return !failed.isEmpty();
+        }
+
+        /**
+         * true se l'esito si esaurisce nei signal inviati: nessuna istanza da conservare nel buffer
+         * o da ripubblicare, operazioni che avvengono nella transazione del chiamante.
+         */
+        public boolean isDispatchOnly() {
+            return !signalled.isEmpty() && notWaiting.isEmpty() && failed.isEmpty();
+        }
+
+        /**
+         * true se nessuna istanza è stata servita: conviene la redelivery dell'intero messaggio.
+         */
+        public boolean isTotalFailure() {
+            return !failed.isEmpty() && signalled.isEmpty() && notWaiting.isEmpty() && gone.isEmpty();
+        }
+    }
+
+    /**
+     * Esito del signal a una singola istanza.
+     */
+    private static final class Result {
+
+        private final Long instanceId;
+        private final RuntimeException error;
+        private final boolean notWaiting;
+
+        private Result(Long instanceId, RuntimeException error, boolean notWaiting) {
+            this.instanceId = instanceId;
+            this.error = error;
+            this.notWaiting = notWaiting;
+        }
+
+        static Result signalled(Long instanceId) {
+            return new Result(instanceId, null, false);
+        }
+
+        /**
+         * L'istanza non attende il signal: non inviato.
+         */
+        static Result notWaiting(Long instanceId) {
+            return new Result(instanceId, null, true);
+        }
+
+        static Result failed(Long instanceId, RuntimeException error) {
+            return new Result(instanceId, error, false);
+        }
+    }
+}
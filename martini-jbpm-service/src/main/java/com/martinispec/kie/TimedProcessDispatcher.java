@@ -0,0 +1,55 @@
+package com.martinispec.kie;
+
+import com.martinispec.model.metrics.MessagingMetrics;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Decoratore che misura la latenza delle chiamate al motore jBPM:
+ * martini_message_dispatch_seconds{mode, operation=start|signal} nel registro "service".
+ * Le chiamate fallite sono misurate comunque (la latenza di un timeout è quella che interessa).
+ */
+class TimedProcessDispatcher implements ProcessDispatcher {
+
+    private final ProcessDispatcher delegate;
+    private final MessagingMetrics.Timer startTimer;
+    private final MessagingMetrics.Timer signalTimer;
+
+    TimedProcessDispatcher(ProcessDispatcher delegate) {
+        this.delegate = delegate;
+        MessagingMetrics metrics = MessagingMetrics.forComponent("service");
+        this.startTimer = metrics.timer("martini_message_dispatch_seconds", "mode", delegate.mode(), "operation", "start");
+        this.signalTimer = metrics.timer("martini_message_dispatch_seconds", "mode", delegate.mode(), "operation", "signal");
+    }
+
+    @Override
+    public Long startProcess(String containerId, String processId, Map<String, Object> variables) {
+        long start = System.nanoTime();
+        try {
+            return delegate.startProcess(containerId, processId, variables);
+        } finally {
+            startTimer.recordSince(start);
+        }
+    }
+
+    @Override
+    public void signalProcessInstance(String containerId, Long processInstanceId, String signalName, Object event) {
+        long start = System.nanoTime();
+        try {
+            delegate.signalProcessInstance(containerId, processInstanceId, signalName, event);
+        } finally {
+            signalTimer.recordSince(start);
+        }
+    }
+
+    @Override
+    public Collection<String> availableSignals(String containerId, Long processInstanceId) {
+        return delegate.availableSignals(containerId, processInstanceId);
+    }
+
+    @Override
+    public String mode() {
+        return delegate.mode();
+    }
+}
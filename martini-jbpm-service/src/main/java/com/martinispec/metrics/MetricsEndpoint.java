@@ -0,0 +1,167 @@
+package com.martinispec.metrics;
+
+import com.martinispec.jms.ListenerWarmUp;
+import com.martinispec.model.metrics.MessagingMetrics;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.LocalBean;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.enterprise.concurrent.ManagedThreadFactory;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Endpoint HTTP Prometheus per le metriche della comunicazione JMS.
+ *
+ * GET /metrics restituisce il testo Prometheus di tutti i registri MessagingMetrics presenti nella JVM
+ * (letti via JMX, quindi anche "kjar" registrato dal JmsSendMessageHandler in un altro classloader).
+ *
+ * GET /ready restituisce lo stato del warm-up del listener (ListenerWarmUp) per la readiness probe:
+ * 200 se completato, 503 altrimenti, con corpo JSON (state, ready, warmUpMillis, elapsedMillis, attempts, error).
+ *
+ * Disabilitato di default; si attiva con -Dmartini.metrics.port=&lt;porta&gt;
+ * (-Dmartini.metrics.host per l'interfaccia, default 0.0.0.0).
+ */
+@Singleton
+@Startup
+@LocalBean
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class MetricsEndpoint {
+
+    private static final Logger logger = LoggerFactory.getLogger(MetricsEndpoint.class);
+
+    private static final int PORT = Integer.getInteger("martini.metrics.port", 0);
+    private static final String HOST = System.getProperty("martini.metrics.host", "0.0.0.0");
+    private static final String QUERY = "com.martinispec:type=MessagingMetrics,*";
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private static final String JSON_CONTENT_TYPE = "application/json; charset=utf-8";
+
+    @EJB
+    private ListenerWarmUp warmUp;
+
+    @Resource
+    private ManagedThreadFactory threadFactory;
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    @PostConstruct
+    void start() {
+        if (PORT <= 0) {
+            return;
+        }
+        try {
+            server = HttpServer.create(new InetSocketAddress(HOST, PORT), 0);
+        } catch (IOException e) {
+            logger.error("MetricsEndpoint: Impossibile aprire la porta {}: {}", PORT, e.getMessage(), e);
+            return;
+        }
+        executor = Executors.newSingleThreadExecutor(threadFactory);
+        server.setExecutor(executor);
+        server.createContext("/metrics", this::handle);
+        server.createContext("/ready", this::ready);
+        server.start();
+        logger.info("MetricsEndpoint: Metriche Prometheus su http://{}:{}/metrics, readiness su /ready", HOST, PORT);
+    }
+
+    @PreDestroy
+    void stop() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+        MessagingMetrics.unregister("service");
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void ready(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            boolean ready = warmUp.isReady();
+            String error = warmUp.getLastError();
+            String json = "{\"state\":\"" + warmUp.getState() + "\""
+                          + ",\"ready\":" + ready
+                          + ",\"warmUpMillis\":" + warmUp.getDurationMillis()
+                          + ",\"elapsedMillis\":" + warmUp.getElapsedMillis()
+                          + ",\"attempts\":" + warmUp.getAttempts()
+                          + ",\"error\":" + (error != null ? "\"" + escape(error) + "\"" : "null") + "}";
+            byte[] body = json.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", JSON_CONTENT_TYPE);
+            exchange.sendResponseHeaders(ready ? 200 : 503, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static String escape(String text) {
+        StringBuilder escaped = new StringBuilder(text.length());
+        for (char c : text.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                escaped.append('\\').append(c);
+            } else if (c < 0x20) {
+                escaped.append(' ');
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    private String scrape() {
+        MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        StringBuilder text = new StringBuilder();
+        try {
+            for (ObjectName name : new TreeSet<>(mbeanServer.queryNames(new ObjectName(QUERY), null))) {
+                try {
+                    text.append(mbeanServer.getAttribute(name, "PrometheusText"));
+                } catch (Exception e) {
+                    // Registro rimosso durante la lettura (undeploy)
+                    logger.debug("MetricsEndpoint: Registro {} non leggibile: {}", name, e.getMessage());
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("MetricsEndpoint: Lettura delle metriche fallita: {}", e.getMessage());
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,145 @@
+package com.martinispec.jms;
+
+import com.martinispec.model.store.ClaimCheck;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Queue;
+import javax.jms.Session;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalStateException;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class DeadLetterReplayTest {
+
+    // ProcessMessagePublisher tiene in cache le destinazioni: stesse istanze per tutti i test
+    private static final Queue DLQ = mock(Queue.class);
+    private static final Queue QUEUE = mock(Queue.class);
+
+    private final DeadLetterReplay replay = new DeadLetterReplay();
+
+    private Connection connection;
+    private Session session;
+    private MessageConsumer consumer;
+    private MessageProducer producer;
+    private Message copy;
+
+    @BeforeEach
+    void bindResources() throws JMSException {
+        ConnectionFactory connectionFactory = mock(ConnectionFactory.class);
+        connection = mock(Connection.class);
+        session = mock(Session.class);
+        consumer = mock(MessageConsumer.class);
+        producer = mock(MessageProducer.class);
+        copy = mock(Message.class);
+        when(connectionFactory.createConnection()).thenReturn(connection);
+        when(connection.createSession(true, Session.SESSION_TRANSACTED)).thenReturn(session);
+        when(session.createConsumer(eq(DLQ), any())).thenReturn(consumer);
+        when(session.createProducer(QUEUE)).thenReturn(producer);
+        when(session.createMessage()).thenReturn(copy);
+
+        TestNamingContextFactory.install();
+        TestNamingContextFactory.bind("java:/ConnectionFactory", connectionFactory);
+        TestNamingContextFactory.bind(RetryPolicy.DLQ_JNDI, DLQ);
+        TestNamingContextFactory.bind("java:/jms/queue/PROCESS.MESSAGES", QUEUE);
+    }
+
+    @AfterEach
+    void unbindResources() {
+        TestNamingContextFactory.uninstall();
+    }
+
+    @Test
+    void replayResetsRetryStateAndCountsReplays() throws JMSException {
+        Map<String, Object> properties = new LinkedHashMap<>();
+        properties.put("messageName", "figlioCompletato");
+        properties.put("JMSXDeliveryCount", 5);
+        properties.put(RetryPolicy.RETRY_ATTEMPT_PROPERTY, 3);
+        properties.put(RetryPolicy.DLQ_REASON_PROPERTY, "retry-exhausted");
+        properties.put(ProcessMessageDecoder.FANOUT_ATTEMPT_PROPERTY, 2);
+        properties.put(DeadLetterReplay.REPLAY_COUNT_PROPERTY, 1);
+        Message message = message(properties);
+        when(consumer.receive(anyLong())).thenReturn(message, (Message) null);
+
+        assertThat(replay.replay("", 10)).isEqualTo(1);
+
+        verify(session).createConsumer(DLQ, null);
+        verify(copy).setObjectProperty("messageName", "figlioCompletato");
+        verify(copy).setObjectProperty(DeadLetterReplay.REPLAY_COUNT_PROPERTY, 2);
+        verify(copy, never()).setObjectProperty(eq("JMSXDeliveryCount"), any());
+        verify(copy, never()).setObjectProperty(eq(RetryPolicy.RETRY_ATTEMPT_PROPERTY), any());
+        verify(copy, never()).setObjectProperty(eq(RetryPolicy.DLQ_REASON_PROPERTY), any());
+        verify(copy, never()).setObjectProperty(eq(ProcessMessageDecoder.FANOUT_ATTEMPT_PROPERTY), any());
+        verify(producer).send(copy);
+        verify(session).commit();
+    }
+
+    @Test
+    void replayStopsAtMaxMessages() throws JMSException {
+        Message message = message(Collections.singletonMap("messageName", "esito"));
+        when(consumer.receive(anyLong())).thenReturn(message);
+
+        assertThat(replay.replay("messageName = 'esito'", 2)).isEqualTo(2);
+
+        verify(session).createConsumer(DLQ, "messageName = 'esito'");
+        verify(copy, times(2)).setObjectProperty(DeadLetterReplay.REPLAY_COUNT_PROPERTY, 1);
+        verify(producer, times(2)).send(copy);
+        verify(session).commit();
+    }
+
+    @Test
+    void failedSendLeavesTheBatchInTheDlq() throws JMSException {
+        Message message = message(Collections.singletonMap("messageName", "esito"));
+        when(consumer.receive(anyLong())).thenReturn(message);
+        doThrow(new JMSException("broker non raggiungibile")).when(producer).send(any(Message.class));
+
+        assertThatIllegalStateException()
+                .isThrownBy(() -> replay.replay(null, 10))
+                .withMessageContaining("dopo 0 messaggi");
+
+        verify(session, never()).commit();
+        verify(connection).close();
+    }
+
+    @Test
+    void purgeConsumesWithoutForwarding() throws JMSException {
+        Message message = message(Collections.singletonMap("messageName", "esito"));
+        when(consumer.receive(anyLong())).thenReturn(message, message, null);
+
+        assertThat(replay.purge(null, 10)).isEqualTo(2);
+
+        verify(session, never()).createProducer(any());
+        verify(message, times(2)).getStringProperty(ClaimCheck.REFERENCE_PROPERTY);
+        verify(session).commit();
+    }
+
+    private static Message message(Map<String, Object> properties) throws JMSException {
+        Message message = mock(Message.class);
+        when(message.getPropertyNames()).thenAnswer(invocation -> Collections.enumeration(properties.keySet()));
+        when(message.getObjectProperty(anyString())).thenAnswer(invocation -> properties.get(invocation.<String>getArgument(0)));
+        when(message.propertyExists(anyString())).thenAnswer(invocation -> properties.containsKey(invocation.<String>getArgument(0)));
+        when(message.getIntProperty(anyString())).thenAnswer(invocation -> properties.get(invocation.<String>getArgument(0)));
+        when(message.getJMSPriority()).thenReturn(4);
+        return message;
+    }
+}
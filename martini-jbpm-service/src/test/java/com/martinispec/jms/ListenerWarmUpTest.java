@@ -0,0 +1,199 @@
+package com.martinispec.jms;
+
+import com.martinispec.kie.ContainerResolver;
+import com.martinispec.kie.CorrelationResolver;
+import com.martinispec.kie.KieClientProvider;
+import com.martinispec.kie.ProcessDispatcher;
+import com.martinispec.kie.ProcessDispatcherProvider;
+import com.martinispec.kie.ProcessRoutingTable;
+import com.martinispec.model.metrics.MessagingMetrics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.kie.server.api.model.KieServerInfo;
+import org.kie.server.api.model.ServiceResponse;
+import org.kie.server.client.KieServicesClient;
+
+import javax.ejb.Timer;
+import javax.ejb.TimerConfig;
+import javax.ejb.TimerService;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ListenerWarmUpTest {
+
+    private static final long TIMEOUT = 120_000L;
+
+    private final ListenerWarmUp warmUp = new ListenerWarmUp();
+    private final KieServicesClient client = mock(KieServicesClient.class);
+    private final ProcessDispatcherProvider dispatcherProvider = mock(ProcessDispatcherProvider.class);
+    private final ContainerResolver containerResolver = mock(ContainerResolver.class);
+    private final ProcessRoutingTable routingTable = mock(ProcessRoutingTable.class);
+    private final CorrelationResolver correlationResolver = mock(CorrelationResolver.class);
+    private final TimerService timerService = mock(TimerService.class);
+    private final Timer timer = mock(Timer.class);
+
+    private ObjectName listenerName;
+
+    @BeforeEach
+    void wireWarmUp() throws Exception {
+        KieClientProvider kieClient = mock(KieClientProvider.class);
+        when(kieClient.execute(any())).thenAnswer(invocation -> {
+            Function<KieServicesClient, ?> call = invocation.getArgument(0);
+            return call.apply(client);
+        });
+        ProcessDispatcher dispatcher = mock(ProcessDispatcher.class);
+        when(dispatcherProvider.get()).thenReturn(dispatcher);
+        when(containerResolver.resolve(null)).thenReturn(Arrays.asList("ordini_1.1.0", "ordini_1.0.0"));
+        inject("kieClient", kieClient);
+        inject("dispatcherProvider", dispatcherProvider);
+        inject("containerResolver", containerResolver);
+        inject("routingTable", routingTable);
+        inject("correlationResolver", correlationResolver);
+        inject("timerService", timerService);
+        TestConnectionFactory.install();
+        warmUp.init();
+    }
+
+    @AfterEach
+    void unbindResources() throws Exception {
+        TestConnectionFactory.uninstall();
+        if (listenerName != null) {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(listenerName);
+        }
+    }
+
+    @Test
+    void gateOpensWhenWarmUpCompletes() throws Exception {
+        kieServer(ServiceResponse.ResponseType.SUCCESS);
+        CompletableFuture<Void> waiting = CompletableFuture.runAsync(warmUp::awaitReady);
+
+        Thread.sleep(100L);
+        assertThat(waiting).isNotDone();
+        assertThat(warmUp.getState()).isEqualTo(ListenerWarmUp.State.WARMING);
+
+        warmUp.attempt(timer);
+
+        waiting.get(2, TimeUnit.SECONDS);
+        assertThat(warmUp.isReady()).isTrue();
+        assertThat(warmUp.getAttempts()).isEqualTo(1);
+        assertThat(warmUp.getDurationMillis()).isGreaterThanOrEqualTo(0L);
+        assertThat(readyGauge()).isEqualTo(1L);
+        verify(routingTable).resolve("ordini_1.1.0", "martini-warmup");
+        verify(routingTable).resolve("ordini_1.0.0", "martini-warmup");
+        verify(correlationResolver).resolve(Arrays.asList("ordini_1.1.0", "ordini_1.0.0"), "martini-warmup");
+    }
+
+    @Test
+    void failedAttemptKeepsTheGateClosedAndRetries() {
+        kieServer(ServiceResponse.ResponseType.FAILURE);
+
+        warmUp.attempt(timer);
+
+        assertThat(warmUp.getState()).isEqualTo(ListenerWarmUp.State.WARMING);
+        assertThat(warmUp.getLastError()).contains("KIE Server non pronto");
+        assertThat(warmUp.getDurationMillis()).isEqualTo(-1L);
+        verify(containerResolver).invalidate();
+        verify(timerService).createSingleActionTimer(eq(5_000L), any(TimerConfig.class));
+    }
+
+    @Test
+    void gateOpensAsFailedAfterTheTimeout() throws Exception {
+        kieServer(ServiceResponse.ResponseType.FAILURE);
+        Field startedAt = ListenerWarmUp.class.getDeclaredField("startedAt");
+        startedAt.setAccessible(true);
+        startedAt.set(warmUp, System.currentTimeMillis() - TIMEOUT - 1L);
+
+        warmUp.attempt(timer);
+
+        assertThat(warmUp.getState()).isEqualTo(ListenerWarmUp.State.FAILED);
+        assertThat(warmUp.isReady()).isFalse();
+        assertThat(readyGauge()).isZero();
+        CompletableFuture.runAsync(warmUp::awaitReady).get(2, TimeUnit.SECONDS);
+
+        // Il warm-up continua a essere ripetuto e al successo lo stato diventa READY
+        kieServer(ServiceResponse.ResponseType.SUCCESS);
+        warmUp.attempt(timer);
+
+        assertThat(warmUp.isReady()).isTrue();
+    }
+
+    @Test
+    void transactionalDispatcherSkipsKieServer() {
+        when(dispatcherProvider.isTransactional()).thenReturn(true);
+
+        warmUp.attempt(timer);
+
+        assertThat(warmUp.isReady()).isTrue();
+        verify(client, never()).getServerInfo();
+    }
+
+    @Test
+    void deliveryIsStartedOnceTheListenerIsRegistered() throws Exception {
+        kieServer(ServiceResponse.ResponseType.SUCCESS);
+
+        warmUp.attempt(timer);
+
+        // MDB non ancora registrato nel modello di gestione: nuovo tentativo
+        verify(timerService).createSingleActionTimer(eq(1_000L), argThat(config -> "martini-delivery".equals(config.getInfo())));
+
+        AtomicInteger started = new AtomicInteger();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        listenerName = new ObjectName("jboss.as:deployment=martini-jbpm-service.war,subsystem=ejb3,"
+                                      + "message-driven-bean=JmsProcessMessageListener");
+        server.registerMBean(new StandardMBean(started::incrementAndGet, MessageDrivenBeanMBean.class), listenerName);
+        Timer deliveryTimer = mock(Timer.class);
+        when(deliveryTimer.getInfo()).thenReturn("martini-delivery");
+
+        warmUp.attempt(deliveryTimer);
+        warmUp.attempt(deliveryTimer);
+
+        assertThat(started).hasValue(1);
+        assertThat(warmUp.getAttempts()).isEqualTo(1);
+        verify(timerService).createSingleActionTimer(anyLong(), argThat(config -> "martini-delivery".equals(config.getInfo())));
+    }
+
+    /**
+     * Operazione start-delivery dell'MDB esposta dal modello di gestione.
+     */
+    public interface MessageDrivenBeanMBean {
+
+        void startDelivery();
+    }
+
+    private void kieServer(ServiceResponse.ResponseType type) {
+        when(client.getServerInfo()).thenReturn(new ServiceResponse<>(type, "KIE Server in avvio", new KieServerInfo()));
+    }
+
+    private static long readyGauge() {
+        return MessagingMetrics.forComponent("service").gauge("martini_listener_ready").get();
+    }
+
+    private void inject(String name, Object value) {
+        try {
+            Field field = ListenerWarmUp.class.getDeclaredField(name);
+            field.setAccessible(true);
+            field.set(warmUp, value);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.martinispec.jms;
+
+import com.martinispec.model.ProcessMessage;
+import com.martinispec.model.codec.BinaryProcessMessageCodec;
+import com.martinispec.model.codec.ProcessMessageCodecs;
+import com.martinispec.model.store.AggregationStore;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.ejb.SessionContext;
+import javax.jms.Destination;
+import javax.jms.JMSRuntimeException;
+import javax.jms.Message;
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalStateException;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class MessageAggregatorTest {
+
+    private static final String TIMEOUT_PROPERTY = "martini.aggregate.figlioCompletato.timeout";
+
+    private final MessageAggregator aggregator = new MessageAggregator();
+    private final SessionContext context = mock(SessionContext.class);
+    private final MessageDeduplicator deduplicator = mock(MessageDeduplicator.class);
+
+    private AggregationStore store;
+    private TestConnectionFactory jms;
+
+    @BeforeEach
+    void wireAggregator() throws Exception {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1");
+        store = new AggregationStore(dataSource);
+        store.createSchema();
+        inject("store", store);
+        inject("context", context);
+        inject("deduplicator", deduplicator);
+        jms = TestConnectionFactory.install();
+    }
+
+    @AfterEach
+    void unbindResources() {
+        TestConnectionFactory.uninstall();
+        System.clearProperty(TIMEOUT_PROPERTY);
+    }
+
+    @Test
+    void completeGroupIsDeliveredInOneSignal() throws Exception {
+        aggregator.collect(figlioCompletato("ORD-1", 1, 3));
+        aggregator.collect(figlioCompletato("ORD-1", 2, 3));
+        aggregator.collect(figlioCompletato("ORD-2", 1, 3));
+
+        assertThat(jms.sentTo(jms.queue)).isEmpty();
+
+        aggregator.collect(figlioCompletato("ORD-1", 3, 3));
+
+        List<TestConnectionFactory.Sent> sent = jms.sentTo(jms.queue);
+        assertThat(sent).singleElement().satisfies(message -> {
+            assertThat(message.properties)
+                    .containsEntry(MessageAggregator.AGGREGATED_PROPERTY, 3)
+                    .containsEntry("correlationKey", "ORD-1");
+            ProcessMessage aggregated = new BinaryProcessMessageCodec().decode(message.body);
+            assertThat(aggregated.getMessageName()).isEqualTo("figlioCompletato");
+            assertThat(aggregated.getVariables())
+                    .containsEntry("figlio", 3)
+                    .containsEntry("aggregatedCount", 3);
+            @SuppressWarnings("unchecked")
+            List<Map<String, Object>> results = (List<Map<String, Object>>) aggregated.getVariables().get("aggregatedResults");
+            assertThat(results).extracting(result -> result.get("figlio")).containsExactly(1, 2, 3);
+        });
+        // Resta solo il gruppo di ORD-2, non ancora dovuto
+        assertThat(store.findDue(10)).isEmpty();
+        verify(context, never()).setRollbackOnly();
+    }
+
+    @Test
+    void expiredGroupIsDeliveredPartiallyBySweep() throws Exception {
+        System.setProperty(TIMEOUT_PROPERTY, "0");
+        aggregator.collect(figlioCompletato("ORD-1", 1, 3));
+        aggregator.collect(figlioCompletato("ORD-1", 2, 3));
+
+        aggregator.sweep(null);
+
+        assertThat(jms.sentTo(jms.queue)).singleElement().satisfies(message -> {
+            assertThat(message.properties).containsEntry(MessageAggregator.AGGREGATED_PROPERTY, 2);
+            assertThat(new BinaryProcessMessageCodec().decode(message.body).getVariables()).containsEntry("aggregatedCount", 2);
+        });
+        assertThat(store.findDue(10)).isEmpty();
+    }
+
+    @Test
+    void pendingGroupIsLeftBySweep() throws Exception {
+        aggregator.collect(figlioCompletato("ORD-1", 1, 3));
+
+        aggregator.sweep(null);
+
+        assertThat(jms.sentTo(jms.queue)).isEmpty();
+        assertThat(store.findGroup(AggregationStore.groupKey("figlioCompletato", "ORD-1", null))).hasSize(1);
+    }
+
+    @Test
+    void distinctGroupsGetDistinctMessageIds() throws Exception {
+        System.setProperty(TIMEOUT_PROPERTY, "0");
+        aggregator.collect(figlioCompletato("ORD-1", 1, 0));
+        aggregator.sweep(null);
+        aggregator.collect(figlioCompletato("ORD-2", 1, 0));
+        aggregator.sweep(null);
+
+        assertThat(jms.sentTo(jms.queue))
+                .extracting(message -> message.properties.get(ProcessMessageCodecs.MESSAGE_ID_PROPERTY))
+                .doesNotContainNull()
+                .doesNotHaveDuplicates();
+    }
+
+    @Test
+    void failedPublishRollsBackTheCollect() {
+        when(jms.producer.send(any(Destination.class), any(Message.class))).thenThrow(new JMSRuntimeException("broker non disponibile"));
+
+        assertThatIllegalStateException().isThrownBy(() -> aggregator.collect(figlioCompletato("ORD-1", 1, 1)))
+                .withMessageContaining("figlioCompletato");
+
+        verify(context).setRollbackOnly();
+    }
+
+    @Test
+    void collectOutsideTheTransactionMarksTheMessageProcessed() {
+        ProcessMessage processMessage = figlioCompletato("ORD-1", 1, 3);
+        Message jmsMessage = mock(Message.class);
+
+        aggregator.collect(processMessage, jmsMessage);
+
+        verify(deduplicator).markProcessedInTransaction(processMessage, jmsMessage);
+    }
+
+    private static ProcessMessage figlioCompletato(String correlationKey, int figlio, int expectedCount) {
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("figlio", figlio);
+        if (expectedCount > 0) {
+            variables.put("expectedCount", expectedCount);
+        }
+        return new ProcessMessage("figlioCompletato", correlationKey, variables);
+    }
+
+    private void inject(String name, Object value) {
+        try {
+            Field field = MessageAggregator.class.getDeclaredField(name);
+            field.setAccessible(true);
+            field.set(aggregator, value);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.martinispec.jms;
+
+import com.martinispec.kie.ProcessDispatcherProvider;
+import com.martinispec.model.ProcessMessage;
+import com.martinispec.model.codec.ProcessMessageCodecs;
+import com.martinispec.model.store.ProcessedMessageStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import javax.ejb.SessionContext;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+import java.lang.reflect.Field;
+import java.sql.SQLException;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class MessageDeduplicatorTest {
+
+    private final MessageDeduplicator deduplicator = new MessageDeduplicator();
+    private final ProcessedMessageStore store = mock(ProcessedMessageStore.class);
+    private final ProcessDispatcherProvider dispatcherProvider = mock(ProcessDispatcherProvider.class);
+    private final SessionContext context = mock(SessionContext.class);
+    private final TransactionSynchronizationRegistry synchronizationRegistry = mock(TransactionSynchronizationRegistry.class);
+
+    private final ProcessMessage processMessage = new ProcessMessage("figlioCompletato", "ORD-1", Collections.emptyMap());
+
+    @BeforeEach
+    void wireDeduplicator() {
+        processMessage.setMessageId("m-1");
+        when(dispatcherProvider.isTransactional()).thenReturn(true);
+        inject("store", store);
+        inject("dispatcherProvider", dispatcherProvider);
+        inject("context", context);
+        inject("synchronizationRegistry", synchronizationRegistry);
+    }
+
+    @Test
+    void withoutTransactionTheCacheIsUpdatedImmediately() throws Exception {
+        when(synchronizationRegistry.getTransactionKey()).thenReturn(null);
+
+        deduplicator.markProcessedInTransaction(processMessage, message(false));
+
+        verify(store).record("m-1", "figlioCompletato");
+        verify(synchronizationRegistry, never()).registerInterposedSynchronization(any());
+        assertThat(deduplicator.isDuplicate(processMessage, message(false))).isTrue();
+    }
+
+    @Test
+    void inTransactionTheCacheIsUpdatedOnlyAfterCommit() throws Exception {
+        when(synchronizationRegistry.getTransactionKey()).thenReturn(new Object());
+
+        deduplicator.markProcessed(processMessage, message(false));
+
+        ArgumentCaptor<Synchronization> synchronization = ArgumentCaptor.forClass(Synchronization.class);
+        verify(synchronizationRegistry).registerInterposedSynchronization(synchronization.capture());
+        assertThat(deduplicator.isDuplicate(processMessage, message(false))).isFalse();
+
+        synchronization.getValue().afterCompletion(Status.STATUS_COMMITTED);
+
+        assertThat(deduplicator.isDuplicate(processMessage, message(false))).isTrue();
+    }
+
+    @Test
+    void rolledBackRegistrationIsNotCached() throws Exception {
+        when(synchronizationRegistry.getTransactionKey()).thenReturn(new Object());
+        deduplicator.markProcessed(processMessage, message(false));
+        ArgumentCaptor<Synchronization> synchronization = ArgumentCaptor.forClass(Synchronization.class);
+        verify(synchronizationRegistry).registerInterposedSynchronization(synchronization.capture());
+
+        synchronization.getValue().afterCompletion(Status.STATUS_ROLLEDBACK);
+
+        assertThat(deduplicator.isDuplicate(processMessage, message(false))).isFalse();
+    }
+
+    @Test
+    void restDispatchRecordsInASeparateTransaction() throws Exception {
+        MessageDeduplicator businessObject = mock(MessageDeduplicator.class);
+        when(context.getBusinessObject(MessageDeduplicator.class)).thenReturn(businessObject);
+        when(dispatcherProvider.isTransactional()).thenReturn(false);
+
+        deduplicator.markProcessed(processMessage, message(false));
+
+        verify(businessObject).recordIndependently("m-1", "figlioCompletato");
+        verify(store, never()).record(anyString(), anyString());
+    }
+
+    @Test
+    void redeliveryIsCheckedOnTheStore() throws Exception {
+        when(store.contains("m-1")).thenReturn(true);
+
+        assertThat(deduplicator.isDuplicate(processMessage, message(true))).isTrue();
+        assertThat(deduplicator.isDuplicate(processMessage, message(false))).isFalse();
+    }
+
+    @Test
+    void storeFailureDoesNotBlockTheMessage() throws Exception {
+        when(store.contains(anyString())).thenThrow(new SQLException("connessione rifiutata"));
+        doThrow(new SQLException("connessione rifiutata")).when(store).record(anyString(), anyString());
+
+        deduplicator.markProcessedInTransaction(processMessage, message(false));
+
+        assertThat(deduplicator.isDuplicate(processMessage, message(true))).isFalse();
+    }
+
+    @Test
+    void targetedRepublicationsAreDistinctDeliveries() throws Exception {
+        Message targeted = message(false);
+        when(targeted.getStringProperty(ProcessMessageCodecs.TARGET_INSTANCES_PROPERTY)).thenReturn(" 4,5 ");
+
+        assertThat(MessageDeduplicator.key(processMessage, targeted)).isEqualTo("m-1@4,5");
+        assertThat(MessageDeduplicator.key(processMessage, message(false))).isEqualTo("m-1");
+        assertThat(MessageDeduplicator.key(new ProcessMessage("figlioCompletato", "ORD-1", Collections.emptyMap()),
+                                           targeted)).isNull();
+    }
+
+    private static Message message(boolean redelivered) throws JMSException {
+        Message message = mock(Message.class);
+        when(message.getJMSRedelivered()).thenReturn(redelivered);
+        return message;
+    }
+
+    private void inject(String name, Object value) {
+        try {
+            Field field = MessageDeduplicator.class.getDeclaredField(name);
+            field.setAccessible(true);
+            field.set(deduplicator, value);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
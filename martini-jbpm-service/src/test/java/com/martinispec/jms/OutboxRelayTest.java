@@ -0,0 +1,127 @@
+package com.martinispec.jms;
+
+import com.martinispec.model.codec.BinaryProcessMessageCodec;
+import com.martinispec.model.codec.ProcessMessageCodecs;
+import com.martinispec.model.store.OutboxStore;
+import com.martinispec.model.store.OutboxStore.OutboxMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.ejb.SessionContext;
+import javax.jms.Destination;
+import javax.jms.JMSRuntimeException;
+import javax.jms.Message;
+import java.lang.reflect.Field;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class OutboxRelayTest {
+
+    private final OutboxRelay relay = new OutboxRelay();
+    private final OutboxStore store = mock(OutboxStore.class);
+    private final SessionContext context = mock(SessionContext.class);
+
+    private TestConnectionFactory jms;
+
+    @BeforeEach
+    void wireRelay() {
+        inject("store", store);
+        inject("context", context);
+        jms = TestConnectionFactory.install();
+    }
+
+    @AfterEach
+    void unbindResources() {
+        TestConnectionFactory.uninstall();
+    }
+
+    @Test
+    void claimedRowsArePublishedInOrder() throws Exception {
+        when(store.fetch(anyInt())).thenReturn(Arrays.asList(outbox("m1", "ORD-1"), outbox("m2", "ORD-2"), outbox("m3", null)));
+        when(store.remove("m1")).thenReturn(true);
+        // m2 già pubblicato da un altro nodo
+        when(store.remove("m2")).thenReturn(false);
+        when(store.remove("m3")).thenReturn(true);
+
+        assertThat(relay.relayBatch()).isEqualTo(3);
+
+        assertThat(jms.sentTo(jms.queue))
+                .extracting(sent -> sent.properties.get(ProcessMessageCodecs.MESSAGE_ID_PROPERTY))
+                .containsExactly("m1", "m3");
+        assertThat(jms.sentTo(jms.queue).get(0).properties)
+                .containsEntry("correlationKey", "ORD-1")
+                .containsEntry("messageName", "figlioCompletato")
+                .containsEntry(ProcessMessageCodecs.CONTAINER_PROPERTY, "ordini");
+        assertThat(jms.sentTo(jms.queue).get(1).properties).doesNotContainKey("correlationKey");
+        verify(context, never()).setRollbackOnly();
+    }
+
+    @Test
+    void nothingIsPublishedWhenEveryRowIsClaimedElsewhere() throws Exception {
+        when(store.fetch(anyInt())).thenReturn(Collections.singletonList(outbox("m1", "ORD-1")));
+        when(store.remove("m1")).thenReturn(false);
+
+        assertThat(relay.relayBatch()).isEqualTo(1);
+
+        assertThat(jms.sentTo(jms.queue)).isEmpty();
+        verify(context, never()).setRollbackOnly();
+    }
+
+    @Test
+    void publishFailureRollsBackTheBatch() throws Exception {
+        when(store.fetch(anyInt())).thenReturn(Arrays.asList(outbox("m1", "ORD-1"), outbox("m2", "ORD-2")));
+        when(store.remove(any())).thenReturn(true);
+        when(jms.producer.send(any(Destination.class), any(Message.class))).thenThrow(new JMSRuntimeException("broker non disponibile"));
+
+        assertThat(relay.relayBatch()).isZero();
+
+        verify(context).setRollbackOnly();
+    }
+
+    @Test
+    void storeFailureRollsBackTheBatch() throws Exception {
+        when(store.fetch(anyInt())).thenThrow(new SQLException("lock timeout"));
+
+        assertThat(relay.relayBatch()).isZero();
+
+        verify(context).setRollbackOnly();
+        assertThat(jms.sentTo(jms.queue)).isEmpty();
+    }
+
+    @Test
+    void relayContinuesWhileBatchesAreFull() {
+        OutboxRelay self = mock(OutboxRelay.class);
+        when(context.getBusinessObject(OutboxRelay.class)).thenReturn(self);
+        when(self.relayBatch()).thenReturn(100, 100, 7);
+
+        relay.relay(null);
+
+        verify(self, times(3)).relayBatch();
+    }
+
+    private static OutboxMessage outbox(String id, String correlationKey) {
+        return new OutboxMessage(id, TestConnectionFactory.QUEUE_JNDI, "figlioCompletato", correlationKey, "ordini",
+                                 BinaryProcessMessageCodec.FORMAT, new byte[] {1, 2, 3}, System.currentTimeMillis() - 1_000L);
+    }
+
+    private void inject(String name, Object value) {
+        try {
+            Field field = OutboxRelay.class.getDeclaredField(name);
+            field.setAccessible(true);
+            field.set(relay, value);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package com.martinispec.jms;
+
+import com.martinispec.kie.CorrelationResolver;
+import com.martinispec.kie.ProcessDispatcher;
+import com.martinispec.kie.ProcessDispatcherProvider;
+import com.martinispec.kie.SignalFanOut;
+import com.martinispec.model.ProcessMessage;
+import com.martinispec.model.codec.BinaryProcessMessageCodec;
+import com.martinispec.model.codec.ProcessMessageCodecs;
+import com.martinispec.model.store.PendingMessageStore;
+import com.martinispec.model.store.PendingMessageStore.PendingMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.ejb.SessionContext;
+import javax.jms.Message;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PendingMessageBufferTest {
+
+    private final PendingMessageBuffer buffer = new PendingMessageBuffer();
+    private final PendingMessageStore store = mock(PendingMessageStore.class);
+    private final SessionContext context = mock(SessionContext.class);
+    private final ProcessDispatcher dispatcher = mock(ProcessDispatcher.class);
+    private final CorrelationResolver correlationResolver = mock(CorrelationResolver.class);
+    private final SignalFanOut signalFanOut = mock(SignalFanOut.class);
+    private final MessageDeduplicator deduplicator = mock(MessageDeduplicator.class);
+
+    private TestConnectionFactory jms;
+
+    @BeforeEach
+    void wireBuffer() {
+        ProcessDispatcherProvider dispatcherProvider = mock(ProcessDispatcherProvider.class);
+        when(dispatcherProvider.get()).thenReturn(dispatcher);
+        // Senza container le chiamate REQUIRES_NEW tramite getBusinessObject arrivano al bean stesso
+        when(context.getBusinessObject(PendingMessageBuffer.class)).thenReturn(buffer);
+        inject("store", store);
+        inject("context", context);
+        inject("dispatcherProvider", dispatcherProvider);
+        inject("correlationResolver", correlationResolver);
+        inject("signalFanOut", signalFanOut);
+        inject("deduplicator", deduplicator);
+        jms = TestConnectionFactory.install();
+    }
+
+    @AfterEach
+    void unbindResources() {
+        TestConnectionFactory.uninstall();
+    }
+
+    @Test
+    void expiredRowsAreDeadLetteredOneByOne() throws Exception {
+        PendingMessage broken = pending("p1", null, payload("figlioCompletato"));
+        PendingMessage unavailable = pending("p2", null, payload("figlioCompletato"));
+        PendingMessage expired = pending("p3", null, payload("figlioCompletato"));
+        when(store.findExpired(anyInt())).thenReturn(Arrays.asList(broken, unavailable, expired));
+        when(store.remove("p1")).thenThrow(new IllegalStateException("datasource non disponibile"));
+        when(store.remove("p2")).thenThrow(new SQLException("lock timeout"));
+        when(store.remove("p3")).thenReturn(true);
+
+        buffer.sweep(null);
+
+        verify(context).setRollbackOnly();
+        assertThat(jms.sentTo(jms.dlq)).singleElement().satisfies(sent -> {
+            assertThat(sent.properties).containsEntry(RetryPolicy.DLQ_REASON_PROPERTY, "EXPIRED");
+            assertThat(sent.properties).containsEntry("correlationKey", "ORD-1");
+        });
+    }
+
+    @Test
+    void undecodableRowIsDeadLetteredWithItsPayload() throws Exception {
+        byte[] garbage = { 0x7f, 0x00, 0x01 };
+        when(store.findActive(anyInt())).thenReturn(Collections.singletonList(pending("p1", 5L, garbage)));
+        when(dispatcher.availableSignals("c1", 5L)).thenReturn(Collections.singleton("figlioCompletato"));
+        when(store.remove("p1")).thenReturn(true);
+
+        buffer.sweep(null);
+
+        verify(context, never()).setRollbackOnly();
+        assertThat(jms.sentTo(jms.queue)).isEmpty();
+        assertThat(jms.sentTo(jms.dlq)).singleElement().satisfies(sent -> {
+            assertThat(sent.properties).containsEntry(RetryPolicy.DLQ_REASON_PROPERTY, "UNDECODABLE");
+            assertThat(sent.properties).containsEntry(PendingMessageBuffer.PAYLOAD_PROPERTY,
+                                                      Base64.getEncoder().encodeToString(garbage));
+            assertThat(sent.properties).containsEntry("messageName", "figlioCompletato");
+            assertThat(sent.properties).containsEntry(ProcessMessageCodecs.CONTAINER_PROPERTY, "c1");
+        });
+    }
+
+    @Test
+    void activeRowIsDeliveredToTheFirstWaitingInstance() throws Exception {
+        when(store.findActive(anyInt())).thenReturn(Collections.singletonList(pending("p1", null, payload("figlioCompletato"))));
+        when(correlationResolver.resolve("c1", "ORD-1")).thenReturn(Arrays.asList(4L, 5L, 6L));
+        when(dispatcher.availableSignals("c1", 4L)).thenReturn(Collections.emptyList());
+        when(dispatcher.availableSignals(eq("c1"), eq(5L))).thenReturn(Collections.singleton("figlioCompletato"));
+        when(dispatcher.availableSignals(eq("c1"), eq(6L))).thenReturn(Collections.singleton("figlioCompletato"));
+        when(store.remove("p1")).thenReturn(true);
+
+        buffer.sweep(null);
+
+        assertThat(jms.sentTo(jms.queue)).singleElement().satisfies(sent -> {
+            assertThat(sent.properties).containsEntry(ProcessMessageDecoder.TARGET_INSTANCES_PROPERTY, "5");
+            assertThat(sent.properties).containsEntry(ProcessMessageCodecs.MESSAGE_ID_PROPERTY, "p1");
+        });
+    }
+
+    @Test
+    void rowWithoutWaitingInstancesStaysInTheStore() throws Exception {
+        when(store.findActive(anyInt())).thenReturn(Collections.singletonList(pending("p1", 5L, payload("figlioCompletato"))));
+        when(dispatcher.availableSignals("c1", 5L)).thenReturn(Collections.emptyList());
+
+        buffer.sweep(null);
+
+        verify(store, never()).remove(anyString());
+        assertThat(jms.sentTo(jms.queue)).isEmpty();
+    }
+
+    @Test
+    void rowClaimedElsewhereIsNotDeliveredTwice() throws Exception {
+        when(store.findActive(anyInt())).thenReturn(Collections.singletonList(pending("p1", 5L, payload("figlioCompletato"))));
+        when(dispatcher.availableSignals("c1", 5L)).thenReturn(Collections.singleton("figlioCompletato"));
+        when(store.remove("p1")).thenReturn(false);
+
+        buffer.sweep(null);
+
+        assertThat(jms.sentTo(jms.queue)).isEmpty();
+    }
+
+    @Test
+    void failedReadSkipsTheSweep() throws Exception {
+        when(store.findExpired(anyInt())).thenThrow(new SQLException("connessione rifiutata"));
+
+        buffer.sweep(null);
+
+        verify(store, never()).findActive(anyInt());
+        verify(store, never()).remove(anyString());
+    }
+
+    @Test
+    void holdProcessedRecordsTheMessageInTheTransaction() throws Exception {
+        ProcessMessage processMessage = new ProcessMessage("figlioCompletato", "ORD-1", Collections.emptyMap());
+        Message jmsMessage = mock(Message.class);
+
+        assertThat(buffer.holdProcessed("c1", processMessage, jmsMessage)).isTrue();
+
+        verify(store).hold(eq("c1"), eq("ORD-1"), eq("figlioCompletato"), isNull(), eq(BinaryProcessMessageCodec.FORMAT),
+                           any(byte[].class), anyLong());
+        verify(deduplicator).markProcessedInTransaction(processMessage, jmsMessage);
+    }
+
+    @Test
+    void holdProcessedDoesNotRecordWhenTheStoreFails() throws Exception {
+        ProcessMessage processMessage = new ProcessMessage("figlioCompletato", "ORD-1", Collections.emptyMap());
+        when(store.hold(anyString(), anyString(), anyString(), any(), anyString(), any(byte[].class), anyLong()))
+                .thenThrow(new SQLException("tabella assente"));
+
+        assertThat(buffer.holdProcessed("c1", processMessage, mock(Message.class))).isFalse();
+
+        verify(deduplicator, never()).markProcessedInTransaction(any(), any());
+    }
+
+    @Test
+    void signalOrHoldKeepsTheMessageForInstancesNotYetWaiting() throws Exception {
+        ProcessMessage processMessage = new ProcessMessage("figlioCompletato", "ORD-1", Collections.emptyMap());
+        SignalFanOut.Outcome outcome = mock(SignalFanOut.Outcome.class);
+        when(outcome.getNotWaiting()).thenReturn(Collections.singletonList(7L));
+        when(signalFanOut.signalAll("c1", Arrays.asList(6L, 7L), "figlioCompletato", processMessage.getVariables(), true))
+                .thenReturn(outcome);
+
+        assertThat(buffer.signalOrHold("c1", processMessage, Arrays.asList(6L, 7L))).isSameAs(outcome);
+
+        verify(store).hold(eq("c1"), eq("ORD-1"), eq("figlioCompletato"), eq(7L), anyString(), any(byte[].class), anyLong());
+        verify(signalFanOut, times(1)).signalAll(anyString(), any(), anyString(), any(), anyBoolean());
+    }
+
+    @Test
+    void signalOrHoldSignalsAnywayWhenTheMessageCannotBeKept() throws Exception {
+        ProcessMessage processMessage = new ProcessMessage("figlioCompletato", "ORD-1", Collections.emptyMap());
+        SignalFanOut.Outcome outcome = mock(SignalFanOut.Outcome.class);
+        SignalFanOut.Outcome retried = mock(SignalFanOut.Outcome.class);
+        when(outcome.getNotWaiting()).thenReturn(Collections.singletonList(7L));
+        when(signalFanOut.signalAll("c1", Collections.singletonList(7L), "figlioCompletato", processMessage.getVariables(), true))
+                .thenReturn(outcome);
+        when(signalFanOut.signalAll("c1", Collections.singletonList(7L), "figlioCompletato", processMessage.getVariables(), false))
+                .thenReturn(retried);
+        when(store.hold(anyString(), anyString(), anyString(), any(), anyString(), any(byte[].class), anyLong()))
+                .thenThrow(new SQLException("tabella assente"));
+
+        buffer.signalOrHold("c1", processMessage, Collections.singletonList(7L));
+
+        verify(outcome).replaceNotWaiting(retried);
+    }
+
+    private static PendingMessage pending(String id, Long targetInstanceId, byte[] payload) {
+        long now = System.currentTimeMillis();
+        return new PendingMessage(id, "c1", "ORD-1", "figlioCompletato", targetInstanceId,
+                                  BinaryProcessMessageCodec.FORMAT, payload, now - 1_000L, now + 60_000L);
+    }
+
+    private static byte[] payload(String messageName) throws IOException {
+        Map<String, Object> variables = Collections.singletonMap("esito", "OK");
+        return new BinaryProcessMessageCodec().encode(new ProcessMessage(messageName, "ORD-1", variables));
+    }
+
+    private void inject(String name, Object value) {
+        try {
+            Field field = PendingMessageBuffer.class.getDeclaredField(name);
+            field.setAccessible(true);
+            field.set(buffer, value);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
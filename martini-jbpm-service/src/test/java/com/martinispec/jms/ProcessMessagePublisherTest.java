@@ -0,0 +1,133 @@
+package com.martinispec.jms;
+
+import com.martinispec.kie.ProcessDispatcher;
+import com.martinispec.kie.ProcessDispatcherProvider;
+import com.martinispec.kie.SignalFanOut;
+import com.martinispec.model.ProcessMessage;
+import com.martinispec.model.codec.ProcessMessageCodecs;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalStateException;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ProcessMessagePublisherTest {
+
+    private final ProcessDispatcher dispatcher = mock(ProcessDispatcher.class);
+    private final SignalFanOut fanOut = new SignalFanOut();
+    private final ProcessMessage processMessage = new ProcessMessage("figlioCompletato", "ORD-1", Collections.emptyMap());
+
+    private TestConnectionFactory jms;
+
+    @BeforeEach
+    void wireFanOut() throws ReflectiveOperationException {
+        ProcessDispatcherProvider dispatcherProvider = mock(ProcessDispatcherProvider.class);
+        when(dispatcherProvider.get()).thenReturn(dispatcher);
+        Field field = SignalFanOut.class.getDeclaredField("dispatcherProvider");
+        field.setAccessible(true);
+        field.set(fanOut, dispatcherProvider);
+        jms = TestConnectionFactory.install();
+    }
+
+    @AfterEach
+    void unbindResources() {
+        TestConnectionFactory.uninstall();
+    }
+
+    @Test
+    void failedInstancesAreRequeuedAlone() throws JMSException {
+        SignalFanOut.Outcome outcome = signal(Collections.singletonList(1L), Arrays.asList(2L, 3L));
+
+        ProcessMessagePublisher.requeueFailedSignals("c1", processMessage, message(null), outcome);
+
+        assertThat(jms.sentTo(jms.queue)).singleElement().satisfies(sent -> {
+            assertThat(sent.properties).containsEntry(ProcessMessageDecoder.TARGET_INSTANCES_PROPERTY, "2,3");
+            assertThat(sent.properties).containsEntry(ProcessMessageCodecs.CONTAINER_PROPERTY, "c1");
+            assertThat(sent.properties).containsEntry(ProcessMessageDecoder.FANOUT_ATTEMPT_PROPERTY, 1);
+            assertThat(sent.properties).containsEntry("messageName", "figlioCompletato");
+        });
+    }
+
+    @Test
+    void requeueCountsTheAttempts() throws JMSException {
+        SignalFanOut.Outcome outcome = signal(Collections.singletonList(1L), Collections.singletonList(2L));
+
+        ProcessMessagePublisher.requeueFailedSignals("c1", processMessage, message(2), outcome);
+
+        assertThat(jms.sentTo(jms.queue)).singleElement()
+                .satisfies(sent -> assertThat(sent.properties).containsEntry(ProcessMessageDecoder.FANOUT_ATTEMPT_PROPERTY, 3));
+    }
+
+    @Test
+    void exhaustedAttemptsFailTheMessage() throws JMSException {
+        SignalFanOut.Outcome outcome = signal(Collections.singletonList(1L), Collections.singletonList(2L));
+        Message requeued = message(3);
+
+        assertThatIllegalStateException()
+                .isThrownBy(() -> ProcessMessagePublisher.requeueFailedSignals("c1", processMessage, requeued, outcome))
+                .withMessageContaining("[2]");
+        assertThat(jms.sentTo(jms.queue)).isEmpty();
+    }
+
+    @Test
+    void totalFailureIsRedeliveredInstead() throws JMSException {
+        SignalFanOut.Outcome outcome = signal(Collections.emptyList(), Arrays.asList(1L, 2L));
+        Message original = message(null);
+
+        assertThatThrownBy(() -> ProcessMessagePublisher.requeueFailedSignals("c1", processMessage, original, outcome))
+                .hasMessage("signal fallito");
+        assertThat(jms.sentTo(jms.queue)).isEmpty();
+    }
+
+    @Test
+    void nothingIsRequeuedWithoutFailures() throws JMSException {
+        SignalFanOut.Outcome outcome = signal(Arrays.asList(1L, 2L), Collections.emptyList());
+
+        ProcessMessagePublisher.requeueFailedSignals("c1", processMessage, message(null), outcome);
+
+        assertThat(jms.sentTo(jms.queue)).isEmpty();
+    }
+
+    /**
+     * Esito di un fan-out con le istanze indicate fallite, composto da fan-out di una sola istanza
+     * (seriali, senza executor) perché l'ordine delle istanze ripubblicate sia deterministico.
+     */
+    private SignalFanOut.Outcome signal(List<Long> succeeding, List<Long> failing) {
+        for (Long instanceId : failing) {
+            doThrow(new IllegalStateException("signal fallito"))
+                    .when(dispatcher).signalProcessInstance(anyString(), eq(instanceId), anyString(), any());
+        }
+        SignalFanOut.Outcome outcome = fanOut.signalAll("c1", Collections.emptyList(), "figlioCompletato", null);
+        for (Long instanceId : succeeding) {
+            outcome.replaceNotWaiting(fanOut.signalAll("c1", Collections.singletonList(instanceId), "figlioCompletato", null));
+        }
+        for (Long instanceId : failing) {
+            outcome.replaceNotWaiting(fanOut.signalAll("c1", Collections.singletonList(instanceId), "figlioCompletato", null));
+        }
+        return outcome;
+    }
+
+    private static Message message(Integer fanOutAttempt) throws JMSException {
+        Message message = mock(Message.class);
+        if (fanOutAttempt != null) {
+            when(message.propertyExists(ProcessMessageDecoder.FANOUT_ATTEMPT_PROPERTY)).thenReturn(true);
+            when(message.getIntProperty(ProcessMessageDecoder.FANOUT_ATTEMPT_PROPERTY)).thenReturn(fanOutAttempt);
+        }
+        return message;
+    }
+}
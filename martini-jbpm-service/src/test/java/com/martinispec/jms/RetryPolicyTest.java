@@ -0,0 +1,71 @@
+package com.martinispec.jms;
+
+import org.junit.jupiter.api.Test;
+import org.kie.server.api.exception.KieServicesHttpException;
+
+import javax.jms.MessageFormatException;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RetryPolicyTest {
+
+    @Test
+    void invalidInputIsPermanent() {
+        assertThat(RetryPolicy.isTransient(new IllegalArgumentException("variabile mancante"))).isFalse();
+        assertThat(RetryPolicy.isTransient(new ClassCastException())).isFalse();
+        assertThat(RetryPolicy.isTransient(new MessageFormatException("payload"))).isFalse();
+        assertThat(RetryPolicy.isTransient(new IllegalStateException("dispatch", new IllegalArgumentException("causa")))).isFalse();
+    }
+
+    @Test
+    void ioErrorsAreTransient() {
+        assertThat(RetryPolicy.isTransient(new IOException("connection reset"))).isTrue();
+        assertThat(RetryPolicy.isTransient(new RuntimeException(new SocketTimeoutException("read timed out")))).isTrue();
+        assertThat(RetryPolicy.isTransient(new IllegalStateException("Limite di concorrenza saturo"))).isTrue();
+    }
+
+    @Test
+    void httpStatusDecidesForKieServerErrors() {
+        assertThat(RetryPolicy.isTransient(http(400))).isFalse();
+        assertThat(RetryPolicy.isTransient(http(422))).isFalse();
+        assertThat(RetryPolicy.isTransient(http(404))).isTrue();
+        assertThat(RetryPolicy.isTransient(http(503))).isTrue();
+        assertThat(RetryPolicy.isTransient(http(null))).isTrue();
+        assertThat(RetryPolicy.isTransient(new RuntimeException("signal", http(500)))).isTrue();
+    }
+
+    @Test
+    void selfCausedExceptionTerminates() {
+        RuntimeException error = new RuntimeException() {
+            @Override
+            public synchronized Throwable getCause() {
+                return this;
+            }
+        };
+        assertThat(RetryPolicy.isTransient(error)).isTrue();
+    }
+
+    @Test
+    void backoffGrowsExponentiallyWithJitter() {
+        for (int i = 0; i < 100; i++) {
+            assertThat(RetryPolicy.backoff(0)).isBetween(800L, 1200L);
+            assertThat(RetryPolicy.backoff(1)).isBetween(800L, 1200L);
+            assertThat(RetryPolicy.backoff(2)).isBetween(1600L, 2400L);
+            assertThat(RetryPolicy.backoff(4)).isBetween(6400L, 9600L);
+        }
+    }
+
+    @Test
+    void backoffIsCappedAtMaxDelay() {
+        for (int i = 0; i < 100; i++) {
+            assertThat(RetryPolicy.backoff(30)).isBetween(240_000L, 360_000L);
+            assertThat(RetryPolicy.backoff(Integer.MAX_VALUE)).isBetween(240_000L, 360_000L);
+        }
+    }
+
+    private static KieServicesHttpException http(Integer code) {
+        return new KieServicesHttpException("KIE Server " + code, code, "http://kie/server", "");
+    }
+}
@@ -0,0 +1,127 @@
+package com.martinispec.jms;
+
+import javax.jms.BytesMessage;
+import javax.jms.ConnectionFactory;
+import javax.jms.Destination;
+import javax.jms.JMSContext;
+import javax.jms.JMSException;
+import javax.jms.JMSProducer;
+import javax.jms.Message;
+import javax.jms.ObjectMessage;
+import javax.jms.Queue;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * java:/JmsXA simulata per i test che pubblicano con ProcessMessagePublisher: registra in JNDI
+ * (TestNamingContextFactory) factory, coda dei messaggi e DLQ e raccoglie proprietà e corpo dei messaggi inviati.
+ *
+ * ProcessMessagePublisher tiene in cache factory e destinazioni: install() e uninstall() le azzerano,
+ * così ogni test usa le proprie.
+ */
+final class TestConnectionFactory {
+
+    static final String QUEUE_JNDI = "java:/jms/queue/PROCESS.MESSAGES";
+
+    final Queue queue = mock(Queue.class);
+    final Queue dlq = mock(Queue.class);
+    final JMSProducer producer = mock(JMSProducer.class);
+
+    private final List<Sent> sent = new ArrayList<>();
+    private final Map<Message, Map<String, Object>> properties = new IdentityHashMap<>();
+    private final Map<Message, byte[]> bodies = new IdentityHashMap<>();
+
+    /**
+     * Messaggio inviato: destinazione, proprietà impostate e corpo (BytesMessage, altrimenti null).
+     */
+    static final class Sent {
+
+        final Destination destination;
+        final Map<String, Object> properties;
+        final byte[] body;
+
+        private Sent(Destination destination, Map<String, Object> properties, byte[] body) {
+            this.destination = destination;
+            this.properties = properties;
+            this.body = body;
+        }
+    }
+
+    static TestConnectionFactory install() {
+        TestConnectionFactory factory = new TestConnectionFactory();
+        resetPublisher();
+        TestNamingContextFactory.install();
+        TestNamingContextFactory.bind("java:/JmsXA", factory.connectionFactory());
+        TestNamingContextFactory.bind(QUEUE_JNDI, factory.queue);
+        TestNamingContextFactory.bind(RetryPolicy.DLQ_JNDI, factory.dlq);
+        return factory;
+    }
+
+    static void uninstall() {
+        TestNamingContextFactory.uninstall();
+        resetPublisher();
+    }
+
+    List<Sent> sentTo(Destination destination) {
+        return sent.stream().filter(s -> s.destination == destination).collect(Collectors.toList());
+    }
+
+    private ConnectionFactory connectionFactory() {
+        ConnectionFactory connectionFactory = mock(ConnectionFactory.class);
+        JMSContext context = mock(JMSContext.class);
+        when(connectionFactory.createContext()).thenReturn(context);
+        when(context.createProducer()).thenReturn(producer);
+        when(context.createBytesMessage()).thenAnswer(invocation -> message(BytesMessage.class));
+        when(context.createObjectMessage(any())).thenAnswer(invocation -> message(ObjectMessage.class));
+        when(producer.setDeliveryMode(anyInt())).thenReturn(producer);
+        when(producer.setPriority(anyInt())).thenReturn(producer);
+        when(producer.setDeliveryDelay(anyLong())).thenReturn(producer);
+        when(producer.send(any(Destination.class), any(Message.class))).thenAnswer(invocation -> {
+            Message message = invocation.getArgument(1);
+            sent.add(new Sent(invocation.getArgument(0), properties.get(message), bodies.get(message)));
+            return producer;
+        });
+        return connectionFactory;
+    }
+
+    private <T extends Message> T message(Class<T> type) throws JMSException {
+        T message = mock(type);
+        Map<String, Object> values = new HashMap<>();
+        properties.put(message, values);
+        doAnswer(invocation -> values.put(invocation.getArgument(0), invocation.getArgument(1)))
+                .when(message).setObjectProperty(anyString(), any());
+        doAnswer(invocation -> values.put(invocation.getArgument(0), invocation.getArgument(1)))
+                .when(message).setStringProperty(anyString(), any());
+        if (message instanceof BytesMessage) {
+            doAnswer(invocation -> bodies.put(message, invocation.getArgument(0)))
+                    .when((BytesMessage) message).writeBytes(any(byte[].class));
+        }
+        return message;
+    }
+
+    private static void resetPublisher() {
+        try {
+            Field connectionFactory = ProcessMessagePublisher.class.getDeclaredField("connectionFactory");
+            connectionFactory.setAccessible(true);
+            connectionFactory.set(null, null);
+            Field destinations = ProcessMessagePublisher.class.getDeclaredField("DESTINATIONS");
+            destinations.setAccessible(true);
+            ((Map<?, ?>) destinations.get(null)).clear();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.martinispec.jms;
+
+import javax.naming.Context;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingException;
+import javax.naming.spi.InitialContextFactory;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * JNDI in memoria per i test: i bean del servizio fanno lookup con new InitialContext().
+ *
+ * install() imposta java.naming.factory.initial, bind() registra gli oggetti; uninstall() ripristina
+ * la proprietà precedente e svuota i binding.
+ */
+public final class TestNamingContextFactory implements InitialContextFactory {
+
+    private static final Map<String, Object> BINDINGS = new ConcurrentHashMap<>();
+
+    private static String previous;
+
+    public static void install() {
+        previous = System.setProperty(Context.INITIAL_CONTEXT_FACTORY, TestNamingContextFactory.class.getName());
+    }
+
+    public static void uninstall() {
+        BINDINGS.clear();
+        if (previous == null) {
+            System.clearProperty(Context.INITIAL_CONTEXT_FACTORY);
+        } else {
+            System.setProperty(Context.INITIAL_CONTEXT_FACTORY, previous);
+        }
+    }
+
+    public static void bind(String name, Object value) {
+        BINDINGS.put(name, value);
+    }
+
+    @Override
+    public Context getInitialContext(Hashtable<?, ?> environment) throws NamingException {
+        Context context = mock(Context.class);
+        when(context.lookup(anyString())).thenAnswer(invocation -> {
+            String name = invocation.getArgument(0);
+            Object value = BINDINGS.get(name);
+            if (value == null) {
+                throw new NameNotFoundException(name);
+            }
+            return value;
+        });
+        return context;
+    }
+}
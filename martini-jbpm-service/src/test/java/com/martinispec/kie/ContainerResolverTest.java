@@ -0,0 +1,111 @@
+package com.martinispec.kie;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.kie.server.api.model.KieContainerResource;
+import org.kie.server.api.model.KieContainerResourceList;
+import org.kie.server.api.model.KieContainerStatus;
+import org.kie.server.api.model.ReleaseId;
+import org.kie.server.api.model.ServiceResponse;
+import org.kie.server.client.KieServicesClient;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ContainerResolverTest {
+
+    private final ContainerResolver resolver = new ContainerResolver();
+    private final KieServicesClient client = mock(KieServicesClient.class);
+
+    @BeforeEach
+    void wireResolver() throws ReflectiveOperationException {
+        KieClientProvider kieClient = mock(KieClientProvider.class);
+        when(kieClient.execute(any())).thenAnswer(invocation -> {
+            Function<KieServicesClient, ?> call = invocation.getArgument(0);
+            return call.apply(client);
+        });
+        Field field = ContainerResolver.class.getDeclaredField("kieClient");
+        field.setAccessible(true);
+        field.set(resolver, kieClient);
+    }
+
+    @Test
+    void aliasResolvesToStartedContainersLatestFirst() {
+        containers(container("ordini_1.0.0", "ordini", "1.0.0", KieContainerStatus.STARTED),
+                   container("ordini_1.2.0", "ordini", "1.2.0", KieContainerStatus.STARTED),
+                   container("ordini_1.3.0", "ordini", "1.3.0", KieContainerStatus.STOPPED),
+                   container("ordini_1.1.0", "ordini", "1.1.0", KieContainerStatus.STARTED));
+
+        assertThat(resolver.resolve("ordini")).containsExactly("ordini_1.2.0", "ordini_1.1.0", "ordini_1.0.0");
+        assertThat(resolver.latest(" ordini ")).isEqualTo("ordini_1.2.0");
+    }
+
+    @Test
+    void containerIdResolvesToItself() {
+        containers(container("ordini_1.0.0", "ordini", "1.0.0", KieContainerStatus.STARTED),
+                   container("ordini_1.1.0", "ordini", "1.1.0", KieContainerStatus.STARTED));
+
+        assertThat(resolver.resolve("ordini_1.0.0")).containsExactly("ordini_1.0.0");
+    }
+
+    @Test
+    void containerIdWinsOverAliasWithTheSameName() {
+        containers(container("ordini", null, "1.0.0", KieContainerStatus.STARTED),
+                   container("ordini_2.0.0", "ordini", "2.0.0", KieContainerStatus.STARTED));
+
+        assertThat(resolver.resolve("ordini")).containsExactly("ordini");
+    }
+
+    @Test
+    void unknownTargetIsKeptAsIs() {
+        containers(container("ordini_1.0.0", "ordini", "1.0.0", KieContainerStatus.STARTED));
+
+        assertThat(resolver.resolve("fatture")).containsExactly("fatture");
+    }
+
+    @Test
+    void containersAreListedOnceUntilInvalidated() {
+        containers(container("ordini_1.0.0", "ordini", "1.0.0", KieContainerStatus.STARTED));
+
+        resolver.resolve("ordini");
+        resolver.resolve("ordini");
+        verify(client, times(1)).listContainers();
+
+        containers(container("ordini_1.0.0", "ordini", "1.0.0", KieContainerStatus.STARTED),
+                   container("ordini_1.1.0", "ordini", "1.1.0", KieContainerStatus.STARTED));
+        resolver.invalidate();
+
+        assertThat(resolver.resolve("ordini")).containsExactly("ordini_1.1.0", "ordini_1.0.0");
+        verify(client, times(2)).listContainers();
+    }
+
+    @Test
+    void failedListingKeepsTheLastKnownContainers() {
+        containers(container("ordini_1.0.0", "ordini", "1.0.0", KieContainerStatus.STARTED));
+        resolver.resolve("ordini");
+
+        when(client.listContainers()).thenThrow(new IllegalStateException("KIE Server non raggiungibile"));
+        resolver.invalidate();
+
+        assertThat(resolver.resolve("ordini")).containsExactly("ordini_1.0.0");
+    }
+
+    private void containers(KieContainerResource... containers) {
+        when(client.listContainers()).thenReturn(
+                new ServiceResponse<>(ServiceResponse.ResponseType.SUCCESS, null, new KieContainerResourceList(Arrays.asList(containers))));
+    }
+
+    private static KieContainerResource container(String containerId, String alias, String version, KieContainerStatus status) {
+        KieContainerResource container = new KieContainerResource(containerId, new ReleaseId("com.martinispec", "martiniavicolo", version), status);
+        container.setContainerAlias(alias);
+        return container;
+    }
+}
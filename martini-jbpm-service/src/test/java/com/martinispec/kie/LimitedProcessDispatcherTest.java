@@ -0,0 +1,228 @@
+package com.martinispec.kie;
+
+import com.martinispec.model.metrics.MessagingMetrics;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.kie.server.api.exception.KieServicesHttpException;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalStateException;
+
+class LimitedProcessDispatcherTest {
+
+    private static final Map<String, String> CONFIGURATION = new HashMap<>();
+    private static final Map<String, String> PREVIOUS = new HashMap<>();
+
+    static {
+        CONFIGURATION.put("martini.dispatch.limit.max", "4");
+        CONFIGURATION.put("martini.dispatch.limit.initial", "4");
+        CONFIGURATION.put("martini.dispatch.limit.min", "1");
+        CONFIGURATION.put("martini.dispatch.limit.latency", "60000");
+        CONFIGURATION.put("martini.dispatch.limit.acquire.timeout", "300");
+    }
+
+    /**
+     * Le proprietà sono lette all'inizializzazione di LimitedProcessDispatcher, che avviene nel primo test.
+     */
+    @BeforeAll
+    static void configure() {
+        CONFIGURATION.forEach((name, value) -> PREVIOUS.put(name, System.setProperty(name, value)));
+    }
+
+    @AfterAll
+    static void restoreConfiguration() {
+        PREVIOUS.forEach((name, value) -> {
+            if (value == null) {
+                System.clearProperty(name);
+            } else {
+                System.setProperty(name, value);
+            }
+        });
+    }
+
+    @Test
+    void overloadDecreasesLimitMultiplicatively() {
+        StubDispatcher stub = new StubDispatcher("overload");
+        LimitedProcessDispatcher dispatcher = new LimitedProcessDispatcher(stub);
+        assertThat(limit(stub)).isEqualTo(4);
+
+        stub.failure = new RuntimeException(new SocketTimeoutException("read timed out"));
+        fail(dispatcher);
+        assertThat(limit(stub)).isEqualTo(3);
+        fail(dispatcher);
+        assertThat(limit(stub)).isEqualTo(2);
+        for (int i = 0; i < 5; i++) {
+            fail(dispatcher);
+        }
+        assertThat(limit(stub)).isEqualTo(1);
+    }
+
+    @Test
+    void onlyOverloadErrorsDecreaseLimit() {
+        StubDispatcher stub = new StubDispatcher("errors");
+        LimitedProcessDispatcher dispatcher = new LimitedProcessDispatcher(stub);
+
+        stub.failure = new IllegalArgumentException("variabile non valida");
+        fail(dispatcher);
+        stub.failure = new KieServicesHttpException("Bad Request", 400, "http://kie/server", "");
+        fail(dispatcher);
+        assertThat(limit(stub)).isEqualTo(4);
+
+        stub.failure = new KieServicesHttpException("Service Unavailable", 503, "http://kie/server", "");
+        fail(dispatcher);
+        assertThat(limit(stub)).isEqualTo(3);
+    }
+
+    @Test
+    void limitGrowsAdditivelyOnlyWhileSaturated() {
+        StubDispatcher stub = new StubDispatcher("increase");
+        LimitedProcessDispatcher dispatcher = new LimitedProcessDispatcher(stub);
+        stub.failure = new RuntimeException(new IOException("connection reset"));
+        fail(dispatcher);
+        fail(dispatcher);
+        assertThat(limit(stub)).isEqualTo(2);
+
+        // Una chiamata alla volta satura il limite 2 (metà dei permessi) ma non il limite 3
+        stub.failure = null;
+        for (int i = 0; i < 20; i++) {
+            dispatcher.startProcess("c", "p", Collections.emptyMap());
+        }
+        assertThat(limit(stub)).isEqualTo(3);
+    }
+
+    @Test
+    void concurrentFailuresDecreaseOncePerWindow() throws Exception {
+        StubDispatcher stub = new StubDispatcher("window");
+        LimitedProcessDispatcher dispatcher = new LimitedProcessDispatcher(stub);
+        stub.failure = new RuntimeException(new IOException("connection reset"));
+        stub.entered = new CountDownLatch(2);
+        stub.proceed = new CountDownLatch(1);
+
+        ExecutorService callers = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> first = callers.submit(() -> fail(dispatcher));
+            Future<?> second = callers.submit(() -> fail(dispatcher));
+            assertThat(stub.entered.await(5, TimeUnit.SECONDS)).isTrue();
+            stub.proceed.countDown();
+            first.get(5, TimeUnit.SECONDS);
+            second.get(5, TimeUnit.SECONDS);
+        } finally {
+            callers.shutdownNow();
+        }
+        assertThat(limit(stub)).isEqualTo(3);
+    }
+
+    @Test
+    void callFailsWhenNoPermitWithinTimeout() throws Exception {
+        StubDispatcher stub = new StubDispatcher("timeout");
+        LimitedProcessDispatcher dispatcher = new LimitedProcessDispatcher(stub);
+        stub.failure = new RuntimeException(new IOException("connection reset"));
+        for (int i = 0; i < 3; i++) {
+            fail(dispatcher);
+        }
+        assertThat(limit(stub)).isEqualTo(1);
+
+        stub.failure = null;
+        stub.entered = new CountDownLatch(1);
+        stub.proceed = new CountDownLatch(1);
+        ExecutorService caller = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> busy = caller.submit(() -> dispatcher.startProcess("c", "p", Collections.emptyMap()));
+            assertThat(stub.entered.await(5, TimeUnit.SECONDS)).isTrue();
+            stub.entered = null;
+
+            assertThatIllegalStateException()
+                    .isThrownBy(() -> dispatcher.availableSignals("c", 1L))
+                    .withMessageContaining("saturo");
+
+            stub.proceed.countDown();
+            busy.get(5, TimeUnit.SECONDS);
+        } finally {
+            caller.shutdownNow();
+        }
+        stub.proceed = null;
+        assertThat(dispatcher.availableSignals("c", 1L)).isEmpty();
+    }
+
+    private static void fail(LimitedProcessDispatcher dispatcher) {
+        try {
+            dispatcher.signalProcessInstance("c", 1L, "s", null);
+        } catch (RuntimeException expected) {
+            return;
+        }
+        throw new AssertionError("Attesa un'eccezione dal dispatcher");
+    }
+
+    private static long limit(StubDispatcher stub) {
+        return MessagingMetrics.forComponent("service").gauge("martini_dispatch_concurrency_limit", "mode", stub.mode()).get();
+    }
+
+    /**
+     * Dispatcher che fallisce con l'eccezione indicata e, se configurato, attende prima di rispondere.
+     */
+    private static final class StubDispatcher implements ProcessDispatcher {
+
+        private final String mode;
+        volatile RuntimeException failure;
+        volatile CountDownLatch entered;
+        volatile CountDownLatch proceed;
+
+        StubDispatcher(String mode) {
+            this.mode = "test-" + mode;
+        }
+
+        @Override
+        public Long startProcess(String containerId, String processId, Map<String, Object> variables) {
+            invoke();
+            return 1L;
+        }
+
+        @Override
+        public void signalProcessInstance(String containerId, Long processInstanceId, String signalName, Object event) {
+            invoke();
+        }
+
+        @Override
+        public Collection<String> availableSignals(String containerId, Long processInstanceId) {
+            invoke();
+            return Collections.emptyList();
+        }
+
+        @Override
+        public String mode() {
+            return mode;
+        }
+
+        private void invoke() {
+            CountDownLatch enteredLatch = entered;
+            CountDownLatch proceedLatch = proceed;
+            if (enteredLatch != null) {
+                enteredLatch.countDown();
+            }
+            if (proceedLatch != null) {
+                try {
+                    proceedLatch.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            RuntimeException error = failure;
+            if (error != null) {
+                throw error;
+            }
+        }
+    }
+}
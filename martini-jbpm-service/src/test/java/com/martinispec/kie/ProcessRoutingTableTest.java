@@ -0,0 +1,151 @@
+package com.martinispec.kie;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.kie.server.api.model.KieContainerResource;
+import org.kie.server.api.model.ReleaseId;
+import org.kie.server.api.model.ServiceResponse;
+import org.kie.server.api.model.definition.ProcessDefinition;
+import org.kie.server.client.KieServicesClient;
+import org.kie.server.client.QueryServicesClient;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalStateException;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ProcessRoutingTableTest {
+
+    private static final String ROUTING_PROPERTY = "message.routing.avviaFiglio";
+
+    private final ProcessRoutingTable table = new ProcessRoutingTable();
+    private final KieServicesClient client = mock(KieServicesClient.class);
+    private final QueryServicesClient queryClient = mock(QueryServicesClient.class);
+
+    private String previous;
+
+    @BeforeEach
+    void wireTable() throws ReflectiveOperationException {
+        previous = System.setProperty(ROUTING_PROPERTY, "com.martinispec.processofiglio");
+        KieClientProvider kieClient = mock(KieClientProvider.class);
+        when(kieClient.execute(any())).thenAnswer(invocation -> {
+            Function<KieServicesClient, ?> call = invocation.getArgument(0);
+            return call.apply(client);
+        });
+        when(client.getServicesClient(QueryServicesClient.class)).thenReturn(queryClient);
+        when(queryClient.findProcessesByContainerId(anyString(), anyInt(), anyInt())).thenReturn(Arrays.asList(
+                ProcessDefinition.builder().id("com.martinispec.processofiglio").build(),
+                ProcessDefinition.builder().id("com.martinispec.processopadre").build()));
+        Field field = ProcessRoutingTable.class.getDeclaredField("kieClient");
+        field.setAccessible(true);
+        field.set(table, kieClient);
+    }
+
+    @AfterEach
+    void restoreRouting() {
+        if (previous == null) {
+            System.clearProperty(ROUTING_PROPERTY);
+        } else {
+            System.setProperty(ROUTING_PROPERTY, previous);
+        }
+    }
+
+    @Test
+    void tableIsBuiltOncePerContainer() {
+        containerFound("martiniavicolo_1.0.0");
+
+        assertThat(table.resolve("martiniavicolo_1.0.0", "avviaFiglio")).isEqualTo("com.martinispec.processofiglio");
+        assertThat(table.resolve("martiniavicolo_1.0.0", "avviaFiglio")).isEqualTo("com.martinispec.processofiglio");
+        assertThat(table.resolve("martiniavicolo_1.0.0", "sconosciuto")).isNull();
+
+        verify(queryClient, times(1)).findProcessesByContainerId("martiniavicolo_1.0.0", 0, 1000);
+        assertThat(table.availableProcesses("martiniavicolo_1.0.0"))
+                .containsExactly("com.martinispec.processofiglio", "com.martinispec.processopadre");
+    }
+
+    @Test
+    void failedBuildIsNotCached() {
+        ServiceResponse<KieContainerResource> missing = new ServiceResponse<>(ServiceResponse.ResponseType.FAILURE, "non trovato");
+        when(client.getContainerInfo("martiniavicolo_1.0.0")).thenReturn(missing);
+
+        assertThatIllegalStateException().isThrownBy(() -> table.resolve("martiniavicolo_1.0.0", "avviaFiglio"));
+        assertThat(table.availableProcesses("martiniavicolo_1.0.0")).isEmpty();
+
+        containerFound("martiniavicolo_1.0.0");
+
+        assertThat(table.resolve("martiniavicolo_1.0.0", "avviaFiglio")).isEqualTo("com.martinispec.processofiglio");
+    }
+
+    @Test
+    void slowBuildDoesNotBlockOtherMessages() throws Exception {
+        // Con la costruzione dentro computeIfAbsent il secondo messaggio attenderebbe la chiamata REST del primo
+        KieContainerResource container = container("martiniavicolo_1.0.0");
+        CountDownLatch firstCallStarted = new CountDownLatch(1);
+        CountDownLatch releaseFirstCall = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+        when(client.getContainerInfo("martiniavicolo_1.0.0")).thenAnswer(invocation -> {
+            if (calls.incrementAndGet() == 1) {
+                firstCallStarted.countDown();
+                releaseFirstCall.await(10, TimeUnit.SECONDS);
+            }
+            return new ServiceResponse<>(ServiceResponse.ResponseType.SUCCESS, "", container);
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> slow = executor.submit(() -> table.resolve("martiniavicolo_1.0.0", "avviaFiglio"));
+            assertThat(firstCallStarted.await(5, TimeUnit.SECONDS)).isTrue();
+
+            Future<String> fast = executor.submit(() -> table.resolve("martiniavicolo_1.0.0", "avviaFiglio"));
+            assertThat(fast.get(2, TimeUnit.SECONDS)).isEqualTo("com.martinispec.processofiglio");
+
+            releaseFirstCall.countDown();
+            assertThat(slow.get(5, TimeUnit.SECONDS)).isEqualTo("com.martinispec.processofiglio");
+        } finally {
+            releaseFirstCall.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void unresolvedMessageNamesAreBounded() {
+        ProcessRoutingTable.Routes routes = new ProcessRoutingTable.Routes("g:a:1", Collections.emptyMap(), Collections.emptyMap(),
+                Collections.singletonMap("avviaFiglio", "com.martinispec.processofiglio"), Collections.emptyMap(), false, 3);
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(routes.resolve("sconosciuto" + i)).isNull();
+        }
+
+        assertThat(routes.unresolvedCount()).isEqualTo(3);
+        assertThat(routes.resolve("avviaFiglio")).isEqualTo("com.martinispec.processofiglio");
+        assertThat(routes.resolve("sconosciuto9")).isNull();
+    }
+
+    private void containerFound(String containerId) {
+        when(client.getContainerInfo(containerId))
+                .thenReturn(new ServiceResponse<>(ServiceResponse.ResponseType.SUCCESS, "", container(containerId)));
+    }
+
+    private static KieContainerResource container(String containerId) {
+        KieContainerResource container = new KieContainerResource();
+        container.setContainerId(containerId);
+        container.setReleaseId(new ReleaseId("com.martinispec", "martiniavicolo", containerId.substring(containerId.indexOf('_') + 1)));
+        return container;
+    }
+}
@@ -0,0 +1,144 @@
+package com.martinispec.kie;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.kie.server.api.exception.KieServicesHttpException;
+
+import javax.enterprise.concurrent.ManagedExecutorService;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SignalFanOutTest {
+
+    private final ProcessDispatcher dispatcher = mock(ProcessDispatcher.class);
+    private final ExecutorService pool = Executors.newFixedThreadPool(16);
+    private final SignalFanOut fanOut = new SignalFanOut();
+
+    @BeforeEach
+    void wireFanOut() {
+        ProcessDispatcherProvider dispatcherProvider = mock(ProcessDispatcherProvider.class);
+        when(dispatcherProvider.get()).thenReturn(dispatcher);
+        inject("dispatcherProvider", dispatcherProvider);
+        inject("executor", managed(pool));
+    }
+
+    @AfterEach
+    void stopPool() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    void outcomeSeparatesSignalledGoneAndFailedInstances() {
+        doThrow(new KieServicesHttpException("non trovata", 404, "url", ""))
+                .when(dispatcher).signalProcessInstance("c1", 2L, "figlioCompletato", "evento");
+        RuntimeException unavailable = new KieServicesHttpException("non disponibile", 503, "url", "");
+        doThrow(unavailable).when(dispatcher).signalProcessInstance("c1", 3L, "figlioCompletato", "evento");
+
+        SignalFanOut.Outcome outcome = fanOut.signalAll("c1", Arrays.asList(1L, 2L, 3L, 4L), "figlioCompletato", "evento");
+
+        assertThat(outcome.getSignalled()).containsExactlyInAnyOrder(1L, 4L);
+        assertThat(outcome.getGone()).containsExactly(2L);
+        assertThat(outcome.getFailed()).containsOnlyKeys(3L).containsValue(unavailable);
+        assertThat(outcome.hasFailures()).isTrue();
+        assertThat(outcome.isTotalFailure()).isFalse();
+        assertThat(outcome.isDispatchOnly()).isFalse();
+    }
+
+    @Test
+    void everyInstanceFailingIsATotalFailure() {
+        doThrow(new IllegalStateException("timeout")).when(dispatcher).signalProcessInstance(anyString(), anyLong(), anyString(), any());
+
+        SignalFanOut.Outcome outcome = fanOut.signalAll("c1", Arrays.asList(1L, 2L), "figlioCompletato", null);
+
+        assertThat(outcome.getFailed()).containsOnlyKeys(1L, 2L);
+        assertThat(outcome.isTotalFailure()).isTrue();
+    }
+
+    @Test
+    void onlyWaitingSkipsInstancesNotYetAtTheEvent() {
+        when(dispatcher.availableSignals("c1", 1L)).thenReturn(Collections.singleton("figlioCompletato"));
+        when(dispatcher.availableSignals("c1", 2L)).thenReturn(Collections.emptyList());
+
+        SignalFanOut.Outcome outcome = fanOut.signalAll("c1", Arrays.asList(1L, 2L), "figlioCompletato", null, true);
+
+        assertThat(outcome.getSignalled()).containsExactly(1L);
+        assertThat(outcome.getNotWaiting()).containsExactly(2L);
+        assertThat(outcome.isDispatchOnly()).isFalse();
+        verify(dispatcher, never()).signalProcessInstance(eq("c1"), eq(2L), anyString(), any());
+    }
+
+    @Test
+    void replaceNotWaitingMergesTheSecondFanOut() {
+        when(dispatcher.availableSignals(anyString(), anyLong())).thenReturn(Collections.emptyList());
+        SignalFanOut.Outcome outcome = fanOut.signalAll("c1", Collections.singletonList(2L), "figlioCompletato", null, true);
+
+        outcome.replaceNotWaiting(fanOut.signalAll("c1", Collections.singletonList(2L), "figlioCompletato", null, false));
+
+        assertThat(outcome.getNotWaiting()).isEmpty();
+        assertThat(outcome.getSignalled()).containsExactly(2L);
+        assertThat(outcome.isDispatchOnly()).isTrue();
+    }
+
+    @Test
+    void parallelSignalsAreLimited() {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        doAnswer(invocation -> {
+            peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+            TimeUnit.MILLISECONDS.sleep(20);
+            running.decrementAndGet();
+            return null;
+        }).when(dispatcher).signalProcessInstance(anyString(), anyLong(), anyString(), any());
+        List<Long> instances = LongStream.rangeClosed(1, 40).boxed().collect(Collectors.toList());
+
+        SignalFanOut.Outcome outcome = fanOut.signalAll("c1", instances, "figlioCompletato", null);
+
+        assertThat(outcome.getSignalled()).containsExactlyInAnyOrderElementsOf(instances);
+        // Default martini.signal.fanout.parallelism = 8
+        assertThat(peak.get()).isBetween(2, 8);
+    }
+
+    private void inject(String name, Object value) {
+        try {
+            Field field = SignalFanOut.class.getDeclaredField(name);
+            field.setAccessible(true);
+            field.set(fanOut, value);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static ManagedExecutorService managed(ExecutorService delegate) {
+        return (ManagedExecutorService) Proxy.newProxyInstance(ManagedExecutorService.class.getClassLoader(),
+                new Class<?>[] { ManagedExecutorService.class }, (proxy, method, args) -> {
+                    try {
+                        return method.invoke(delegate, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+}
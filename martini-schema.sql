@@ -0,0 +1,77 @@
+-- Tabelle di supporto della comunicazione JMS tra processi (datasource -Dmartini.datasource,
+-- default quello di jBPM). Stesse definizioni create all'avvio da SchemaInitializer di martini-jbpm-service:
+-- lo script serve quando il DDL non è consentito all'utente applicativo (-Dmartini.schema.create=false).
+--
+-- Colonne PAYLOAD: BLOB; su PostgreSQL sostituire con BYTEA, su SQL Server con VARBINARY(MAX).
+
+-- Indice delle correlation key (CorrelationIndexEventListener, KJAR)
+CREATE TABLE MARTINI_CORRELATION_INDEX (
+    PROCESS_INSTANCE_ID BIGINT NOT NULL,
+    VARIABLE_NAME VARCHAR(255) NOT NULL,
+    CORRELATION_KEY VARCHAR(255) NOT NULL,
+    CONTAINER_ID VARCHAR(255),
+    PRIMARY KEY (PROCESS_INSTANCE_ID, VARIABLE_NAME));
+CREATE INDEX IDX_MARTINI_CORR_KEY ON MARTINI_CORRELATION_INDEX (CORRELATION_KEY);
+
+-- Signal arrivati in anticipo (PendingMessageBuffer, PendingMessageEventListener)
+CREATE TABLE MARTINI_PENDING_MESSAGE (
+    ID VARCHAR(36) NOT NULL,
+    CONTAINER_ID VARCHAR(255) NOT NULL,
+    CORRELATION_KEY VARCHAR(255) NOT NULL,
+    MESSAGE_NAME VARCHAR(255) NOT NULL,
+    TARGET_INSTANCE_ID BIGINT,
+    FORMAT VARCHAR(32) NOT NULL,
+    PAYLOAD BLOB NOT NULL,
+    CREATED_AT BIGINT NOT NULL,
+    EXPIRES_AT BIGINT NOT NULL,
+    PRIMARY KEY (ID));
+CREATE INDEX IDX_MARTINI_PENDING_KEY ON MARTINI_PENDING_MESSAGE (CORRELATION_KEY, MESSAGE_NAME);
+CREATE INDEX IDX_MARTINI_PENDING_EXP ON MARTINI_PENDING_MESSAGE (EXPIRES_AT);
+
+-- Messaggi già elaborati (MessageDeduplicator)
+CREATE TABLE MARTINI_PROCESSED_MESSAGE (
+    MESSAGE_KEY VARCHAR(255) NOT NULL,
+    MESSAGE_NAME VARCHAR(255),
+    PROCESSED_AT BIGINT NOT NULL,
+    PRIMARY KEY (MESSAGE_KEY));
+CREATE INDEX IDX_MARTINI_PROCESSED_AT ON MARTINI_PROCESSED_MESSAGE (PROCESSED_AT);
+
+-- Outbox (JmsSendMessageHandler, OutboxRelay)
+CREATE TABLE MARTINI_OUTBOX (
+    ID VARCHAR(36) NOT NULL,
+    DESTINATION VARCHAR(255) NOT NULL,
+    MESSAGE_NAME VARCHAR(255) NOT NULL,
+    CORRELATION_KEY VARCHAR(255),
+    TARGET_CONTAINER VARCHAR(255),
+    FORMAT VARCHAR(32) NOT NULL,
+    PAYLOAD BLOB NOT NULL,
+    CREATED_AT BIGINT NOT NULL,
+    SEQ BIGINT NOT NULL,
+    PRIMARY KEY (ID));
+CREATE INDEX IDX_MARTINI_OUTBOX_ORDER ON MARTINI_OUTBOX (CREATED_AT, SEQ);
+
+-- Claim-check dei payload grandi (ClaimCheck)
+CREATE TABLE MARTINI_PAYLOAD (
+    ID VARCHAR(36) NOT NULL,
+    CONTENT_HASH VARCHAR(64) NOT NULL,
+    SIZE_BYTES BIGINT NOT NULL,
+    PAYLOAD BLOB NOT NULL,
+    CREATED_AT BIGINT NOT NULL,
+    PRIMARY KEY (ID));
+CREATE INDEX IDX_MARTINI_PAYLOAD_CREATED ON MARTINI_PAYLOAD (CREATED_AT);
+
+-- Aggregazione dei completamenti (MessageAggregator)
+CREATE TABLE MARTINI_AGGREGATION (
+    ID VARCHAR(36) NOT NULL,
+    GROUP_KEY VARCHAR(36) NOT NULL,
+    MESSAGE_NAME VARCHAR(255) NOT NULL,
+    CORRELATION_KEY VARCHAR(255) NOT NULL,
+    TARGET_CONTAINER VARCHAR(255),
+    EXPECTED INTEGER NOT NULL,
+    FORMAT VARCHAR(32) NOT NULL,
+    PAYLOAD BLOB NOT NULL,
+    CREATED_AT BIGINT NOT NULL,
+    EXPIRES_AT BIGINT NOT NULL,
+    PRIMARY KEY (ID));
+CREATE INDEX IDX_MARTINI_AGGREGATION_GROUP ON MARTINI_AGGREGATION (GROUP_KEY);
+CREATE INDEX IDX_MARTINI_AGGREGATION_EXP ON MARTINI_AGGREGATION (EXPIRES_AT);
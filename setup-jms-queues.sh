@@ -40,6 +40,46 @@ echo "Creazione coda: jms/queue/PROCESS.MESSAGES"
     durable=true\
 )
 
+# Corsia prioritaria (martini.priority.lanes.enabled=true): signal urgenti con sessioni MDB dedicate
+echo "Creazione coda: jms/queue/PROCESS.MESSAGES.PRIORITY"
+/subsystem=messaging-activemq/server=default/jms-queue=PROCESS.MESSAGES.PRIORITY:add(\
+    entries=["java:/jms/queue/PROCESS.MESSAGES.PRIORITY","jms/queue/PROCESS.MESSAGES.PRIORITY"],\
+    durable=true\
+)
+
+# Coda dei messaggi non elaborabili (retry esauriti, errori permanenti, nessun processo trovato)
+echo "Creazione coda: jms/queue/PROCESS.MESSAGES.DLQ"
+/subsystem=messaging-activemq/server=default/jms-queue=PROCESS.MESSAGES.DLQ:add(\
+    entries=["java:/jms/queue/PROCESS.MESSAGES.DLQ","jms/queue/PROCESS.MESSAGES.DLQ"],\
+    durable=true\
+)
+
+# Redelivery del broker (rollback del consumer batch, retry applicativo non possibile):
+# ritardo esponenziale e DLQ dopo 10 consegne
+echo "Configurazione redelivery e DLQ per PROCESS.MESSAGES"
+/subsystem=messaging-activemq/server=default/address-setting=jms.queue.PROCESS.MESSAGES:add(\
+    dead-letter-address=jms.queue.PROCESS.MESSAGES.DLQ,\
+    expiry-address=jms.queue.ExpiryQueue,\
+    max-delivery-attempts=10,\
+    redelivery-delay=1000,\
+    redelivery-multiplier=2.0,\
+    max-redelivery-delay=300000\
+)
+
+echo "Configurazione redelivery e DLQ per PROCESS.MESSAGES.PRIORITY"
+/subsystem=messaging-activemq/server=default/address-setting=jms.queue.PROCESS.MESSAGES.PRIORITY:add(\
+    dead-letter-address=jms.queue.PROCESS.MESSAGES.DLQ,\
+    expiry-address=jms.queue.ExpiryQueue,\
+    max-delivery-attempts=10,\
+    redelivery-delay=1000,\
+    redelivery-multiplier=2.0,\
+    max-redelivery-delay=300000\
+)
+
+# I messaggi con correlation key hanno JMSXGroupID (ordine per chiave): con un broker in cluster
+# configurare un grouping-handler, LOCAL su un nodo e REMOTE sugli altri, ad esempio:
+# /subsystem=messaging-activemq/server=default/grouping-handler=martini:add(type=LOCAL, grouping-handler-address=jms)
+
 # Verifica creazione
 echo "Verifica code create:"
 /subsystem=messaging-activemq/server=default/jms-queue=PROCESS.MESSAGES:read-resource(include-runtime=true)
@@ -51,10 +91,16 @@ echo "================================================"
 echo ""
 echo "Code JMS create:"
 echo "  - jms/queue/PROCESS.MESSAGES (coda principale per messaggi di processo)"
+echo "  - jms/queue/PROCESS.MESSAGES.PRIORITY (corsia prioritaria, martini.priority.lanes.enabled)"
+echo "  - jms/queue/PROCESS.MESSAGES.DLQ (messaggi non elaborabili)"
 echo ""
 echo "JNDI Bindings:"
 echo "  - java:/jms/queue/PROCESS.MESSAGES"
 echo "  - jms/queue/PROCESS.MESSAGES"
+echo "  - java:/jms/queue/PROCESS.MESSAGES.PRIORITY"
+echo "  - jms/queue/PROCESS.MESSAGES.PRIORITY"
+echo "  - java:/jms/queue/PROCESS.MESSAGES.DLQ"
+echo "  - jms/queue/PROCESS.MESSAGES.DLQ"
 echo ""
 echo "Note:"
 echo "  - La coda è DURABLE (persistente)"